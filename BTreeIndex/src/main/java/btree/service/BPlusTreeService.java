@@ -0,0 +1,1181 @@
+package btree.service;
+
+import entry.entity.Entry;
+import entry.service.EntryService;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.ToString;
+import node.entity.BPlusNode;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * B+tree index. All entries are stored in leaves, which are linked with their neighbours, so reading entries in order
+ * is a walk through the leaves list, without going back to internal nodes. Internal nodes contain only separator
+ * keys, so on a page of the same size they have more children than b-tree nodes. Page size is the same as for
+ * {@link BTreeService} of the same degree.
+ * <br></br><br></br>
+ * Many threads can use the tree at the same time. Operations latch nodes from the root down (latch crabbing) and
+ * release latches of the upper nodes, once the latched node is safe - searches right after latching the child, and
+ * inserts and deletes, when the node won't split or underflow, so writers block only the subtrees they change.
+ */
+@Builder
+@ToString
+@AllArgsConstructor
+public class BPlusTreeService implements IndexService {
+
+    private EntryService entryService;
+
+    /**
+     * Degree of the b-tree, with which the index pages size is calculated. Capacities of the leaves and internal nodes
+     * are calculated from that page size.
+     */
+    private final int d;
+
+    /**
+     * How many top levels of the tree (starting from the root) have their pages pinned in memory, like in
+     * {@link BTreeService}. 0 turns pinning off.
+     */
+    private final int pinnedLevels;
+
+    /**
+     * Current tree height - number of levels above the leaves level (it is 0, when the root is a leaf). Guarded by
+     * the root latch.
+     */
+    private int h;
+
+    /**
+     * Current index page, which contains root node. Guarded by the root latch.
+     */
+    private int rootPage;
+
+    private final NodeLatches nodeLatches = new NodeLatches();
+
+    /**
+     * Positions of the sequential reads - each thread reads entries on its own.
+     */
+    private final ThreadLocal<SequentialReadContext> sequentialReads = ThreadLocal.withInitial(SequentialReadContext::new);
+
+    /**
+     * Counter of merge operations done.
+     */
+    private final AtomicInteger merges = new AtomicInteger();
+
+    /**
+     * Counter of split operations done.
+     */
+    private final AtomicInteger splits = new AtomicInteger();
+
+    /**
+     * Counter of compensation operations (moving entries from a sibling node) done.
+     */
+    private final AtomicInteger compensations = new AtomicInteger();
+
+    @Override
+    public void createEntry(UUID tapeID, Entry entry) throws InvalidAlgorithmParameterException {
+        if(this.insertEntryIfAbsent(tapeID, entry.getKey(), entry::getDataPage) != null)
+            System.out.println("Entry with provided key already exists. Creation of new entry hasn't succeeded.");
+    }
+
+    /**
+     * Most inserts change only the leaf, so the search latches the leaf for writing and internal nodes for reading.
+     * Only if the leaf is full, the search is repeated with write latches, which are kept on the nodes, that may
+     * split.
+     */
+    @Override
+    public Entry insertEntryIfAbsent(UUID tapeID, long key, DataPageSupplier dataPageSupplier)
+            throws InvalidAlgorithmParameterException {
+        this.createRootIfEmpty(tapeID);
+
+        LatchedPath latchedPath = new LatchedPath();
+        try {
+            BPlusNode leaf = this.descend(tapeID, key, latchedPath, LatchMode.OPTIMISTIC);
+            if(leaf.findEntryNumber(key) < 0 && leaf.getEntries().size() >= this.getMaxLeafEntries())
+            {
+                latchedPath.releaseAll();
+                leaf = this.descend(tapeID, key, latchedPath, LatchMode.INSERT);
+            }
+
+            int entryNumber = leaf.findEntryNumber(key);
+            if(entryNumber >= 0)
+                return leaf.getEntries().get(entryNumber);
+
+            // The search ended in the leaf, to which the key belongs, so the entry is inserted there without searching again
+            Entry entry = Entry.builder()
+                    .key(key)
+                    .dataPage(dataPageSupplier.getDataPage())
+                    .build();
+
+            List<Integer> path = latchedPath.getNodePointers();
+            int leafPointer = path.get(path.size() - 1);
+            List<Entry> entries = leaf.getEntries();
+            entries.add(-entryNumber - 1, entry);
+            if(entries.size() <= this.getMaxLeafEntries())
+            {
+                this.writeLeaf(tapeID, leafPointer, entries, leaf.getPreviousLeafPointer(), leaf.getNextLeafPointer());
+                return null;
+            }
+
+            // Split the leaf - the right half of the entries is moved to a new leaf, linked after the split one
+            int middleEntryNumber = entries.size() / 2;
+            int rightPointer = this.pageToPointer(this.allocateNodePage(tapeID));
+            this.writeLeaf(tapeID, rightPointer, entries.subList(middleEntryNumber, entries.size()), leafPointer,
+                    leaf.getNextLeafPointer());
+            this.writeLeaf(tapeID, leafPointer, entries.subList(0, middleEntryNumber), leaf.getPreviousLeafPointer(),
+                    rightPointer);
+            if(leaf.getNextLeafPointer() != 0)
+                this.setPreviousLeaf(tapeID, latchedPath, leaf.getNextLeafPointer(), rightPointer);
+
+            // Update split counter for statistics analysis
+            this.splits.incrementAndGet();
+
+            // Copy of the first right leaf key separates the leaves in their parent
+            this.insertInParent(tapeID, path.subList(0, path.size() - 1), leafPointer,
+                    entries.get(middleEntryNumber).getKey(), rightPointer);
+            return null;
+        } finally {
+            latchedPath.releaseAll();
+        }
+    }
+
+    /**
+     * Adds the first index page with an empty root leaf, if the index doesn't have any pages yet.
+     * @param tapeID
+     */
+    private void createRootIfEmpty(UUID tapeID) throws InvalidAlgorithmParameterException {
+        if(this.getIndexPages(tapeID) > 0)
+            return;
+
+        Lock rootLatch = this.nodeLatches.getRootLatch().writeLock();
+        rootLatch.lock();
+        try {
+            if(this.getIndexPages(tapeID) > 0) // Another thread has created the root in the meantime
+                return;
+
+            this.allocateNodePage(tapeID);
+            this.writeLeaf(tapeID, this.pageToPointer(0), new ArrayList<>(), 0, 0);
+            this.rootPage = 0;
+            this.h = 0;
+            this.saveMetadata(tapeID);
+        } finally {
+            rootLatch.unlock();
+        }
+    }
+
+    /**
+     * Inserts the separator key and a pointer to the new right node into the parent of the split node, splitting
+     * the parent too, if it overflows. Nodes of the path, which can split, are still latched for writing.
+     * @param tapeID
+     * @param path Pointers of nodes from the root to the parent of the split node (the last one). Empty, if the split
+     *             node was the root.
+     * @param leftPointer Pointer of the split node.
+     * @param key
+     * @param rightPointer Pointer of the node created by the split.
+     */
+    private void insertInParent(UUID tapeID, List<Integer> path, int leftPointer, long key, int rightPointer)
+            throws InvalidAlgorithmParameterException {
+        if(path.isEmpty()) // Root split -> new root with the two nodes as children
+        {
+            int pageForRoot = this.allocateNodePage(tapeID);
+            this.writeInternal(tapeID, this.pageToPointer(pageForRoot), List.of(key), List.of(leftPointer, rightPointer));
+            // Update b-tree info
+            this.rootPage = pageForRoot;
+            this.h++;
+            this.saveMetadata(tapeID);
+            // All nodes moved one level down, so pages are pinned again from the new root on next searches
+            this.unpinAllPages(tapeID);
+            return;
+        }
+
+        int parentPointer = path.get(path.size() - 1);
+        BPlusNode parent = this.readNode(tapeID, parentPointer, false);
+        List<Long> keys = parent.getKeys();
+        List<Integer> childPointers = parent.getChildPointers();
+        int leftChildNumber = childPointers.indexOf(leftPointer);
+        if(leftChildNumber == -1)
+            throw new IllegalStateException("This node should be a parent of the split node (according to the search" +
+                    " path), but it didn't contain a pointer equal to the split node pointer.");
+
+        keys.add(leftChildNumber, key);
+        childPointers.add(leftChildNumber + 1, rightPointer);
+        if(keys.size() <= this.getMaxInternalKeys())
+        {
+            this.writeInternal(tapeID, parentPointer, keys, childPointers);
+            return;
+        }
+
+        // Split the internal node - the middle key is moved up to its parent, instead of being copied
+        int middleKeyNumber = keys.size() / 2;
+        int newPointer = this.pageToPointer(this.allocateNodePage(tapeID));
+        this.writeInternal(tapeID, newPointer, keys.subList(middleKeyNumber + 1, keys.size()),
+                childPointers.subList(middleKeyNumber + 1, childPointers.size()));
+        this.writeInternal(tapeID, parentPointer, keys.subList(0, middleKeyNumber),
+                childPointers.subList(0, middleKeyNumber + 1));
+
+        // Update split counter for statistics analysis
+        this.splits.incrementAndGet();
+
+        this.insertInParent(tapeID, path.subList(0, path.size() - 1), parentPointer, keys.get(middleKeyNumber),
+                newPointer);
+    }
+
+    @Override
+    public Entry findEntry(UUID tapeID, long key)
+    {
+        if(this.getIndexPages(tapeID) == 0) // Index doesn't have any entries (possible only if there was not a single record created yet)
+            return null;
+
+        LatchedPath latchedPath = new LatchedPath();
+        try {
+            BPlusNode leaf = this.descend(tapeID, key, latchedPath, LatchMode.SHARED);
+            int entryNumber = leaf.findEntryNumber(key);
+            return entryNumber >= 0 ? leaf.getEntries().get(entryNumber) : null;
+        } finally {
+            latchedPath.releaseAll();
+        }
+    }
+
+    /**
+     * Searches for the leaf, to which the key belongs, latching the nodes on the way down. Latch of the root pointer
+     * is taken first, and latch of each node is taken, while its parent is still latched, so no other operation can
+     * change the node in between.
+     * @param tapeID
+     * @param key
+     * @param latchedPath Empty path, to which the visited nodes and held latches are added. The leaf is always
+     *                    latched, when the method returns.
+     * @param latchMode
+     * @return Leaf, to which the key belongs.
+     */
+    private BPlusNode descend(UUID tapeID, long key, LatchedPath latchedPath, LatchMode latchMode)
+    {
+        boolean writing = latchMode == LatchMode.INSERT || latchMode == LatchMode.DELETE;
+        latchedPath.latch(writing ? this.nodeLatches.getRootLatch().writeLock() : this.nodeLatches.getRootLatch().readLock());
+        int nodePointer = this.pageToPointer(this.rootPage);
+        // Tree can grow or shrink after the root latch is released, but it happens above the latched nodes, so the
+        // number of levels below them doesn't change
+        int height = this.h;
+        for(int level = 0; ; level++)
+        {
+            boolean leaf = level == height;
+            boolean writeLatch = writing || (leaf && latchMode == LatchMode.OPTIMISTIC);
+            latchedPath.latch(writeLatch ? this.nodeLatches.getNodeLatch(nodePointer).writeLock()
+                    : this.nodeLatches.getNodeLatch(nodePointer).readLock());
+            latchedPath.addNode(nodePointer);
+            BPlusNode node = this.readNodeOnLevel(tapeID, nodePointer, leaf, level);
+            if(!writing || this.isSafe(node, latchMode, level == 0))
+                latchedPath.releaseAncestors();
+
+            if(leaf)
+                return node;
+
+            nodePointer = node.getChildPointers().get(node.findChildNumber(key));
+        }
+    }
+
+    /**
+     * @param node
+     * @param latchMode {@link LatchMode#INSERT} or {@link LatchMode#DELETE}.
+     * @param root Whether the node is the root.
+     * @return Whether the operation won't have to change the parent of the node, so the parent can be released.
+     */
+    private boolean isSafe(BPlusNode node, LatchMode latchMode, boolean root)
+    {
+        if(latchMode == LatchMode.INSERT)
+            return node.isLeaf() ? node.getEntries().size() < this.getMaxLeafEntries()
+                    : node.getKeys().size() < this.getMaxInternalKeys();
+
+        if(node.isLeaf()) // Root leaf can have any number of entries
+            return root || node.getEntries().size() > this.getMinLeafEntries();
+
+        // Root internal node must keep at least 1 key, or the tree shrinks
+        return root ? node.getKeys().size() > 1 : node.getKeys().size() > this.getMinInternalKeys();
+    }
+
+    @Override
+    public void deleteEntry(UUID tapeID, long key) throws InvalidAlgorithmParameterException {
+        if(this.removeEntry(tapeID, key) == null)
+            System.out.println("Entry with provided key doesn't exist. Deletion of the entry hasn't succeeded.");
+    }
+
+    /**
+     * Like inserts, deletes latch only the leaf for writing first, and search again with write latches on the nodes,
+     * which may underflow, only if the leaf would underflow.
+     */
+    @Override
+    public Entry removeEntry(UUID tapeID, long key) throws InvalidAlgorithmParameterException {
+        if(this.getIndexPages(tapeID) == 0) // Index doesn't have any entries yet
+            return null;
+
+        LatchedPath latchedPath = new LatchedPath();
+        try {
+            BPlusNode leaf = this.descend(tapeID, key, latchedPath, LatchMode.OPTIMISTIC);
+            if(leaf.findEntryNumber(key) >= 0 && latchedPath.getNodePointers().size() > 1
+                    && leaf.getEntries().size() <= this.getMinLeafEntries())
+            {
+                latchedPath.releaseAll();
+                leaf = this.descend(tapeID, key, latchedPath, LatchMode.DELETE);
+            }
+
+            int entryNumber = leaf.findEntryNumber(key);
+            if(entryNumber < 0)
+                return null;
+
+            // Separator keys in internal nodes only guide the search, so they don't have to be changed, when the entry
+            // with the same key is deleted
+            List<Integer> path = latchedPath.getNodePointers();
+            int leafPointer = path.get(path.size() - 1);
+            List<Entry> entries = leaf.getEntries();
+            Entry existingEntry = entries.remove(entryNumber);
+            if(path.size() == 1 || entries.size() >= this.getMinLeafEntries()) // Root leaf can have any number of entries
+            {
+                this.writeLeaf(tapeID, leafPointer, entries, leaf.getPreviousLeafPointer(), leaf.getNextLeafPointer());
+                return existingEntry;
+            }
+
+            int parentPointer = path.get(path.size() - 2);
+            BPlusNode parent = this.readNode(tapeID, parentPointer, false);
+            List<Long> parentKeys = parent.getKeys();
+            List<Integer> parentPointers = parent.getChildPointers();
+            int childNumber = this.findChildNumber(parentPointers, leafPointer);
+            int leftPointer = childNumber > 0 ? parentPointers.get(childNumber - 1) : 0;
+            int rightPointer = childNumber < parentPointers.size() - 1 ? parentPointers.get(childNumber + 1) : 0;
+
+            // Try compensation with the left sibling
+            BPlusNode left = leftPointer != 0 ? this.latchAndReadNode(tapeID, latchedPath, leftPointer, true) : null;
+            if(left != null && left.getEntries().size() > this.getMinLeafEntries())
+            {
+                entries.add(0, left.getEntries().remove(left.getEntries().size() - 1));
+                this.writeLeaf(tapeID, leftPointer, left.getEntries(), left.getPreviousLeafPointer(), left.getNextLeafPointer());
+                this.writeLeaf(tapeID, leafPointer, entries, leaf.getPreviousLeafPointer(), leaf.getNextLeafPointer());
+                parentKeys.set(childNumber - 1, entries.get(0).getKey());
+                this.writeInternal(tapeID, parentPointer, parentKeys, parentPointers);
+                this.compensations.incrementAndGet();
+                return existingEntry;
+            }
+
+            // Try compensation with the right sibling
+            BPlusNode right = rightPointer != 0 ? this.latchAndReadNode(tapeID, latchedPath, rightPointer, true) : null;
+            if(right != null && right.getEntries().size() > this.getMinLeafEntries())
+            {
+                entries.add(right.getEntries().remove(0));
+                this.writeLeaf(tapeID, rightPointer, right.getEntries(), right.getPreviousLeafPointer(), right.getNextLeafPointer());
+                this.writeLeaf(tapeID, leafPointer, entries, leaf.getPreviousLeafPointer(), leaf.getNextLeafPointer());
+                parentKeys.set(childNumber, right.getEntries().get(0).getKey());
+                this.writeInternal(tapeID, parentPointer, parentKeys, parentPointers);
+                this.compensations.incrementAndGet();
+                return existingEntry;
+            }
+
+            if(left == null && right == null)
+                throw new IllegalStateException("Something went wrong. This node has a parent, but it doesn't have any siblings," +
+                        " which shouldn't happen (there should be always at least 1 sibling).");
+
+            // Merge the right one of the two leaves into the left one and unlink it from the leaves list
+            if(left != null)
+            {
+                left.getEntries().addAll(entries);
+                this.writeLeaf(tapeID, leftPointer, left.getEntries(), left.getPreviousLeafPointer(), leaf.getNextLeafPointer());
+                if(leaf.getNextLeafPointer() != 0)
+                    this.setPreviousLeaf(tapeID, latchedPath, leaf.getNextLeafPointer(), leftPointer);
+                this.clearNodePage(tapeID, leafPointer);
+                parentKeys.remove(childNumber - 1);
+                parentPointers.remove(childNumber);
+            }
+            else
+            {
+                entries.addAll(right.getEntries());
+                this.writeLeaf(tapeID, leafPointer, entries, leaf.getPreviousLeafPointer(), right.getNextLeafPointer());
+                if(right.getNextLeafPointer() != 0)
+                    this.setPreviousLeaf(tapeID, latchedPath, right.getNextLeafPointer(), leafPointer);
+                this.clearNodePage(tapeID, rightPointer);
+                parentKeys.remove(childNumber);
+                parentPointers.remove(childNumber + 1);
+            }
+
+            // Update merge counter for statistics analysis
+            this.merges.incrementAndGet();
+
+            this.rebalanceInternal(tapeID, latchedPath, path.subList(0, path.size() - 1), parentKeys, parentPointers);
+            return existingEntry;
+        } finally {
+            latchedPath.releaseAll();
+        }
+    }
+
+    /**
+     * Saves the internal node, from which a key and a child pointer has been removed by a merge of its children,
+     * and fixes its underflow (by compensation or merge with a sibling), if there is one. Nodes of the path, which can
+     * underflow, are still latched for writing.
+     * @param tapeID
+     * @param latchedPath Path of the delete, to which latches of the siblings are added.
+     * @param path Pointers of nodes from the root to the node (the last one).
+     * @param keys All node keys after the removal.
+     * @param childPointers All node child pointers after the removal.
+     */
+    private void rebalanceInternal(UUID tapeID, LatchedPath latchedPath, List<Integer> path, List<Long> keys,
+                                   List<Integer> childPointers) throws InvalidAlgorithmParameterException {
+        int nodePointer = path.get(path.size() - 1);
+        if(path.size() == 1) // Root node
+        {
+            if(!keys.isEmpty()) {
+                this.writeInternal(tapeID, nodePointer, keys, childPointers);
+                return;
+            }
+
+            // Root merge -> the only child becomes the root
+            this.clearNodePage(tapeID, nodePointer);
+            this.rootPage = this.pointerToPage(childPointers.get(0));
+            this.h--;
+            this.saveMetadata(tapeID);
+            // All nodes moved one level up, so pages are pinned again from the new root on next searches
+            this.unpinAllPages(tapeID);
+
+            // Update merge counter for statistics analysis
+            this.merges.incrementAndGet();
+            return;
+        }
+
+        if(keys.size() >= this.getMinInternalKeys())
+        {
+            this.writeInternal(tapeID, nodePointer, keys, childPointers);
+            return;
+        }
+
+        int parentPointer = path.get(path.size() - 2);
+        BPlusNode parent = this.readNode(tapeID, parentPointer, false);
+        List<Long> parentKeys = parent.getKeys();
+        List<Integer> parentPointers = parent.getChildPointers();
+        int childNumber = this.findChildNumber(parentPointers, nodePointer);
+        int leftPointer = childNumber > 0 ? parentPointers.get(childNumber - 1) : 0;
+        int rightPointer = childNumber < parentPointers.size() - 1 ? parentPointers.get(childNumber + 1) : 0;
+
+        // Try compensation with the left sibling - its last key goes up to the parent and the parent key goes down
+        BPlusNode left = leftPointer != 0 ? this.latchAndReadNode(tapeID, latchedPath, leftPointer, false) : null;
+        if(left != null && left.getKeys().size() > this.getMinInternalKeys())
+        {
+            keys.add(0, parentKeys.get(childNumber - 1));
+            childPointers.add(0, left.getChildPointers().remove(left.getChildPointers().size() - 1));
+            parentKeys.set(childNumber - 1, left.getKeys().remove(left.getKeys().size() - 1));
+            this.writeInternal(tapeID, leftPointer, left.getKeys(), left.getChildPointers());
+            this.writeInternal(tapeID, nodePointer, keys, childPointers);
+            this.writeInternal(tapeID, parentPointer, parentKeys, parentPointers);
+            this.compensations.incrementAndGet();
+            return;
+        }
+
+        // Try compensation with the right sibling
+        BPlusNode right = rightPointer != 0 ? this.latchAndReadNode(tapeID, latchedPath, rightPointer, false) : null;
+        if(right != null && right.getKeys().size() > this.getMinInternalKeys())
+        {
+            keys.add(parentKeys.get(childNumber));
+            childPointers.add(right.getChildPointers().remove(0));
+            parentKeys.set(childNumber, right.getKeys().remove(0));
+            this.writeInternal(tapeID, rightPointer, right.getKeys(), right.getChildPointers());
+            this.writeInternal(tapeID, nodePointer, keys, childPointers);
+            this.writeInternal(tapeID, parentPointer, parentKeys, parentPointers);
+            this.compensations.incrementAndGet();
+            return;
+        }
+
+        if(left == null && right == null)
+            throw new IllegalStateException("Something went wrong. This node has a parent, but it doesn't have any siblings," +
+                    " which shouldn't happen (there should be always at least 1 sibling).");
+
+        // Merge the right one of the two nodes into the left one, together with the parent key between them
+        if(left != null)
+        {
+            left.getKeys().add(parentKeys.get(childNumber - 1));
+            left.getKeys().addAll(keys);
+            left.getChildPointers().addAll(childPointers);
+            this.writeInternal(tapeID, leftPointer, left.getKeys(), left.getChildPointers());
+            this.clearNodePage(tapeID, nodePointer);
+            parentKeys.remove(childNumber - 1);
+            parentPointers.remove(childNumber);
+        }
+        else
+        {
+            keys.add(parentKeys.get(childNumber));
+            keys.addAll(right.getKeys());
+            childPointers.addAll(right.getChildPointers());
+            this.writeInternal(tapeID, nodePointer, keys, childPointers);
+            this.clearNodePage(tapeID, rightPointer);
+            parentKeys.remove(childNumber);
+            parentPointers.remove(childNumber + 1);
+        }
+
+        // Update merge counter for statistics analysis
+        this.merges.incrementAndGet();
+
+        this.rebalanceInternal(tapeID, latchedPath, path.subList(0, path.size() - 1), parentKeys, parentPointers);
+    }
+
+    /**
+     * Reads entries of the leaves list, holding a read latch of one leaf at a time. The next leaf is latched before
+     * the previous one is released, but without waiting - a writer holding the next leaf may wait for the previous
+     * one, so the reader releases it first then, and checks, if the tree structure hasn't changed in the meantime.
+     */
+    @Override
+    public Entry readNextEntry(UUID tapeID)
+    {
+        if(this.getIndexPages(tapeID) == 0)
+        {
+            System.out.println("Index file has no pages to read yet.");
+            return null;
+        }
+
+        SequentialReadContext sequentialRead = this.sequentialReads.get();
+        if(sequentialRead.isExhausted())
+            return null;
+
+        LatchedPath latchedPath = new LatchedPath();
+        try {
+            BPlusNode leaf = null;
+            if(sequentialRead.getNodePointer() != 0)
+                leaf = this.latchLeafIfUnchanged(tapeID, latchedPath, sequentialRead.getNodePointer(),
+                        sequentialRead.getStructureVersion());
+
+            while(true)
+            {
+                if(leaf == null) // Start reading or continue after the tree structure has changed
+                {
+                    latchedPath.releaseAll();
+                    sequentialRead.setStructureVersion(this.getStructureVersion());
+                    leaf = this.descend(tapeID, sequentialRead.getNextKey(), latchedPath, LatchMode.SHARED);
+                    sequentialRead.setNodePointer(latchedPath.getLastNodePointer());
+                }
+
+                int entryNumber = leaf.findEntryNumber(sequentialRead.getNextKey());
+                if(entryNumber < 0)
+                    entryNumber = -entryNumber - 1;
+                if(entryNumber < leaf.getEntries().size())
+                {
+                    Entry entry = leaf.getEntries().get(entryNumber);
+                    if(entry.getKey() == Long.MAX_VALUE)
+                        sequentialRead.setExhausted(true);
+                    else
+                        sequentialRead.setNextKey(entry.getKey() + 1);
+                    return entry;
+                }
+
+                int nextLeafPointer = leaf.getNextLeafPointer();
+                if(nextLeafPointer == 0) // End of the leaves list
+                {
+                    sequentialRead.setExhausted(true);
+                    return null;
+                }
+
+                if(latchedPath.tryLatch(this.nodeLatches.getNodeLatch(nextLeafPointer).readLock())) {
+                    latchedPath.releaseAncestors();
+                    leaf = this.readNode(tapeID, nextLeafPointer, true);
+                }
+                else {
+                    long structureVersion = sequentialRead.getStructureVersion();
+                    latchedPath.releaseAll();
+                    leaf = this.latchLeafIfUnchanged(tapeID, latchedPath, nextLeafPointer, structureVersion);
+                }
+                sequentialRead.setNodePointer(nextLeafPointer);
+
+                // Leaves are read one after another, so the next one can be already read in the background
+                if(leaf != null && leaf.getNextLeafPointer() != 0 && entryService.getReadAheadPages() > 0)
+                    this.readAhead(tapeID, this.pointerToPage(leaf.getNextLeafPointer()));
+            }
+        } finally {
+            latchedPath.releaseAll();
+        }
+    }
+
+    /**
+     * Latches the leaf for reading and reads it, unless the tree structure has changed since the leaf pointer was
+     * taken - the leaf might have been merged into another one then, or have its entries moved to a sibling.
+     * @param tapeID
+     * @param latchedPath Path without any held latches.
+     * @param leafPointer
+     * @param structureVersion Structure version, from which the pointer comes.
+     * @return Latched leaf or null, if the structure has changed (no latches are held then).
+     */
+    private BPlusNode latchLeafIfUnchanged(UUID tapeID, LatchedPath latchedPath, int leafPointer, long structureVersion)
+    {
+        latchedPath.latch(this.nodeLatches.getNodeLatch(leafPointer).readLock());
+        if(this.getStructureVersion() != structureVersion)
+        {
+            latchedPath.releaseAll();
+            return null;
+        }
+        latchedPath.addNode(leafPointer);
+        return this.readNode(tapeID, leafPointer, true);
+    }
+
+    /**
+     * @return Number of all structure changes of the tree. Counters are increased, before the changed nodes are
+     * released.
+     */
+    private long getStructureVersion()
+    {
+        return (long) this.merges.get() + this.splits.get() + this.compensations.get();
+    }
+
+    @Override
+    public void resetReadingBTree()
+    {
+        this.sequentialReads.get().seek(Long.MIN_VALUE);
+    }
+
+    /**
+     * Next read searches for the key from the root, so there is still a single descent, but it happens during the
+     * read.
+     */
+    @Override
+    public void seekEntry(UUID tapeID, long key)
+    {
+        this.sequentialReads.get().seek(key);
+    }
+
+    /**
+     * Entries are put into leaves, until a leaf has its planned size - then the next leaf is started and the copy of its
+     * first key becomes a separator in the parent node. Nodes are written, when they're full, and only the last node
+     * of each level is kept in memory. Pages are appended to the empty index file in the order the nodes are written,
+     * so the page of the next leaf is known in advance, and a leaf is written together with the link to it.
+     * @param tapeID
+     * @param entries Entries with strictly ascending keys.
+     * @param entriesCount Exact number of the entries.
+     * @param fillFactor Part of the nodes capacity filled with entries, from range (0, 1].
+     */
+    @Override
+    public void bulkLoad(UUID tapeID, Iterator<Entry> entries, int entriesCount, double fillFactor)
+            throws InvalidAlgorithmParameterException {
+        // Root pointer isn't valid until the whole tree is written
+        Lock rootLatch = this.nodeLatches.getRootLatch().writeLock();
+        rootLatch.lock();
+        try {
+            this.bulkLoadLevels(tapeID, entries, entriesCount, fillFactor);
+        } finally {
+            rootLatch.unlock();
+        }
+    }
+
+    private void bulkLoadLevels(UUID tapeID, Iterator<Entry> entries, int entriesCount, double fillFactor)
+            throws InvalidAlgorithmParameterException {
+        if(this.getIndexPages(tapeID) > 0)
+            throw new IllegalStateException("Only an empty index can be bulk loaded.");
+
+        if(entriesCount <= 0)
+            return;
+
+        // Leaves take up slots of their entries, and internal nodes take up slots of their children, so a level has as
+        // many slots as nodes on the level below
+        List<int[]> levelsPlans = new ArrayList<>();
+        levelsPlans.add(BulkLoadPlanner.planLevel(entriesCount, this.getMinLeafEntries(), this.getMaxLeafEntries(),
+                fillFactor));
+        while(levelsPlans.get(levelsPlans.size() - 1).length > 1)
+            levelsPlans.add(BulkLoadPlanner.planLevel(levelsPlans.get(levelsPlans.size() - 1).length,
+                    this.getMinInternalKeys() + 1, this.getMaxInternalKeys() + 1, fillFactor));
+
+        // Internal nodes being filled on each level above the leaves (the leaves level has no lists)
+        List<List<Long>> levelsKeys = new ArrayList<>();
+        List<List<Integer>> levelsPointers = new ArrayList<>();
+        int[] levelsNodeNumbers = new int[levelsPlans.size()];
+        for(int level = 0; level < levelsPlans.size(); level++) {
+            levelsKeys.add(new ArrayList<>());
+            levelsPointers.add(new ArrayList<>());
+        }
+
+        List<Entry> leafEntries = new ArrayList<>();
+        int previousLeafPointer = 0;
+        int nextLeafPointer = 0;
+        int loadedEntries = 0;
+        long previousKey = 0;
+        while(entries.hasNext())
+        {
+            Entry entry = entries.next();
+            if(loadedEntries > 0 && entry.getKey() <= previousKey)
+                throw new IllegalArgumentException("Entries to bulk load must have strictly ascending keys, but key " +
+                        entry.getKey() + " came after key " + previousKey + ".");
+
+            if(++loadedEntries > entriesCount)
+                throw new IllegalArgumentException("There were more entries to bulk load than declared " + entriesCount + ".");
+
+            previousKey = entry.getKey();
+            if(leafEntries.size() == levelsPlans.get(0)[levelsNodeNumbers[0]])
+            {
+                // Parents, which get full with this leaf, are written right after it, and then comes the next leaf
+                int leafPointer = this.allocateLeafPointer(tapeID, nextLeafPointer);
+                nextLeafPointer = leafPointer + 1 + this.countFullBulkLoadedParents(levelsPlans, levelsPointers,
+                        levelsNodeNumbers);
+                this.writeLeaf(tapeID, leafPointer, leafEntries, previousLeafPointer, nextLeafPointer);
+                levelsNodeNumbers[0]++;
+                this.addBulkLoadedChild(tapeID, levelsPlans, levelsKeys, levelsPointers, levelsNodeNumbers, 1,
+                        leafPointer, entry.getKey());
+
+                leafEntries = new ArrayList<>();
+                previousLeafPointer = leafPointer;
+            }
+            leafEntries.add(entry);
+        }
+
+        if(loadedEntries != entriesCount)
+            throw new IllegalArgumentException("There were " + loadedEntries + " entries to bulk load, but " +
+                    entriesCount + " were declared.");
+
+        // The last nodes of all levels are written, from the last leaf up to the root
+        int leafPointer = this.allocateLeafPointer(tapeID, nextLeafPointer);
+        this.writeLeaf(tapeID, leafPointer, leafEntries, previousLeafPointer, 0);
+        levelsNodeNumbers[0]++;
+        if(levelsPlans.size() > 1)
+            this.addBulkLoadedChild(tapeID, levelsPlans, levelsKeys, levelsPointers, levelsNodeNumbers, 1,
+                    leafPointer, null);
+        else {
+            this.rootPage = this.pointerToPage(leafPointer);
+            this.h = 0;
+        }
+
+        for(int level = 0; level < levelsPlans.size(); level++)
+            if(levelsNodeNumbers[level] != levelsPlans.get(level).length)
+                throw new IllegalStateException("Bulk load wrote " + levelsNodeNumbers[level] + " nodes on a level, for" +
+                        " which " + levelsPlans.get(level).length + " nodes were planned.");
+
+        this.saveMetadata(tapeID);
+        this.resetReadingBTree();
+    }
+
+    /**
+     * Takes a page for the next bulk loaded leaf.
+     * @param tapeID
+     * @param expectedLeafPointer Pointer, with which the previous leaf has been linked to this one, or 0, if it is
+     *                            the first leaf.
+     * @return Pointer of the leaf page.
+     */
+    private int allocateLeafPointer(UUID tapeID, int expectedLeafPointer)
+    {
+        int leafPointer = this.pageToPointer(this.allocateNodePage(tapeID));
+        if(expectedLeafPointer != 0 && leafPointer != expectedLeafPointer)
+            throw new IllegalStateException("Previous bulk loaded leaf has been linked with a page, which the next leaf" +
+                    " didn't get.");
+        return leafPointer;
+    }
+
+    /**
+     * @param levelsPlans Planned numbers of slots of the nodes of each level.
+     * @param levelsPointers Children pointers of the internal node being filled on each level.
+     * @param levelsNodeNumbers Numbers of the nodes being filled on each level.
+     * @return Number of the internal nodes, which will be written after passing one more leaf to the level above the
+     * leaves (followed by a separator key).
+     */
+    private int countFullBulkLoadedParents(List<int[]> levelsPlans, List<List<Integer>> levelsPointers,
+                                           int[] levelsNodeNumbers)
+    {
+        int fullParents = 0;
+        for(int level = 1; level < levelsPlans.size(); level++) {
+            if(levelsPointers.get(level).size() + 1 < levelsPlans.get(level)[levelsNodeNumbers[level]])
+                break;
+            fullParents++;
+        }
+        return fullParents;
+    }
+
+    /**
+     * Adds a child pointer, together with the separator key following it, to the internal node being filled on the
+     * level. If the node has all its planned children already, it is written to a new page and passed to the level
+     * above instead.
+     * @param tapeID
+     * @param levelsPlans Planned numbers of slots of the nodes of each level.
+     * @param levelsKeys Keys of the internal node being filled on each level.
+     * @param levelsPointers Children pointers of the internal node being filled on each level.
+     * @param levelsNodeNumbers Numbers of the nodes being filled on each level.
+     * @param level Level of the internal node (leaves are on level 0).
+     * @param childPointer
+     * @param separatorKey Smallest key of the next child, or null, if the child is the last one on its level.
+     */
+    private void addBulkLoadedChild(UUID tapeID, List<int[]> levelsPlans, List<List<Long>> levelsKeys,
+                                    List<List<Integer>> levelsPointers, int[] levelsNodeNumbers, int level,
+                                    int childPointer, Long separatorKey) throws InvalidAlgorithmParameterException {
+        List<Long> keys = levelsKeys.get(level);
+        List<Integer> childPointers = levelsPointers.get(level);
+        childPointers.add(childPointer);
+        if(separatorKey != null && childPointers.size() < levelsPlans.get(level)[levelsNodeNumbers[level]])
+        {
+            keys.add(separatorKey);
+            return;
+        }
+
+        // Node has all its children, so it is written and the separator key goes up
+        int nodePointer = this.pageToPointer(this.allocateNodePage(tapeID));
+        this.writeInternal(tapeID, nodePointer, keys, childPointers);
+        levelsKeys.set(level, new ArrayList<>());
+        levelsPointers.set(level, new ArrayList<>());
+        levelsNodeNumbers[level]++;
+
+        if(level == levelsPlans.size() - 1)
+        {
+            if(separatorKey != null)
+                throw new IllegalStateException("Root of the bulk loaded B+tree has been written, but there are entries" +
+                        " left to load.");
+
+            this.rootPage = this.pointerToPage(nodePointer);
+            this.h = level;
+            return;
+        }
+
+        this.addBulkLoadedChild(tapeID, levelsPlans, levelsKeys, levelsPointers, levelsNodeNumbers, level + 1,
+                nodePointer, separatorKey);
+    }
+
+
+    @Override
+    public int getMerges()
+    {
+        return this.merges.get();
+    }
+
+    @Override
+    public int getSplits()
+    {
+        return this.splits.get();
+    }
+
+    @Override
+    public int getCompensations()
+    {
+        return this.compensations.get();
+    }
+
+    @Override
+    public int getReads(UUID tapeID)
+    {
+        return entryService.getReads(tapeID);
+    }
+
+    @Override
+    public int getWrites(UUID tapeID)
+    {
+        return entryService.getWrites(tapeID);
+    }
+
+    @Override
+    public int getTapePages(UUID tapeID)
+    {
+        return entryService.getTapePages(tapeID);
+    }
+
+    @Override
+    public int getTapeFreePages(UUID tapeID)
+    {
+        return entryService.getTapeFreePages(tapeID);
+    }
+
+    /**
+     * Writes all modified buffered index pages to the index file, together with the tree metadata saved in the index
+     * tape header.
+     * @param tapeID
+     */
+    @Override
+    public void flush(UUID tapeID)
+    {
+        Lock rootLatch = this.nodeLatches.getRootLatch().readLock();
+        rootLatch.lock();
+        try {
+            this.saveMetadata(tapeID);
+        } finally {
+            rootLatch.unlock();
+        }
+
+        entryService.flush(tapeID);
+    }
+
+    /**
+     * Passes current tree metadata to the index tape, so it is saved in the tape header. It is done on each change,
+     * since the tapes can be checkpointed after any operation. Root latch must be held.
+     * @param tapeID
+     */
+    private void saveMetadata(UUID tapeID)
+    {
+        int rootPointer = this.getIndexPages(tapeID) > 0 ? this.pageToPointer(this.rootPage) : 0;
+        entryService.setTapeIndexMetadata(tapeID, rootPointer, this.d, this.h);
+    }
+
+    /**
+     * Restores tree metadata from the header of an index tape opened from a previous app run.
+     * @param tapeID
+     */
+    @Override
+    public void open(UUID tapeID)
+    {
+        if(entryService.getTapePages(tapeID) > 0 && entryService.getTapeDegree(tapeID) != this.d)
+            throw new IllegalStateException("Index tape was created for b-tree of degree " +
+                    entryService.getTapeDegree(tapeID) + ", but the b-tree has degree " + this.d + ".");
+
+        if(entryService.getTapeIndexType(tapeID) != IndexType.B_PLUS_TREE.getCode())
+            throw new IllegalStateException("Index tape doesn't contain a B+tree index.");
+
+        Lock rootLatch = this.nodeLatches.getRootLatch().writeLock();
+        rootLatch.lock();
+        try {
+            int rootPointer = entryService.getTapeRootPointer(tapeID);
+            this.rootPage = rootPointer != 0 ? this.pointerToPage(rootPointer) : 0;
+            this.h = entryService.getTapeHeight(tapeID);
+        } finally {
+            rootLatch.unlock();
+        }
+        this.resetReadingBTree();
+    }
+
+    /**
+     * @param tapeID
+     * @return Number of the index tape pages, read while no other thread adds a page.
+     */
+    private int getIndexPages(UUID tapeID)
+    {
+        Lock allocationLatch = entryService.getAllocationLatch(tapeID);
+        allocationLatch.lock();
+        try {
+            return entryService.getTapePages(tapeID);
+        } finally {
+            allocationLatch.unlock();
+        }
+    }
+
+    /**
+     * Reads the node. Node latch must be held - the page latch is held only for the time of reading the page, so
+     * other threads can read other nodes in between.
+     * @param tapeID
+     * @param nodePointer
+     * @param leaf
+     * @return
+     */
+    private BPlusNode readNode(UUID tapeID, int nodePointer, boolean leaf)
+    {
+        Lock pageLatch = entryService.getPageLatch(tapeID, this.pointerToPage(nodePointer));
+        pageLatch.lock();
+        try {
+            this.assureBufferForPage(tapeID, this.pointerToPage(nodePointer));
+            return entryService.readBPlusNode(tapeID, this.pointerToPage(nodePointer), leaf);
+        } finally {
+            pageLatch.unlock();
+        }
+    }
+
+    /**
+     * Reads the node found by a search from the root, pinning its page, if the node is on one of the top levels.
+     * @param tapeID
+     * @param nodePointer
+     * @param leaf
+     * @param level Level of the node in the tree (root is on level 0).
+     * @return
+     */
+    private BPlusNode readNodeOnLevel(UUID tapeID, int nodePointer, boolean leaf, int level)
+    {
+        Lock pageLatch = entryService.getPageLatch(tapeID, this.pointerToPage(nodePointer));
+        pageLatch.lock();
+        try {
+            this.assureBufferForNode(tapeID, this.pointerToPage(nodePointer), level);
+            return entryService.readBPlusNode(tapeID, this.pointerToPage(nodePointer), leaf);
+        } finally {
+            pageLatch.unlock();
+        }
+    }
+
+    /**
+     * Latches a node, which isn't on the path of the operation (a sibling or the next leaf), for writing and reads it.
+     * Parent of the node must be latched for writing, or the node must be the next leaf of a latched one.
+     * @param tapeID
+     * @param latchedPath
+     * @param nodePointer
+     * @param leaf
+     * @return
+     */
+    private BPlusNode latchAndReadNode(UUID tapeID, LatchedPath latchedPath, int nodePointer, boolean leaf)
+    {
+        latchedPath.latch(this.nodeLatches.getNodeLatch(nodePointer).writeLock());
+        return this.readNode(tapeID, nodePointer, leaf);
+    }
+
+    private void writeLeaf(UUID tapeID, int nodePointer, List<Entry> entries, int previousLeafPointer, int nextLeafPointer)
+            throws InvalidAlgorithmParameterException {
+        Lock pageLatch = entryService.getPageLatch(tapeID, this.pointerToPage(nodePointer));
+        pageLatch.lock();
+        try {
+            this.assureBufferForPage(tapeID, this.pointerToPage(nodePointer));
+            entryService.writeBPlusNode(tapeID, this.pointerToPage(nodePointer), BPlusNode.builder()
+                    .leaf(true)
+                    .entries(entries)
+                    .keys(List.of())
+                    .childPointers(List.of())
+                    .previousLeafPointer(previousLeafPointer)
+                    .nextLeafPointer(nextLeafPointer)
+                    .build());
+            entryService.saveNode(tapeID, this.pointerToPage(nodePointer));
+        } finally {
+            pageLatch.unlock();
+        }
+    }
+
+    private void writeInternal(UUID tapeID, int nodePointer, List<Long> keys, List<Integer> childPointers)
+            throws InvalidAlgorithmParameterException {
+        Lock pageLatch = entryService.getPageLatch(tapeID, this.pointerToPage(nodePointer));
+        pageLatch.lock();
+        try {
+            this.assureBufferForPage(tapeID, this.pointerToPage(nodePointer));
+            entryService.writeBPlusNode(tapeID, this.pointerToPage(nodePointer), BPlusNode.builder()
+                    .leaf(false)
+                    .entries(List.of())
+                    .keys(keys)
+                    .childPointers(childPointers)
+                    .build());
+            entryService.saveNode(tapeID, this.pointerToPage(nodePointer));
+        } finally {
+            pageLatch.unlock();
+        }
+    }
+
+    /**
+     * Changes the previous leaf pointer of the leaf, after its previous leaf has been split or merged.
+     * @param tapeID
+     * @param latchedPath Path of the operation, to which the latch of the leaf is added.
+     * @param leafPointer
+     * @param previousLeafPointer
+     */
+    private void setPreviousLeaf(UUID tapeID, LatchedPath latchedPath, int leafPointer, int previousLeafPointer)
+            throws InvalidAlgorithmParameterException {
+        BPlusNode leaf = this.latchAndReadNode(tapeID, latchedPath, leafPointer, true);
+        this.writeLeaf(tapeID, leafPointer, leaf.getEntries(), previousLeafPointer, leaf.getNextLeafPointer());
+    }
+
+    private int findChildNumber(List<Integer> childPointers, int childPointer)
+    {
+        int childNumber = childPointers.indexOf(childPointer);
+        if(childNumber == -1)
+            throw new IllegalStateException("This node should be a parent of some child node (according to the search path)," +
+                    " but it didn't contain a pointer equal to the child pointer.");
+        return childNumber;
+    }
+
+    /**
+     * Finds an empty page (or adds a new one) for a new node and marks it as taken. No other operation can reach the
+     * node, until it's linked with a latched node, so the new node isn't latched.
+     * @param tapeID
+     * @return Page for the new node.
+     */
+    private int allocateNodePage(UUID tapeID)
+    {
+        Lock allocationLatch = entryService.getAllocationLatch(tapeID);
+        allocationLatch.lock();
+        try {
+            int page = entryService.findPageWithFreeSpace(tapeID, this.calculateNodeSize());
+            if(page == -1)
+            {
+                page = entryService.getTapePages(tapeID);
+                entryService.addNextPage(tapeID);
+            }
+
+            entryService.setFreeSpaceOnPage(tapeID, page, 0); // Make this page taken by the node
+            return page;
+        } finally {
+            allocationLatch.unlock();
+        }
+    }
+
+    private void clearNodePage(UUID tapeID, int nodePointer) throws InvalidAlgorithmParameterException {
+        Lock pageLatch = entryService.getPageLatch(tapeID, this.pointerToPage(nodePointer));
+        pageLatch.lock();
+        try {
+            this.assureBufferForPage(tapeID, this.pointerToPage(nodePointer));
+            // Clear the node page and mark it as free page for future nodes
+            entryService.clearNodeData(tapeID, this.pointerToPage(nodePointer));
+            entryService.setFreeSpaceOnPage(tapeID, this.pointerToPage(nodePointer), this.calculateNodeSize());
+            // Save cleared page
+            entryService.saveNode(tapeID, this.pointerToPage(nodePointer));
+            // Free the page block from memory, as it doesn't contain any node data for now
+            entryService.freeBufferedBlock(tapeID, this.pointerToPage(nodePointer));
+        } finally {
+            pageLatch.unlock();
+        }
+    }
+
+    private void unpinAllPages(UUID tapeID)
+    {
+        entryService.unpinAllPages(tapeID);
+    }
+
+    private void readAhead(UUID tapeID, int page)
+    {
+        entryService.readAhead(tapeID, List.of(page));
+    }
+
+    /**
+     * @return Size of the index pages - the same as of b-tree nodes of degree d.
+     */
+    public int calculateNodeSize()
+    {
+        return entryService.getNodeHeaderSize() + entryService.getNodePointerSize()
+                + 2 * this.d * (Entry.builder().build().getSize() + entryService.getNodePointerSize());
+    }
+
+    private int getMaxLeafEntries()
+    {
+        return entryService.getMaxBPlusLeafEntries(this.calculateNodeSize());
+    }
+
+    private int getMinLeafEntries()
+    {
+        return this.getMaxLeafEntries() / 2;
+    }
+
+    private int getMaxInternalKeys()
+    {
+        return entryService.getMaxBPlusInternalKeys(this.calculateNodeSize());
+    }
+
+    private int getMinInternalKeys()
+    {
+        return this.getMaxInternalKeys() / 2;
+    }
+
+    /**
+     * Map page to node pointer. Adds 1, so pointer of value 0 couldn't exist and the value can be used as null pointer value.
+     * @param page
+     * @return
+     */
+    private int pageToPointer(int page)
+    {
+        return page + 1;
+    }
+
+    /**
+     * Map node pointer to page. Does the exact opposite to {@link BPlusTreeService#pageToPointer} method (Decreases value by 1).
+     * @param pointer
+     * @return
+     */
+    private int pointerToPage(int pointer)
+    {
+        return pointer - 1;
+    }
+
+    /**
+     * Pins page of a node from one of the top {@link BPlusTreeService#pinnedLevels} levels, or assures that there is
+     * a space to read it, like {@link BPlusTreeService#assureBufferForPage}, if the node is lower or the pinned buffers
+     * limit is full.
+     * @param tapeID
+     * @param page
+     * @param level Level of the node in the tree (root is on level 0).
+     */
+    private void assureBufferForNode(UUID tapeID, int page, int level)
+    {
+        if(level < this.pinnedLevels && entryService.pinPage(tapeID, page))
+            return;
+
+        this.assureBufferForPage(tapeID, page);
+    }
+
+    /**
+     * It assures that there is a space to read a new page, if it isn't already loaded.
+     * @param tapeID
+     * @param page The page may not exist (it may be one that is being created just now), it just frees a buffer if needed.
+     *             Page parameter is for algorithm of choosing which buffer to free, to take it into account.
+     */
+    private void assureBufferForPage(UUID tapeID, int page)
+    {
+        entryService.assureBufferForPage(tapeID, page);
+    }
+}
@@ -5,17 +5,28 @@ import entry.entity.Entry;
 import entry.service.EntryService;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
-import lombok.Getter;
 import lombok.ToString;
+import node.entity.DecodedNode;
 
 import java.security.InvalidAlgorithmParameterException;
 import java.util.*;
-import java.util.stream.Collectors;
-
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * B-tree index, with entries stored in all nodes.
+ * <br></br><br></br>
+ * Many threads can use the tree at the same time. Like in {@link BPlusTreeService}, operations latch nodes from the
+ * root down (latch crabbing) and release latches of the upper nodes, once the latched node is safe - searches right
+ * after latching the child, and inserts and deletes, when the node won't split or underflow. A deleted internal entry
+ * is replaced with the biggest entry of its left subtree, so that delete keeps the whole path from the internal node
+ * down to the leaf latched.
+ */
 @Builder
 @ToString
 @AllArgsConstructor
-public class BTreeService {
+public class BTreeService implements IndexService {
 
     private EntryService entryService;
 
@@ -25,71 +36,130 @@ public class BTreeService {
     private final int d;
 
     /**
-     * Current b-tree height.
+     * How many top levels of the b-tree (starting from the root) have their pages pinned in memory, so each search
+     * reads them without any disk reads, regardless of other pages loaded to buffers. Pages are pinned as long as the
+     * index tape pinned buffers limit allows it. 0 turns pinning off.
      */
-    private int h;
+    private final int pinnedLevels;
 
     /**
-     * Current index page, which contains root node.
+     * Current b-tree height - number of levels above the leaves level (it is 0, when the root is a leaf). Guarded by
+     * the root latch.
      */
-    private int rootPage;
+    private int h;
 
     /**
-     * Saves node pointer that was checked as the last in findEntryInSubtree() and findBiggestEntryInSubtree() method
+     * Current index page, which contains root node. Guarded by the root latch.
      */
-    private int lastSearchedNode;
+    private int rootPage;
 
-    /**
-     * Last node visited during sequential read of the b-tree entries
-     */
-    private int sequentialReadLastNode;
+    private final NodeLatches nodeLatches = new NodeLatches();
 
     /**
-     * Last child pointer number (equal to last entry number) read from the {@code sequentialReadLastNode}
+     * Positions of the sequential reads - each thread reads entries on its own.
      */
-    private int sequentialReadChildToReadNumber;
+    private final ThreadLocal<SequentialReadContext> sequentialReads = ThreadLocal.withInitial(SequentialReadContext::new);
 
     /**
      * Counter of merge operations done.
      */
-    @Getter
-    private int merges;
+    private final AtomicInteger merges = new AtomicInteger();
 
     /**
      * Counter of split operations done.
      */
-    @Getter
-    private int splits;
+    private final AtomicInteger splits = new AtomicInteger();
 
     /**
      * Counter of compensation operations done.
      */
-    @Getter
-    private int compensations;
+    private final AtomicInteger compensations = new AtomicInteger();
+
+    /**
+     * Counter of changes of the tree entries. It is increased after each change, before the changed nodes are
+     * released, so a reader, which sees the same count as before its read, knows no node has changed since then.
+     */
+    private final AtomicLong changes = new AtomicLong();
 
+    @Override
     public void createEntry(UUID tapeID, Entry entry) throws InvalidAlgorithmParameterException {
-        if(entryService.getTapePages(tapeID) == 0) // Add first index page, if it doesn't have any yet
-        {
-            this.assureBufferForPage(tapeID, entryService.getTapePages(tapeID));
-            entryService.addNextPage(tapeID);
-            entryService.setFreeSpaceOnPage(tapeID, 0, 0); // Make this page taken by the first node
-            entryService.setNodeParentPointer(tapeID, 0, 0);
-            this.rootPage = 0;
+        if(this.insertEntryIfAbsent(tapeID, entry.getKey(), entry::getDataPage) != null)
+            System.out.println("Entry with provided key already exists. Creation of new entry hasn't succeeded.");
+    }
+
+    /**
+     * Most inserts change only the leaf, so the search latches the leaf for writing and internal nodes for reading.
+     * Only if the leaf is full, the search is repeated with write latches, which are kept on the nodes, that may
+     * split or be compensated.
+     */
+    @Override
+    public Entry insertEntryIfAbsent(UUID tapeID, long key, DataPageSupplier dataPageSupplier)
+            throws InvalidAlgorithmParameterException {
+        this.createRootIfEmpty(tapeID);
+
+        LatchedPath latchedPath = new LatchedPath();
+        try {
+            Entry existingEntry = this.descend(tapeID, key, latchedPath, LatchMode.OPTIMISTIC);
+            if(existingEntry == null && entryService.getNodeEntries(tapeID,
+                    this.pointerToPage(latchedPath.getLastNodePointer())) >= 2 * this.d)
+            {
+                latchedPath.releaseAll();
+                existingEntry = this.descend(tapeID, key, latchedPath, LatchMode.INSERT);
+            }
+
+            if(existingEntry != null)
+                return existingEntry;
+
+            // The search ended in the leaf, to which the key belongs, so the entry is inserted there without searching again
+            Entry entry = Entry.builder()
+                    .key(key)
+                    .dataPage(dataPageSupplier.getDataPage())
+                    .build();
+
+            this.createEntryNoSearching(tapeID, latchedPath, latchedPath.getNodePointers(), entry, 0);
+            this.changes.incrementAndGet();
+            return null;
+        } finally {
+            latchedPath.releaseAll();
         }
+    }
 
-        Entry existingEntry = this.findEntry(tapeID, entry.getKey());
-        if(existingEntry != null)
-        {
-            System.out.println("Entry with provided key already exists. Creation of new entry hasn't succeeded.");
+    /**
+     * Adds the first index page with an empty root node, if the index doesn't have any pages yet.
+     * @param tapeID
+     */
+    private void createRootIfEmpty(UUID tapeID)
+    {
+        if(this.getIndexPages(tapeID) > 0)
             return;
-        }
 
-        this.createEntryNoSearching(tapeID, entry, 0);
+        Lock rootLatch = this.nodeLatches.getRootLatch().writeLock();
+        rootLatch.lock();
+        try {
+            if(this.getIndexPages(tapeID) > 0) // Another thread has created the root in the meantime
+                return;
+
+            this.allocateNodePage(tapeID);
+            this.rootPage = 0;
+            this.h = 0;
+            this.saveMetadata(tapeID);
+        } finally {
+            rootLatch.unlock();
+        }
     }
 
-    private void createEntryNoSearching(UUID tapeID, Entry entry, int rightPointer) throws InvalidAlgorithmParameterException {
+    /**
+     * @param tapeID
+     * @param latchedPath Path of the insert, to which latches of the siblings are added.
+     * @param path Pointers of nodes from the root to the node, to which the entry should be inserted (the last one).
+     *             Nodes of the path, which can split, are still latched for writing.
+     * @param entry
+     * @param rightPointer
+     */
+    private void createEntryNoSearching(UUID tapeID, LatchedPath latchedPath, List<Integer> path, Entry entry,
+                                        int rightPointer) throws InvalidAlgorithmParameterException {
         // Insert on current page
-        int insertionNodePointer = this.lastSearchedNode;
+        int insertionNodePointer = path.get(path.size() - 1);
         this.assureBufferForPage(tapeID, this.pointerToPage(insertionNodePointer));
         if(entryService.getNodeEntries(tapeID, this.pointerToPage(insertionNodePointer)) < (2 * this.d))
         {
@@ -98,113 +168,184 @@ public class BTreeService {
         }
 
         // Try compensation
-        List<Integer> siblingsPointers = this.getSiblingsPointers(tapeID, insertionNodePointer);
+        List<Integer> siblingsPointers = this.getSiblingsPointers(tapeID, path);
         if(siblingsPointers != null)
         {
-            if(this.canNodeCompensate(tapeID, siblingsPointers.get(0), true)) {
-                this.compensate(tapeID, insertionNodePointer, siblingsPointers.get(0), true, entry, rightPointer, true);
+            if(this.canNodeCompensate(tapeID, latchedPath, siblingsPointers.get(0), true)) {
+                this.compensate(tapeID, path, siblingsPointers.get(0), true, entry, rightPointer, true);
                 return;
             }
-            if(this.canNodeCompensate(tapeID, siblingsPointers.get(1), true)) {
-                this.compensate(tapeID, insertionNodePointer, siblingsPointers.get(1), false, entry, rightPointer, true);
+            if(this.canNodeCompensate(tapeID, latchedPath, siblingsPointers.get(1), true)) {
+                this.compensate(tapeID, path, siblingsPointers.get(1), false, entry, rightPointer, true);
                 return;
             }
             if(siblingsPointers.get(0) == 0 && siblingsPointers.get(1) == 0)
                 throw new IllegalStateException("Something went wrong. This node has a parent, but it doesn't have any siblings," +
                         " which shouldn't happen (there should be always at least 1 sibling).");
         }
-        this.split(tapeID, insertionNodePointer, entry, rightPointer);
+        this.split(tapeID, latchedPath, path, entry, rightPointer);
     }
 
+    @Override
     public Entry findEntry(UUID tapeID, long key)
     {
-        return this.findEntryInSubtree(tapeID, this.rootPage + 1, key);
+        if(this.getIndexPages(tapeID) == 0) // Index doesn't have any entries (possible only if there was not a single record created yet)
+            return null;
+
+        LatchedPath latchedPath = new LatchedPath();
+        try {
+            return this.descend(tapeID, key, latchedPath, LatchMode.SHARED);
+        } finally {
+            latchedPath.releaseAll();
+        }
     }
 
-    public Entry findEntryInSubtree(UUID tapeID, int nodePointer, long key)
+    /**
+     * Searches for the key, latching the nodes on the way down. Latch of the root pointer is taken first, and latch of
+     * each node is taken, while its parent is still latched, so no other operation can change the node in between.
+     * @param tapeID
+     * @param key
+     * @param latchedPath Empty path, to which the visited nodes and held latches are added. The last visited node is
+     *                    always latched, when the method returns.
+     * @param latchMode
+     * @return Entry with the key, which is in the last visited node, or null, if there is no such entry - the last
+     * visited node is then the leaf, to which the key belongs.
+     */
+    private Entry descend(UUID tapeID, long key, LatchedPath latchedPath, LatchMode latchMode)
     {
-        if(nodePointer == 0)
-            return null;
+        boolean writing = latchMode == LatchMode.INSERT || latchMode == LatchMode.DELETE;
+        latchedPath.latch(writing ? this.nodeLatches.getRootLatch().writeLock() : this.nodeLatches.getRootLatch().readLock());
+        int nodePointer = this.pageToPointer(this.rootPage);
+        // Tree can grow or shrink after the root latch is released, but it happens above the latched nodes, so the
+        // number of levels below them doesn't change
+        int height = this.h;
+        for(int level = 0; ; level++)
+        {
+            boolean leaf = level == height;
+            boolean writeLatch = writing || (leaf && latchMode == LatchMode.OPTIMISTIC);
+            latchedPath.latch(writeLatch ? this.nodeLatches.getNodeLatch(nodePointer).writeLock()
+                    : this.nodeLatches.getNodeLatch(nodePointer).readLock());
+            latchedPath.addNode(nodePointer);
+            DecodedNode node = this.readNodeOnLevel(tapeID, nodePointer, level);
+            if(!writing || this.isSafe(node, latchMode, level == 0))
+                latchedPath.releaseAncestors();
+
+            int slot = this.searchNode(node, key);
+            if(slot >= 0)
+                return node.getEntry(slot);
+
+            if(leaf)
+                return null;
+
+            nodePointer = node.getChildPointer(-slot - 1);
+            if(nodePointer == 0)
+                throw new IllegalStateException("Node above the leaves level of the b-tree didn't have a child pointer.");
+        }
+    }
 
-        if(entryService.getTapePages(tapeID) == 0) // Index doesn't have any entries (possible only if there was not a single record created yet)
-            return null;
+    /**
+     * @param node
+     * @param latchMode {@link LatchMode#INSERT} or {@link LatchMode#DELETE}.
+     * @param root Whether the node is the root.
+     * @return Whether the operation won't have to change the parent of the node, so the parent can be released.
+     */
+    private boolean isSafe(DecodedNode node, LatchMode latchMode, boolean root)
+    {
+        if(latchMode == LatchMode.INSERT)
+            return node.getEntriesCount() < 2 * this.d;
 
-        if(this.pointerToPage(nodePointer) < 0 || this.pointerToPage(nodePointer) >= entryService.getTapePages(tapeID))
-            throw new IllegalStateException("Page requested to find a node in it doesn't exist.");
+        // Root must keep at least 1 entry, or the tree shrinks
+        return root ? node.getEntriesCount() > 1 : node.getEntriesCount() > this.d;
+    }
 
-        // Saving for other methods to know, which was the last searched node
-        this.lastSearchedNode = nodePointer;
+    /**
+     * @param node
+     * @param key
+     * @return Number of the node entry with the key, or (-(insertion point) - 1), if there is no such entry - the
+     * insertion point is then the number of the child pointer, under which the key belongs.
+     */
+    private int searchNode(DecodedNode node, long key)
+    {
+        return Arrays.binarySearch(node.getKeys(), 0, node.getEntriesCount(), key);
+    }
 
-        this.assureBufferForPage(tapeID, this.pointerToPage(nodePointer));
-        if(entryService.getNodeEntries(tapeID, this.pointerToPage(nodePointer)) == 0) // There are no entries yet (possible only with first ever entry)
+    @Override
+    public void deleteEntry(UUID tapeID, long key) throws InvalidAlgorithmParameterException {
+        if(this.removeEntry(tapeID, key) == null)
+            System.out.println("Entry with provided key doesn't exist. Deletion of the entry hasn't succeeded.");
+    }
+
+    /**
+     * Like inserts, deletes latch only the leaf for writing first. They search again with write latches on the nodes,
+     * which may underflow, if the leaf would underflow, or if the entry is in an internal node.
+     */
+    @Override
+    public Entry removeEntry(UUID tapeID, long key) throws InvalidAlgorithmParameterException {
+        if(this.getIndexPages(tapeID) == 0) // Index doesn't have any entries yet
             return null;
 
-        int entryNumber = entryService.findEntryNumber(tapeID, this.pointerToPage(nodePointer), key);
-        if(entryNumber != -1)
-            return entryService.readEntry(tapeID, this.pointerToPage(nodePointer), entryNumber);
+        LatchedPath latchedPath = new LatchedPath();
+        try {
+            Entry existingEntry = this.descend(tapeID, key, latchedPath, LatchMode.OPTIMISTIC);
+            if(existingEntry == null)
+                return null;
 
-        Entry minEntry = entryService.readEntry(tapeID, this.pointerToPage(nodePointer), 0);
-        if(key < minEntry.getKey()) {
-            int leftChildPointer = entryService.readNodePointer(tapeID, this.pointerToPage(nodePointer), 0);
-            return this.findEntryInSubtree(tapeID, leftChildPointer, key);
-        }
+            DecodedNode node = entryService.readNode(tapeID, this.pointerToPage(latchedPath.getLastNodePointer()));
+            if(!node.isLeaf() || !this.isSafe(node, LatchMode.DELETE, latchedPath.getNodePointers().size() == 1))
+            {
+                latchedPath.releaseAll();
+                existingEntry = this.descend(tapeID, key, latchedPath, LatchMode.DELETE);
+                if(existingEntry == null) // Another thread has deleted the entry in the meantime
+                    return null;
+            }
 
-        int lastEntryNumber = entryService.getNodeEntries(tapeID, this.pointerToPage(nodePointer)) - 1;
-        Entry maxEntry = entryService.readEntry(tapeID, this.pointerToPage(nodePointer), lastEntryNumber);
-        if(key > maxEntry.getKey()) {
-            int rightChildPointer = entryService.readNodePointer(tapeID, this.pointerToPage(nodePointer), lastEntryNumber + 1);
-            return this.findEntryInSubtree(tapeID, rightChildPointer, key);
+            this.removeFoundEntry(tapeID, latchedPath, existingEntry);
+            this.changes.incrementAndGet();
+            return existingEntry;
+        } finally {
+            latchedPath.releaseAll();
         }
-
-        List<Entry> entries = this.readAllNodeEntries(tapeID, nodePointer);
-        int firstBiggerEntryNumber = this.findFirstBiggerEntryIndex(entries, key);
-        if(firstBiggerEntryNumber == -1)
-            throw new IllegalStateException("Something went wrong. The requested key was between this node min and max key," +
-                    " so bigger key than provided one should be found, but it wasn't.");
-        int leftChildPointer = entryService.readNodePointer(tapeID, this.pointerToPage(nodePointer), firstBiggerEntryNumber);
-        return this.findEntryInSubtree(tapeID, leftChildPointer, key);
     }
 
-    public void deleteEntry(UUID tapeID, long key) throws InvalidAlgorithmParameterException {
-        if(entryService.getTapePages(tapeID) == 0)
-        {
-            System.out.print("There are no entries in database yet. Requested entry cannot be removed.");
-            return;
-        }
-
-        Entry existingEntry = this.findEntry(tapeID, key);
-        if(existingEntry == null)
-        {
-            System.out.println("Entry with provided key doesn't exist. Deletion of the entry hasn't succeeded.");
-            return;
-        }
-
-        int deletionNodePointer = this.lastSearchedNode;
+    /**
+     * @param tapeID
+     * @param latchedPath Path of the delete, which ends in the node containing the entry.
+     * @param existingEntry
+     */
+    private void removeFoundEntry(UUID tapeID, LatchedPath latchedPath, Entry existingEntry) throws InvalidAlgorithmParameterException {
+        List<Integer> path = latchedPath.getNodePointers();
+        int deletionNodePointer = path.get(path.size() - 1);
         this.assureBufferForPage(tapeID, this.pointerToPage(deletionNodePointer));
-        List<Entry> entries = this.readAllNodeEntries(tapeID, deletionNodePointer);
-        int deletionEntryNumber = entries.indexOf(existingEntry);
-        List<Integer> pointers = this.readAllNodePointers(tapeID, deletionNodePointer);
-        boolean isLeafNode = pointers.stream().filter(p -> p != 0).collect(Collectors.toList()).isEmpty();
-        if(!isLeafNode) // Replace entry in non-leaf node with the biggest entry from left subtree
+        DecodedNode deletionNode = entryService.readNode(tapeID, this.pointerToPage(deletionNodePointer));
+        int deletionEntryNumber = entryService.findEntryNumber(tapeID, this.pointerToPage(deletionNodePointer), existingEntry.getKey());
+        if(!deletionNode.isLeaf()) // Replace entry in non-leaf node with the biggest entry from left subtree
         {
-            Entry maxEntry = this.findBiggestEntryInSubtree(tapeID, pointers.get(deletionEntryNumber)); // left pointer for left subtree
+            // The descent goes on from the node, in which the key was found, down to the leaf with the biggest entry
+            Entry maxEntry = this.findBiggestEntryInSubtree(tapeID, latchedPath, deletionNode.getChildPointer(deletionEntryNumber)); // left pointer for left subtree
+            this.writeNodeEntry(tapeID, deletionNodePointer, deletionEntryNumber, maxEntry);
+            // Update from which node the deletion will go on and deletion entry number in it (search path was extended
+            // down to the leaf, in which the biggest entry was found)
+            deletionNodePointer = path.get(path.size() - 1);
             this.assureBufferForPage(tapeID, this.pointerToPage(deletionNodePointer));
-            entryService.writeEntry(tapeID, this.pointerToPage(deletionNodePointer), deletionEntryNumber, maxEntry);
-            entryService.saveNode(tapeID, this.pointerToPage(deletionNodePointer));
-            // Update from which node the deletion will go on and deletion entry number in it
-            deletionNodePointer = this.lastSearchedNode;
-            this.assureBufferForPage(tapeID, this.pointerToPage(deletionNodePointer));
-            List<Entry> leafEntries = this.readAllNodeEntries(tapeID, deletionNodePointer);
-            deletionEntryNumber = leafEntries.indexOf(maxEntry);
+            deletionEntryNumber = entryService.findEntryNumber(tapeID, this.pointerToPage(deletionNodePointer), maxEntry.getKey());
             existingEntry = maxEntry;
         }
 
-        this.deleteEntryNoReplacing(tapeID, deletionNodePointer, deletionEntryNumber, existingEntry);
-
+        this.deleteEntryNoReplacing(tapeID, latchedPath, path, deletionEntryNumber, existingEntry);
     }
 
-    private void deleteEntryNoReplacing(UUID tapeID, int deletionNodePointer, int deletionEntryNumber, Entry existingEntry) throws InvalidAlgorithmParameterException {
+    /**
+     * @param tapeID
+     * @param latchedPath Path of the delete, to which latches of the siblings are added.
+     * @param path Pointers of nodes from the root to the node, from which the entry should be deleted (the last one).
+     *             Nodes of the path, which can underflow, are still latched for writing.
+     * @param deletionEntryNumber
+     * @param existingEntry
+     */
+    private void deleteEntryNoReplacing(UUID tapeID, LatchedPath latchedPath, List<Integer> path, int deletionEntryNumber,
+                                        Entry existingEntry) throws InvalidAlgorithmParameterException {
         // Delete from node
+        int deletionNodePointer = path.get(path.size() - 1);
         this.assureBufferForPage(tapeID, this.pointerToPage(deletionNodePointer));
         int nodeEntriesCount = entryService.getNodeEntries(tapeID, this.pointerToPage(deletionNodePointer));
         boolean isRootNode = (this.pointerToPage(deletionNodePointer) == this.rootPage);
@@ -215,20 +356,19 @@ public class BTreeService {
             leafEntries.remove(deletionEntryNumber);
             leafPointers.remove(deletionEntryNumber + 1);
             this.writeAllNodeData(tapeID, deletionNodePointer, leafEntries, leafPointers);
-            entryService.saveNode(tapeID, this.pointerToPage(deletionNodePointer));
             return;
         }
 
         // Try compensation
-        List<Integer> siblingsPointers = this.getSiblingsPointers(tapeID, deletionNodePointer);
+        List<Integer> siblingsPointers = this.getSiblingsPointers(tapeID, path);
         if(siblingsPointers != null)
         {
-            if(this.canNodeCompensate(tapeID, siblingsPointers.get(0), false)) {
-                this.compensate(tapeID, deletionNodePointer, siblingsPointers.get(0), true, existingEntry, 0, false);
+            if(this.canNodeCompensate(tapeID, latchedPath, siblingsPointers.get(0), false)) {
+                this.compensate(tapeID, path, siblingsPointers.get(0), true, existingEntry, 0, false);
                 return;
             }
-            if(this.canNodeCompensate(tapeID, siblingsPointers.get(1), false)) {
-                this.compensate(tapeID, deletionNodePointer, siblingsPointers.get(1), false, existingEntry, 0, false);
+            if(this.canNodeCompensate(tapeID, latchedPath, siblingsPointers.get(1), false)) {
+                this.compensate(tapeID, path, siblingsPointers.get(1), false, existingEntry, 0, false);
                 return;
             }
             if(siblingsPointers.get(0) == 0 && siblingsPointers.get(1) == 0)
@@ -239,81 +379,302 @@ public class BTreeService {
         // Perform merge
         if(siblingsPointers != null) {
             if(siblingsPointers.get(0) != 0) {
-                this.merge(tapeID, deletionNodePointer, siblingsPointers.get(0), true, existingEntry);
+                this.merge(tapeID, latchedPath, path, siblingsPointers.get(0), true, existingEntry);
             }
             else {
-                this.merge(tapeID, deletionNodePointer, siblingsPointers.get(1), false, existingEntry);
+                this.merge(tapeID, latchedPath, path, siblingsPointers.get(1), false, existingEntry);
             }
             return;
         }
         // No siblings -> root merge
-        this.merge(tapeID, deletionNodePointer, 0, false, existingEntry);
+        this.merge(tapeID, latchedPath, path, 0, false, existingEntry);
     }
 
+    /**
+     * A read searches from the root for the first entry with a key not smaller than the next key of the read, latching
+     * the nodes like a search, and keeps the rest of the leaf, in which it ends, so next reads return its entries
+     * without latching any node, as long as no entry of the tree has changed. Entries move between internal nodes and
+     * leaves, so the search is repeated after any change, and for the entry following the leaf.
+     */
+    @Override
     public Entry readNextEntry(UUID tapeID)
     {
-        if(entryService.getTapePages(tapeID) == 0)
+        if(this.getIndexPages(tapeID) == 0)
         {
             System.out.println("Index file has no pages to read yet.");
             return null;
         }
 
-        if(this.sequentialReadLastNode == 0) // Start reading, from root
-        {
-            this.assureBufferForPage(tapeID, this.rootPage);
-            //Entry entry = this.findSmallestEntryInSubtree(tapeID, this.pageToPointer(this.rootPage));
-            this.findSmallestEntryInSubtree(tapeID, this.pageToPointer(this.rootPage));
-            this.sequentialReadLastNode = this.lastSearchedNode;
-            this.sequentialReadChildToReadNumber = 0;
-            //return entry;
+        SequentialReadContext sequentialRead = this.sequentialReads.get();
+        if(sequentialRead.isExhausted())
+            return null;
+
+        List<Entry> nextEntries = sequentialRead.getNextEntries();
+        if(nextEntries != null && sequentialRead.getNextEntryNumber() < nextEntries.size()
+                && sequentialRead.getEntriesVersion() == this.changes.get())
+            return this.takeNextEntry(sequentialRead);
+
+        LatchedPath latchedPath = new LatchedPath();
+        try {
+            // Count is taken before the search, so a change made during the search is noticed by the next read
+            sequentialRead.setEntriesVersion(this.changes.get());
+            sequentialRead.setNextEntries(this.findNextEntries(tapeID, sequentialRead, latchedPath));
+            sequentialRead.setNextEntryNumber(0);
+        } finally {
+            latchedPath.releaseAll();
         }
 
-        return this.readNextEntry(tapeID, this.sequentialReadLastNode, this.sequentialReadChildToReadNumber);
+        if(sequentialRead.getNextEntries().isEmpty()) {
+            sequentialRead.setExhausted(true);
+            return null;
+        }
+        return this.takeNextEntry(sequentialRead);
     }
 
-    private Entry readNextEntry(UUID tapeID, int nodePointer, int childToRead)
+    /**
+     * Returns the next of the entries kept by the last search, and moves the reading after it.
+     * @param sequentialRead
+     * @return
+     */
+    private Entry takeNextEntry(SequentialReadContext sequentialRead)
     {
-        if(nodePointer == 0)
-            return null;
-
-        this.sequentialReadLastNode = nodePointer;
-
-        this.assureBufferForPage(tapeID, this.pointerToPage(nodePointer));
+        Entry entry = sequentialRead.getNextEntries().get(sequentialRead.getNextEntryNumber());
+        sequentialRead.setNextEntryNumber(sequentialRead.getNextEntryNumber() + 1);
+        if(entry.getKey() == Long.MAX_VALUE)
+            sequentialRead.setExhausted(true);
+        else
+            sequentialRead.setNextKey(entry.getKey() + 1);
+        return entry;
+    }
 
-        if(childToRead < entryService.getNodePointers(tapeID, this.pointerToPage(nodePointer)))
+    /**
+     * Searches for the first entry with a key not smaller than the next key of the read. The smallest bigger entry
+     * seen on the way down is remembered, since the entry following the last one of a leaf is in one of its ancestors.
+     * When the search gets to a new parent of the leaves, the next children of that parent are read ahead.
+     * @param tapeID
+     * @param sequentialRead
+     * @param latchedPath Empty path, to which the visited nodes and held latches are added.
+     * @return The entry found in an internal node, or entries of the leaf from the found one on, followed by the entry
+     * of an ancestor, which follows them. Empty list, if there are no more entries.
+     */
+    private List<Entry> findNextEntries(UUID tapeID, SequentialReadContext sequentialRead, LatchedPath latchedPath)
+    {
+        latchedPath.latch(this.nodeLatches.getRootLatch().readLock());
+        int nodePointer = this.pageToPointer(this.rootPage);
+        int height = this.h;
+        Entry nextEntry = null;
+        for(int level = 0; ; level++)
         {
-            // Read right pointer of last read entry, to read all entries that are bigger than the entry and smaller than next entry in this node
-            int childPointer = entryService.readNodePointer(tapeID, this.pointerToPage(nodePointer), childToRead);
-            if(childPointer != 0)
-                return this.readNextEntry(tapeID, childPointer, 0);
-
-            this.sequentialReadChildToReadNumber = childToRead + 1;
+            latchedPath.latch(this.nodeLatches.getNodeLatch(nodePointer).readLock());
+            latchedPath.addNode(nodePointer);
+            latchedPath.releaseAncestors();
+            DecodedNode node = this.readNodeOnLevel(tapeID, nodePointer, level);
+            int slot = this.searchNode(node, sequentialRead.getNextKey());
+            if(slot >= 0 && level < height)
+                return List.of(node.getEntry(slot));
+
+            int entryNumber = slot >= 0 ? slot : -slot - 1;
+            if(level == height)
+            {
+                List<Entry> entries = new ArrayList<>();
+                for(int i = entryNumber; i < node.getEntriesCount(); i++)
+                    entries.add(node.getEntry(i));
+                if(nextEntry != null)
+                    entries.add(nextEntry);
+                return entries;
+            }
 
-            if(childToRead < entryService.getNodePointers(tapeID, this.pointerToPage(nodePointer)) - 1) {
-                this.sequentialReadLastNode = nodePointer;
-                return entryService.readEntry(tapeID, this.pointerToPage(this.sequentialReadLastNode), childToRead);
+            if(entryNumber < node.getEntriesCount())
+                nextEntry = node.getEntry(entryNumber);
+            if(level == height - 1 && nodePointer != sequentialRead.getNodePointer()) {
+                sequentialRead.setNodePointer(nodePointer);
+                this.readAheadChildren(tapeID, nodePointer, entryNumber + 1);
             }
+            nodePointer = node.getChildPointer(entryNumber);
         }
+    }
 
-        int parentPointer = entryService.readNodeParentPointer(tapeID, this.pointerToPage(this.sequentialReadLastNode));
-        if(parentPointer == 0) // End of the b-tree
-            return null;
-        this.assureBufferForPage(tapeID, this.pointerToPage(parentPointer));
-        int readChildNumber = entryService.findNodePointerNumber(tapeID, this.pointerToPage(parentPointer), nodePointer);
-        this.sequentialReadChildToReadNumber = readChildNumber + 1;
-        if(readChildNumber < entryService.getNodePointers(tapeID, this.pointerToPage(parentPointer)) - 1) {
-            this.sequentialReadLastNode = parentPointer;
-            return entryService.readEntry(tapeID, this.pointerToPage(this.sequentialReadLastNode), readChildNumber);
+    /**
+     * Starts reading in the background pages of the node's children, which will be read next by sequential reading.
+     * @param tapeID
+     * @param nodePointer
+     * @param firstChild Number of the first child pointer to read ahead.
+     */
+    private void readAheadChildren(UUID tapeID, int nodePointer, int firstChild)
+    {
+        if(entryService.getReadAheadPages() == 0)
+            return;
+
+        int nodePage = this.pointerToPage(nodePointer);
+        int pointers = entryService.getNodePointers(tapeID, nodePage);
+        List<Integer> childrenPages = new ArrayList<>();
+        for(int i = firstChild; i < pointers; i++) {
+            int childPointer = entryService.readNodePointer(tapeID, nodePage, i);
+            if(childPointer == 0) // Leaf node
+                return;
+            childrenPages.add(this.pointerToPage(childPointer));
         }
-        return this.readNextEntry(tapeID, parentPointer, this.sequentialReadChildToReadNumber);
+        entryService.readAhead(tapeID, childrenPages);
     }
 
+    @Override
     public void resetReadingBTree()
     {
-        this.sequentialReadLastNode = 0;
-        this.sequentialReadChildToReadNumber = 0;
+        this.sequentialReads.get().seek(Long.MIN_VALUE);
+    }
+
+    /**
+     * Next read searches for the key from the root, so there is still a single descent, but it happens during the
+     * read.
+     * @param tapeID
+     * @param key
+     */
+    @Override
+    public void seekEntry(UUID tapeID, long key)
+    {
+        this.sequentialReads.get().seek(key);
+    }
+
+    /**
+     * Entries are put into leaves, until a leaf has its planned size - then the next entry becomes a separator in the
+     * parent node (b-tree internal nodes contain entries too). Nodes are written, when they're full, and only the last
+     * node of each level is kept in memory.
+     * @param tapeID
+     * @param entries Entries with strictly ascending keys.
+     * @param entriesCount Exact number of the entries.
+     * @param fillFactor Part of the nodes capacity filled with entries, from range (0, 1].
+     */
+    @Override
+    public void bulkLoad(UUID tapeID, Iterator<Entry> entries, int entriesCount, double fillFactor)
+            throws InvalidAlgorithmParameterException {
+        // Root pointer isn't valid until the whole tree is written
+        Lock rootLatch = this.nodeLatches.getRootLatch().writeLock();
+        rootLatch.lock();
+        try {
+            this.bulkLoadLevels(tapeID, entries, entriesCount, fillFactor);
+        } finally {
+            rootLatch.unlock();
+        }
+    }
+
+    private void bulkLoadLevels(UUID tapeID, Iterator<Entry> entries, int entriesCount, double fillFactor)
+            throws InvalidAlgorithmParameterException {
+        if(entryService.getTapePages(tapeID) > 0)
+            throw new IllegalStateException("Only an empty index can be bulk loaded.");
+
+        if(entriesCount <= 0)
+            return;
+
+        // Each node takes up one slot more than its entries - a leaf also takes up the separator following it (and the
+        // last leaf, which isn't followed by any, gets an extra slot) and an internal node has one child more than
+        // entries, so a level has as many slots as nodes on the level below
+        List<int[]> levelsPlans = new ArrayList<>();
+        int slots = entriesCount + 1;
+        do {
+            int[] levelPlan = BulkLoadPlanner.planLevel(slots, this.d + 1, 2 * this.d + 1, fillFactor);
+            levelsPlans.add(levelPlan);
+            slots = levelPlan.length;
+        } while(slots > 1);
+
+        // Nodes being filled on each level, starting from the leaves level
+        List<List<Entry>> levelsEntries = new ArrayList<>();
+        List<List<Integer>> levelsPointers = new ArrayList<>();
+        int[] levelsNodeNumbers = new int[levelsPlans.size()];
+        for(int level = 0; level < levelsPlans.size(); level++) {
+            levelsEntries.add(new ArrayList<>());
+            levelsPointers.add(new ArrayList<>());
+        }
+
+        int loadedEntries = 0;
+        long previousKey = 0;
+        while(entries.hasNext())
+        {
+            Entry entry = entries.next();
+            if(loadedEntries > 0 && entry.getKey() <= previousKey)
+                throw new IllegalArgumentException("Entries to bulk load must have strictly ascending keys, but key " +
+                        entry.getKey() + " came after key " + previousKey + ".");
+
+            if(++loadedEntries > entriesCount)
+                throw new IllegalArgumentException("There were more entries to bulk load than declared " + entriesCount + ".");
+
+            previousKey = entry.getKey();
+            List<Entry> leafEntries = levelsEntries.get(0);
+            if(leafEntries.size() < levelsPlans.get(0)[levelsNodeNumbers[0]] - 1)
+                leafEntries.add(entry);
+            else
+                this.writeBulkLoadedNode(tapeID, levelsPlans, levelsEntries, levelsPointers, levelsNodeNumbers, 0, entry);
+        }
+
+        if(loadedEntries != entriesCount)
+            throw new IllegalArgumentException("There were " + loadedEntries + " entries to bulk load, but " +
+                    entriesCount + " were declared.");
+
+        // The last nodes of all levels are written, from the last leaf up to the root
+        this.writeBulkLoadedNode(tapeID, levelsPlans, levelsEntries, levelsPointers, levelsNodeNumbers, 0, null);
+        for(int level = 0; level < levelsPlans.size(); level++)
+            if(levelsNodeNumbers[level] != levelsPlans.get(level).length)
+                throw new IllegalStateException("Bulk load wrote " + levelsNodeNumbers[level] + " nodes on a level, for" +
+                        " which " + levelsPlans.get(level).length + " nodes were planned.");
+
+        this.saveMetadata(tapeID);
+        this.changes.incrementAndGet();
+        this.resetReadingBTree();
+    }
+
+    /**
+     * Writes the node being filled on the level to a new page and passes its pointer, together with the separator
+     * following it, to the node being filled on the level above. That node is written too, if it's full already.
+     * @param tapeID
+     * @param levelsPlans Planned numbers of slots of the nodes of each level.
+     * @param levelsEntries Entries of the node being filled on each level.
+     * @param levelsPointers Children pointers of the node being filled on each level (empty for leaves).
+     * @param levelsNodeNumbers Numbers of the nodes being filled on each level.
+     * @param level Level of the node (leaves are on level 0).
+     * @param separator Entry following the node in keys order, or null, if the node is the last one on its level.
+     */
+    private void writeBulkLoadedNode(UUID tapeID, List<int[]> levelsPlans, List<List<Entry>> levelsEntries,
+                                     List<List<Integer>> levelsPointers, int[] levelsNodeNumbers, int level,
+                                     Entry separator) throws InvalidAlgorithmParameterException {
+        List<Entry> nodeEntries = levelsEntries.get(level);
+        List<Integer> nodePointers = level == 0 ? Collections.nCopies(nodeEntries.size() + 1, 0) : levelsPointers.get(level);
+        int page = this.allocateNodePage(tapeID);
+        this.writeAllNodeData(tapeID, this.pageToPointer(page), nodeEntries, nodePointers);
+        levelsEntries.set(level, new ArrayList<>());
+        levelsPointers.set(level, new ArrayList<>());
+        levelsNodeNumbers[level]++;
+
+        if(level == levelsPlans.size() - 1)
+        {
+            if(separator != null)
+                throw new IllegalStateException("Root of the bulk loaded b-tree has been written, but there are entries" +
+                        " left to load.");
+
+            this.rootPage = page;
+            this.h = level;
+            return;
+        }
+
+        List<Integer> parentPointers = levelsPointers.get(level + 1);
+        parentPointers.add(this.pageToPointer(page));
+        if(separator == null)
+            this.writeBulkLoadedNode(tapeID, levelsPlans, levelsEntries, levelsPointers, levelsNodeNumbers, level + 1, null);
+        else if(parentPointers.size() < levelsPlans.get(level + 1)[levelsNodeNumbers[level + 1]])
+            levelsEntries.get(level + 1).add(separator);
+        else
+            this.writeBulkLoadedNode(tapeID, levelsPlans, levelsEntries, levelsPointers, levelsNodeNumbers, level + 1, separator);
     }
-    private void merge(UUID tapeID, int nodePointer, int siblingPointer, boolean leftSibling, Entry deletionEntry) throws InvalidAlgorithmParameterException {
+
+    /**
+     * @param tapeID
+     * @param latchedPath
+     * @param path Pointers of nodes from the root to the node, which should be merged (the last one).
+     * @param siblingPointer Sibling latched for writing.
+     * @param leftSibling
+     * @param deletionEntry
+     */
+    private void merge(UUID tapeID, LatchedPath latchedPath, List<Integer> path, int siblingPointer, boolean leftSibling,
+                       Entry deletionEntry) throws InvalidAlgorithmParameterException {
+        int nodePointer = path.get(path.size() - 1);
         if(nodePointer == 0)
             throw new IllegalStateException("Node pointer to merge was null.");
 
@@ -321,17 +682,22 @@ public class BTreeService {
         {
             this.assureBufferForPage(tapeID, this.pointerToPage(nodePointer));
             int onlyChildPointer = entryService.readNodePointer(tapeID, this.pointerToPage(nodePointer), 0); // Left pointer of the one left entry
-            this.updateParentInChildren(tapeID, nodePointer, 0); // This updates parent in the single child, that will be the new root
             this.clearNodePage(tapeID, nodePointer);
             // Update b-tree info
-            if(onlyChildPointer == 0) // It can occur, if root was the only node and all records have been deleted
+            if(onlyChildPointer == 0) { // It can occur, if root was the only node and all records have been deleted
                 this.rootPage = 0; // In this situation all pages are empty, so we can just set root again to first page of the index file
-            else
+                this.h = 0;
+            }
+            else {
                 this.rootPage = this.pointerToPage(onlyChildPointer);
-            this.h--;
+                this.h--;
+            }
+            this.saveMetadata(tapeID);
+            // All nodes moved one level up, so pages are pinned again from the new root on next searches
+            entryService.unpinAllPages(tapeID);
 
             // Update merge counter for statistics analysis
-            this.merges++;
+            this.merges.incrementAndGet();
 
             return;
         }
@@ -346,7 +712,7 @@ public class BTreeService {
         this.assureBufferForPage(tapeID, this.pointerToPage(nodePointer));
         List<Entry> nodeEntries = this.readAllNodeEntries(tapeID, nodePointer);
         List<Integer> nodePointers = this.readAllNodePointers(tapeID, nodePointer);
-        int parentPointer = entryService.readNodeParentPointer(tapeID, this.pointerToPage(nodePointer));
+        int parentPointer = this.getParentPointer(path);
 
         // Read a parent node entry, which is between the nodePointer and its sibling pointer
         this.assureBufferForPage(tapeID, this.pointerToPage(parentPointer));
@@ -367,25 +733,31 @@ public class BTreeService {
         allPointers.addAll(leftSibling ? siblingPointers : nodePointers);
         allPointers.addAll(leftSibling ? nodePointers : siblingPointers);
 
-        // Update parent in all children headers of the right node, that is going to be deleted
-        this.updateParentInChildren(tapeID, leftSibling ? nodePointer : siblingPointer, leftSibling ? siblingPointer : nodePointer);
         // Delete the right child node
         this.clearNodePage(tapeID, leftSibling ? nodePointer : siblingPointer);
         // Save all entries in left child node
         this.assureBufferForPage(tapeID, this.pointerToPage(leftSibling ? siblingPointer : nodePointer));
         this.writeAllNodeData(tapeID, leftSibling ? siblingPointer : nodePointer, allEntries, allPointers);
-        entryService.saveNode(tapeID, this.pointerToPage(leftSibling ? siblingPointer : nodePointer));
 
         // Update merge counter for statistics analysis
-        this.merges++;
+        this.merges.incrementAndGet();
 
         // Delete the parent entry, that was inserted in the merged node, from parent
-        this.deleteEntryNoReplacing(tapeID, parentPointer, parentEntryNumber, parentEntry);
+        this.deleteEntryNoReplacing(tapeID, latchedPath, path.subList(0, path.size() - 1), parentEntryNumber, parentEntry);
     }
 
-    private void split(UUID tapeID, int nodePointer, Entry entry, int rightPointer) throws InvalidAlgorithmParameterException {
+    /**
+     * @param tapeID
+     * @param latchedPath
+     * @param path Pointers of nodes from the root to the node, which should be split (the last one).
+     * @param entry
+     * @param rightPointer
+     */
+    private void split(UUID tapeID, LatchedPath latchedPath, List<Integer> path, Entry entry, int rightPointer)
+            throws InvalidAlgorithmParameterException {
+        int nodePointer = path.get(path.size() - 1);
         this.assureBufferForPage(tapeID, this.pointerToPage(nodePointer));
-        int parentPointer = entryService.readNodeParentPointer(tapeID, this.pointerToPage(nodePointer));
+        int parentPointer = this.getParentPointer(path);
 
         List<Entry> entries = this.readAllNodeEntries(tapeID, nodePointer);
         List<Integer> pointers = this.readAllNodePointers(tapeID, nodePointer);
@@ -398,106 +770,71 @@ public class BTreeService {
         if(parentPointer != 0) {
             // Distribution in original node, which would be now the left sibling
             this.writeAllNodeData(tapeID, nodePointer, entries.subList(0, middleEntryNumber), pointers.subList(0, middleEntryNumber + 1));
-            entryService.saveNode(tapeID, this.pointerToPage(nodePointer));
 
             // Create (or reuse empty) a new page for the new right sibling node
-            int page = this.findSpaceForNode(tapeID);
-            if (page == -1) {
-                page = entryService.getTapePages(tapeID);
-                this.assureBufferForPage(tapeID, page);
-                entryService.addNextPage(tapeID);
-            }
-            else
-                this.assureBufferForPage(tapeID, page);
-
-            entryService.setFreeSpaceOnPage(tapeID, page, 0); // Make this page taken by the node
-            entryService.setNodeParentPointer(tapeID, page, parentPointer);
+            int page = this.allocateNodePage(tapeID);
 
             // Distribution in the new right sibling node
             this.writeAllNodeData(tapeID, this.pageToPointer(page), entries.subList(middleEntryNumber + 1, entries.size()),
                     pointers.subList(middleEntryNumber + 1, pointers.size()));
-            entryService.saveNode(tapeID, page);
-            // Update parent in all children, that were transferred to the new node
-            this.updateParentInChildren(tapeID, this.pageToPointer(page), this.pageToPointer(page));
 
             // Update split counter for statistics analysis
-            this.splits++;
+            this.splits.incrementAndGet();
 
             // Create an entry in parent, that consists of the middle entry and a pointer of new child node
-            this.lastSearchedNode = parentPointer;
-            this.createEntryNoSearching(tapeID, entries.get(middleEntryNumber), this.pageToPointer(page));
+            this.createEntryNoSearching(tapeID, latchedPath, path.subList(0, path.size() - 1), entries.get(middleEntryNumber),
+                    this.pageToPointer(page));
         }
         else
         {
-            // Create (or re-use empty) a new page for the new root node
-            int pageForRoot = this.findSpaceForNode(tapeID);
-            if(pageForRoot == -1)
-            {
-                pageForRoot = entryService.getTapePages(tapeID);
-                this.assureBufferForPage(tapeID, pageForRoot);
-                entryService.addNextPage(tapeID);
-            }
-            else
-                this.assureBufferForPage(tapeID, pageForRoot);
-
-            entryService.setFreeSpaceOnPage(tapeID, pageForRoot, 0); // Make this page taken by the node
-            entryService.setNodeParentPointer(tapeID, pageForRoot, 0);
-            // Update b-tree info
-            this.rootPage = pageForRoot;
-            this.h++;
-            // Insert the middle entry (and both children pointers) in new root
-            entryService.setNodePointer(tapeID, pageForRoot, 0, nodePointer);
-            entryService.writeEntry(tapeID, pageForRoot, 0, entries.get(middleEntryNumber));
+            // Create (or re-use empty) new pages for the new root node and for the new right child node
+            int pageForRoot = this.allocateNodePage(tapeID);
+            int rightChildPage = this.allocateNodePage(tapeID);
 
-            int rightChildPage = this.findSpaceForNode(tapeID);
-            if(rightChildPage == -1)
-                entryService.setNodePointer(tapeID, pageForRoot, 1, this.pageToPointer(entryService.getTapePages(tapeID)));
-            else
-                entryService.setNodePointer(tapeID, pageForRoot, 1, this.pageToPointer(rightChildPage));
-            entryService.saveNode(tapeID, pageForRoot);
-
-            // Create (or reuse) new page for right child node
-            if(rightChildPage == -1)
-            {
-                rightChildPage = entryService.getTapePages(tapeID);
-                this.assureBufferForPage(tapeID, rightChildPage);
-                entryService.addNextPage(tapeID);
-            }
-            else
-                this.assureBufferForPage(tapeID, rightChildPage);
-
-            entryService.setFreeSpaceOnPage(tapeID, rightChildPage, 0); // Make this page taken by the node
-            entryService.setNodeParentPointer(tapeID, rightChildPage, this.pageToPointer(pageForRoot));
             // Distribution in the new right sibling node
             this.writeAllNodeData(tapeID, this.pageToPointer(rightChildPage), entries.subList(middleEntryNumber + 1, entries.size()),
                     pointers.subList(middleEntryNumber + 1, pointers.size()));
-            entryService.saveNode(tapeID, rightChildPage);
-            // Update parent in all children, that were transferred to the new node
-            this.updateParentInChildren(tapeID, this.pageToPointer(rightChildPage), this.pageToPointer(rightChildPage));
 
             // Distribution in original node, which would be now the left sibling
-            this.assureBufferForPage(tapeID, this.pointerToPage(nodePointer));
-            entryService.setNodeParentPointer(tapeID, this.pointerToPage(nodePointer), this.pageToPointer(pageForRoot));
             this.writeAllNodeData(tapeID, nodePointer, entries.subList(0, middleEntryNumber), pointers.subList(0, middleEntryNumber + 1));
-            entryService.saveNode(tapeID, this.pointerToPage(nodePointer));
 
-            this.lastSearchedNode = this.pageToPointer(pageForRoot);
+            // Insert the middle entry (and both children pointers) in new root
+            this.writeAllNodeData(tapeID, this.pageToPointer(pageForRoot), List.of(entries.get(middleEntryNumber)),
+                    List.of(nodePointer, this.pageToPointer(rightChildPage)));
+
+            // Update b-tree info
+            this.rootPage = pageForRoot;
+            this.h++;
+            this.saveMetadata(tapeID);
+
+            // All nodes moved one level down, so pages are pinned again from the new root on next searches
+            entryService.unpinAllPages(tapeID);
 
             // Update split counter for statistics analysis
-            this.splits++;
+            this.splits.incrementAndGet();
         }
     }
 
-    private void compensate(UUID tapeID, int nodePointer, int siblingPointer, boolean leftSibling, Entry entry, int rightPointer, boolean insertion)
+    /**
+     * @param tapeID
+     * @param path Pointers of nodes from the root to the node, which should be compensated with its sibling (the last
+     *             one). Both nodes have the same parent, which is the previous node on the path.
+     * @param siblingPointer Sibling latched for writing.
+     * @param leftSibling
+     * @param entry
+     * @param rightPointer
+     * @param insertion
+     */
+    private void compensate(UUID tapeID, List<Integer> path, int siblingPointer, boolean leftSibling, Entry entry, int rightPointer, boolean insertion)
             throws InvalidAlgorithmParameterException {
-        // Read parent node pointer
-        this.assureBufferForPage(tapeID, this.pointerToPage(siblingPointer));
-        int parentPointer = entryService.readNodeParentPointer(tapeID, this.pointerToPage(siblingPointer)); // both nodes should have the same parent
+        int nodePointer = path.get(path.size() - 1);
+        int parentPointer = this.getParentPointer(path);
         if(parentPointer == 0)
             throw new IllegalStateException("If compensation was confirmed as possible, then a parent node of provided" +
                     " nodes should exist, but it didn't.");
 
         // Read all node entries and pointers from sibling
+        this.assureBufferForPage(tapeID, this.pointerToPage(siblingPointer));
         List<Entry> siblingEntries = this.readAllNodeEntries(tapeID, siblingPointer);
         List<Integer> siblingPointers = this.readAllNodePointers(tapeID, siblingPointer);
 
@@ -541,144 +878,318 @@ public class BTreeService {
         int leftChildPointer = leftSibling ? siblingPointer : nodePointer;
         this.assureBufferForPage(tapeID, this.pointerToPage(leftChildPointer));
         this.writeAllNodeData(tapeID, leftChildPointer, allEntries.subList(0, middleEntryNumber), allPointers.subList(0, middleEntryNumber + 1));
-        entryService.saveNode(tapeID, this.pointerToPage(leftChildPointer));
 
         // Set parent entry (without modifying pointers)
-        this.assureBufferForPage(tapeID, this.pointerToPage(parentPointer));
-        entryService.writeEntry(tapeID, this.pointerToPage(parentPointer), parentEntryNumber, allEntries.get(middleEntryNumber));
-        entryService.saveNode(tapeID, this.pointerToPage(parentPointer));
+        this.writeNodeEntry(tapeID, parentPointer, parentEntryNumber, allEntries.get(middleEntryNumber));
 
         // Distribution in right node
         int rightChildPointer = leftSibling ? nodePointer : siblingPointer;
         this.assureBufferForPage(tapeID, this.pointerToPage(rightChildPointer));
         this.writeAllNodeData(tapeID, rightChildPointer, allEntries.subList(middleEntryNumber + 1, allEntries.size()),
                 allPointers.subList(middleEntryNumber + 1, allPointers.size()));
-        entryService.saveNode(tapeID, this.pointerToPage(rightChildPointer));
-
-        // Update parent in all children, that were transferred to new node
-        this.updateParentInChildren(tapeID, leftChildPointer, leftChildPointer);
-        this.updateParentInChildren(tapeID, rightChildPointer, rightChildPointer);
 
         // Update compensation counter for statistics analysis
-        this.compensations++;
+        this.compensations.incrementAndGet();
     }
 
+    @Override
+    public int getMerges()
+    {
+        return this.merges.get();
+    }
+
+    @Override
+    public int getSplits()
+    {
+        return this.splits.get();
+    }
+
+    @Override
+    public int getCompensations()
+    {
+        return this.compensations.get();
+    }
+
+    @Override
     public int getReads(UUID tapeID)
     {
         return entryService.getReads(tapeID);
     }
 
+    @Override
     public int getWrites(UUID tapeID)
     {
         return entryService.getWrites(tapeID);
     }
 
+    @Override
     public int getTapePages(UUID tapeID)
     {
         return entryService.getTapePages(tapeID);
     }
 
+    @Override
     public int getTapeFreePages(UUID tapeID)
     {
         return entryService.getTapeFreePages(tapeID);
     }
+
+    /**
+     * Writes all modified buffered index pages to the index file, together with the b-tree metadata saved in the index
+     * tape header.
+     * @param tapeID
+     */
+    @Override
+    public void flush(UUID tapeID)
+    {
+        Lock rootLatch = this.nodeLatches.getRootLatch().readLock();
+        rootLatch.lock();
+        try {
+            this.saveMetadata(tapeID);
+        } finally {
+            rootLatch.unlock();
+        }
+
+        entryService.flush(tapeID);
+    }
+
+    /**
+     * Passes current b-tree metadata to the index tape, so it is saved in the tape header. It is done on each change,
+     * since the tapes can be checkpointed after any operation. Root latch must be held.
+     * @param tapeID
+     */
+    private void saveMetadata(UUID tapeID)
+    {
+        int rootPointer = this.getIndexPages(tapeID) > 0 ? this.pageToPointer(this.rootPage) : 0;
+        entryService.setTapeIndexMetadata(tapeID, rootPointer, this.d, this.h);
+    }
+
+    /**
+     * Restores b-tree metadata from the header of an index tape opened from a previous app run.
+     * @param tapeID
+     */
+    @Override
+    public void open(UUID tapeID)
+    {
+        if(entryService.getTapePages(tapeID) > 0 && entryService.getTapeDegree(tapeID) != this.d)
+            throw new IllegalStateException("Index tape was created for b-tree of degree " +
+                    entryService.getTapeDegree(tapeID) + ", but the b-tree has degree " + this.d + ".");
+
+        if(entryService.getTapeIndexType(tapeID) != IndexType.B_TREE.getCode())
+            throw new IllegalStateException("Index tape doesn't contain a b-tree index.");
+
+        Lock rootLatch = this.nodeLatches.getRootLatch().writeLock();
+        rootLatch.lock();
+        try {
+            int rootPointer = entryService.getTapeRootPointer(tapeID);
+            this.rootPage = rootPointer != 0 ? this.pointerToPage(rootPointer) : 0;
+            this.h = entryService.getTapeHeight(tapeID);
+            this.changes.incrementAndGet();
+        } finally {
+            rootLatch.unlock();
+        }
+        this.resetReadingBTree();
+    }
+
+    /**
+     * @param tapeID
+     * @return Number of the index tape pages, read while no other thread adds a page.
+     */
+    private int getIndexPages(UUID tapeID)
+    {
+        Lock allocationLatch = entryService.getAllocationLatch(tapeID);
+        allocationLatch.lock();
+        try {
+            return entryService.getTapePages(tapeID);
+        } finally {
+            allocationLatch.unlock();
+        }
+    }
+
+    /**
+     * Reads the node, pinning its page, if the node is on one of the top levels. Node latch must be held.
+     * @param tapeID
+     * @param nodePointer
+     * @param level Level of the node in the b-tree (root is on level 0).
+     * @return
+     */
+    private DecodedNode readNodeOnLevel(UUID tapeID, int nodePointer, int level)
+    {
+        if(this.pointerToPage(nodePointer) < 0 || this.pointerToPage(nodePointer) >= entryService.getTapePages(tapeID))
+            throw new IllegalStateException("Page requested to find a node in it doesn't exist.");
+
+        Lock pageLatch = entryService.getPageLatch(tapeID, this.pointerToPage(nodePointer));
+        pageLatch.lock();
+        try {
+            this.assureBufferForNode(tapeID, this.pointerToPage(nodePointer), level);
+            return entryService.readNode(tapeID, this.pointerToPage(nodePointer));
+        } finally {
+            pageLatch.unlock();
+        }
+    }
     private List<Entry> readAllNodeEntries(UUID tapeID, int nodePointer)
     {
         this.assureBufferForPage(tapeID, this.pointerToPage(nodePointer));
-        List<Entry> entries = new ArrayList<>();
-        int n = 0;
-        while(n < entryService.getNodeEntries(tapeID, this.pointerToPage(nodePointer)))
-        {
-            Entry readEntry = entryService.readEntry(tapeID, this.pointerToPage(nodePointer), n);
-            entries.add(readEntry);
-            n++;
-        }
+        DecodedNode node = entryService.readNode(tapeID, this.pointerToPage(nodePointer));
+        List<Entry> entries = new ArrayList<>(node.getEntriesCount() + 1);
+        for(int n = 0; n < node.getEntriesCount(); n++)
+            entries.add(node.getEntry(n));
         return entries;
     }
 
     private List<Integer> readAllNodePointers(UUID tapeID, int nodePointer)
     {
         this.assureBufferForPage(tapeID, this.pointerToPage(nodePointer));
-        List<Integer> pointers = new ArrayList<>();
-        int n = 0;
-        while(n < entryService.getNodePointers(tapeID, this.pointerToPage(nodePointer)))
-        {
-            int readPointer = entryService.readNodePointer(tapeID, this.pointerToPage(nodePointer), n);
-            pointers.add(readPointer);
-            n++;
-        }
+        DecodedNode node = entryService.readNode(tapeID, this.pointerToPage(nodePointer));
+        List<Integer> pointers = new ArrayList<>(node.getEntriesCount() + 2);
+        for(int n = 0; n <= node.getEntriesCount(); n++)
+            pointers.add(node.getChildPointer(n));
         return pointers;
     }
 
-    private void writeAllNodeData(UUID tapeID, int nodePointer, List<Entry> entries, List<Integer> pointers)
+    /**
+     * Replaces all node entries and pointers (and the entries count in the node header) with a single write of the whole
+     * node, which also becomes the decoded node of the page, so it doesn't have to be decoded again. The page latch is
+     * held until the node is saved, so the page isn't freed with the change not saved yet.
+     * @param tapeID
+     * @param nodePointer
+     * @param entries
+     * @param pointers There should be one pointer more than entries.
+     */
+    private void writeAllNodeData(UUID tapeID, int nodePointer, List<Entry> entries, List<Integer> pointers) throws InvalidAlgorithmParameterException
     {
-        this.assureBufferForPage(tapeID, this.pointerToPage(nodePointer));
-        entryService.clearNodeData(tapeID, this.pointerToPage(nodePointer));
-        for(int i = 0; i < entries.size(); i++)
-            entryService.writeEntry(tapeID, this.pointerToPage(nodePointer), i, entries.get(i));
+        if(pointers.size() != entries.size() + 1)
+            throw new IllegalStateException("Node should have exactly one child pointer more than entries, but it had " +
+                    entries.size() + " entries and " + pointers.size() + " pointers.");
+
+        long[] keys = new long[entries.size()];
+        int[] dataPages = new int[entries.size()];
+        int[] childPointers = new int[pointers.size()];
+        for(int i = 0; i < entries.size(); i++) {
+            keys[i] = entries.get(i).getKey();
+            dataPages[i] = entries.get(i).getDataPage();
+        }
         for(int i = 0; i < pointers.size(); i++)
-            entryService.setNodePointer(tapeID, this.pointerToPage(nodePointer), i, pointers.get(i));
-    }
+            childPointers[i] = pointers.get(i);
 
-    private void updateParentInChildren(UUID tapeID, int nodePointer, int parentPointer) throws InvalidAlgorithmParameterException {
-        this.assureBufferForPage(tapeID, this.pointerToPage(nodePointer));
-        List<Integer> pointers = this.readAllNodePointers(tapeID, nodePointer);
-        for (Integer childPointer : pointers) {
-            if (childPointer == 0)
-                continue;
-            this.assureBufferForPage(tapeID, this.pointerToPage(childPointer));
-            entryService.setNodeParentPointer(tapeID, this.pointerToPage(childPointer), parentPointer);
-            entryService.saveNode(tapeID, this.pointerToPage(childPointer));
+        Lock pageLatch = entryService.getPageLatch(tapeID, this.pointerToPage(nodePointer));
+        pageLatch.lock();
+        try {
+            this.assureBufferForPage(tapeID, this.pointerToPage(nodePointer));
+            entryService.writeNode(tapeID, this.pointerToPage(nodePointer), DecodedNode.builder()
+                    .entriesCount(entries.size())
+                    .keys(keys)
+                    .dataPages(dataPages)
+                    .childPointers(childPointers)
+                    .build());
+            entryService.saveNode(tapeID, this.pointerToPage(nodePointer));
+        } finally {
+            pageLatch.unlock();
         }
     }
-    private void clearNodePage(UUID tapeID, int nodePointer) throws InvalidAlgorithmParameterException {
-        this.assureBufferForPage(tapeID, this.pointerToPage(nodePointer));
-        // Clear the node page and mark it as free page for future nodes
-        entryService.clearNodeData(tapeID, this.pointerToPage(nodePointer));
-        entryService.setNodeParentPointer(tapeID, this.pointerToPage(nodePointer), 0);
-        entryService.setFreeSpaceOnPage(tapeID, this.pointerToPage(nodePointer), this.calculateNodeSize());
-        // Save cleared page
-        entryService.saveNode(tapeID, this.pointerToPage(nodePointer));
-        // Free the page block from memory, as it doesn't contain any node data for now
-        entryService.freeBufferedBlock(tapeID, this.pointerToPage(nodePointer));
-    }
-    private Entry findBiggestEntryInSubtree(UUID tapeID, int nodePointer)
+
+    /**
+     * Replaces a single node entry (without modifying pointers) and saves the node, holding the page latch.
+     * @param tapeID
+     * @param nodePointer
+     * @param n
+     * @param entry
+     */
+    private void writeNodeEntry(UUID tapeID, int nodePointer, int n, Entry entry) throws InvalidAlgorithmParameterException
     {
-        if(nodePointer == 0)
-            throw new IllegalStateException("Node pointer provided as a start of a subtree to search through was null.");
+        Lock pageLatch = entryService.getPageLatch(tapeID, this.pointerToPage(nodePointer));
+        pageLatch.lock();
+        try {
+            this.assureBufferForPage(tapeID, this.pointerToPage(nodePointer));
+            entryService.writeEntry(tapeID, this.pointerToPage(nodePointer), n, entry);
+            entryService.saveNode(tapeID, this.pointerToPage(nodePointer));
+        } finally {
+            pageLatch.unlock();
+        }
+    }
 
-        this.assureBufferForPage(tapeID, this.pointerToPage(nodePointer));
-        List<Integer> pointers = this.readAllNodePointers(tapeID, nodePointer);
-        boolean isLeafNode = pointers.stream().filter(p -> p != 0).collect(Collectors.toList()).isEmpty();
-        if(!isLeafNode)
-            return this.findBiggestEntryInSubtree(tapeID, pointers.get(pointers.size() - 1));
+    /**
+     * Finds an empty page (or adds a new one) for a new node and marks it as taken, under the allocation latch, so no
+     * other thread takes the same page.
+     * @param tapeID
+     * @return Page for the new node.
+     */
+    private int allocateNodePage(UUID tapeID)
+    {
+        Lock allocationLatch = entryService.getAllocationLatch(tapeID);
+        allocationLatch.lock();
+        try {
+            int page = this.findSpaceForNode(tapeID);
+            if(page == -1)
+            {
+                page = entryService.getTapePages(tapeID);
+                this.assureBufferForPage(tapeID, page);
+                entryService.addNextPage(tapeID);
+            }
+            else
+                this.assureBufferForPage(tapeID, page);
 
-        this.lastSearchedNode = nodePointer;
-        int lastEntryNumber = entryService.getNodeEntries(tapeID, this.pointerToPage(nodePointer)) - 1;
-        return entryService.readEntry(tapeID, this.pointerToPage(nodePointer), lastEntryNumber);
+            entryService.setFreeSpaceOnPage(tapeID, page, 0); // Make this page taken by the node
+            return page;
+        } finally {
+            allocationLatch.unlock();
+        }
     }
 
-    private Entry findSmallestEntryInSubtree(UUID tapeID, int nodePointer)
+    private void clearNodePage(UUID tapeID, int nodePointer) throws InvalidAlgorithmParameterException {
+        Lock pageLatch = entryService.getPageLatch(tapeID, this.pointerToPage(nodePointer));
+        pageLatch.lock();
+        try {
+            this.assureBufferForPage(tapeID, this.pointerToPage(nodePointer));
+            // Clear the node page and mark it as free page for future nodes
+            entryService.clearNodeData(tapeID, this.pointerToPage(nodePointer));
+            entryService.setFreeSpaceOnPage(tapeID, this.pointerToPage(nodePointer), this.calculateNodeSize());
+            // Save cleared page
+            entryService.saveNode(tapeID, this.pointerToPage(nodePointer));
+            // Free the page block from memory, as it doesn't contain any node data for now
+            entryService.freeBufferedBlock(tapeID, this.pointerToPage(nodePointer));
+        } finally {
+            pageLatch.unlock();
+        }
+    }
+    /**
+     * Latches the nodes on the way down for writing, without releasing any of them, since the entry found in the leaf
+     * replaces an entry of the node above.
+     * @param tapeID
+     * @param nodePointer
+     * @param latchedPath Path of the delete, to which visited nodes and their latches are appended.
+     * @return
+     */
+    private Entry findBiggestEntryInSubtree(UUID tapeID, LatchedPath latchedPath, int nodePointer)
     {
         if(nodePointer == 0)
             throw new IllegalStateException("Node pointer provided as a start of a subtree to search through was null.");
 
+        latchedPath.latch(this.nodeLatches.getNodeLatch(nodePointer).writeLock());
+        latchedPath.addNode(nodePointer);
         this.assureBufferForPage(tapeID, this.pointerToPage(nodePointer));
-        List<Integer> pointers = this.readAllNodePointers(tapeID, nodePointer);
-        boolean isLeafNode = pointers.stream().filter(p -> p != 0).collect(Collectors.toList()).isEmpty();
-        if(!isLeafNode)
-            return this.findSmallestEntryInSubtree(tapeID, pointers.get(0));
+        DecodedNode node = entryService.readNode(tapeID, this.pointerToPage(nodePointer));
+        if(!node.isLeaf())
+            return this.findBiggestEntryInSubtree(tapeID, latchedPath, node.getChildPointer(node.getEntriesCount()));
 
-        this.lastSearchedNode = nodePointer;
-        int firstEntryNumber = 0;
-        return entryService.readEntry(tapeID, this.pointerToPage(nodePointer), firstEntryNumber);
+        return node.getEntry(node.getEntriesCount() - 1);
     }
 
-    private boolean canNodeCompensate(UUID tapeID, int nodePointer, boolean forOverflow)
+    /**
+     * Latches the sibling node for writing, before it is read - the latch is held until the end of the operation, since
+     * the node may be compensated or merged with the sibling.
+     * @param tapeID
+     * @param latchedPath
+     * @param nodePointer Sibling node pointer (0, if there is no such sibling).
+     * @param forOverflow
+     * @return
+     */
+    private boolean canNodeCompensate(UUID tapeID, LatchedPath latchedPath, int nodePointer, boolean forOverflow)
     {
         if(nodePointer == 0)
             return false;
 
+        latchedPath.latch(this.nodeLatches.getNodeLatch(nodePointer).writeLock());
         this.assureBufferForPage(tapeID, this.pointerToPage(nodePointer));
         if(forOverflow && entryService.getNodeEntries(tapeID, this.pointerToPage(nodePointer)) < (2 * this.d))
             return true;
@@ -689,16 +1200,21 @@ public class BTreeService {
         return false;
     }
 
-    private List<Integer> getSiblingsPointers(UUID tapeID, int nodePointer)
+    /**
+     * @param tapeID
+     * @param path Pointers of nodes from the root to the node, which siblings should be found (the last one).
+     * @return Left and right sibling pointers (0 if there is no such sibling) or null, if the node is root.
+     */
+    private List<Integer> getSiblingsPointers(UUID tapeID, List<Integer> path)
     {
-        this.assureBufferForPage(tapeID, this.pointerToPage(nodePointer));
-        int parentPointer = entryService.readNodeParentPointer(tapeID, this.pointerToPage(nodePointer));
+        int nodePointer = path.get(path.size() - 1);
+        int parentPointer = this.getParentPointer(path);
         if(parentPointer != 0) // If a node doesn't have a parent, then it is root, and it doesn't have siblings
         {
             this.assureBufferForPage(tapeID, this.pointerToPage(parentPointer));
             int childPointerNumber = entryService.findNodePointerNumber(tapeID, this.pointerToPage(parentPointer), nodePointer);
             if (childPointerNumber == -1)
-                throw new IllegalStateException("This node should be a parent of some child node (according to the child header)," +
+                throw new IllegalStateException("This node should be a parent of some child node (according to the search path)," +
                         " but it didn't contain a pointer equal to the child pointer.");
 
             int leftSiblingPointer = 0;
@@ -729,7 +1245,15 @@ public class BTreeService {
             throw new IllegalStateException("Entry can't be inserted into a node, which is full of entries already.");
 
         if(entryService.getNodeEntries(tapeID, this.pointerToPage(nodePointer)) == 0) // Inserting first entry in the node (possible with root node)
-            entryService.setFreeSpaceOnPage(tapeID, this.pointerToPage(nodePointer), 0); // Make this page taken by the node
+        {
+            Lock allocationLatch = entryService.getAllocationLatch(tapeID);
+            allocationLatch.lock();
+            try {
+                entryService.setFreeSpaceOnPage(tapeID, this.pointerToPage(nodePointer), 0); // Make this page taken by the node
+            } finally {
+                allocationLatch.unlock();
+            }
+        }
 
         // Read all entries and pointers from the node
         List<Entry> entries = this.readAllNodeEntries(tapeID, nodePointer);
@@ -738,11 +1262,7 @@ public class BTreeService {
         entries.add(insertionEntryNumber, entry);
         pointers.add(insertionEntryNumber + 1, rightPointer);
         // Rewrite all node entries and pointers, so they will be ordered in the node as in the list
-        for(int i = 0; i < entries.size(); i++)
-            entryService.writeEntry(tapeID, this.pointerToPage(nodePointer), i, entries.get(i));
-        for(int i = 0; i < pointers.size(); i++)
-            entryService.setNodePointer(tapeID, this.pointerToPage(nodePointer), i, pointers.get(i));
-        entryService.saveNode(tapeID, this.pointerToPage(nodePointer));
+        this.writeAllNodeData(tapeID, nodePointer, entries, pointers);
     }
 
     private int findEntryInsertionIndex(List<Entry> entries, Entry entry)
@@ -770,17 +1290,28 @@ public class BTreeService {
         if(entries == null)
             throw new IllegalStateException("Entries list provided to compare with some entry was null.");
 
-        if(entries.isEmpty())
-            return -1;
-
-        Optional<Entry> firstBiggerEntry = entries.stream()
-                .filter(nodeEntry -> nodeEntry.getKey() > key)
-                .min(Comparator.comparingLong(Entry::getKey));
+        // Node entries are sorted by their keys, so the first bigger one is found by binary search
+        int low = 0;
+        int high = entries.size() - 1;
+        while(low <= high)
+        {
+            int middle = (low + high) >>> 1;
+            if(entries.get(middle).getKey() > key)
+                high = middle - 1;
+            else
+                low = middle + 1;
+        }
 
-        if(firstBiggerEntry.isEmpty())
-            return -1;
+        return low < entries.size() ? low : -1;
+    }
 
-        return entries.indexOf(firstBiggerEntry.get());
+    /**
+     * @param path Pointers of nodes from the root to some node (the last one).
+     * @return Pointer of the node parent, which is the previous node on the path, or 0, if the node is root.
+     */
+    private int getParentPointer(List<Integer> path)
+    {
+        return path.size() > 1 ? path.get(path.size() - 2) : 0;
     }
 
     public int calculateNodeSize()
@@ -810,46 +1341,31 @@ public class BTreeService {
     }
 
     /**
-     * Searches array of amounts of free space on each page of tape. Each tape has that array, and it needs to be updated.
+     * Looks up the first empty page in the tape free space map. Each tape has that map, and it needs to be updated.
      * @param tapeID
      * @return Returns page nr with enough space to write the node on it, or -1, if all pages
      * are full (or there is none yet) and new page needs to be added to tape.
      */
     private int findSpaceForNode(UUID tapeID)
     {
-        int page = 0;
-        while(page < entryService.getTapePages(tapeID))
-        {
-            if(entryService.getFreeSpaceOnPage(tapeID, page) != 0) // Each node takes up full page, so it can be only full or empty
-                return page;
-
-            page++;
-        }
-        return -1;
+        // Each node takes up full page, so it can be only full or empty
+        return entryService.findPageWithFreeSpace(tapeID, this.calculateNodeSize());
     }
 
     /**
-     * Method of choosing which buffer should be freed. Takes into account page number, which will be loaded next.
-     * There will always be chosen some page to free (the most optimal from currently buffered), unless there are no pages buffered.
+     * Pins page of a node from one of the top {@link BTreeService#pinnedLevels} levels, or assures that there is
+     * a space to read it, like {@link BTreeService#assureBufferForPage}, if the node is lower or the pinned buffers
+     * limit is full.
      * @param tapeID
-     * @param pageToLoad
-     * @return Number of the buffered page, which lies in the tape furthest from the next page to load.
+     * @param page
+     * @param level Level of the node in the b-tree (root is on level 0).
      */
-    private int choosePageToFree(UUID tapeID, int pageToLoad)
+    private void assureBufferForNode(UUID tapeID, int page, int level)
     {
-        Set<Integer> bufferedPages = entryService.getBufferedPages(tapeID);
-        //bufferedPages.remove(this.rootPage); // Never free root page
-        if(bufferedPages.isEmpty())
-            throw new IllegalStateException("There was no buffered pages for this tape. There was no page to choose to be freed.");
-
-        if(bufferedPages.contains(null))
-            throw new IllegalStateException("Something went wrong in maintaining buffered pages numbers set" +
-                    " - it contained a null value.");
-
-        Optional<Integer> furthestPage = bufferedPages.stream()
-                .max(Comparator.comparingInt(page -> Math.abs(page - pageToLoad)));
+        if(level < this.pinnedLevels && entryService.pinPage(tapeID, page))
+            return;
 
-        return furthestPage.get();
+        this.assureBufferForPage(tapeID, page);
     }
 
     /**
@@ -860,12 +1376,6 @@ public class BTreeService {
      */
     private void assureBufferForPage(UUID tapeID, int page)
     {
-        if(!entryService.getBufferedPages(tapeID).contains(page))
-        {
-            if(entryService.isTapeMaxBuffers(tapeID)) {
-                int pageToFree = this.choosePageToFree(tapeID, page);
-                entryService.freeBufferedBlock(tapeID, pageToFree);
-            }
-        }
+        entryService.assureBufferForPage(tapeID, page);
     }
 }
@@ -0,0 +1,43 @@
+package btree.service;
+
+/**
+ * Plans sizes of the nodes of a single index level built bottom-up by a bulk load. Sizes are planned before any node
+ * is written, because the last nodes of a level can't be fixed later without writing their pages again.
+ * <br></br><br></br>
+ * Sizes are counted in slots - a unit, which each node type maps to its contents (e.g. children of an internal node).
+ */
+class BulkLoadPlanner {
+
+    private BulkLoadPlanner()
+    {
+    }
+
+    /**
+     * Splits slots of a level into as few nodes as possible, when each node gets about the fill factor part of its
+     * capacity, and spreads the slots evenly between the nodes, so none of them is below the minimum. Single node of
+     * a level is the root, so it can have fewer slots than the minimum.
+     * @param slots Number of slots to split into nodes.
+     * @param minSlots Minimal number of slots of a node. It shouldn't be bigger than half of {@code maxSlots}
+     *                 (rounded up).
+     * @param maxSlots Node capacity.
+     * @param fillFactor Part of the node capacity, which should be filled, from range (0, 1].
+     * @return Numbers of slots of the consecutive nodes of the level.
+     */
+    static int[] planLevel(int slots, int minSlots, int maxSlots, double fillFactor)
+    {
+        if(fillFactor <= 0 || fillFactor > 1)
+            throw new IllegalArgumentException("Fill factor must be bigger than 0 and not bigger than 1.");
+
+        int targetSlots = Math.max(minSlots, Math.min(maxSlots, (int) Math.round(maxSlots * fillFactor)));
+        int nodes = Math.max(1, slots / targetSlots);
+        // Remainder of the slots is spread between the nodes, which can make them overflow, if the target is close
+        // to the capacity
+        while((slots + nodes - 1) / nodes > maxSlots)
+            nodes++;
+
+        int[] nodesSlots = new int[nodes];
+        for(int n = 0; n < nodes; n++)
+            nodesSlots[n] = slots / nodes + (n < slots % nodes ? 1 : 0);
+        return nodesSlots;
+    }
+}
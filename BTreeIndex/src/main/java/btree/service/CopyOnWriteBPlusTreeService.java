@@ -0,0 +1,1010 @@
+package btree.service;
+
+import entry.entity.Entry;
+import entry.service.EntryService;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.ToString;
+import node.entity.BPlusNode;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Copy-on-write (shadow paged) B+tree index. Nodes are never changed in place - an insert or delete writes new copies
+ * of the changed nodes (the leaf, its siblings taking part in a merge or compensation, and all ancestors up to the
+ * root) to empty pages, and then publishes the new root at once. Readers take the current root (a snapshot of the
+ * tree) and read its nodes without any latches, since nodes reachable from a published root never change, so long
+ * scans run alongside changes. Pages replaced by a change are reused only after no reader uses a snapshot, from which
+ * they're reachable.
+ * <br></br><br></br>
+ * Nodes use the B+tree page layout, but leaves aren't linked (a change of a leaf would have to copy its neighbours
+ * too), so sequential reading gets to the next leaf through the parents kept by the reader. Changes are done by one
+ * writer at a time.
+ */
+@Builder
+@ToString
+@AllArgsConstructor
+public class CopyOnWriteBPlusTreeService implements IndexService {
+
+    private EntryService entryService;
+
+    /**
+     * Degree of the b-tree, with which the index pages size is calculated. Capacities of the leaves and internal nodes
+     * are calculated from that page size, like in {@link BPlusTreeService}.
+     */
+    private final int d;
+
+    /**
+     * Currently published snapshot of the tree.
+     */
+    private final AtomicReference<IndexSnapshot> snapshot = new AtomicReference<>(new IndexSnapshot(0, 0, 0));
+
+    /**
+     * Number of the readers of each snapshot version, which haven't released it yet.
+     */
+    private final ConcurrentSkipListMap<Long, Integer> snapshotsReaders = new ConcurrentSkipListMap<>();
+
+    /**
+     * Pages replaced by the change, which published each snapshot version. They're reachable only from the older
+     * snapshots, so they're freed, when no older snapshot is being read. Guarded by the writer lock.
+     */
+    private final TreeMap<Long, List<Integer>> retiredPages = new TreeMap<>();
+
+    /**
+     * Lock held by the changes of the tree, so there is only one writer at a time. Readers never take it.
+     */
+    private final ReentrantLock writerLock = new ReentrantLock();
+
+    /**
+     * Positions of the sequential reads - each thread reads entries on its own.
+     */
+    private final ThreadLocal<SnapshotReadContext> sequentialReads = ThreadLocal.withInitial(SnapshotReadContext::new);
+
+    /**
+     * Counter of merge operations done.
+     */
+    private final AtomicInteger merges = new AtomicInteger();
+
+    /**
+     * Counter of split operations done.
+     */
+    private final AtomicInteger splits = new AtomicInteger();
+
+    /**
+     * Counter of compensation operations (moving entries from a sibling node) done.
+     */
+    private final AtomicInteger compensations = new AtomicInteger();
+
+    @Override
+    public void createEntry(UUID tapeID, Entry entry) throws InvalidAlgorithmParameterException {
+        if(this.insertEntryIfAbsent(tapeID, entry.getKey(), entry::getDataPage) != null)
+            System.out.println("Entry with provided key already exists. Creation of new entry hasn't succeeded.");
+    }
+
+    /**
+     * New copies of the changed nodes are written from the leaf up to the root, so pages taken from the end of the
+     * index file are appended in the order of writing.
+     */
+    @Override
+    public Entry insertEntryIfAbsent(UUID tapeID, long key, DataPageSupplier dataPageSupplier)
+            throws InvalidAlgorithmParameterException {
+        this.writerLock.lock();
+        try {
+            IndexSnapshot snapshot = this.snapshot.get();
+            if(snapshot.getRootPointer() == 0)
+            {
+                List<Entry> entries = new ArrayList<>();
+                entries.add(Entry.builder()
+                        .key(key)
+                        .dataPage(dataPageSupplier.getDataPage())
+                        .build());
+                this.publish(tapeID, this.writeNewNode(tapeID, this.createLeaf(entries)), 0, List.of());
+                return null;
+            }
+
+            List<Integer> pointers = new ArrayList<>();
+            List<Integer> childNumbers = new ArrayList<>();
+            List<BPlusNode> nodes = this.descend(tapeID, snapshot, key, pointers, childNumbers);
+            BPlusNode leaf = nodes.get(nodes.size() - 1);
+            int entryNumber = leaf.findEntryNumber(key);
+            if(entryNumber >= 0)
+                return leaf.getEntries().get(entryNumber);
+
+            List<Entry> entries = leaf.getEntries();
+            entries.add(-entryNumber - 1, Entry.builder()
+                    .key(key)
+                    .dataPage(dataPageSupplier.getDataPage())
+                    .build());
+
+            // New copy of the leaf, or two leaves, if it overflows (the copy of the first right leaf key separates them)
+            int leftPointer;
+            int rightPointer = 0;
+            Long separatorKey = null;
+            if(entries.size() <= this.getMaxLeafEntries())
+                leftPointer = this.writeNewNode(tapeID, this.createLeaf(entries));
+            else
+            {
+                int middleEntryNumber = entries.size() / 2;
+                leftPointer = this.writeNewNode(tapeID, this.createLeaf(entries.subList(0, middleEntryNumber)));
+                rightPointer = this.writeNewNode(tapeID, this.createLeaf(entries.subList(middleEntryNumber, entries.size())));
+                separatorKey = entries.get(middleEntryNumber).getKey();
+                this.splits.incrementAndGet();
+            }
+
+            // Ancestors are copied from the bottom up, each one pointing to the new copy of its child
+            for(int level = nodes.size() - 2; level >= 0; level--)
+            {
+                BPlusNode parent = nodes.get(level);
+                List<Long> keys = parent.getKeys();
+                List<Integer> childPointers = parent.getChildPointers();
+                int childNumber = childNumbers.get(level);
+                childPointers.set(childNumber, leftPointer);
+                if(separatorKey != null) {
+                    keys.add(childNumber, separatorKey);
+                    childPointers.add(childNumber + 1, rightPointer);
+                }
+
+                if(keys.size() <= this.getMaxInternalKeys())
+                {
+                    leftPointer = this.writeNewNode(tapeID, this.createInternal(keys, childPointers));
+                    rightPointer = 0;
+                    separatorKey = null;
+                    continue;
+                }
+
+                // Split the internal node - the middle key is moved up to its parent, instead of being copied
+                int middleKeyNumber = keys.size() / 2;
+                leftPointer = this.writeNewNode(tapeID, this.createInternal(keys.subList(0, middleKeyNumber),
+                        childPointers.subList(0, middleKeyNumber + 1)));
+                rightPointer = this.writeNewNode(tapeID, this.createInternal(keys.subList(middleKeyNumber + 1, keys.size()),
+                        childPointers.subList(middleKeyNumber + 1, childPointers.size())));
+                separatorKey = keys.get(middleKeyNumber);
+                this.splits.incrementAndGet();
+            }
+
+            int height = snapshot.getHeight();
+            if(separatorKey != null) // Root split -> new root with the two nodes as children
+            {
+                leftPointer = this.writeNewNode(tapeID, this.createInternal(List.of(separatorKey),
+                        List.of(leftPointer, rightPointer)));
+                height++;
+            }
+
+            this.publish(tapeID, leftPointer, height, pointers);
+            return null;
+        } finally {
+            this.writerLock.unlock();
+        }
+    }
+
+    /**
+     * Reads the current snapshot without any latches.
+     */
+    @Override
+    public Entry findEntry(UUID tapeID, long key)
+    {
+        IndexSnapshot snapshot = this.acquireSnapshot();
+        try {
+            if(snapshot.getRootPointer() == 0) // Index doesn't have any entries yet
+                return null;
+
+            List<BPlusNode> nodes = this.descend(tapeID, snapshot, key, new ArrayList<>(), new ArrayList<>());
+            BPlusNode leaf = nodes.get(nodes.size() - 1);
+            int entryNumber = leaf.findEntryNumber(key);
+            return entryNumber >= 0 ? leaf.getEntries().get(entryNumber) : null;
+        } finally {
+            this.releaseSnapshot(snapshot);
+        }
+    }
+
+    /**
+     * Searches the snapshot for the leaf, to which the key belongs.
+     * @param tapeID
+     * @param snapshot Snapshot with a root.
+     * @param key
+     * @param pointers List, to which pointers of the visited nodes are added, from the root to the leaf.
+     * @param childNumbers List, to which numbers of the child pointers taken in the internal nodes are added.
+     * @return Visited nodes, from the root to the leaf.
+     */
+    private List<BPlusNode> descend(UUID tapeID, IndexSnapshot snapshot, long key, List<Integer> pointers,
+                                    List<Integer> childNumbers)
+    {
+        List<BPlusNode> nodes = new ArrayList<>();
+        int nodePointer = snapshot.getRootPointer();
+        for(int level = 0; ; level++)
+        {
+            boolean leaf = level == snapshot.getHeight();
+            BPlusNode node = this.readNode(tapeID, nodePointer, leaf);
+            nodes.add(node);
+            pointers.add(nodePointer);
+            if(leaf)
+                return nodes;
+
+            int childNumber = node.findChildNumber(key);
+            childNumbers.add(childNumber);
+            nodePointer = node.getChildPointers().get(childNumber);
+        }
+    }
+
+    @Override
+    public void deleteEntry(UUID tapeID, long key) throws InvalidAlgorithmParameterException {
+        if(this.removeEntry(tapeID, key) == null)
+            System.out.println("Entry with provided key doesn't exist. Deletion of the entry hasn't succeeded.");
+    }
+
+    /**
+     * Underflown nodes take entries from a sibling or are merged with it from the bottom up, as long as their parent
+     * underflows too, and then the rest of the path is copied, like by inserts.
+     */
+    @Override
+    public Entry removeEntry(UUID tapeID, long key) throws InvalidAlgorithmParameterException {
+        this.writerLock.lock();
+        try {
+            IndexSnapshot snapshot = this.snapshot.get();
+            if(snapshot.getRootPointer() == 0) // Index doesn't have any entries yet
+                return null;
+
+            List<Integer> pointers = new ArrayList<>();
+            List<Integer> childNumbers = new ArrayList<>();
+            List<BPlusNode> nodes = this.descend(tapeID, snapshot, key, pointers, childNumbers);
+            BPlusNode leaf = nodes.get(nodes.size() - 1);
+            int entryNumber = leaf.findEntryNumber(key);
+            if(entryNumber < 0)
+                return null;
+
+            // Separator keys in internal nodes only guide the search, so they don't have to be changed, when the entry
+            // with the same key is deleted
+            Entry existingEntry = leaf.getEntries().remove(entryNumber);
+            List<Integer> replacedPointers = new ArrayList<>(pointers);
+            int level = nodes.size() - 1;
+            while(level > 0 && this.isUnderflown(nodes.get(level)))
+            {
+                this.rebalance(tapeID, nodes.get(level - 1), childNumbers.get(level - 1), nodes.get(level),
+                        replacedPointers);
+                level--;
+            }
+
+            int height = snapshot.getHeight();
+            BPlusNode node = nodes.get(level);
+            int rootPointer;
+            if(level == 0 && !node.isLeaf() && node.getKeys().isEmpty())
+            {
+                // Root has a single child left, so the child becomes the root and the tree gets lower
+                rootPointer = node.getChildPointers().get(0);
+                height--;
+            }
+            else if(level == 0 && node.isLeaf() && node.getEntries().isEmpty())
+                rootPointer = 0; // Last entry has been deleted
+            else
+            {
+                rootPointer = this.writeNewNode(tapeID, node);
+                for(int parentLevel = level - 1; parentLevel >= 0; parentLevel--)
+                {
+                    BPlusNode parent = nodes.get(parentLevel);
+                    parent.getChildPointers().set(childNumbers.get(parentLevel), rootPointer);
+                    rootPointer = this.writeNewNode(tapeID, parent);
+                }
+            }
+
+            this.publish(tapeID, rootPointer, height, replacedPointers);
+            return existingEntry;
+        } finally {
+            this.writerLock.unlock();
+        }
+    }
+
+    /**
+     * @param node Node, which isn't the root.
+     * @return Whether the node has fewer entries (or keys) than its minimum.
+     */
+    private boolean isUnderflown(BPlusNode node)
+    {
+        return node.isLeaf() ? node.getEntries().size() < this.getMinLeafEntries()
+                : node.getKeys().size() < this.getMinInternalKeys();
+    }
+
+    /**
+     * @param node
+     * @return Whether the node can give one entry (or key) to its sibling without underflowing.
+     */
+    private boolean canLend(BPlusNode node)
+    {
+        return node.isLeaf() ? node.getEntries().size() > this.getMinLeafEntries()
+                : node.getKeys().size() > this.getMinInternalKeys();
+    }
+
+    /**
+     * Fixes underflow of the node by moving an entry (or a key) from a sibling, or by merging it with a sibling. New
+     * copies of the changed children are written, and the parent is changed to point to them, but it isn't written
+     * yet, since it may underflow now too.
+     * @param tapeID
+     * @param parent Parent of the node, which is changed in place.
+     * @param childNumber Number of the node child pointer in the parent.
+     * @param node Underflown node.
+     * @param replacedPointers List, to which pointers of the replaced siblings are added.
+     */
+    private void rebalance(UUID tapeID, BPlusNode parent, int childNumber, BPlusNode node, List<Integer> replacedPointers)
+            throws InvalidAlgorithmParameterException {
+        List<Long> parentKeys = parent.getKeys();
+        List<Integer> parentPointers = parent.getChildPointers();
+        int leftPointer = childNumber > 0 ? parentPointers.get(childNumber - 1) : 0;
+        int rightPointer = childNumber < parentPointers.size() - 1 ? parentPointers.get(childNumber + 1) : 0;
+        if(leftPointer == 0 && rightPointer == 0)
+            throw new IllegalStateException("Something went wrong. This node has a parent, but it doesn't have any siblings," +
+                    " which shouldn't happen (there should be always at least 1 sibling).");
+
+        // Try compensation with the left sibling
+        BPlusNode left = leftPointer != 0 ? this.readNode(tapeID, leftPointer, node.isLeaf()) : null;
+        if(left != null && this.canLend(left))
+        {
+            if(node.isLeaf()) {
+                node.getEntries().add(0, left.getEntries().remove(left.getEntries().size() - 1));
+                parentKeys.set(childNumber - 1, node.getEntries().get(0).getKey());
+            }
+            else {
+                node.getKeys().add(0, parentKeys.get(childNumber - 1));
+                node.getChildPointers().add(0, left.getChildPointers().remove(left.getChildPointers().size() - 1));
+                parentKeys.set(childNumber - 1, left.getKeys().remove(left.getKeys().size() - 1));
+            }
+            parentPointers.set(childNumber - 1, this.writeNewNode(tapeID, left));
+            parentPointers.set(childNumber, this.writeNewNode(tapeID, node));
+            replacedPointers.add(leftPointer);
+            this.compensations.incrementAndGet();
+            return;
+        }
+
+        // Try compensation with the right sibling
+        BPlusNode right = rightPointer != 0 ? this.readNode(tapeID, rightPointer, node.isLeaf()) : null;
+        if(right != null && this.canLend(right))
+        {
+            if(node.isLeaf()) {
+                node.getEntries().add(right.getEntries().remove(0));
+                parentKeys.set(childNumber, right.getEntries().get(0).getKey());
+            }
+            else {
+                node.getKeys().add(parentKeys.get(childNumber));
+                node.getChildPointers().add(right.getChildPointers().remove(0));
+                parentKeys.set(childNumber, right.getKeys().remove(0));
+            }
+            parentPointers.set(childNumber, this.writeNewNode(tapeID, node));
+            parentPointers.set(childNumber + 1, this.writeNewNode(tapeID, right));
+            replacedPointers.add(rightPointer);
+            this.compensations.incrementAndGet();
+            return;
+        }
+
+        // Merge the right one of the two nodes into the left one
+        if(left != null)
+        {
+            this.mergeNodes(tapeID, parent, childNumber - 1, left, node);
+            replacedPointers.add(leftPointer);
+        }
+        else
+        {
+            this.mergeNodes(tapeID, parent, childNumber, node, right);
+            replacedPointers.add(rightPointer);
+        }
+
+        // Update merge counter for statistics analysis
+        this.merges.incrementAndGet();
+    }
+
+    /**
+     * Writes a copy of the left node with all entries (or keys) of the right one, and removes the right node from the
+     * parent.
+     * @param tapeID
+     * @param parent
+     * @param separatorNumber Number of the parent key, which separates the merged nodes.
+     * @param left
+     * @param right
+     */
+    private void mergeNodes(UUID tapeID, BPlusNode parent, int separatorNumber, BPlusNode left, BPlusNode right)
+            throws InvalidAlgorithmParameterException {
+        if(left.isLeaf())
+            left.getEntries().addAll(right.getEntries());
+        else {
+            // Separator key goes down between the keys of the merged internal nodes
+            left.getKeys().add(parent.getKeys().get(separatorNumber));
+            left.getKeys().addAll(right.getKeys());
+            left.getChildPointers().addAll(right.getChildPointers());
+        }
+        parent.getKeys().remove(separatorNumber);
+        parent.getChildPointers().remove(separatorNumber + 1);
+        parent.getChildPointers().set(separatorNumber, this.writeNewNode(tapeID, left));
+    }
+
+    /**
+     * Reads entries of the snapshot, which was current at the first read (after a reset or seek). The snapshot is held,
+     * until all its entries have been read or the reading is reset, so pages replaced by changes made in the meantime
+     * aren't reused until then.
+     */
+    @Override
+    public Entry readNextEntry(UUID tapeID)
+    {
+        SnapshotReadContext sequentialRead = this.sequentialReads.get();
+        if(sequentialRead.isExhausted())
+            return null;
+
+        if(sequentialRead.getSnapshot() == null)
+        {
+            IndexSnapshot snapshot = this.acquireSnapshot();
+            sequentialRead.setSnapshot(snapshot);
+            if(snapshot.getRootPointer() == 0) {
+                this.endSequentialRead(sequentialRead);
+                return null;
+            }
+
+            // Single descent to the leaf, to which the next key belongs - the path is kept to get to the next leaves
+            int nodePointer = snapshot.getRootPointer();
+            for(int level = 0; level < snapshot.getHeight(); level++)
+            {
+                BPlusNode node = this.readNode(tapeID, nodePointer, false);
+                int childNumber = node.findChildNumber(sequentialRead.getNextKey());
+                sequentialRead.getAncestors().add(node);
+                sequentialRead.getChildNumbers().add(childNumber);
+                nodePointer = node.getChildPointers().get(childNumber);
+            }
+            BPlusNode leaf = this.readNode(tapeID, nodePointer, true);
+            int entryNumber = leaf.findEntryNumber(sequentialRead.getNextKey());
+            sequentialRead.setLeaf(leaf);
+            sequentialRead.setEntryNumber(entryNumber >= 0 ? entryNumber : -entryNumber - 1);
+        }
+
+        while(sequentialRead.getEntryNumber() >= sequentialRead.getLeaf().getEntries().size())
+        {
+            if(!this.moveToNextLeaf(tapeID, sequentialRead)) {
+                this.endSequentialRead(sequentialRead);
+                return null;
+            }
+        }
+
+        Entry entry = sequentialRead.getLeaf().getEntries().get(sequentialRead.getEntryNumber());
+        sequentialRead.setEntryNumber(sequentialRead.getEntryNumber() + 1);
+        return entry;
+    }
+
+    /**
+     * Goes up the kept path to the lowest ancestor, which has a next child, and down to the leftmost leaf of that
+     * child.
+     * @param tapeID
+     * @param sequentialRead
+     * @return Whether there was a next leaf.
+     */
+    private boolean moveToNextLeaf(UUID tapeID, SnapshotReadContext sequentialRead)
+    {
+        List<BPlusNode> ancestors = sequentialRead.getAncestors();
+        List<Integer> childNumbers = sequentialRead.getChildNumbers();
+        int level = ancestors.size() - 1;
+        while(level >= 0 && childNumbers.get(level) == ancestors.get(level).getChildPointers().size() - 1)
+            level--;
+        if(level < 0)
+            return false;
+
+        ancestors.subList(level + 1, ancestors.size()).clear();
+        childNumbers.subList(level + 1, childNumbers.size()).clear();
+        childNumbers.set(level, childNumbers.get(level) + 1);
+        int nodePointer = ancestors.get(level).getChildPointers().get(childNumbers.get(level));
+        for(level++; level < sequentialRead.getSnapshot().getHeight(); level++)
+        {
+            BPlusNode node = this.readNode(tapeID, nodePointer, false);
+            ancestors.add(node);
+            childNumbers.add(0);
+            nodePointer = node.getChildPointers().get(0);
+        }
+
+        sequentialRead.setLeaf(this.readNode(tapeID, nodePointer, true));
+        sequentialRead.setEntryNumber(0);
+
+        // Leaves are read one after another, so the next one can be already read in the background
+        BPlusNode parent = ancestors.get(ancestors.size() - 1);
+        int childNumber = childNumbers.get(childNumbers.size() - 1);
+        if(childNumber < parent.getChildPointers().size() - 1 && entryService.getReadAheadPages() > 0)
+            this.readAhead(tapeID, this.pointerToPage(parent.getChildPointers().get(childNumber + 1)));
+        return true;
+    }
+
+    private void endSequentialRead(SnapshotReadContext sequentialRead)
+    {
+        this.releaseSnapshot(sequentialRead.getSnapshot());
+        sequentialRead.setSnapshot(null);
+        sequentialRead.setExhausted(true);
+    }
+
+    @Override
+    public void resetReadingBTree()
+    {
+        this.seekEntry(null, Long.MIN_VALUE);
+    }
+
+    /**
+     * Releases the snapshot held by the previous reading. Next read searches for the key from the root, so there is
+     * still a single descent, but it happens during the read.
+     */
+    @Override
+    public void seekEntry(UUID tapeID, long key)
+    {
+        SnapshotReadContext sequentialRead = this.sequentialReads.get();
+        if(sequentialRead.getSnapshot() != null)
+            this.releaseSnapshot(sequentialRead.getSnapshot());
+        sequentialRead.seek(key);
+    }
+
+    /**
+     * Leaves are written first, one after another, and then each level of internal nodes is built from the pointers
+     * and the first keys of the level below, so each page is written once and appended to the empty index file in
+     * the order of writing. Pointers and first keys of a single level are kept in memory.
+     * @param tapeID
+     * @param entries Entries with strictly ascending keys.
+     * @param entriesCount Exact number of the entries.
+     * @param fillFactor Part of the nodes capacity filled with entries, from range (0, 1].
+     */
+    @Override
+    public void bulkLoad(UUID tapeID, Iterator<Entry> entries, int entriesCount, double fillFactor)
+            throws InvalidAlgorithmParameterException {
+        this.writerLock.lock();
+        try {
+            if(this.snapshot.get().getRootPointer() != 0 || this.getIndexPages(tapeID) > 0)
+                throw new IllegalStateException("Only an empty index can be bulk loaded.");
+
+            if(entriesCount <= 0)
+                return;
+
+            int[] leavesPlan = BulkLoadPlanner.planLevel(entriesCount, this.getMinLeafEntries(), this.getMaxLeafEntries(),
+                    fillFactor);
+            List<Integer> levelPointers = new ArrayList<>();
+            List<Long> levelFirstKeys = new ArrayList<>();
+            List<Entry> leafEntries = new ArrayList<>();
+            int loadedEntries = 0;
+            long previousKey = 0;
+            while(entries.hasNext())
+            {
+                Entry entry = entries.next();
+                if(loadedEntries > 0 && entry.getKey() <= previousKey)
+                    throw new IllegalArgumentException("Entries to bulk load must have strictly ascending keys, but key " +
+                            entry.getKey() + " came after key " + previousKey + ".");
+
+                if(++loadedEntries > entriesCount)
+                    throw new IllegalArgumentException("There were more entries to bulk load than declared " + entriesCount + ".");
+
+                previousKey = entry.getKey();
+                if(leafEntries.size() == leavesPlan[levelPointers.size()])
+                {
+                    levelPointers.add(this.writeNewNode(tapeID, this.createLeaf(leafEntries)));
+                    levelFirstKeys.add(leafEntries.get(0).getKey());
+                    leafEntries = new ArrayList<>();
+                }
+                leafEntries.add(entry);
+            }
+
+            if(loadedEntries != entriesCount)
+                throw new IllegalArgumentException("There were " + loadedEntries + " entries to bulk load, but " +
+                        entriesCount + " were declared.");
+
+            levelPointers.add(this.writeNewNode(tapeID, this.createLeaf(leafEntries)));
+            levelFirstKeys.add(leafEntries.get(0).getKey());
+            if(levelPointers.size() != leavesPlan.length)
+                throw new IllegalStateException("Bulk load wrote " + levelPointers.size() + " leaves, but " +
+                        leavesPlan.length + " leaves were planned.");
+
+            // Internal nodes take up slots of their children, and the first key of each child but the first one
+            // separates it from the previous child
+            int height = 0;
+            while(levelPointers.size() > 1)
+            {
+                int[] levelPlan = BulkLoadPlanner.planLevel(levelPointers.size(), this.getMinInternalKeys() + 1,
+                        this.getMaxInternalKeys() + 1, fillFactor);
+                List<Integer> upperLevelPointers = new ArrayList<>();
+                List<Long> upperLevelFirstKeys = new ArrayList<>();
+                int firstChild = 0;
+                for(int children : levelPlan)
+                {
+                    upperLevelPointers.add(this.writeNewNode(tapeID, this.createInternal(
+                            levelFirstKeys.subList(firstChild + 1, firstChild + children),
+                            levelPointers.subList(firstChild, firstChild + children))));
+                    upperLevelFirstKeys.add(levelFirstKeys.get(firstChild));
+                    firstChild += children;
+                }
+                levelPointers = upperLevelPointers;
+                levelFirstKeys = upperLevelFirstKeys;
+                height++;
+            }
+
+            this.publish(tapeID, levelPointers.get(0), height, List.of());
+        } finally {
+            this.writerLock.unlock();
+        }
+        this.resetReadingBTree();
+    }
+
+    /**
+     * Registers the current snapshot as being read. It should be released with
+     * {@link CopyOnWriteBPlusTreeService#releaseSnapshot}, when its nodes won't be read anymore.
+     * @return
+     */
+    private IndexSnapshot acquireSnapshot()
+    {
+        while(true)
+        {
+            IndexSnapshot snapshot = this.snapshot.get();
+            this.snapshotsReaders.merge(snapshot.getVersion(), 1, Integer::sum);
+            // A writer, which published a newer snapshot before the registration, might not have seen it and might
+            // have freed pages of this snapshot, so the registration is valid only if the snapshot is still current
+            if(this.snapshot.get() == snapshot)
+                return snapshot;
+
+            this.releaseSnapshot(snapshot);
+        }
+    }
+
+    private void releaseSnapshot(IndexSnapshot snapshot)
+    {
+        this.snapshotsReaders.computeIfPresent(snapshot.getVersion(), (version, readers) -> readers > 1 ? readers - 1 : null);
+    }
+
+    /**
+     * Makes the new root current, so next reads see the change, and frees pages, which aren't reachable from any
+     * snapshot being read anymore. Writer lock must be held.
+     * @param tapeID
+     * @param rootPointer
+     * @param height
+     * @param replacedPointers Pointers of the nodes, which have been replaced by the change.
+     */
+    private void publish(UUID tapeID, int rootPointer, int height, List<Integer> replacedPointers)
+    {
+        long version = this.snapshot.get().getVersion() + 1;
+        this.snapshot.set(new IndexSnapshot(rootPointer, height, version));
+        if(!replacedPointers.isEmpty())
+        {
+            List<Integer> pages = this.retiredPages.computeIfAbsent(version, publishedVersion -> new ArrayList<>());
+            for(int pointer : replacedPointers)
+                pages.add(this.pointerToPage(pointer));
+        }
+        this.saveMetadata(tapeID);
+        this.freeRetiredPages(tapeID);
+    }
+
+    /**
+     * Marks pages replaced by the changes, which published snapshots not newer than the oldest snapshot being read, as
+     * free - they're reachable only from older snapshots, which nobody reads. Writer lock must be held.
+     * @param tapeID
+     */
+    private void freeRetiredPages(UUID tapeID)
+    {
+        Map.Entry<Long, Integer> oldestRead = this.snapshotsReaders.firstEntry();
+        long oldestReadVersion = oldestRead != null ? oldestRead.getKey() : this.snapshot.get().getVersion();
+        Map<Long, List<Integer>> freedPages = this.retiredPages.headMap(oldestReadVersion, true);
+        for(List<Integer> pages : freedPages.values())
+            for(int page : pages)
+                this.freeNodePage(tapeID, page);
+        freedPages.clear();
+    }
+
+    /**
+     * Marks pages, which aren't reachable from the root, as free. Pages, which had been replaced, but were still read
+     * by some snapshot, when the index was last flushed, are saved as taken, so they're found here, after the index
+     * is opened. Only internal nodes are read, since they point to all the leaves.
+     * @param tapeID
+     */
+    private void freeUnreachablePages(UUID tapeID)
+    {
+        IndexSnapshot snapshot = this.snapshot.get();
+        int pages = this.getIndexPages(tapeID);
+        boolean[] reachablePages = new boolean[pages];
+        if(snapshot.getRootPointer() != 0)
+            this.markReachablePages(tapeID, snapshot.getRootPointer(), 0, snapshot.getHeight(), reachablePages);
+
+        for(int page = 0; page < pages; page++)
+            if(!reachablePages[page] && this.getFreeSpaceOnPage(tapeID, page) == 0)
+                this.freeNodePage(tapeID, page);
+    }
+
+    private void markReachablePages(UUID tapeID, int nodePointer, int level, int height, boolean[] reachablePages)
+    {
+        reachablePages[this.pointerToPage(nodePointer)] = true;
+        if(level == height)
+            return;
+
+        for(int childPointer : this.readNode(tapeID, nodePointer, false).getChildPointers())
+        {
+            if(level + 1 == height)
+                reachablePages[this.pointerToPage(childPointer)] = true;
+            else
+                this.markReachablePages(tapeID, childPointer, level + 1, height, reachablePages);
+        }
+    }
+
+    @Override
+    public int getMerges()
+    {
+        return this.merges.get();
+    }
+
+    @Override
+    public int getSplits()
+    {
+        return this.splits.get();
+    }
+
+    @Override
+    public int getCompensations()
+    {
+        return this.compensations.get();
+    }
+
+    @Override
+    public int getReads(UUID tapeID)
+    {
+        return entryService.getReads(tapeID);
+    }
+
+    @Override
+    public int getWrites(UUID tapeID)
+    {
+        return entryService.getWrites(tapeID);
+    }
+
+    @Override
+    public int getTapePages(UUID tapeID)
+    {
+        return entryService.getTapePages(tapeID);
+    }
+
+    @Override
+    public int getTapeFreePages(UUID tapeID)
+    {
+        return entryService.getTapeFreePages(tapeID);
+    }
+
+    /**
+     * Writes all modified buffered index pages to the index file, together with the current snapshot root saved in
+     * the index tape header.
+     * @param tapeID
+     */
+    @Override
+    public void flush(UUID tapeID)
+    {
+        this.writerLock.lock();
+        try {
+            this.saveMetadata(tapeID);
+            this.freeRetiredPages(tapeID);
+            entryService.flush(tapeID);
+        } finally {
+            this.writerLock.unlock();
+        }
+    }
+
+    /**
+     * Passes the current snapshot root and height to the index tape, so they're saved in the tape header. It is done
+     * on each change, since the tapes can be checkpointed after any operation. Writer lock must be held.
+     * @param tapeID
+     */
+    private void saveMetadata(UUID tapeID)
+    {
+        IndexSnapshot snapshot = this.snapshot.get();
+        entryService.setTapeIndexMetadata(tapeID, snapshot.getRootPointer(), this.d, snapshot.getHeight());
+    }
+
+    /**
+     * Restores the root from the header of an index tape opened from a previous app run, and frees pages, which
+     * aren't reachable from it.
+     * @param tapeID
+     */
+    @Override
+    public void open(UUID tapeID)
+    {
+        if(entryService.getTapePages(tapeID) > 0 && entryService.getTapeDegree(tapeID) != this.d)
+            throw new IllegalStateException("Index tape was created for b-tree of degree " +
+                    entryService.getTapeDegree(tapeID) + ", but the b-tree has degree " + this.d + ".");
+
+        if(entryService.getTapeIndexType(tapeID) != IndexType.COPY_ON_WRITE_B_PLUS_TREE.getCode())
+            throw new IllegalStateException("Index tape doesn't contain a copy-on-write B+tree index.");
+
+        this.writerLock.lock();
+        try {
+            this.snapshot.set(new IndexSnapshot(entryService.getTapeRootPointer(tapeID), entryService.getTapeHeight(tapeID),
+                    0));
+            this.retiredPages.clear();
+            this.freeUnreachablePages(tapeID);
+        } finally {
+            this.writerLock.unlock();
+        }
+        this.resetReadingBTree();
+    }
+
+    /**
+     * @param tapeID
+     * @return Number of the index tape pages, read while no other thread adds a page.
+     */
+    private int getIndexPages(UUID tapeID)
+    {
+        Lock allocationLatch = entryService.getAllocationLatch(tapeID);
+        allocationLatch.lock();
+        try {
+            return entryService.getTapePages(tapeID);
+        } finally {
+            allocationLatch.unlock();
+        }
+    }
+
+    private int getFreeSpaceOnPage(UUID tapeID, int page)
+    {
+        Lock allocationLatch = entryService.getAllocationLatch(tapeID);
+        allocationLatch.lock();
+        try {
+            return entryService.getFreeSpaceOnPage(tapeID, page);
+        } finally {
+            allocationLatch.unlock();
+        }
+    }
+
+    /**
+     * Reads the node. Nodes of a snapshot don't change, so only the page latch is held, for the time of reading the
+     * page.
+     * @param tapeID
+     * @param nodePointer
+     * @param leaf
+     * @return
+     */
+    private BPlusNode readNode(UUID tapeID, int nodePointer, boolean leaf)
+    {
+        Lock pageLatch = entryService.getPageLatch(tapeID, this.pointerToPage(nodePointer));
+        pageLatch.lock();
+        try {
+            this.assureBufferForPage(tapeID, this.pointerToPage(nodePointer));
+            return entryService.readBPlusNode(tapeID, this.pointerToPage(nodePointer), leaf);
+        } finally {
+            pageLatch.unlock();
+        }
+    }
+
+    /**
+     * Writes the node to an empty page (or a new one added at the end of the index file). The node isn't reachable
+     * from any snapshot, until a new root is published.
+     * @param tapeID
+     * @param node
+     * @return Pointer of the new node.
+     */
+    private int writeNewNode(UUID tapeID, BPlusNode node) throws InvalidAlgorithmParameterException {
+        int page;
+        Lock allocationLatch = entryService.getAllocationLatch(tapeID);
+        allocationLatch.lock();
+        try {
+            page = entryService.findPageWithFreeSpace(tapeID, this.calculateNodeSize());
+            if(page == -1)
+            {
+                page = entryService.getTapePages(tapeID);
+                entryService.addNextPage(tapeID);
+            }
+
+            entryService.setFreeSpaceOnPage(tapeID, page, 0); // Make this page taken by the node
+        } finally {
+            allocationLatch.unlock();
+        }
+
+        // Page is taken by this node now, so it is written without holding the allocation latch
+        Lock pageLatch = entryService.getPageLatch(tapeID, page);
+        pageLatch.lock();
+        try {
+            this.assureBufferForPage(tapeID, page);
+            entryService.writeBPlusNode(tapeID, page, node);
+            entryService.saveNode(tapeID, page);
+            return this.pageToPointer(page);
+        } finally {
+            pageLatch.unlock();
+        }
+    }
+
+    /**
+     * Marks the page as free for new nodes. Its data isn't cleared, since the page isn't reachable anymore and will
+     * be overwritten by the next node written to it.
+     * @param tapeID
+     * @param page
+     */
+    private void freeNodePage(UUID tapeID, int page)
+    {
+        Lock allocationLatch = entryService.getAllocationLatch(tapeID);
+        allocationLatch.lock();
+        try {
+            entryService.setFreeSpaceOnPage(tapeID, page, this.calculateNodeSize());
+        } finally {
+            allocationLatch.unlock();
+        }
+    }
+
+    private void readAhead(UUID tapeID, int page)
+    {
+        entryService.readAhead(tapeID, List.of(page));
+    }
+
+    /**
+     * Leaves of the copy-on-write tree aren't linked, so their previous and next leaf pointers stay 0.
+     * @param entries
+     * @return
+     */
+    private BPlusNode createLeaf(List<Entry> entries)
+    {
+        return BPlusNode.builder()
+                .leaf(true)
+                .entries(new ArrayList<>(entries))
+                .keys(new ArrayList<>())
+                .childPointers(new ArrayList<>())
+                .build();
+    }
+
+    private BPlusNode createInternal(List<Long> keys, List<Integer> childPointers)
+    {
+        return BPlusNode.builder()
+                .leaf(false)
+                .entries(new ArrayList<>())
+                .keys(new ArrayList<>(keys))
+                .childPointers(new ArrayList<>(childPointers))
+                .build();
+    }
+
+    /**
+     * @return Size of the index pages - the same as of b-tree nodes of degree d.
+     */
+    public int calculateNodeSize()
+    {
+        return entryService.getNodeHeaderSize() + entryService.getNodePointerSize()
+                + 2 * this.d * (Entry.builder().build().getSize() + entryService.getNodePointerSize());
+    }
+
+    private int getMaxLeafEntries()
+    {
+        return entryService.getMaxBPlusLeafEntries(this.calculateNodeSize());
+    }
+
+    private int getMinLeafEntries()
+    {
+        return this.getMaxLeafEntries() / 2;
+    }
+
+    private int getMaxInternalKeys()
+    {
+        return entryService.getMaxBPlusInternalKeys(this.calculateNodeSize());
+    }
+
+    private int getMinInternalKeys()
+    {
+        return this.getMaxInternalKeys() / 2;
+    }
+
+    /**
+     * Map page to node pointer. Adds 1, so pointer of value 0 couldn't exist and the value can be used as null pointer value.
+     * @param page
+     * @return
+     */
+    private int pageToPointer(int page)
+    {
+        return page + 1;
+    }
+
+    /**
+     * Map node pointer to page. Does the exact opposite to {@link CopyOnWriteBPlusTreeService#pageToPointer} method
+     * (Decreases value by 1).
+     * @param pointer
+     * @return
+     */
+    private int pointerToPage(int pointer)
+    {
+        return pointer - 1;
+    }
+
+    /**
+     * It assures that there is a space to read a new page, if it isn't already loaded.
+     * @param tapeID
+     * @param page The page may not exist (it may be one that is being created just now), it just frees a buffer if needed.
+     *             Page parameter is for algorithm of choosing which buffer to free, to take it into account.
+     */
+    private void assureBufferForPage(UUID tapeID, int page)
+    {
+        entryService.assureBufferForPage(tapeID, page);
+    }
+}
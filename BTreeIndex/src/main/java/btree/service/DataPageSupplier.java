@@ -0,0 +1,16 @@
+package btree.service;
+
+import java.security.InvalidAlgorithmParameterException;
+
+/**
+ * Provides the data file page of a record, for which an index entry is being inserted. It's called only after the
+ * index has been searched and the key hasn't been found, so the record can be written to the data file just then.
+ */
+@FunctionalInterface
+public interface DataPageSupplier {
+
+    /**
+     * @return Data file page, on which the record has been written.
+     */
+    int getDataPage() throws InvalidAlgorithmParameterException;
+}
@@ -0,0 +1,138 @@
+package btree.service;
+
+import entry.entity.Entry;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.util.Iterator;
+import java.util.UUID;
+
+/**
+ * Index structure, which maps record keys to the data file pages of the records. Its nodes are stored on index tape
+ * pages, one node per page. {@link database.service.DatabaseService} uses the index only through this interface, so the structure can
+ * be chosen, when the database is created.
+ */
+public interface IndexService {
+
+    /**
+     * Inserts the entry, unless there already is an entry with the same key.
+     * @param tapeID
+     * @param entry
+     */
+    void createEntry(UUID tapeID, Entry entry) throws InvalidAlgorithmParameterException;
+
+    /**
+     * Inserts an entry with the key, unless there already is one, with a single descent from the root - the search
+     * for the key ends in the leaf, to which the key belongs, and the entry is inserted there, without searching again.
+     * @param tapeID
+     * @param key
+     * @param dataPageSupplier Called only when the key doesn't exist yet, after the search, to get the data page of
+     *                         the new entry (e.g. by writing the record to the data file).
+     * @return Existing entry with the key (nothing is inserted then) or null, if the entry has been inserted.
+     */
+    Entry insertEntryIfAbsent(UUID tapeID, long key, DataPageSupplier dataPageSupplier)
+            throws InvalidAlgorithmParameterException;
+
+    /**
+     * @param tapeID
+     * @param key
+     * @return Entry with the key or null, if there is no such entry.
+     */
+    Entry findEntry(UUID tapeID, long key);
+
+    /**
+     * Removes the entry with the key, if it exists.
+     * @param tapeID
+     * @param key
+     */
+    void deleteEntry(UUID tapeID, long key) throws InvalidAlgorithmParameterException;
+
+    /**
+     * Removes the entry with the key, if it exists, with a single descent from the root. Nodes are then changed on
+     * the way back up, along the path of the search.
+     * @param tapeID
+     * @param key
+     * @return Removed entry or null, if there was no entry with the key.
+     */
+    Entry removeEntry(UUID tapeID, long key) throws InvalidAlgorithmParameterException;
+
+    /**
+     * Reads index entries one by one, in ascending keys order (in no particular order, if the index isn't
+     * {@link IndexService#isOrdered}).
+     * @param tapeID
+     * @return Next entry or null, if all entries have been read.
+     */
+    Entry readNextEntry(UUID tapeID);
+
+    /**
+     * Makes the next {@link IndexService#readNextEntry} call start reading from the smallest key.
+     */
+    void resetReadingBTree();
+
+    /**
+     * Positions sequential reading with a single descent from the root, so the next {@link IndexService#readNextEntry}
+     * call returns the first entry with a key bigger than or equal to provided key.
+     * @param tapeID
+     * @param key
+     */
+    void seekEntry(UUID tapeID, long key);
+
+    /**
+     * @return Whether the index keeps keys in order, so its entries are read in ascending keys order and reading can be
+     * positioned at a key with {@link IndexService#seekEntry}. Records of an index, which doesn't, are read in order
+     * of the data file instead.
+     */
+    default boolean isOrdered()
+    {
+        return true;
+    }
+
+    /**
+     * Builds the index bottom-up from entries sorted by their keys, level by level, so each index page is written only
+     * once, without any searches, splits or compensations. Sizes of the nodes of all levels are planned from the
+     * entries count before the first page is written. The index has to be empty.
+     * @param tapeID
+     * @param entries Entries with strictly ascending keys.
+     * @param entriesCount Exact number of the entries.
+     * @param fillFactor Part of the nodes capacity filled with entries, from range (0, 1]. The rest is left for later
+     *                   inserts, but nodes are never filled below their minimal size.
+     */
+    void bulkLoad(UUID tapeID, Iterator<Entry> entries, int entriesCount, double fillFactor)
+            throws InvalidAlgorithmParameterException;
+
+    /**
+     * Writes all modified buffered index pages to the index file, together with the index metadata saved in the index
+     * tape header.
+     * @param tapeID
+     */
+    void flush(UUID tapeID);
+
+    /**
+     * Writes changes, which the index keeps outside of the index tape buffers (e.g. in memory), to the index tape, so
+     * they're saved by the next flush or checkpoint of any tape. Structures keeping all their changes in the tape
+     * buffers have nothing to write.
+     * @param tapeID
+     */
+    default void prepareFlush(UUID tapeID)
+    {
+    }
+
+    /**
+     * Restores index metadata from the header of an index tape opened from a previous app run.
+     * @param tapeID
+     */
+    void open(UUID tapeID);
+
+    int getMerges();
+
+    int getSplits();
+
+    int getCompensations();
+
+    int getReads(UUID tapeID);
+
+    int getWrites(UUID tapeID);
+
+    int getTapePages(UUID tapeID);
+
+    int getTapeFreePages(UUID tapeID);
+}
@@ -0,0 +1,28 @@
+package btree.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Published version of a copy-on-write index - its root and height. Nodes reachable from the root of a snapshot are
+ * never changed, so a snapshot can be read without any latches, for as long as it is registered as being read.
+ */
+@Getter
+@AllArgsConstructor
+class IndexSnapshot {
+
+    /**
+     * Index page pointer of the root node, or 0, if the index doesn't have any nodes yet.
+     */
+    private final int rootPointer;
+
+    /**
+     * Number of levels above the leaves level (0, when the root is a leaf).
+     */
+    private final int height;
+
+    /**
+     * Number of the snapshot - each published change increases it by 1.
+     */
+    private final long version;
+}
@@ -0,0 +1,89 @@
+package btree.service;
+
+/**
+ * Available index structures, one of which is chosen, when a database is created. The type is saved in the index tape
+ * header, so an existing database is opened with the same structure.
+ */
+public enum IndexType {
+
+    /**
+     * B-tree - entries are stored in all nodes.
+     */
+    B_TREE("B", 0),
+
+    /**
+     * B+tree - entries are stored only in leaves, which are linked into a list, and internal nodes contain only
+     * separator keys, so they have more children.
+     */
+    B_PLUS_TREE("B+", 1),
+
+    /**
+     * Copy-on-write B+tree - changed nodes are written to new pages and the new root is published at once, so readers
+     * see a snapshot of the tree without any latches. Leaves aren't linked.
+     */
+    COPY_ON_WRITE_B_PLUS_TREE("COW", 2),
+
+    /**
+     * LSM tree - changes are collected in memory and written as sorted runs on their own tapes, which are merged in
+     * the background. The index tape holds only the list of the runs.
+     */
+    LSM_TREE("LSM", 3),
+
+    /**
+     * Extendible hashing - entries are stored in buckets of one page, found by the key hash through a directory kept
+     * in memory. Keys aren't kept in order, so there are no ordered reads.
+     */
+    EXTENDIBLE_HASH("HASH", 4);
+
+    /**
+     * Name of the index type, which is used in user input.
+     */
+    private final String label;
+
+    /**
+     * Number saved in the index tape header.
+     */
+    private final int code;
+
+    IndexType(String label, int code)
+    {
+        this.label = label;
+        this.code = code;
+    }
+
+    public String getLabel()
+    {
+        return this.label;
+    }
+
+    public int getCode()
+    {
+        return this.code;
+    }
+
+    /**
+     * @param label
+     * @return Index type of that label (case insensitive) or null, if there is no such type.
+     */
+    public static IndexType fromLabel(String label)
+    {
+        for(IndexType type : IndexType.values())
+            if(type.getLabel().equalsIgnoreCase(label))
+                return type;
+
+        return null;
+    }
+
+    /**
+     * @param code
+     * @return Index type saved in a header with that code or null, if there is no such type.
+     */
+    public static IndexType fromCode(int code)
+    {
+        for(IndexType type : IndexType.values())
+            if(type.getCode() == code)
+                return type;
+
+        return null;
+    }
+}
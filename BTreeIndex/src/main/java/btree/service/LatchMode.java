@@ -0,0 +1,29 @@
+package btree.service;
+
+/**
+ * How an index descent latches the nodes on its way from the root down to a leaf.
+ */
+enum LatchMode {
+
+    /**
+     * Read latches, each released right after the child node has been latched. Used by searches.
+     */
+    SHARED,
+
+    /**
+     * Read latches on the internal nodes and a write latch on the leaf. Used by inserts and deletes first, since most
+     * of them change only the leaf - if the leaf turns out to be unsafe, the operation descends again with
+     * {@link LatchMode#INSERT} or {@link LatchMode#DELETE}.
+     */
+    OPTIMISTIC,
+
+    /**
+     * Write latches, released above each node, which won't split after an insert into its subtree.
+     */
+    INSERT,
+
+    /**
+     * Write latches, released above each node, which won't underflow after a delete from its subtree.
+     */
+    DELETE
+}
@@ -0,0 +1,85 @@
+package btree.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * State of a single index operation - pointers of the nodes visited on the way from the root down (nodes don't store
+ * their parent pointers) and latches, which the operation holds. Each operation has its own path, so many threads can
+ * search the index at the same time.
+ */
+class LatchedPath {
+
+    /**
+     * Pointers of the visited nodes, from the root to the last one. Latches of the upper nodes may have been released
+     * already.
+     */
+    private final List<Integer> nodePointers = new ArrayList<>();
+
+    /**
+     * Held latches, in the order they were acquired.
+     */
+    private final Deque<Lock> heldLatches = new ArrayDeque<>();
+
+    void addNode(int nodePointer)
+    {
+        this.nodePointers.add(nodePointer);
+    }
+
+    List<Integer> getNodePointers()
+    {
+        return this.nodePointers;
+    }
+
+    int getLastNodePointer()
+    {
+        return this.nodePointers.get(this.nodePointers.size() - 1);
+    }
+
+    void latch(Lock latch)
+    {
+        latch.lock();
+        this.heldLatches.addLast(latch);
+    }
+
+    /**
+     * Acquires the latch only if it's free, so a thread holding other latches doesn't wait for a thread, which might
+     * be waiting for them.
+     * @param latch
+     * @return Whether the latch has been acquired.
+     */
+    boolean tryLatch(Lock latch)
+    {
+        if(!latch.tryLock())
+            return false;
+
+        this.heldLatches.addLast(latch);
+        return true;
+    }
+
+    /**
+     * Releases all held latches, except for the last acquired one - it's done, when the node latched last is safe,
+     * so the operation won't change any node above it.
+     */
+    void releaseAncestors()
+    {
+        while(this.heldLatches.size() > 1)
+            this.heldLatches.removeFirst().unlock();
+    }
+
+    /**
+     * Releases all held latches and forgets the visited nodes, so the path can be used for another descent.
+     */
+    void releaseAll()
+    {
+        Iterator<Lock> latches = this.heldLatches.descendingIterator();
+        while(latches.hasNext())
+            latches.next().unlock();
+        this.heldLatches.clear();
+        this.nodePointers.clear();
+    }
+}
@@ -0,0 +1,32 @@
+package btree.service;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Read/write latches of the index nodes, one per node page, created on first use. Latches protect nodes decoded from
+ * their pages and are held only for the time of a single index operation, unlike database locks.
+ * <br></br><br></br>
+ * Root latch guards the pointer to the root and the tree height, so it acts like a parent of the root node - searches
+ * latch it first and release it, once they have latched the root node.
+ */
+class NodeLatches {
+
+    private final ConcurrentHashMap<Integer, ReentrantReadWriteLock> latches = new ConcurrentHashMap<>();
+
+    private final ReentrantReadWriteLock rootLatch = new ReentrantReadWriteLock();
+
+    /**
+     * @param nodePointer
+     * @return Latch of the node page. Page keeps its latch, when it's freed and taken by another node.
+     */
+    ReentrantReadWriteLock getNodeLatch(int nodePointer)
+    {
+        return this.latches.computeIfAbsent(nodePointer, pointer -> new ReentrantReadWriteLock());
+    }
+
+    ReentrantReadWriteLock getRootLatch()
+    {
+        return this.rootLatch;
+    }
+}
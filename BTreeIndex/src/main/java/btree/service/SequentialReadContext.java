@@ -0,0 +1,66 @@
+package btree.service;
+
+import entry.entity.Entry;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * Position of the sequential reading of the index entries, kept separately for each reading thread. No latches are
+ * held between the reads, so the position is remembered by the next key to read - if the index structure has changed
+ * since the last read, the reading searches for that key again from the root.
+ */
+@Getter
+@Setter
+class SequentialReadContext {
+
+    /**
+     * Smallest key, which can be returned by the next read.
+     */
+    private long nextKey = Long.MIN_VALUE;
+
+    /**
+     * Node, in which the last read ended (a leaf in a B+tree, a parent of the leaves in a b-tree, which reads its
+     * children ahead, when it gets to a new one), or 0, if the next read should search for the next key from the root.
+     */
+    private int nodePointer;
+
+    /**
+     * Version of the index structure, when the last read ended - the position is valid only as long as it hasn't
+     * changed.
+     */
+    private long structureVersion;
+
+    /**
+     * Entries kept by the last search of a b-tree, which are returned by next reads, or null, if the next read should
+     * search from the root. They're valid only as long as the count of the tree changes is
+     * {@link SequentialReadContext#entriesVersion}.
+     */
+    private List<Entry> nextEntries;
+
+    /**
+     * Number of the next entry of {@link SequentialReadContext#nextEntries} to return.
+     */
+    private int nextEntryNumber;
+
+    private long entriesVersion;
+
+    /**
+     * Whether all entries have been read.
+     */
+    private boolean exhausted;
+
+    /**
+     * Makes the next read search for the key from the root.
+     * @param key
+     */
+    void seek(long key)
+    {
+        this.nextKey = key;
+        this.nodePointer = 0;
+        this.structureVersion = 0;
+        this.nextEntries = null;
+        this.exhausted = false;
+    }
+}
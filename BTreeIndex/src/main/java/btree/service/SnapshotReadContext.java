@@ -0,0 +1,66 @@
+package btree.service;
+
+import lombok.Getter;
+import lombok.Setter;
+import node.entity.BPlusNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Position of the sequential reading of a copy-on-write index, kept separately for each reading thread. The reading
+ * holds the snapshot, in which it started, until all its entries have been read (or the reading is reset), so the
+ * nodes on the path to the current leaf stay valid between the reads and are kept decoded here.
+ */
+@Getter
+@Setter
+class SnapshotReadContext {
+
+    /**
+     * Smallest key, which can be returned by the first read.
+     */
+    private long nextKey = Long.MIN_VALUE;
+
+    /**
+     * Snapshot being read, or null, if the next read should take the current one and search for the next key.
+     */
+    private IndexSnapshot snapshot;
+
+    /**
+     * Internal nodes from the root to the parent of the current leaf.
+     */
+    private List<BPlusNode> ancestors = new ArrayList<>();
+
+    /**
+     * Number of the child pointer of each ancestor, which leads to the current leaf.
+     */
+    private List<Integer> childNumbers = new ArrayList<>();
+
+    private BPlusNode leaf;
+
+    /**
+     * Number of the current leaf entry, which is read next.
+     */
+    private int entryNumber;
+
+    /**
+     * Whether all entries of the snapshot have been read.
+     */
+    private boolean exhausted;
+
+    /**
+     * Makes the next read search for the key from the root of the current snapshot. Snapshot, which was being read,
+     * should be released first.
+     * @param key
+     */
+    void seek(long key)
+    {
+        this.nextKey = key;
+        this.snapshot = null;
+        this.ancestors = new ArrayList<>();
+        this.childNumbers = new ArrayList<>();
+        this.leaf = null;
+        this.entryNumber = 0;
+        this.exhausted = false;
+    }
+}
@@ -6,11 +6,11 @@ import lombok.ToString;
 import record.entity.Record;
 import record.service.RecordService;
 
+import java.io.File;
 import java.security.InvalidAlgorithmParameterException;
-import java.util.Comparator;
-import java.util.Optional;
-import java.util.Set;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.locks.Lock;
 
 @Builder
 @ToString
@@ -27,50 +27,143 @@ public class DataService {
      * @throws InvalidAlgorithmParameterException
      */
     public int createRecord(UUID tapeID, Record record) throws InvalidAlgorithmParameterException {
-        int page = this.findSpaceForRecord(tapeID, record);
-        if(page == -1) {
-            page = recordService.getTapePages(tapeID);
-            this.assureBufferForPage(tapeID, page);
+        // Space is taken up only under the allocation latch, so the found page can't be filled by another thread
+        Lock allocationLatch = recordService.getAllocationLatch(tapeID);
+        allocationLatch.lock();
+        try {
+            int page = this.findSpaceForRecord(tapeID, record);
+            if(page == -1) {
+                page = recordService.getTapePages(tapeID);
+                recordService.addNextPage(tapeID);
+                // Space freed on other pages in the meantime doesn't matter, the record is created on the new page
+                if(recordService.getFreeSpaceOnPage(tapeID, page) < record.getSize())
+                    throw new IllegalStateException("New page should have been added to tape buffers," +
+                            " but there is still being reported no space for the record. The record might be too big" +
+                            " or something different went wrong.");
+            }
+
+            Lock pageLatch = recordService.getPageLatch(tapeID, page);
+            pageLatch.lock();
+            try {
+                recordService.createRecord(tapeID, page, record);
+                recordService.setFreeSpaceOnPage(tapeID, page, recordService.getFreeSpaceOnPage(tapeID, page) - record.getSize());
+                return page;
+            } finally {
+                pageLatch.unlock();
+            }
+        } finally {
+            allocationLatch.unlock();
+        }
+    }
+
+    /**
+     * Adds a new page at the end of the tape and fills it with provided records, so the page is written only once.
+     * @param tapeID
+     * @param records Records, which fit on a single page (see {@link DataService#getRecordsPerPage}).
+     * @return Returns page number, on which the records were stored
+     * @throws InvalidAlgorithmParameterException
+     */
+    public int appendRecordsPage(UUID tapeID, List<Record> records) throws InvalidAlgorithmParameterException {
+        if(records.size() > this.getRecordsPerPage())
+            throw new IllegalStateException("Provided records don't fit on a single page.");
+
+        Lock allocationLatch = recordService.getAllocationLatch(tapeID);
+        allocationLatch.lock();
+        try {
+            int page = recordService.getTapePages(tapeID);
             recordService.addNextPage(tapeID);
-            if(page != this.findSpaceForRecord(tapeID, record))
-                throw new IllegalStateException("New page should have been added to tape buffers," +
-                        " but there is still being reported no space for the record. The record might be too big" +
-                        " or something different went wrong.");
+
+            Lock pageLatch = recordService.getPageLatch(tapeID, page);
+            pageLatch.lock();
+            try {
+                recordService.createRecords(tapeID, page, records);
+                recordService.setFreeSpaceOnPage(tapeID, page, recordService.getFreeSpaceOnPage(tapeID, page)
+                        - records.size() * Record.builder().build().getSize());
+                return page;
+            } finally {
+                pageLatch.unlock();
+            }
+        } finally {
+            allocationLatch.unlock();
         }
-        else
-            this.assureBufferForPage(tapeID, page);
+    }
 
-        recordService.createRecord(tapeID, page, record);
-        recordService.setFreeSpaceOnPage(tapeID, page, recordService.getFreeSpaceOnPage(tapeID, page) - record.getSize());
-        return page;
+    /**
+     * @return How many records can be stored on a single data page.
+     */
+    public int getRecordsPerPage()
+    {
+        return recordService.getPageSize() / Record.builder().build().getSize();
     }
 
     public Record findRecord(UUID tapeID, int page, long key)
     {
-        if(page < 0 || page >= recordService.getTapePages(tapeID))
-            throw new IllegalStateException("Page requested to find a record on it doesn't exist.");
+        Lock pageLatch = recordService.getPageLatch(tapeID, page);
+        pageLatch.lock();
+        try {
+            if(page < 0 || page >= recordService.getTapePages(tapeID))
+                throw new IllegalStateException("Page requested to find a record on it doesn't exist.");
 
-        this.assureBufferForPage(tapeID, page);
-        return recordService.readRecord(tapeID, page, key);
+            return recordService.readRecord(tapeID, page, key);
+        } finally {
+            pageLatch.unlock();
+        }
+    }
+
+    /**
+     * @param tapeID
+     * @param page
+     * @return All records stored on the page.
+     */
+    public List<Record> findPageRecords(UUID tapeID, int page)
+    {
+        Lock pageLatch = recordService.getPageLatch(tapeID, page);
+        pageLatch.lock();
+        try {
+            if(page < 0 || page >= recordService.getTapePages(tapeID))
+                throw new IllegalStateException("Page requested to read its records doesn't exist.");
+
+            return recordService.readRecords(tapeID, page);
+        } finally {
+            pageLatch.unlock();
+        }
     }
 
     public void updateRecord(UUID tapeID, int page, Record record) throws InvalidAlgorithmParameterException {
-        if(page < 0 || page >= recordService.getTapePages(tapeID))
-            throw new IllegalStateException("Page requested to update a record on it doesn't exist.");
+        Lock pageLatch = recordService.getPageLatch(tapeID, page);
+        pageLatch.lock();
+        try {
+            if(page < 0 || page >= recordService.getTapePages(tapeID))
+                throw new IllegalStateException("Page requested to update a record on it doesn't exist.");
 
-        this.assureBufferForPage(tapeID, page);
-        recordService.updateRecord(tapeID, page, record);
-        // updating record doesn't change its free space amount, since in this project records are of constant size
+            recordService.updateRecord(tapeID, page, record);
+            // updating record doesn't change its free space amount, since in this project records are of constant size
+        } finally {
+            pageLatch.unlock();
+        }
     }
 
+    /**
+     * Space of the record is given back under the page latch only - a page with more free space than the free space
+     * map knows about can't be overfilled.
+     * @param tapeID
+     * @param page
+     * @param key
+     * @throws InvalidAlgorithmParameterException
+     */
     public void deleteRecord(UUID tapeID, int page, long key) throws InvalidAlgorithmParameterException {
-        if(page < 0 || page >= recordService.getTapePages(tapeID))
-            throw new IllegalStateException("Page requested to delete a record on it doesn't exist.");
+        Lock pageLatch = recordService.getPageLatch(tapeID, page);
+        pageLatch.lock();
+        try {
+            if(page < 0 || page >= recordService.getTapePages(tapeID))
+                throw new IllegalStateException("Page requested to delete a record on it doesn't exist.");
 
-        this.assureBufferForPage(tapeID, page);
-        recordService.removeRecord(tapeID, page, key);
-        recordService.setFreeSpaceOnPage(tapeID, page, recordService.getFreeSpaceOnPage(tapeID, page)
-                + Record.builder().build().getSize());
+            recordService.removeRecord(tapeID, page, key);
+            recordService.setFreeSpaceOnPage(tapeID, page, recordService.getFreeSpaceOnPage(tapeID, page)
+                    + Record.builder().build().getSize());
+        } finally {
+            pageLatch.unlock();
+        }
     }
 
     public int getReads(UUID tapeID)
@@ -94,65 +187,104 @@ public class DataService {
     }
 
     /**
-     * Searches array of amounts of free space on each page of tape. Each tape has that array, and it needs to be updated.
+     * Writes all modified buffered data pages to the data file.
      * @param tapeID
-     * @param record
-     * @return Returns page nr with enough space to write the record on it, or -1, if all pages
-     * are full (or there is none yet) and new page needs to be added to tape.
      */
-    private int findSpaceForRecord(UUID tapeID, Record record)
+    public void flush(UUID tapeID)
     {
-        if(record == null)
-            throw new IllegalStateException("Record provided to find space for was null.");
+        // Tape is latched by the flush itself, because a checkpoint has to latch the index file before the data file
+        recordService.flush(tapeID);
+    }
 
-        int page = 0;
-        while(page < recordService.getTapePages(tapeID))
-        {
-            if(record.getSize() <= recordService.getFreeSpaceOnPage(tapeID, page))
-                return page;
+    /**
+     * Appends record of a database operation to the write-ahead log, before the operation is executed.
+     * @param payload
+     */
+    public void appendLogRecord(byte[] payload)
+    {
+        recordService.appendLogRecord(payload);
+    }
 
-            page++;
-        }
-        return -1;
+    /**
+     * Commits database operations appended to the write-ahead log. It should be called after the operation has been
+     * executed on both the data and index file.
+     */
+    public void commitLog()
+    {
+        recordService.commitLog();
+    }
+
+    /**
+     * @return Whether the write-ahead log has grown so big, that the database should be flushed (it checkpoints the
+     * database files and empties the log).
+     */
+    public boolean isLogFull()
+    {
+        return recordService.isLogFull();
+    }
+
+    /**
+     * Starts reading the given data pages in the background, because they will be read soon.
+     * @param tapeID
+     * @param pages
+     */
+    public void readAhead(UUID tapeID, List<Integer> pages)
+    {
+        recordService.readAhead(tapeID, pages);
+    }
+
+    public int getReadAheadPages()
+    {
+        return recordService.getReadAheadPages();
     }
 
     /**
-     * Method of choosing which buffer should be freed. Takes into account page number, which will be loaded next.
-     * There will always be chosen some page to free (the most optimal from currently buffered), unless there are no pages buffered.
+     * Registers a file with records as the input tape, from which records are read sequentially with
+     * {@link DataService#readNextRecord}. The file isn't modified or deleted.
      * @param tapeID
-     * @param pageToLoad
-     * @return Number of the buffered page, which lies in the tape furthest from the next page to load.
+     * @param file
      */
-    private int choosePageToFree(UUID tapeID, int pageToLoad)
+    public void setInputTape(UUID tapeID, File file)
     {
-        Set<Integer> bufferedPages = recordService.getBufferedPages(tapeID);
-        if(bufferedPages.isEmpty())
-            throw new IllegalStateException("There was no buffered pages for this tape. There was no page to choose to be freed.");
+        recordService.setInputTape(tapeID, file);
+    }
 
-        if(bufferedPages.contains(null))
-            throw new IllegalStateException("Something went wrong in maintaining buffered pages numbers set" +
-                    " - it contained a null value.");
+    public void removeInputTape(UUID tapeID)
+    {
+        recordService.removeInputTape(tapeID);
+    }
 
-        Optional<Integer> furthestPage = bufferedPages.stream()
-                .max(Comparator.comparingInt(page -> Math.abs(page - pageToLoad)));
+    /**
+     * @param tapeID
+     * @return Next record of the tape, read sequentially block by block, or null, if all records have been read.
+     */
+    public Record readNextRecord(UUID tapeID)
+    {
+        return recordService.readNextRecord(tapeID);
+    }
 
-        return furthestPage.get();
+    /**
+     * Makes the next {@link DataService#readNextRecord} call start reading from the first record of the tape.
+     * @param tapeID
+     */
+    public void resetRecordReading(UUID tapeID)
+    {
+        recordService.resetBlockReading(tapeID);
     }
 
     /**
-     * It assures that there is a space to read a new page, if it isn't already loaded.
+     * Looks up the first page with enough free space in the tape free space map. Each tape has that map, and it needs
+     * to be updated.
      * @param tapeID
-     * @param page The page may not exist (it may be one that is being created just now), it just frees a buffer if needed.
-     *             Page parameter is for algorithm of choosing which buffer to free, to take it into account.
+     * @param record
+     * @return Returns page nr with enough space to write the record on it, or -1, if all pages
+     * are full (or there is none yet) and new page needs to be added to tape.
      */
-    private void assureBufferForPage(UUID tapeID, int page)
+    private int findSpaceForRecord(UUID tapeID, Record record)
     {
-        if(!recordService.getBufferedPages(tapeID).contains(page))
-        {
-            if(recordService.isTapeMaxBuffers(tapeID)) {
-                int pageToFree = this.choosePageToFree(tapeID, page);
-                recordService.freeBufferedBlock(tapeID, pageToFree);
-            }
-        }
+        if(record == null)
+            throw new IllegalStateException("Record provided to find space for was null.");
+
+        return recordService.findPageWithFreeSpace(tapeID, record.getSize());
     }
 }
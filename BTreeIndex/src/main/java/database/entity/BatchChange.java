@@ -0,0 +1,43 @@
+package database.entity;
+
+import entry.entity.Entry;
+import lombok.*;
+import record.entity.Record;
+
+@Getter
+@Setter
+@Builder
+@ToString
+@EqualsAndHashCode
+@AllArgsConstructor
+public class BatchChange {
+
+    /**
+     * Key of the record changed by the batch operations.
+     */
+    private long key;
+
+    /**
+     * Record stored after all batch operations on the key, if the record didn't exist before the batch, or null, if it
+     * doesn't exist after the batch either.
+     */
+    private Record recordIfAbsent;
+
+    /**
+     * Record stored after all batch operations on the key, if the record existed before the batch, or null, if it is
+     * deleted by the batch. It is used only when {@link BatchChange#presentUnchanged} is false.
+     */
+    private Record recordIfPresent;
+
+    /**
+     * Whether the existing record stays unchanged after all batch operations on the key (e.g. when the batch only
+     * tries to create it).
+     */
+    private boolean presentUnchanged;
+
+    /**
+     * Index entry of the record existing before the batch, or null, if there was none.
+     */
+    private Entry existingEntry;
+
+}
@@ -1,11 +1,16 @@
 package database.service;
 
 import btree.service.BTreeService;
+import btree.service.IndexType;
+import hash.converter.HashBucketConverter;
+import hash.entity.HashBucket;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.ToString;
+import node.converter.BPlusNodeConverter;
 import node.converter.NodeConverter;
+import node.entity.BPlusNode;
 import node.entity.Node;
 import record.converter.RecordConverter;
 import record.entity.Record;
@@ -27,6 +32,10 @@ public class DatabaseRawReader {
 
     private NodeConverter nodeConverter;
 
+    private BPlusNodeConverter bPlusNodeConverter;
+
+    private HashBucketConverter hashBucketConverter;
+
     @Getter
     private UUID dataTapeID;
 
@@ -99,8 +108,40 @@ public class DatabaseRawReader {
             this.readNextNode(node.getChildPointers().get(i), level + 1, readPages);
     }
 
+    /**
+     * Prints B+tree node and its subtree, like {@link DatabaseRawReader#readNextNode}.
+     * @param nodePointer
+     * @param level
+     * @param height Height of the tree - nodes on that level are leaves.
+     * @param readPages
+     */
+    public void readNextBPlusNode(int nodePointer, int level, int height, List<Integer> readPages)
+    {
+        if(this.pointerToPage(nodePointer) < 0)
+            throw new NoSuchElementException("Requested page was below 0 - that page doesn't exist.");
+
+        this.assureBufferForPage(indexTapeID, this.pointerToPage(nodePointer));
+        BPlusNode node = bPlusNodeConverter.bytesToNode(ByteBuffer.wrap(tapeService.readPage(indexTapeID,
+                this.pointerToPage(nodePointer))), level == height);
+        readPages.add(this.pointerToPage(nodePointer));
+        String levelIndentation = " ".repeat(level*8);
+        String nodeDescription = "Lvl: "+level+", Page: "+this.pointerToPage(nodePointer)+", Node: "+nodePointer+" => ";
+        System.out.println(levelIndentation + nodeDescription + bPlusNodeConverter.nodeToString(node));
+        for(int childPointer : node.getChildPointers())
+            this.readNextBPlusNode(childPointer, level + 1, height, readPages);
+    }
+
     public void readIndex()
     {
+        // LSM index tape holds only the list of the runs, entries are on the run tapes
+        if(tapeService.getIndexType(indexTapeID) == IndexType.LSM_TREE.getCode()) {
+            System.out.println("Entries of the LSM tree index are stored in sorted runs on their own tapes - use RA to read them in keys order.");
+            return;
+        }
+        if(tapeService.getIndexType(indexTapeID) == IndexType.EXTENDIBLE_HASH.getCode()) {
+            this.readHashIndex();
+            return;
+        }
         int rootPage = this.findRootPage();
         if(rootPage == -1) {
             System.out.println("Root page of the database index file wasn't found. There are probably no entries in the database yet.");
@@ -108,7 +149,12 @@ public class DatabaseRawReader {
         }
         List<Integer> readPages = new ArrayList<>();
         System.out.println("********************************** B-tree index **********************************");
-        this.readNextNode(this.pageToPointer(rootPage), 0, readPages);
+        // Copy-on-write B+tree uses the same nodes layout, only its leaves aren't linked
+        if(tapeService.getIndexType(indexTapeID) == IndexType.B_PLUS_TREE.getCode()
+                || tapeService.getIndexType(indexTapeID) == IndexType.COPY_ON_WRITE_B_PLUS_TREE.getCode())
+            this.readNextBPlusNode(this.pageToPointer(rootPage), 0, tapeService.getHeight(indexTapeID), readPages);
+        else
+            this.readNextNode(this.pageToPointer(rootPage), 0, readPages);
         System.out.println("******************************* End of B-tree index ******************************");
         List<Integer> allPages = IntStream.range(0, tapeService.getPages(indexTapeID)).boxed().collect(Collectors.toList());
         allPages.removeAll(readPages);
@@ -118,19 +164,68 @@ public class DatabaseRawReader {
             System.out.println("Index file pages "+ allPages.stream().map(Object::toString).collect(Collectors.joining(", "))+" were empty.");
     }
 
-    private int findRootPage()
+    /**
+     * Prints the directory of an extendible hashing index and then each bucket once, in order of the directory slots.
+     */
+    public void readHashIndex()
     {
-        int p = 0;
-        while(p < tapeService.getPages(indexTapeID))
+        int directoryPointer = tapeService.getRootPointer(indexTapeID);
+        if(directoryPointer == 0 || this.pointerToPage(directoryPointer) >= tapeService.getPages(indexTapeID)) {
+            System.out.println("Directory of the hashing index wasn't found. There are probably no entries in the database yet.");
+            return;
+        }
+        int globalDepth = tapeService.getHeight(indexTapeID);
+        int[] directory = new int[1 << globalDepth];
+        int slotsPerPage = hashBucketConverter.getDirectorySlotsPerPage(tapeService.BLOCK_SIZE);
+        List<Integer> readPages = new ArrayList<>();
+        System.out.println("****************************** Extendible hashing index ******************************");
+        System.out.println("Global depth: " + globalDepth);
+        for(int slot = 0; slot < directory.length && directoryPointer != 0; slot += slotsPerPage)
+        {
+            int page = this.pointerToPage(directoryPointer);
+            this.assureBufferForPage(indexTapeID, page);
+            readPages.add(page);
+            directoryPointer = hashBucketConverter.bytesToDirectory(ByteBuffer.wrap(tapeService.readPage(indexTapeID,
+                    page)), directory, slot, Math.min(slotsPerPage, directory.length - slot));
+            System.out.println("Directory page: " + page + " => slots " + slot + "-" +
+                    (Math.min(directory.length, slot + slotsPerPage) - 1));
+        }
+        for(int slot = 0; slot < directory.length; slot++)
         {
-            this.assureBufferForPage(indexTapeID, p);
-            byte[] buffer = tapeService.readPage(indexTapeID, p);
-            Node node = nodeConverter.bytesToNode(buffer);
-            if(node.getParentPointer() == 0 && !node.getEntries().isEmpty())
-                return p;
-            p++;
+            // Slots of a bucket are next to each other, so a bucket is printed at its first slot
+            if(directory[slot] == 0 || (slot > 0 && directory[slot] == directory[slot - 1]))
+                continue;
+
+            int page = this.pointerToPage(directory[slot]);
+            this.assureBufferForPage(indexTapeID, page);
+            readPages.add(page);
+            HashBucket bucket = hashBucketConverter.bytesToBucket(ByteBuffer.wrap(tapeService.readPage(indexTapeID, page)));
+            System.out.println("Slot: " + slot + ", Page: " + page + ", Bucket: " + directory[slot] + " => " +
+                    hashBucketConverter.bucketToString(bucket));
         }
-        return -1;
+        System.out.println("*************************** End of extendible hashing index **************************");
+        List<Integer> allPages = IntStream.range(0, tapeService.getPages(indexTapeID)).boxed().collect(Collectors.toList());
+        allPages.removeAll(readPages);
+        if(allPages.isEmpty())
+            System.out.println("There were no empty pages in index file.");
+        else
+            System.out.println("Index file pages "+ allPages.stream().map(Object::toString).collect(Collectors.joining(", "))+" were empty.");
+    }
+
+    private int findRootPage()
+    {
+        // Nodes don't store pointers to their parents, so the root is known only from the index metadata
+        int rootPointer = tapeService.getRootPointer(indexTapeID);
+        if(rootPointer == 0 || this.pointerToPage(rootPointer) >= tapeService.getPages(indexTapeID))
+            return -1;
+
+        int p = this.pointerToPage(rootPointer);
+        this.assureBufferForPage(indexTapeID, p);
+        // Both b-tree and B+tree nodes store number of their entries at the start of the node header
+        byte[] buffer = tapeService.readPage(indexTapeID, p);
+        if(ByteBuffer.wrap(buffer).getInt(0) == 0)
+            return -1;
+        return p;
     }
 
     private int pageToPointer(int page)
@@ -141,22 +236,6 @@ public class DatabaseRawReader {
     {
         return pointer - 1;
     }
-    private int choosePageToFree(UUID tapeID, int pageToLoad)
-    {
-        Set<Integer> bufferedPages = tapeService.getBufferedPages(tapeID);
-        if(bufferedPages.isEmpty())
-            throw new IllegalStateException("There was no buffered pages for this tape. There was no page to choose to be freed.");
-
-        if(bufferedPages.contains(null))
-            throw new IllegalStateException("Something went wrong in maintaining buffered pages numbers set" +
-                    " - it contained a null value.");
-
-        Optional<Integer> furthestPage = bufferedPages.stream()
-                .max(Comparator.comparingInt(page -> Math.abs(page - pageToLoad)));
-
-        return furthestPage.get();
-    }
-
     /**
      * It assures that there is a space to read a new page, if it isn't already loaded.
      * @param tapeID
@@ -165,13 +244,7 @@ public class DatabaseRawReader {
      */
     private void assureBufferForPage(UUID tapeID, int page)
     {
-        if(!tapeService.getBufferedPages(tapeID).contains(page))
-        {
-            if(tapeService.isMaxBuffers(tapeID)) {
-                int pageToFree = this.choosePageToFree(tapeID, page);
-                tapeService.freeBufferedBlock(tapeID, pageToFree);
-            }
-        }
+        tapeService.assureBufferForPage(tapeID, page);
     }
 
 }
@@ -1,18 +1,34 @@
 package database.service;
 
-import btree.service.BTreeService;
+import btree.service.IndexService;
 import data_file.service.DataService;
+import database.entity.BatchChange;
 import entry.entity.Entry;
+import filter.service.KeyFilterService;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.ToString;
 import record.converter.RecordConverter;
 import record.entity.Record;
+import sort.entity.Run;
+import sort.service.ExternalSortService;
 
+import java.io.File;
+import java.nio.ByteBuffer;
 import java.security.InvalidAlgorithmParameterException;
-import java.util.UUID;
-
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Executes database operations on the data file and the index. Many threads can use the database at the same time -
+ * operations on a single key hold the database lock for reading and a lock of their key, so they run in parallel with
+ * operations on other keys, and operations on many keys (batches, loads, flushes) hold the database lock for writing.
+ */
 @Builder
 @ToString
 @AllArgsConstructor
@@ -20,7 +36,15 @@ public class DatabaseService {
 
     private DataService dataService;
 
-    private BTreeService bTreeService;
+    private IndexService indexService;
+
+    private ExternalSortService sortService;
+
+    /**
+     * Filter of the index keys, which answers searches for keys, that surely don't exist, without reading the index.
+     * Null turns the filter off.
+     */
+    private KeyFilterService keyFilterService;
 
     private RecordConverter recordConverter;
 
@@ -38,6 +62,23 @@ public class DatabaseService {
     @Getter
     private UUID indexTapeID;
 
+    /**
+     * Types of operations saved in the write-ahead log.
+     */
+    private final byte CREATE_OPERATION = 'C';
+
+    private final byte UPDATE_OPERATION = 'U';
+
+    private final byte DELETE_OPERATION = 'D';
+
+    private final ReentrantReadWriteLock databaseLock = new ReentrantReadWriteLock();
+
+    /**
+     * Locks of the keys - a key uses the lock with number equal to its hash modulo the number of locks, so the locks
+     * don't have to be created and removed for each key. Searches hold them for reading, and changes for writing.
+     */
+    private final ReentrantReadWriteLock[] keyLocks = DatabaseService.createKeyLocks(64);
+
     // TODO add read and write stats measurer before and after each operation
     public void create(String command) throws InvalidAlgorithmParameterException {
         if(command == null)
@@ -59,18 +100,41 @@ public class DatabaseService {
         if(record.getKey() <= 0)
             throw new IllegalArgumentException("Provided record key was below or equal to 0. Key must be an 8-byte positive number.");
 
-        Entry entry = bTreeService.findEntry(this.indexTapeID, record.getKey());
+        Lock keyLock = this.lockKey(record.getKey(), true);
+        try {
+            this.create(record, true);
+            dataService.commitLog();
+        } finally {
+            this.unlockKey(keyLock);
+        }
+        this.rebuildKeyFilterIfNeeded();
+        this.checkpointIfNeeded();
+    }
+
+    /**
+     * Creates the record with a single index descent - the record is written to the data file only after the search
+     * for its key ended without finding it, and its entry is inserted into the leaf, in which the search ended.
+     * @param record
+     * @param logged
+     * @return Whether the record has been created (false, if a record with its key already existed).
+     */
+    private boolean create(Record record, boolean logged) throws InvalidAlgorithmParameterException {
+        // The key filter can't save the search here - a key, which doesn't exist, has to be searched for to be inserted
+        this.beforeIndexChange();
+        Entry entry = indexService.insertEntryIfAbsent(this.indexTapeID, record.getKey(), () -> {
+            if(logged)
+                this.logOperation(this.CREATE_OPERATION, record);
+
+            // Key is added to the filter, before its entry can be found by other threads
+            this.keyAdded(record.getKey());
+            return dataService.createRecord(this.dataTapeID, record);
+        });
         if(entry != null)
         {
             System.out.println("Entry with given key already exist.");
-            return;
+            return false;
         }
-        int page = dataService.createRecord(this.dataTapeID, record);
-        Entry entryToCreate = Entry.builder()
-                .key(record.getKey())
-                .dataPage(page)
-                .build();
-        bTreeService.createEntry(this.indexTapeID, entryToCreate);
+        return true;
     }
     public Record find(String command)
     {
@@ -98,14 +162,104 @@ public class DatabaseService {
         if(key <= 0)
             throw new IllegalArgumentException("Provided record key was below or equal to 0. Key must be an 8-byte positive number.");
 
-        Entry entry = bTreeService.findEntry(this.indexTapeID, key);
-        if(entry == null)
+        Lock keyLock = this.lockKey(key, false);
+        try {
+            Entry entry = this.mightExist(key) ? indexService.findEntry(this.indexTapeID, key) : null;
+            if(entry == null)
+            {
+                System.out.println("Entry with given key doesn't exist.");
+                return null;
+            }
+            int page = entry.getDataPage();
+            return dataService.findRecord(this.dataTapeID, page, key);
+        } finally {
+            this.unlockKey(keyLock);
+        }
+    }
+
+    /**
+     * Prints all records with keys from the range given in the command.
+     * @param command
+     */
+    public void readRange(String command)
+    {
+        if(command == null)
+            throw new IllegalArgumentException("Command data was null. Reading records range aborted.");
+
+        String[] commandData = command.split(" ");
+        if(commandData.length < 3)
+            throw new IllegalArgumentException("Bad command syntax. Command for reading a range of records should look something like:\n" +
+                    "RR 100 200\n, where RR - Read Range, 100 - example smallest key, 200 - example biggest key.");
+
+        if(!commandData[0].equals("RR"))
+            throw new IllegalArgumentException("Bad command routing or syntax. Command for reading a range of records should" +
+                    " have letters 'RR' at the start.");
+
+        long fromKey;
+        long toKey;
+        try {
+            fromKey = Long.parseUnsignedLong(commandData[1]);
+            toKey = Long.parseUnsignedLong(commandData[2]);
+        } catch (NumberFormatException e)
         {
-            System.out.println("Entry with given key doesn't exist.");
-            return null;
+            e.printStackTrace();
+            throw new IllegalArgumentException("Record key parsing failed. Key must be a maximum 8-byte positive number.");
         }
-        int page = entry.getDataPage();
-        return dataService.findRecord(this.dataTapeID, page, key);
+
+        if(!indexService.isOrdered()) {
+            this.readRangeFromDataFile(fromKey, toKey);
+            return;
+        }
+
+        RangeCursor cursor = this.findRange(fromKey, toKey);
+        int records = 0;
+        while(cursor.hasNext()) {
+            System.out.println(cursor.next());
+            records++;
+        }
+        System.out.println("All " + records + " records in the range has been read.");
+    }
+
+    /**
+     * Prints records with keys from the range, found by reading the whole data file, in order of the data file - for
+     * an index, which doesn't keep keys in order.
+     * @param fromKey
+     * @param toKey
+     */
+    private void readRangeFromDataFile(long fromKey, long toKey)
+    {
+        int[] records = new int[1];
+        Lock readLock = this.databaseLock.readLock();
+        readLock.lock();
+        try {
+            this.scanDataFile(record -> {
+                if(record.getKey() >= fromKey && record.getKey() <= toKey) {
+                    System.out.println(record);
+                    records[0]++;
+                }
+            });
+        } finally {
+            readLock.unlock();
+        }
+        System.out.println("All " + records[0] + " records in the range has been read (in order of the data file, as" +
+                " the index doesn't keep keys in order).");
+    }
+
+    /**
+     * @param fromKey The smallest key in the range (inclusive).
+     * @param toKey The biggest key in the range (inclusive).
+     * @return Cursor over records with keys from the range, in ascending keys order. Records changed by other threads
+     * during the reading may be returned in their state from before or after the change.
+     */
+    public RangeCursor findRange(long fromKey, long toKey)
+    {
+        if(fromKey <= 0 || toKey <= 0)
+            throw new IllegalArgumentException("Provided range key was below or equal to 0. Key must be an 8-byte positive number.");
+
+        if(!indexService.isOrdered())
+            throw new IllegalStateException("Index doesn't keep keys in order, so records can't be read in keys order.");
+
+        return new RangeCursor(indexService, dataService, this.indexTapeID, this.dataTapeID, fromKey, toKey);
     }
 
     public void update(String command) throws InvalidAlgorithmParameterException {
@@ -128,18 +282,87 @@ public class DatabaseService {
         if(record.getKey() <= 0)
             throw new IllegalArgumentException("Provided record key was below or equal to 0. Key must be an 8-byte positive number.");
 
-        Entry entry = bTreeService.findEntry(this.indexTapeID, record.getKey());
+        Lock keyLock = this.lockKey(record.getKey(), true);
+        try {
+            this.update(record, true);
+            dataService.commitLog();
+        } finally {
+            this.unlockKey(keyLock);
+        }
+        this.checkpointIfNeeded();
+    }
+
+    private void update(Record record, boolean logged) throws InvalidAlgorithmParameterException {
+        Entry entry = this.mightExist(record.getKey()) ? indexService.findEntry(this.indexTapeID, record.getKey()) : null;
         if(entry == null)
         {
             System.out.println("Entry with given key doesn't exist.");
             return;
         }
+        if(logged)
+            this.logOperation(this.UPDATE_OPERATION, record);
+
         int page = entry.getDataPage();
         dataService.updateRecord(this.dataTapeID, page, record);
         // Index file doesn't have anything to update in database update operation
         // (updated record stays at the same page in data file and key doesn't change)
     }
 
+    public void put(String command) throws InvalidAlgorithmParameterException {
+        if(command == null)
+            throw new IllegalArgumentException("Command data was null. Putting record aborted.");
+
+        if(command.split(" ").length < 4)
+            throw new IllegalArgumentException("Bad command syntax. Command for putting a record should look something like:\n" +
+                    "P 100 25 10\n, where P - Put (create or update), 100 - example record key, 25 - example mass, 10 - example speed.");
+
+        if(command.charAt(0) != 'P')
+            throw new IllegalArgumentException("Bad command routing or syntax. Command for record put should" +
+                    " have a letter 'P' at the start.");
+
+        String recordData = command.substring(2);
+        Record record = recordConverter.stringToRecord(recordData);
+        if(record == null)
+            throw new IllegalArgumentException("Provided record data was bad syntax. Putting of the record aborted.");
+
+        if(record.getKey() <= 0)
+            throw new IllegalArgumentException("Provided record key was below or equal to 0. Key must be an 8-byte positive number.");
+
+        Lock keyLock = this.lockKey(record.getKey(), true);
+        try {
+            if(this.put(record))
+                System.out.println("Record with given key already existed and has been updated.");
+            else
+                System.out.println("Record with given key has been created.");
+            dataService.commitLog();
+        } finally {
+            this.unlockKey(keyLock);
+        }
+        this.rebuildKeyFilterIfNeeded();
+        this.checkpointIfNeeded();
+    }
+
+    /**
+     * Creates the record or updates it, if a record with its key already exists, with a single index descent either
+     * way. It's logged as the create or update operation, whichever it turned out to be.
+     * @param record
+     * @return Whether a record with the key existed before.
+     */
+    private boolean put(Record record) throws InvalidAlgorithmParameterException {
+        this.beforeIndexChange();
+        Entry entry = indexService.insertEntryIfAbsent(this.indexTapeID, record.getKey(), () -> {
+            this.logOperation(this.CREATE_OPERATION, record);
+            this.keyAdded(record.getKey());
+            return dataService.createRecord(this.dataTapeID, record);
+        });
+        if(entry == null)
+            return false;
+
+        this.logOperation(this.UPDATE_OPERATION, record);
+        dataService.updateRecord(this.dataTapeID, entry.getDataPage(), record);
+        return true;
+    }
+
     public void delete(String command) throws InvalidAlgorithmParameterException {
         if(command == null)
             throw new IllegalArgumentException("Command data was null. Creating record aborted.");
@@ -165,37 +388,584 @@ public class DatabaseService {
         if(key <= 0)
             throw new IllegalArgumentException("Provided record key was below or equal to 0. Key must be an 8-byte positive number.");
 
-        Entry entry = bTreeService.findEntry(this.indexTapeID, key);
+        Lock keyLock = this.lockKey(key, true);
+        try {
+            this.delete(key, true);
+            dataService.commitLog();
+        } finally {
+            this.unlockKey(keyLock);
+        }
+        this.rebuildKeyFilterIfNeeded();
+        this.checkpointIfNeeded();
+    }
+
+    /**
+     * Deletes the record with a single index descent - its entry is removed on the way of the search for the key,
+     * and the removed entry tells, from which data page the record should be deleted.
+     * @param key
+     * @param logged
+     * @return Whether the record has been deleted (false, if there was no record with the key).
+     */
+    private boolean delete(long key, boolean logged) throws InvalidAlgorithmParameterException {
+        Entry entry = null;
+        if(this.mightExist(key))
+        {
+            this.beforeIndexChange();
+            entry = indexService.removeEntry(this.indexTapeID, key);
+        }
         if(entry == null)
         {
             System.out.println("Entry with given key doesn't exist.");
-            return;
+            return false;
         }
+        // The log is committed only after the whole operation anyway, so it can be appended after the entry removal
+        if(logged)
+            this.logOperation(this.DELETE_OPERATION, Record.builder().key(key).build());
+
         int page = entry.getDataPage();
         dataService.deleteRecord(this.dataTapeID, page, key);
-        bTreeService.deleteEntry(this.indexTapeID, key);
+        this.keyRemoved();
+        return true;
+    }
+
+    /**
+     * Applies a batch of create, update, put and delete commands with the same result, as if they were applied one by one.
+     * Commands are sorted by keys and all commands on the same key are collapsed into a single change first, so each
+     * key is searched in the index only once, and the index is searched in ascending keys order - consecutive searches
+     * go through the same (buffered) nodes, and leaves are visited from left to right. Updated and deleted records are
+     * then changed in data pages order, so each touched data page is loaded once, and at last index entries of
+     * created and deleted records are changed, in ascending keys order again.
+     * <br></br><br></br>
+     * Changes are logged in the write-ahead log before any of them is applied, and committed together. No other
+     * operation runs during the batch.
+     * @param commands Commands like "C 100 25 10", "U 100 25 10", "P 100 25 10" or "D 100".
+     */
+    public void applyBatch(List<String> commands) throws InvalidAlgorithmParameterException {
+        Lock writeLock = this.databaseLock.writeLock();
+        writeLock.lock();
+        try {
+            this.applyCommands(commands);
+        } finally {
+            writeLock.unlock();
+        }
+        this.rebuildKeyFilterIfNeeded();
+        this.checkpointIfNeeded();
+    }
+
+    private void applyCommands(List<String> commands) throws InvalidAlgorithmParameterException {
+        if(commands == null)
+            throw new IllegalArgumentException("Commands batch was null. Applying the batch aborted.");
+
+        TreeMap<Long, BatchChange> changes = new TreeMap<>();
+        for(String command : commands)
+            this.collapseCommand(changes, command);
+
+        // Existing records of the keys are found in ascending keys order
+        List<BatchChange> dataChanges = new ArrayList<>();
+        List<BatchChange> creations = new ArrayList<>();
+        for(BatchChange change : changes.values())
+        {
+            Entry entry = this.mightExist(change.getKey()) ? indexService.findEntry(this.indexTapeID, change.getKey()) : null;
+            change.setExistingEntry(entry);
+            if(entry != null && !change.isPresentUnchanged())
+                dataChanges.add(change);
+            else if(entry == null && change.getRecordIfAbsent() != null)
+                creations.add(change);
+        }
+
+        for(BatchChange change : dataChanges)
+        {
+            if(change.getRecordIfPresent() != null)
+                this.logOperation(this.UPDATE_OPERATION, change.getRecordIfPresent());
+            else
+                this.logOperation(this.DELETE_OPERATION, Record.builder().key(change.getKey()).build());
+        }
+        for(BatchChange change : creations)
+            this.logOperation(this.CREATE_OPERATION, change.getRecordIfAbsent());
+
+        // Records on the same data page are changed one after another, and deletions free space for the creations
+        dataChanges.sort(Comparator.comparingInt(change -> change.getExistingEntry().getDataPage()));
+        for(BatchChange change : dataChanges)
+        {
+            int page = change.getExistingEntry().getDataPage();
+            if(change.getRecordIfPresent() != null)
+                dataService.updateRecord(this.dataTapeID, page, change.getRecordIfPresent());
+            else
+                dataService.deleteRecord(this.dataTapeID, page, change.getKey());
+        }
+        Map<Long, Integer> createdPages = new HashMap<>();
+        for(BatchChange change : creations)
+            createdPages.put(change.getKey(), dataService.createRecord(this.dataTapeID, change.getRecordIfAbsent()));
+
+        // Index is changed only by creations and deletions, in ascending keys order
+        this.beforeIndexChange();
+        int deletions = 0;
+        for(BatchChange change : changes.values())
+        {
+            if(createdPages.containsKey(change.getKey())) {
+                indexService.createEntry(this.indexTapeID, Entry.builder()
+                        .key(change.getKey())
+                        .dataPage(createdPages.get(change.getKey()))
+                        .build());
+                this.keyAdded(change.getKey());
+            }
+            else if(change.getExistingEntry() != null && !change.isPresentUnchanged() && change.getRecordIfPresent() == null) {
+                indexService.deleteEntry(this.indexTapeID, change.getKey());
+                this.keyRemoved();
+                deletions++;
+            }
+        }
+        dataService.commitLog();
+
+        System.out.println("Applied " + commands.size() + " commands as " + creations.size() + " creations, " +
+                (dataChanges.size() - deletions) + " updates and " + deletions + " deletions.");
+    }
+
+    /**
+     * Adds the command to the change of its key, which holds the results of all previous batch commands on the key,
+     * both for the case, when the record existed before the batch, and when it didn't.
+     * @param changes
+     * @param command
+     */
+    private void collapseCommand(Map<Long, BatchChange> changes, String command)
+    {
+        if(command == null || command.length() < 2 || command.charAt(1) != ' ')
+            throw new IllegalArgumentException("Bad command syntax in batch command: " + command);
+
+        char operation = command.charAt(0);
+        Record record;
+        if(operation == 'C' || operation == 'U' || operation == 'P')
+            record = recordConverter.stringToRecord(command.substring(2));
+        else if(operation == 'D') {
+            try {
+                record = Record.builder().key(Long.parseUnsignedLong(command.substring(2).trim())).build();
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Record key parsing failed in batch command: " + command);
+            }
+        }
+        else
+            throw new IllegalArgumentException("Only create, update, put and delete commands can be batched, but got: " + command);
+
+        if(record == null)
+            throw new IllegalArgumentException("Provided record data was bad syntax in batch command: " + command);
+
+        if(record.getKey() <= 0)
+            throw new IllegalArgumentException("Provided record key was below or equal to 0 in batch command: " + command);
+
+        BatchChange change = changes.computeIfAbsent(record.getKey(), key -> BatchChange.builder()
+                .key(key)
+                .presentUnchanged(true)
+                .build());
+        switch(operation)
+        {
+            case 'C': // Creates the record only, if it doesn't exist at the moment
+                if(change.getRecordIfAbsent() == null)
+                    change.setRecordIfAbsent(record);
+                if(!change.isPresentUnchanged() && change.getRecordIfPresent() == null)
+                    change.setRecordIfPresent(record);
+                break;
+            case 'U': // Updates the record only, if it exists at the moment
+                if(change.getRecordIfAbsent() != null)
+                    change.setRecordIfAbsent(record);
+                if(change.isPresentUnchanged() || change.getRecordIfPresent() != null) {
+                    change.setRecordIfPresent(record);
+                    change.setPresentUnchanged(false);
+                }
+                break;
+            case 'P': // Creates or updates the record, whether it exists at the moment or not
+                change.setRecordIfAbsent(record);
+                change.setRecordIfPresent(record);
+                change.setPresentUnchanged(false);
+                break;
+            case 'D':
+                change.setRecordIfAbsent(null);
+                change.setRecordIfPresent(null);
+                change.setPresentUnchanged(false);
+                break;
+        }
+    }
+
+    /**
+     * Loads records from the file into an empty database. Records are packed into data pages sequentially and the
+     * index is built bottom-up, level by level, so each page of both files is written only once.
+     * <br></br><br></br>
+     * Loaded records aren't logged in the write-ahead log - the database is flushed right after the load instead.
+     * @param file Binary file with records (e.g. a generated records file).
+     * @param fillFactor Part of the index nodes capacity filled with entries, from range (0, 1].
+     * @param sortInput Whether the records should be sorted with the external sort first (records with repeated keys
+     *                  are then dropped, except for the first one). Otherwise, they have to be sorted by strictly
+     *                  ascending keys already - the file is read twice then, first only to check that and to count
+     *                  the records, so nothing is written for an unsorted file.
+     */
+    public void bulkLoad(File file, double fillFactor, boolean sortInput) throws InvalidAlgorithmParameterException {
+        Lock writeLock = this.databaseLock.writeLock();
+        writeLock.lock();
+        try {
+            this.loadFile(file, fillFactor, sortInput);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void loadFile(File file, double fillFactor, boolean sortInput) throws InvalidAlgorithmParameterException {
+        if(file == null || !file.isFile())
+            throw new IllegalArgumentException("Records file to load doesn't exist.");
+
+        if(fillFactor <= 0 || fillFactor > 1)
+            throw new IllegalArgumentException("Fill factor must be bigger than 0 and not bigger than 1.");
+
+        if(dataService.getTapePages(this.dataTapeID) > 0 || indexService.getTapePages(this.indexTapeID) > 0)
+            throw new IllegalStateException("Records can be bulk loaded only into an empty database.");
+
+        UUID inputTapeID = UUID.randomUUID();
+        dataService.setInputTape(inputTapeID, file);
+        Run sortedRun = null;
+        try {
+            if(sortInput) {
+                sortedRun = sortService.sort(inputTapeID);
+                this.loadSortedTape(sortedRun.getTapeID(), sortedRun.getRecords(), fillFactor);
+            }
+            else
+                this.loadSortedTape(inputTapeID, this.countSortedRecords(inputTapeID), fillFactor);
+        } finally {
+            dataService.resetRecordReading(inputTapeID);
+            dataService.removeInputTape(inputTapeID);
+            if(sortedRun != null)
+                sortService.deleteRun(sortedRun);
+        }
+        this.flush();
+    }
+
+    /**
+     * Reads all records of the tape to check, whether they're sorted by strictly ascending keys.
+     * @param tapeID
+     * @return Count of the records.
+     */
+    private int countSortedRecords(UUID tapeID)
+    {
+        int records = 0;
+        long previousKey = 0;
+        Record record = dataService.readNextRecord(tapeID);
+        while(record != null)
+        {
+            if(record.getKey() <= previousKey)
+                throw new IllegalArgumentException("Records to load must be sorted by strictly ascending keys bigger" +
+                        " than 0, but key " + record.getKey() + " came after key " + previousKey + ".");
+
+            previousKey = record.getKey();
+            records++;
+            record = dataService.readNextRecord(tapeID);
+        }
+        dataService.resetRecordReading(tapeID);
+        return records;
+    }
+
+    private void loadSortedTape(UUID tapeID, int records, double fillFactor) throws InvalidAlgorithmParameterException {
+        // Loaded keys are added to a filter sized for all of them, while they're loaded
+        if(this.keyFilterService != null) {
+            this.beforeIndexChange();
+            this.keyFilterService.clear(records);
+        }
+        indexService.bulkLoad(this.indexTapeID, new SortedRecordsLoader(dataService, keyFilterService, tapeID,
+                        this.dataTapeID), records, fillFactor);
+        System.out.println("All " + records + " records have been loaded.");
+    }
+
+    /**
+     * Appends compact record of the operation to the write-ahead log: operation type (1 byte) and the record data.
+     * @param operation
+     * @param record
+     */
+    private void logOperation(byte operation, Record record)
+    {
+        ByteBuffer payload = ByteBuffer.allocate(1 + record.getSize()).put(0, operation);
+        recordConverter.recordToBytes(record, payload, 1);
+        dataService.appendLogRecord(payload.array());
+    }
+
+    /**
+     * Replays operations recovered from the write-ahead log (without logging them again) and then flushes the
+     * database, so the log can be emptied.
+     * @param operations Payloads of the logged operations, in the order they were executed.
+     */
+    public void replay(List<byte[]> operations) throws InvalidAlgorithmParameterException {
+        Lock writeLock = this.databaseLock.writeLock();
+        writeLock.lock();
+        try {
+            for(byte[] operation : operations)
+            {
+                Record record = recordConverter.bytesToRecord(ByteBuffer.wrap(operation), 1);
+                if(record == null)
+                    throw new IllegalStateException("Logged operation record is too short to contain a record.");
+
+                if(operation[0] == this.CREATE_OPERATION)
+                    this.create(record, false);
+                else if(operation[0] == this.UPDATE_OPERATION)
+                    this.update(record, false);
+                else if(operation[0] == this.DELETE_OPERATION)
+                    this.delete(record.getKey(), false);
+                else
+                    throw new IllegalStateException("Unknown type of logged operation: " + operation[0] + ".");
+            }
+            this.rebuildKeyFilterIfNeeded();
+            this.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Writes all modified buffered pages of the index and data file to disk (they're otherwise written only when
+     * their buffers are freed), together with the files headers, from which the database can be opened again.
+     */
+    public void flush()
+    {
+        Lock writeLock = this.databaseLock.writeLock();
+        writeLock.lock();
+        try {
+            // Flush of a logged data file checkpoints the index file too, so changes held outside the index buffers
+            // have to be in the index file already
+            indexService.prepareFlush(this.indexTapeID);
+            // Data file is flushed first, so the saved index never points to records, which aren't in the data file yet
+            dataService.flush(this.dataTapeID);
+            indexService.flush(this.indexTapeID);
+            // Saved key filter describes the flushed index
+            if(this.keyFilterService != null)
+                this.keyFilterService.save(this.indexTapeID);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Loads the key filter saved with the index or, if there is none (e.g. the app was closed without flushing the
+     * database after its last change), builds it from the index keys. It should be called before any operation on
+     * an opened database.
+     */
+    public void openKeyFilter()
+    {
+        Lock writeLock = this.databaseLock.writeLock();
+        writeLock.lock();
+        try {
+            if(this.keyFilterService != null && !this.keyFilterService.open(this.indexTapeID))
+                this.rebuildKeyFilter();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Rebuilds the key filter, if too many keys have been added to or removed from it. The filter is read by all
+     * operations, so it's rebuilt while the database lock is held for writing - it can't be called by a thread
+     * holding the database lock for reading.
+     */
+    private void rebuildKeyFilterIfNeeded()
+    {
+        if(this.keyFilterService == null || !this.keyFilterService.needsRebuild())
+            return;
+
+        Lock writeLock = this.databaseLock.writeLock();
+        writeLock.lock();
+        try {
+            if(this.keyFilterService.needsRebuild()) // Another thread might have rebuilt it in the meantime
+                this.rebuildKeyFilter();
+        } finally {
+            writeLock.unlock();
+        }
     }
+
+    /**
+     * Flushes the database, if the write-ahead log has grown too big, so the log is emptied by the checkpoint. Tapes
+     * can be checkpointed only when no operation is running, so it's done while the database lock is held for
+     * writing - it can't be called by a thread holding the database lock for reading.
+     */
+    private void checkpointIfNeeded()
+    {
+        if(!dataService.isLogFull())
+            return;
+
+        Lock writeLock = this.databaseLock.writeLock();
+        writeLock.lock();
+        try {
+            if(dataService.isLogFull()) // Another thread might have flushed the database in the meantime
+                this.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Builds the key filter again from all index keys, read in order. The index is read once more, if it turns out
+     * to have more keys, than the filter was sized for. Database lock must be held for writing.
+     */
+    private void rebuildKeyFilter()
+    {
+        int expectedKeys = this.keyFilterService.getKeys();
+        do {
+            this.keyFilterService.clear(expectedKeys);
+            if(indexService.getTapePages(this.indexTapeID) > 0)
+            {
+                indexService.resetReadingBTree();
+                Entry entry = indexService.readNextEntry(this.indexTapeID);
+                while(entry != null)
+                {
+                    this.keyFilterService.keyAdded(entry.getKey());
+                    entry = indexService.readNextEntry(this.indexTapeID);
+                }
+                indexService.resetReadingBTree();
+            }
+            expectedKeys = this.keyFilterService.getKeys();
+        } while(this.keyFilterService.needsRebuild());
+    }
+
+    /**
+     * @param key
+     * @return False, if the key filter tells, that the key surely doesn't exist, so the index doesn't have to be
+     * searched.
+     */
+    private boolean mightExist(long key)
+    {
+        return this.keyFilterService == null || this.keyFilterService.mightContain(key);
+    }
+
+    private void beforeIndexChange()
+    {
+        if(this.keyFilterService != null)
+            this.keyFilterService.beforeChange(this.indexTapeID);
+    }
+
+    /**
+     * Adds the key to the key filter. Operation should rebuild the filter with
+     * {@link DatabaseService#rebuildKeyFilterIfNeeded}, after it releases its locks.
+     * @param key
+     */
+    private void keyAdded(long key)
+    {
+        if(this.keyFilterService == null)
+            return;
+
+        this.keyFilterService.keyAdded(key);
+    }
+
+    /**
+     * Counts the removed key in the key filter, which is rebuilt, when too many of its keys have been removed (see
+     * {@link DatabaseService#rebuildKeyFilterIfNeeded}).
+     */
+    private void keyRemoved()
+    {
+        if(this.keyFilterService == null)
+            return;
+
+        this.keyFilterService.keyRemoved();
+    }
+
+    /**
+     * Locks the key for an operation on a single key, after the database lock has been locked for reading.
+     * @param key
+     * @param exclusive Whether the key lock should be locked for writing (by changes) or for reading (by searches).
+     * @return Locked key lock, which should be passed to {@link DatabaseService#unlockKey}.
+     */
+    private Lock lockKey(long key, boolean exclusive)
+    {
+        ReentrantReadWriteLock keyLock = this.keyLocks[Math.floorMod(Long.hashCode(key), this.keyLocks.length)];
+        Lock lock = exclusive ? keyLock.writeLock() : keyLock.readLock();
+        this.databaseLock.readLock().lock();
+        lock.lock();
+        return lock;
+    }
+
+    private void unlockKey(Lock keyLock)
+    {
+        keyLock.unlock();
+        this.databaseLock.readLock().unlock();
+    }
+
+    private static ReentrantReadWriteLock[] createKeyLocks(int count)
+    {
+        ReentrantReadWriteLock[] keyLocks = new ReentrantReadWriteLock[count];
+        for(int n = 0; n < count; n++)
+            keyLocks[n] = new ReentrantReadWriteLock();
+        return keyLocks;
+    }
+
     public void readAllRecords()
     {
-        bTreeService.resetReadingBTree();
-        Entry entry = bTreeService.readNextEntry(indexTapeID);
+        Lock readLock = this.databaseLock.readLock();
+        readLock.lock();
+        try {
+            this.printAllRecords();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    private void printAllRecords()
+    {
+        if(!indexService.isOrdered()) {
+            this.scanDataFile(System.out::println);
+            System.out.println("All records has been read (in order of the data file, as the index doesn't keep keys" +
+                    " in order).");
+            return;
+        }
+
+        indexService.resetReadingBTree();
+        // Entries are read in small batches, so data pages of the batch records can be read ahead in the background
+        int batchSize = Math.max(1, dataService.getReadAheadPages());
+        List<Entry> entries = new ArrayList<>();
+        Entry entry = indexService.readNextEntry(indexTapeID);
         while(entry != null)
         {
-            System.out.println(dataService.findRecord(dataTapeID, entry.getDataPage(), entry.getKey()));
-            entry = bTreeService.readNextEntry(indexTapeID);
+            entries.clear();
+            while(entry != null && entries.size() < batchSize) {
+                entries.add(entry);
+                entry = indexService.readNextEntry(indexTapeID);
+            }
+            dataService.readAhead(dataTapeID, entries.stream()
+                    .map(Entry::getDataPage)
+                    .distinct()
+                    .collect(Collectors.toList()));
+
+            for(Entry recordEntry : entries)
+                System.out.println(dataService.findRecord(dataTapeID, recordEntry.getDataPage(), recordEntry.getKey()));
         }
         System.out.println("All records has been read.");
     }
 
-    public void readAllEntries()
+    /**
+     * Reads all records page after page, without the index. Pages are read ahead in small batches, like records of
+     * entries read from the index.
+     * @param consumer
+     */
+    private void scanDataFile(Consumer<Record> consumer)
     {
-        bTreeService.resetReadingBTree();
-        Entry entry = bTreeService.readNextEntry(indexTapeID);
-        while(entry != null)
+        int batchSize = Math.max(1, dataService.getReadAheadPages());
+        int pages = dataService.getTapePages(this.dataTapeID);
+        for(int page = 0; page < pages; page++)
         {
-            System.out.println(entry);
-            entry = bTreeService.readNextEntry(indexTapeID);
+            if(page % batchSize == 0)
+                dataService.readAhead(this.dataTapeID, IntStream.range(page, Math.min(pages, page + batchSize))
+                        .boxed()
+                        .collect(Collectors.toList()));
+
+            dataService.findPageRecords(this.dataTapeID, page).forEach(consumer);
+        }
+    }
+
+    public void readAllEntries()
+    {
+        Lock readLock = this.databaseLock.readLock();
+        readLock.lock();
+        try {
+            indexService.resetReadingBTree();
+            Entry entry = indexService.readNextEntry(indexTapeID);
+            while(entry != null)
+            {
+                System.out.println(entry);
+                entry = indexService.readNextEntry(indexTapeID);
+            }
+            System.out.println("All entries has been read.");
+        } finally {
+            readLock.unlock();
         }
-        System.out.println("All entries has been read.");
     }
 }
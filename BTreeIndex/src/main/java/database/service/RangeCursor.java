@@ -0,0 +1,113 @@
+package database.service;
+
+import btree.service.IndexService;
+import data_file.service.DataService;
+import entry.entity.Entry;
+import record.entity.Record;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Iterates records with keys from a range, in ascending keys order. The index is searched only once, for the lower
+ * bound of the range, and then its entries are read sequentially, until the upper bound is passed. Entries are read
+ * in small batches, so data pages of the batch records can be read ahead in the background.
+ * <br></br><br></br>
+ * <strong>The cursor uses sequential reading of the index, which is kept separately for each thread, so it shouldn't
+ * be used together with other sequential reads (like reading all records) of the same thread.</strong>
+ */
+public class RangeCursor implements Iterator<Record> {
+
+    private final IndexService indexService;
+
+    private final DataService dataService;
+
+    private final UUID indexTapeID;
+
+    private final UUID dataTapeID;
+
+    /**
+     * The biggest key in the range (inclusive).
+     */
+    private final long toKey;
+
+    /**
+     * Entries read from the index, which records haven't been returned yet.
+     */
+    private final List<Entry> batch = new ArrayList<>();
+
+    private int batchPosition;
+
+    /**
+     * Whether the index has no more entries from the range.
+     */
+    private boolean exhausted;
+
+    /**
+     * Seeks the index to the smallest key in the range.
+     * @param indexService
+     * @param dataService
+     * @param indexTapeID
+     * @param dataTapeID
+     * @param fromKey The smallest key in the range (inclusive).
+     * @param toKey The biggest key in the range (inclusive).
+     */
+    public RangeCursor(IndexService indexService, DataService dataService, UUID indexTapeID, UUID dataTapeID,
+                       long fromKey, long toKey)
+    {
+        this.indexService = indexService;
+        this.dataService = dataService;
+        this.indexTapeID = indexTapeID;
+        this.dataTapeID = dataTapeID;
+        this.toKey = toKey;
+        this.exhausted = fromKey > toKey;
+        if(!this.exhausted)
+            indexService.seekEntry(indexTapeID, fromKey);
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        if(this.batchPosition >= this.batch.size() && !this.exhausted)
+            this.readNextBatch();
+
+        return this.batchPosition < this.batch.size();
+    }
+
+    @Override
+    public Record next()
+    {
+        if(!this.hasNext())
+            throw new NoSuchElementException("There are no more records in the range.");
+
+        Entry entry = this.batch.get(this.batchPosition++);
+        return dataService.findRecord(this.dataTapeID, entry.getDataPage(), entry.getKey());
+    }
+
+    private void readNextBatch()
+    {
+        this.batch.clear();
+        this.batchPosition = 0;
+        int batchSize = Math.max(1, dataService.getReadAheadPages());
+        while(this.batch.size() < batchSize)
+        {
+            Entry entry = indexService.readNextEntry(this.indexTapeID);
+            if(entry == null || entry.getKey() > this.toKey) {
+                // Reading is reset, so a copy-on-write index doesn't hold the read snapshot after the range ends
+                indexService.resetReadingBTree();
+                this.exhausted = true;
+                break;
+            }
+            this.batch.add(entry);
+        }
+
+        dataService.readAhead(this.dataTapeID, this.batch.stream()
+                .map(Entry::getDataPage)
+                .distinct()
+                .collect(Collectors.toList()));
+    }
+}
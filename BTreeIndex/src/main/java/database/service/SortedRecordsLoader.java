@@ -0,0 +1,109 @@
+package database.service;
+
+import data_file.service.DataService;
+import entry.entity.Entry;
+import filter.service.KeyFilterService;
+import record.entity.Record;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+/**
+ * Reads records sequentially from the input tape and packs them into data pages appended to the data file, one page
+ * at a time. Each page is written once, when it's full (or when the input ends), and then index entries of its records
+ * are returned, in the order of the records on the input tape.
+ */
+public class SortedRecordsLoader implements Iterator<Entry> {
+
+    private final DataService dataService;
+
+    /**
+     * Filter, to which keys of the loaded records are added. Null, if the filter is off.
+     */
+    private final KeyFilterService keyFilterService;
+
+    private final UUID inputTapeID;
+
+    private final UUID dataTapeID;
+
+    /**
+     * Entries of the records on the last written page, which haven't been returned yet.
+     */
+    private final List<Entry> pageEntries = new ArrayList<>();
+
+    private int pageEntriesPosition;
+
+    /**
+     * Whether all records of the input tape have been read.
+     */
+    private boolean exhausted;
+
+    public SortedRecordsLoader(DataService dataService, KeyFilterService keyFilterService, UUID inputTapeID,
+                               UUID dataTapeID)
+    {
+        this.dataService = dataService;
+        this.keyFilterService = keyFilterService;
+        this.inputTapeID = inputTapeID;
+        this.dataTapeID = dataTapeID;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        if(this.pageEntriesPosition >= this.pageEntries.size() && !this.exhausted)
+            this.loadNextPage();
+
+        return this.pageEntriesPosition < this.pageEntries.size();
+    }
+
+    @Override
+    public Entry next()
+    {
+        if(!this.hasNext())
+            throw new NoSuchElementException("All records of the input tape have been loaded.");
+
+        return this.pageEntries.get(this.pageEntriesPosition++);
+    }
+
+    private void loadNextPage()
+    {
+        this.pageEntries.clear();
+        this.pageEntriesPosition = 0;
+        List<Record> records = new ArrayList<>();
+        while(records.size() < dataService.getRecordsPerPage())
+        {
+            Record record = dataService.readNextRecord(this.inputTapeID);
+            if(record == null) {
+                this.exhausted = true;
+                break;
+            }
+            // Key equal to 0 marks the end of records on a data page
+            if(record.getKey() <= 0)
+                throw new IllegalArgumentException("Record key was below or equal to 0. Key must be an 8-byte positive number.");
+
+            records.add(record);
+        }
+        if(records.isEmpty())
+            return;
+
+        int page;
+        try {
+            page = dataService.appendRecordsPage(this.dataTapeID, records);
+        } catch (InvalidAlgorithmParameterException e) {
+            throw new RuntimeException(e);
+        }
+        for(Record record : records)
+        {
+            if(this.keyFilterService != null)
+                this.keyFilterService.keyAdded(record.getKey());
+            this.pageEntries.add(Entry.builder()
+                    .key(record.getKey())
+                    .dataPage(page)
+                    .build());
+        }
+    }
+}
@@ -38,6 +38,27 @@ public class EntryConverter {
         return entry;
     }
 
+    /**
+     * Reads entry directly from byte buffer (e.g. a view of a memory-mapped page), without copying the data to array.
+     * @param data
+     * @param off absolute offset in the byte buffer
+     * @return Entry read from bytes. Returning null indicates that there is too little data
+     * to read the whole entry (more data needs to be provided).
+     */
+    public Entry bytesToEntry(ByteBuffer data, int off)
+    {
+        if (data == null)
+            return null;
+
+        Entry entry = Entry.builder().build();
+        if((data.limit() - off) < entry.getSize())
+            return null;
+
+        entry.setKey(data.getLong(off));
+        entry.setDataPage(data.getInt(off + 8));
+        return entry;
+    }
+
     /**
      *
      * @param entry
@@ -81,6 +102,25 @@ public class EntryConverter {
 
         return true;
     }
+    /**
+     * Writes entry directly to byte buffer (e.g. a buffered page frame).
+     * @param entry
+     * @param output byte buffer, where the entry will be stored
+     * @param off absolute offset in byte buffer, at which the method will start writing the data
+     * @return Whether entry conversion to bytes was successful.
+     */
+    public boolean entryToBytes(Entry entry, ByteBuffer output, int off)
+    {
+        if(entry == null)
+            return false;
+
+        if(output == null || (output.limit() - off) < entry.getSize())
+            return false;
+
+        output.putLong(off, entry.getKey())
+                .putInt(off + 8, entry.getDataPage());
+        return true;
+    }
     public boolean isFullEntry(byte[] data, int off)
     {
         if (data == null)
@@ -2,18 +2,28 @@ package entry.service;
 
 import entry.converter.EntryConverter;
 import entry.entity.Entry;
+import hash.converter.HashBucketConverter;
+import hash.entity.HashBucket;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.ToString;
+import node.converter.BPlusNodeConverter;
+import node.converter.NodeConverter;
+import node.entity.BPlusNode;
+import node.entity.DecodedNode;
 import record.entity.Record;
 import tape.service.TapeService;
 
 import java.io.File;
 import java.nio.ByteBuffer;
 import java.security.InvalidAlgorithmParameterException;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
 
 @Builder
 @ToString
@@ -22,9 +32,25 @@ public class EntryService {
 
     private TapeService tapeService;
     private EntryConverter entryConverter;
+    private NodeConverter nodeConverter;
+    private BPlusNodeConverter bPlusNodeConverter;
+    private HashBucketConverter hashBucketConverter;
 
     /**
-     * This method assumes that upper layer takes responsibility of freeing buffers for tapes, if they're full.
+     * Nodes decoded from buffered pages of each tape. A decoded node is kept only while its page is buffered - it is
+     * dropped by {@link EntryService#dropDecodedNode}, registered as the tape service buffer freed listener, and on each
+     * change of the page, which isn't done through {@link EntryService#writeNode}. Maps are concurrent, since nodes of
+     * different pages are decoded and dropped in parallel, under their page latches.
+     */
+    private Map<UUID, Map<Integer, DecodedNode>> decodedNodes;
+
+    /**
+     * Size of a single entry, computed once, so position calculations don't create entries.
+     */
+    private final int ENTRY_SIZE = Entry.builder().build().getSize();
+
+    /**
+     * The page latch is held while the page is read, so its buffer isn't freed or changed in the meantime.
      * @param tapeID
      * @param page
      * @param n Which entry to retrieve (its number in order, not a position in buffer - the position will be calculated).
@@ -32,80 +58,93 @@ public class EntryService {
      */
     public Entry readEntry(UUID tapeID, int page, int n)
     {
-        if(!tapeService.getBufferedPages(tapeID).contains(page) && tapeService.isMaxBuffers(tapeID))
-            throw new IllegalStateException("Reading requested entry requires loading a page from tape, but the buffer" +
-                    " limit for this tape is full. Some buffer should have been freed before requesting this operation.");
-
-        if(page < 0)
-            throw new IllegalStateException("Page can't be a negative number.");
-
-        byte[] buffer = tapeService.readPage(tapeID, page);
-        if(buffer == null)
-            throw new IllegalStateException("Requested page should exist, but its data was null.");
-
-        if(n < 0 || n >= this.getMaxEntries(buffer.length))
-            throw new IllegalStateException("Requested entry number was below 0 or bigger than max entry number for this node." +
-                    " Entry couldn't be read. (it was "+n+" )");
-
-        int pos = this.getEntryPosition(n);
-        if(pos < 0 || pos > buffer.length - Entry.builder().build().getSize() - this.getNodePointerSize())
-            throw new IllegalStateException("Position of the entry to read from buffer was below 0 or" +
-                    " the entry won't fit in the buffer starting from this position.");
-
-        return entryConverter.bytesToEntry(buffer, pos);
+        Lock pageLatch = tapeService.getPageLatch(tapeID, page);
+        pageLatch.lock();
+        try {
+            if(page < 0)
+                throw new IllegalStateException("Page can't be a negative number.");
+
+            ByteBuffer buffer = tapeService.readPageView(tapeID, page);
+            if(buffer == null)
+                throw new IllegalStateException("Requested page should exist, but its data was null.");
+
+            if(n < 0 || n >= this.getMaxEntries(buffer.limit()))
+                throw new IllegalStateException("Requested entry number was below 0 or bigger than max entry number for this node." +
+                        " Entry couldn't be read. (it was "+n+" )");
+
+            int pos = this.getEntryPosition(n);
+            if(pos < 0 || pos > buffer.limit() - Entry.builder().build().getSize() - this.getNodePointerSize())
+                throw new IllegalStateException("Position of the entry to read from buffer was below 0 or" +
+                        " the entry won't fit in the buffer starting from this position.");
+
+            return entryConverter.bytesToEntry(buffer, pos);
+        } finally {
+            pageLatch.unlock();
+        }
     }
 
     public void writeEntry(UUID tapeID, int page, int n, Entry entry)
     {
-        if(!tapeService.getBufferedPages(tapeID).contains(page) && tapeService.isMaxBuffers(tapeID))
-            throw new IllegalStateException("Writing requested entry requires loading a page from tape, but the buffer" +
-                    " limit for this tape is full. Some buffer should have been freed before requesting this operation.");
-
-        if(page < 0)
-            throw new IllegalStateException("Page can't be a negative number.");
-
-        if(entry == null)
-            throw new IllegalStateException("Provided entry to write was null.");
-
-        byte[] buffer = tapeService.readPage(tapeID, page);
-        if(buffer == null)
-            throw new IllegalStateException("Requested page should exist, but its data was null.");
-
-        if(n < 0 || n >= this.getMaxEntries(buffer.length))
-            throw new IllegalStateException("Requested entry number was below 0 or bigger than max entry number for this node." +
-                    " Entry couldn't be cleared.");
-
-        int pos = this.getEntryPosition(n);
-        if(pos < 0 || pos > buffer.length - entry.getSize() - this.getNodePointerSize())
-            throw new IllegalStateException("Position of the entry to create in buffer was below 0 or" +
-                    " the entry won't fit in the buffer starting from this position.");
-
-        entryConverter.entryToBytes(entry, buffer, pos);
+        Lock pageLatch = tapeService.getPageLatch(tapeID, page);
+        pageLatch.lock();
+        try {
+            if(page < 0)
+                throw new IllegalStateException("Page can't be a negative number.");
+
+            if(entry == null)
+                throw new IllegalStateException("Provided entry to write was null.");
+
+            ByteBuffer buffer = tapeService.readPageBuffer(tapeID, page);
+            if(buffer == null)
+                throw new IllegalStateException("Requested page should exist, but its data was null.");
+
+            if(n < 0 || n >= this.getMaxEntries(buffer.limit()))
+                throw new IllegalStateException("Requested entry number was below 0 or bigger than max entry number for this node." +
+                        " Entry couldn't be cleared.");
+
+            // Entries count in the node header isn't changed, so only existing entries can be overwritten
+            if(n >= buffer.getInt(0))
+                throw new IllegalStateException("Requested entry number was bigger than last entry number in this node." +
+                        " New entries should be added by writing the whole node.");
+
+            int pos = this.getEntryPosition(n);
+            if(pos < 0 || pos > buffer.limit() - entry.getSize() - this.getNodePointerSize())
+                throw new IllegalStateException("Position of the entry to create in buffer was below 0 or" +
+                        " the entry won't fit in the buffer starting from this position.");
+
+            entryConverter.entryToBytes(entry, buffer, pos);
+            this.dropDecodedNode(tapeID, page);
+        } finally {
+            pageLatch.unlock();
+        }
     }
 
     public void clearEntry(UUID tapeID, int page, int n)
     {
-        if(!tapeService.getBufferedPages(tapeID).contains(page) && tapeService.isMaxBuffers(tapeID))
-            throw new IllegalStateException("Reading requested entry requires loading a page from tape, but the buffer" +
-                    " limit for this tape is full. Some buffer should have been freed before requesting this operation.");
-
-        if(page < 0)
-            throw new IllegalStateException("Page can't be a negative number.");
-
-        byte[] buffer = tapeService.readPage(tapeID, page);
-        if(buffer == null)
-            throw new IllegalStateException("Requested page should exist, but its data was null.");
-
-        if(n < 0 || n >= this.getMaxEntries(buffer.length))
-            throw new IllegalStateException("Requested entry number was below 0 or bigger than max entry number for this node." +
-                    " Entry couldn't be cleared.");
-
-        int pos = this.getEntryPosition(n);
-        if(pos < 0 || pos > buffer.length - Entry.builder().build().getSize() - this.getNodePointerSize())
-            throw new IllegalStateException("Position of the entry to create in buffer was below 0 or" +
-                    " the entry won't fit in the buffer starting from this position.");
-
-        Arrays.fill(buffer, pos, pos + Entry.builder().build().getSize(), (byte) 0);
+        Lock pageLatch = tapeService.getPageLatch(tapeID, page);
+        pageLatch.lock();
+        try {
+            if(page < 0)
+                throw new IllegalStateException("Page can't be a negative number.");
+
+            ByteBuffer buffer = tapeService.readPageBuffer(tapeID, page);
+            if(buffer == null)
+                throw new IllegalStateException("Requested page should exist, but its data was null.");
+
+            if(n < 0 || n >= this.getMaxEntries(buffer.limit()))
+                throw new IllegalStateException("Requested entry number was below 0 or bigger than max entry number for this node." +
+                        " Entry couldn't be cleared.");
+
+            int pos = this.getEntryPosition(n);
+            if(pos < 0 || pos > buffer.limit() - Entry.builder().build().getSize() - this.getNodePointerSize())
+                throw new IllegalStateException("Position of the entry to create in buffer was below 0 or" +
+                        " the entry won't fit in the buffer starting from this position.");
+
+            this.fillZeros(buffer, pos, pos + Entry.builder().build().getSize());
+            this.dropDecodedNode(tapeID, page);
+        } finally {
+            pageLatch.unlock();
+        }
     }
 
     /**
@@ -118,72 +157,94 @@ public class EntryService {
      */
     public int findEntryNumber(UUID tapeID, int page, long key)
     {
-        if(!tapeService.getBufferedPages(tapeID).contains(page) && tapeService.isMaxBuffers(tapeID))
-            throw new IllegalStateException("Finding requested entry requires loading a page from tape, but the buffer" +
-                    " limit for this tape is full. Some buffer should have been freed before requesting this operation.");
-
-        if(page < 0)
-            throw new IllegalStateException("Page can't be a negative number.");
-
-        if(key <= 0)
-            throw new IllegalStateException("Record key can't be below or equal to 0.");
-
-        byte[] buffer = tapeService.readPage(tapeID, page);
-        if(buffer == null)
-            throw new IllegalStateException("Requested page should exist, but its data was null.");
+        Lock pageLatch = tapeService.getPageLatch(tapeID, page);
+        pageLatch.lock();
+        try {
+            if(page < 0)
+                throw new IllegalStateException("Page can't be a negative number.");
+
+            if(key <= 0)
+                throw new IllegalStateException("Record key can't be below or equal to 0.");
+
+            int slot = this.searchNode(tapeID, page, key);
+            return slot >= 0 ? slot : -1;
+        } finally {
+            pageLatch.unlock();
+        }
+    }
 
-        int n = 0;
-        while(n < this.getMaxEntries(buffer.length))
-        {
-            Entry entry = this.readEntry(tapeID, page, n);
-            if(entry.getKey() == key)
-                return n;
-            n++;
+    /**
+     * Binary search of the key in the node, done directly on the page bytes. Entries are sorted by their keys and only
+     * as many of them, as the node header says, are searched.
+     * @param tapeID
+     * @param page
+     * @param key
+     * @return Number of the entry with the key, if it is in the node. Otherwise (-(child pointer number) - 1), where
+     * the child pointer number is the number of the first entry with a bigger key (or of the last pointer), so it is
+     * the pointer to the subtree, which may contain the key.
+     */
+    public int searchNode(UUID tapeID, int page, long key)
+    {
+        Lock pageLatch = tapeService.getPageLatch(tapeID, page);
+        pageLatch.lock();
+        try {
+            if(page < 0)
+                throw new IllegalStateException("Page can't be a negative number.");
+
+            if(key <= 0)
+                throw new IllegalStateException("Record key can't be below or equal to 0.");
+
+            ByteBuffer buffer = tapeService.readPageView(tapeID, page);
+            if(buffer == null)
+                throw new IllegalStateException("Requested page should exist, but its data was null.");
+
+            // Only entries counted in the node header are searched
+            int low = 0;
+            int high = buffer.getInt(0) - 1;
+            while(low <= high)
+            {
+                int middle = (low + high) >>> 1;
+                long middleKey = buffer.getLong(this.getEntryPosition(middle));
+                if(middleKey == key)
+                    return middle;
+
+                if(middleKey > key)
+                    high = middle - 1;
+                else
+                    low = middle + 1;
+            }
+            return -low - 1;
+        } finally {
+            pageLatch.unlock();
         }
-        return -1; // There are no more entries in this node, so the requested entry isn't here
     }
 
     /**
-     * Counts all non-empty entries. Throws exception if there are empty entries between real entries (this situation
-     * can happen only when some b-tree operation hasn't been done in all parts. After every full b-tree operation,
-     * there are no gap entries.). This method should only be used before or after full execution of a b-tree operation
-     * (like create, delete etc.).
+     * Reads number of the node entries, which is stored in the node header, so the entries don't have to be counted.
      * @param tapeID
      * @param page
      * @return Entries number in this node.
      */
     public int getNodeEntries(UUID tapeID, int page)
     {
-        if(!tapeService.getBufferedPages(tapeID).contains(page) && tapeService.isMaxBuffers(tapeID))
-            throw new IllegalStateException("Counting requested node entries requires loading a page from tape, but the buffer" +
-                    " limit for this tape is full. Some buffer should have been freed before requesting this operation.");
-
-        if(page < 0)
-            throw new IllegalStateException("Page can't be a negative number.");
-
-        byte[] buffer = tapeService.readPage(tapeID, page);
-        if(buffer == null)
-            throw new IllegalStateException("Requested page should exist, but its data was null.");
-
-        int n = 0;
-        int entries = 0;
-        while(n < this.getMaxEntries(buffer.length))
-        {
-            Entry entry = this.readEntry(tapeID, page, n);
-            if(entry.getKey() == 0)
-                break;
-            entries++;
-            n++;
+        Lock pageLatch = tapeService.getPageLatch(tapeID, page);
+        pageLatch.lock();
+        try {
+            if(page < 0)
+                throw new IllegalStateException("Page can't be a negative number.");
+
+            ByteBuffer buffer = tapeService.readPageView(tapeID, page);
+            if(buffer == null)
+                throw new IllegalStateException("Requested page should exist, but its data was null.");
+
+            if(buffer.limit() < this.getNodeHeaderSize())
+                throw new IllegalStateException("The node buffer size was smaller than header. Entries count" +
+                        " couldn't be read.");
+
+            return buffer.getInt(0);
+        } finally {
+            pageLatch.unlock();
         }
-        while(n < this.getMaxEntries(buffer.length))
-        {
-            Entry entry = this.readEntry(tapeID, page, n);
-            if(entry.getKey() != 0)
-                throw new IllegalStateException("After first empty entry, there shouldn't be any real entries in node.");
-            n++;
-        }
-
-        return entries;
     }
 
     /**
@@ -200,159 +261,524 @@ public class EntryService {
 
     public int readNodePointer(UUID tapeID, int page, int n)
     {
-        if(!tapeService.getBufferedPages(tapeID).contains(page) && tapeService.isMaxBuffers(tapeID))
-            throw new IllegalStateException("Reading requested node pointer requires loading a page from tape, but the buffer" +
-                    " limit for this tape is full. Some buffer should have been freed before requesting this operation.");
+        Lock pageLatch = tapeService.getPageLatch(tapeID, page);
+        pageLatch.lock();
+        try {
+            if(page < 0)
+                throw new IllegalStateException("Page can't be a negative number.");
+
+            ByteBuffer buffer = tapeService.readPageView(tapeID, page);
+            if(buffer == null)
+                throw new IllegalStateException("Requested page should exist, but its data was null.");
+
+            if(n < 0 || n >= this.getMaxNodePointers(buffer.limit()))
+                throw new IllegalStateException("Requested node pointer number was below 0 or bigger than max node pointer" +
+                        " number for this node. Pointer couldn't be read.");
+
+            int pos = this.getNodePointerPosition(n);
+            if(pos < 0 || pos > buffer.limit() - this.getNodePointerSize())
+                throw new IllegalStateException("Position of the node pointer to read from buffer was below 0 or" +
+                        " the pointer won't fit in the buffer starting from this position.");
+
+            return buffer.getInt(pos);
+        } finally {
+            pageLatch.unlock();
+        }
+    }
+
+    public void setNodePointer(UUID tapeID, int page, int n, int pagePointer)
+    {
+        Lock pageLatch = tapeService.getPageLatch(tapeID, page);
+        pageLatch.lock();
+        try {
+            if(page < 0)
+                throw new IllegalStateException("Page can't be a negative number.");
+
+            ByteBuffer buffer = tapeService.readPageBuffer(tapeID, page);
+            if(buffer == null)
+                throw new IllegalStateException("Requested page should exist, but its data was null.");
+
+            if(n < 0 || n >= this.getMaxNodePointers(buffer.limit()))
+                throw new IllegalStateException("Requested node pointer number was below 0 or bigger than max node pointer" +
+                        " number for this node. Pointer couldn't be written.");
+
+            int pos = this.getNodePointerPosition(n);
+            if(pos < 0 || pos > buffer.limit() - this.getNodePointerSize())
+                throw new IllegalStateException("Position of the node pointer to write in buffer was below 0 or" +
+                        " the pointer won't fit in the buffer starting from this position.");
+
+            buffer.putInt(pos, pagePointer);
+            this.dropDecodedNode(tapeID, page);
+        } finally {
+            pageLatch.unlock();
+        }
+    }
+
+    /**
+     *
+     * @param tapeID
+     * @param page
+     * @param pagePointer
+     * @return Requested node pointer number or -1, if there was no pointer with this value.
+     */
+    public int findNodePointerNumber(UUID tapeID, int page, int pagePointer)
+    {
+        return this.readNode(tapeID, page).findChildPointerNumber(pagePointer);
+    }
+    /**
+     * Returns the whole node decoded from the page. The node is decoded only once while its page stays buffered and
+     * isn't changed, so many steps of a single b-tree operation can use it without reading the page again.
+     * <strong>Returned node is shared with the cache, so it shouldn't be modified.</strong>
+     * @param tapeID
+     * @param page
+     * @return
+     */
+    public DecodedNode readNode(UUID tapeID, int page)
+    {
+        Lock pageLatch = tapeService.getPageLatch(tapeID, page);
+        pageLatch.lock();
+        try {
+            if(page < 0)
+                throw new IllegalStateException("Page can't be a negative number.");
+
+            Map<Integer, DecodedNode> tapeDecodedNodes = this.decodedNodes.computeIfAbsent(tapeID, id -> new ConcurrentHashMap<>());
+            DecodedNode node = tapeDecodedNodes.get(page);
+            if(node != null && tapeService.accessBufferedPage(tapeID, page))
+                return node;
+
+            ByteBuffer buffer = tapeService.readPageView(tapeID, page);
+            if(buffer == null)
+                throw new IllegalStateException("Requested page should exist, but its data was null.");
+
+            node = nodeConverter.bytesToDecodedNode(buffer);
+            if(node == null)
+                throw new IllegalStateException("Size of the node was incorrect. It should be equal to sum of possible entries" +
+                        " and nodes that could be put in it, but it wasn't.");
+
+            this.cacheDecodedNode(tapeID, page, node);
+            return node;
+        } finally {
+            pageLatch.unlock();
+        }
+    }
+
+    /**
+     * Writes the whole node to the page buffer (it still needs to be saved). The node is kept as the decoded node of the
+     * page, so it shouldn't be modified after this call.
+     * @param tapeID
+     * @param page
+     * @param node
+     */
+    public void writeNode(UUID tapeID, int page, DecodedNode node)
+    {
+        Lock pageLatch = tapeService.getPageLatch(tapeID, page);
+        pageLatch.lock();
+        try {
+            if(page < 0)
+                throw new IllegalStateException("Page can't be a negative number.");
 
-        if(page < 0)
-            throw new IllegalStateException("Page can't be a negative number.");
+            if(node == null)
+                throw new IllegalStateException("Provided node to write was null.");
 
-        byte[] buffer = tapeService.readPage(tapeID, page);
-        if(buffer == null)
-            throw new IllegalStateException("Requested page should exist, but its data was null.");
+            ByteBuffer buffer = tapeService.readPageBuffer(tapeID, page);
+            if(buffer == null)
+                throw new IllegalStateException("Requested page should exist, but its data was null.");
 
-        if(n < 0 || n >= this.getMaxNodePointers(buffer.length))
-            throw new IllegalStateException("Requested node pointer number was below 0 or bigger than max node pointer" +
-                    " number for this node. Pointer couldn't be read.");
+            if(node.getEntriesCount() > this.getMaxEntries(buffer.limit()))
+                throw new IllegalStateException("Provided node has more entries, than can be stored on a page.");
 
-        int pos = this.getNodePointerPosition(n);
-        if(pos < 0 || pos > buffer.length - this.getNodePointerSize())
-            throw new IllegalStateException("Position of the node pointer to read from buffer was below 0 or" +
-                    " the pointer won't fit in the buffer starting from this position.");
+            if(!nodeConverter.decodedNodeToBytes(node, buffer))
+                throw new IllegalStateException("Provided node couldn't be written to the page buffer.");
 
-        return ByteBuffer.wrap(buffer, pos, this.getNodePointerSize()).getInt();
+            this.cacheDecodedNode(tapeID, page, node);
+        } finally {
+            pageLatch.unlock();
+        }
     }
 
-    public void setNodePointer(UUID tapeID, int page, int n, int pagePointer)
+    /**
+     * Reads B+tree node from the page.
+     * @param tapeID
+     * @param page
+     * @param leaf Whether the node on the page is a leaf.
+     * @return
+     */
+    public BPlusNode readBPlusNode(UUID tapeID, int page, boolean leaf)
     {
-        if(!tapeService.getBufferedPages(tapeID).contains(page) && tapeService.isMaxBuffers(tapeID))
-            throw new IllegalStateException("Writing requested node pointer requires loading a page from tape, but the buffer" +
-                    " limit for this tape is full. Some buffer should have been freed before requesting this operation.");
+        Lock pageLatch = tapeService.getPageLatch(tapeID, page);
+        pageLatch.lock();
+        try {
+            if(page < 0)
+                throw new IllegalStateException("Page can't be a negative number.");
+
+            ByteBuffer buffer = tapeService.readPageView(tapeID, page);
+            if(buffer == null)
+                throw new IllegalStateException("Requested page should exist, but its data was null.");
+
+            return bPlusNodeConverter.bytesToNode(buffer, leaf);
+        } finally {
+            pageLatch.unlock();
+        }
+    }
 
-        if(page < 0)
-            throw new IllegalStateException("Page can't be a negative number.");
+    /**
+     * Replaces whole content of the page with the B+tree node.
+     * @param tapeID
+     * @param page
+     * @param node
+     */
+    public void writeBPlusNode(UUID tapeID, int page, BPlusNode node)
+    {
+        Lock pageLatch = tapeService.getPageLatch(tapeID, page);
+        pageLatch.lock();
+        try {
+            if(page < 0)
+                throw new IllegalStateException("Page can't be a negative number.");
 
-        byte[] buffer = tapeService.readPage(tapeID, page);
-        if(buffer == null)
-            throw new IllegalStateException("Requested page should exist, but its data was null.");
+            if(node == null)
+                throw new IllegalStateException("Provided node to write was null.");
 
-        if(n < 0 || n >= this.getMaxNodePointers(buffer.length))
-            throw new IllegalStateException("Requested node pointer number was below 0 or bigger than max node pointer" +
-                    " number for this node. Pointer couldn't be written.");
+            ByteBuffer buffer = tapeService.readPageBuffer(tapeID, page);
+            if(buffer == null)
+                throw new IllegalStateException("Requested page should exist, but its data was null.");
 
-        int pos = this.getNodePointerPosition(n);
-        if(pos < 0 || pos > buffer.length - this.getNodePointerSize())
-            throw new IllegalStateException("Position of the node pointer to write in buffer was below 0 or" +
-                    " the pointer won't fit in the buffer starting from this position.");
+            if(!bPlusNodeConverter.nodeToBytes(node, buffer))
+                throw new IllegalStateException("Provided node couldn't be written to the page buffer.");
 
-        ByteBuffer.wrap(buffer, pos, this.getNodePointerSize()).putInt(pagePointer);
+            this.dropDecodedNode(tapeID, page);
+        } finally {
+            pageLatch.unlock();
+        }
+    }
+
+    public int getMaxBPlusLeafEntries(int nodeSize)
+    {
+        return bPlusNodeConverter.getMaxLeafEntries(nodeSize);
+    }
+
+    public int getMaxBPlusInternalKeys(int nodeSize)
+    {
+        return bPlusNodeConverter.getMaxInternalKeys(nodeSize);
     }
 
     /**
-     *
      * @param tapeID
      * @param page
-     * @param pagePointer
-     * @return Requested node pointer number or -1, if there was no pointer with this value.
+     * @return Bucket of an extendible hashing index stored on the page.
      */
-    public int findNodePointerNumber(UUID tapeID, int page, int pagePointer)
+    public HashBucket readHashBucket(UUID tapeID, int page)
     {
-        int n = 0;
-        while(n < this.getNodePointers(tapeID, page))
-        {
-            if(this.readNodePointer(tapeID, page, n) == pagePointer)
-                return n;
-            n++;
+        Lock pageLatch = tapeService.getPageLatch(tapeID, page);
+        pageLatch.lock();
+        try {
+            if(page < 0)
+                throw new IllegalStateException("Page can't be a negative number.");
+
+            ByteBuffer buffer = tapeService.readPageView(tapeID, page);
+            if(buffer == null)
+                throw new IllegalStateException("Requested page should exist, but its data was null.");
+
+            return hashBucketConverter.bytesToBucket(buffer);
+        } finally {
+            pageLatch.unlock();
         }
-        return -1;
     }
-    public int readNodeParentPointer(UUID tapeID, int page)
+
+    /**
+     * Replaces whole content of the page with the bucket and saves it.
+     * @param tapeID
+     * @param page
+     * @param bucket
+     */
+    public void writeHashBucket(UUID tapeID, int page, HashBucket bucket)
     {
-        if(!tapeService.getBufferedPages(tapeID).contains(page) && tapeService.isMaxBuffers(tapeID))
-            throw new IllegalStateException("Reading requested node pointer requires loading a page from tape, but the buffer" +
-                    " limit for this tape is full. Some buffer should have been freed before requesting this operation.");
+        Lock pageLatch = tapeService.getPageLatch(tapeID, page);
+        pageLatch.lock();
+        try {
+            if(page < 0)
+                throw new IllegalStateException("Page can't be a negative number.");
+
+            if(bucket == null)
+                throw new IllegalStateException("Provided bucket to write was null.");
+
+            ByteBuffer buffer = tapeService.readPageBuffer(tapeID, page);
+            if(buffer == null)
+                throw new IllegalStateException("Requested page should exist, but its data was null.");
+
+            if(!hashBucketConverter.bucketToBytes(bucket, buffer))
+                throw new IllegalStateException("Provided bucket couldn't be written to the page buffer.");
+
+            this.dropDecodedNode(tapeID, page);
+            tapeService.writePage(tapeID, page);
+        } finally {
+            pageLatch.unlock();
+        }
+    }
 
-        if(page < 0)
-            throw new IllegalStateException("Page can't be a negative number.");
+    /**
+     * Reads bucket pointers stored on a directory page of an extendible hashing index to the directory.
+     * @param tapeID
+     * @param page
+     * @param directory
+     * @param fromSlot Directory slot of the first pointer on the page.
+     * @param slots How many pointers are stored on the page.
+     * @return Pointer to the next directory page, or 0, if this is the last one.
+     */
+    public int readHashDirectoryPage(UUID tapeID, int page, int[] directory, int fromSlot, int slots)
+    {
+        Lock pageLatch = tapeService.getPageLatch(tapeID, page);
+        pageLatch.lock();
+        try {
+            if(page < 0)
+                throw new IllegalStateException("Page can't be a negative number.");
+
+            ByteBuffer buffer = tapeService.readPageView(tapeID, page);
+            if(buffer == null)
+                throw new IllegalStateException("Requested page should exist, but its data was null.");
+
+            return hashBucketConverter.bytesToDirectory(buffer, directory, fromSlot, slots);
+        } finally {
+            pageLatch.unlock();
+        }
+    }
+
+    /**
+     * Replaces whole content of the page with bucket pointers of the directory and saves it.
+     * @param tapeID
+     * @param page
+     * @param directory
+     * @param fromSlot
+     * @param slots How many pointers to write.
+     * @param nextPagePointer Pointer to the next directory page, or 0, if this is the last one.
+     */
+    public void writeHashDirectoryPage(UUID tapeID, int page, int[] directory, int fromSlot, int slots, int nextPagePointer)
+    {
+        Lock pageLatch = tapeService.getPageLatch(tapeID, page);
+        pageLatch.lock();
+        try {
+            if(page < 0)
+                throw new IllegalStateException("Page can't be a negative number.");
+
+            ByteBuffer buffer = tapeService.readPageBuffer(tapeID, page);
+            if(buffer == null)
+                throw new IllegalStateException("Requested page should exist, but its data was null.");
+
+            if(!hashBucketConverter.directoryToBytes(directory, fromSlot, slots, nextPagePointer, buffer))
+                throw new IllegalStateException("Provided directory slots couldn't be written to the page buffer.");
+
+            this.dropDecodedNode(tapeID, page);
+            tapeService.writePage(tapeID, page);
+        } finally {
+            pageLatch.unlock();
+        }
+    }
 
-        byte[] buffer = tapeService.readPage(tapeID, page);
-        if(buffer == null)
-            throw new IllegalStateException("Requested page should exist, but its data was null.");
+    public int getMaxHashBucketEntries(int pageSize)
+    {
+        return hashBucketConverter.getMaxBucketEntries(pageSize);
+    }
 
-        if(buffer.length < this.getNodeHeaderSize())
-            throw new IllegalStateException("The node buffer size was smaller than header. Parent node pointer" +
-                    " couldn't be read.");
+    public int getHashDirectorySlotsPerPage(int pageSize)
+    {
+        return hashBucketConverter.getDirectorySlotsPerPage(pageSize);
+    }
 
-        return ByteBuffer.wrap(buffer, 0, this.getNodePointerSize()).getInt();
+    public void saveNode(UUID tapeID, int page) throws InvalidAlgorithmParameterException {
+        Lock pageLatch = tapeService.getPageLatch(tapeID, page);
+        pageLatch.lock();
+        try {
+            if(page < 0)
+                throw new IllegalStateException("Page can't be a negative number.");
+
+            ByteBuffer buffer = tapeService.readPageBuffer(tapeID, page);
+            if(buffer == null)
+                throw new IllegalStateException("Requested page should exist, but its data was null.");
+
+            tapeService.writePage(tapeID, page);
+        } finally {
+            pageLatch.unlock();
+        }
     }
 
-    public void setNodeParentPointer(UUID tapeID, int page, int pagePointer)
+    /**
+     * Clears all node data, together with the header (so the node has no entries).
+     * @param tapeID
+     * @param page
+     */
+    public void clearNodeData(UUID tapeID, int page)
     {
-        if(!tapeService.getBufferedPages(tapeID).contains(page) && tapeService.isMaxBuffers(tapeID))
-            throw new IllegalStateException("Writing requested node pointer requires loading a page from tape, but the buffer" +
-                    " limit for this tape is full. Some buffer should have been freed before requesting this operation.");
+        Lock pageLatch = tapeService.getPageLatch(tapeID, page);
+        pageLatch.lock();
+        try {
+            if(page < 0)
+                throw new IllegalStateException("Page can't be a negative number.");
+
+            ByteBuffer buffer = tapeService.readPageBuffer(tapeID, page);
+            if(buffer == null)
+                throw new IllegalStateException("Requested page should exist, but its data was null.");
+
+            if(buffer.limit() <= this.getNodeHeaderSize())
+                throw new IllegalStateException("The node buffer size was smaller than or equal to header." +
+                        " There was no node data to clear.");
+
+            this.fillZeros(buffer, 0, buffer.limit());
+            this.dropDecodedNode(tapeID, page);
+        } finally {
+            pageLatch.unlock();
+        }
+    }
 
-        if(page < 0)
-            throw new IllegalStateException("Page can't be a negative number.");
+    /**
+     * Appends a block of entries to the run tape. Entries are put one after another from the start of the block and
+     * the rest of it is filled with zeros (key equal to 0 marks the end of entries), so each block can be read alone.
+     * @param tapeID
+     * @param entries At most {@link EntryService#getEntriesPerBlock} entries.
+     */
+    public void writeNextEntriesBlock(UUID tapeID, List<Entry> entries) throws InvalidAlgorithmParameterException {
+        if(entries.size() > this.getEntriesPerBlock())
+            throw new IllegalArgumentException("Block can hold at most " + this.getEntriesPerBlock() + " entries, but "
+                    + entries.size() + " were provided.");
 
-        byte[] buffer = tapeService.readPage(tapeID, page);
-        if(buffer == null)
-            throw new IllegalStateException("Requested page should exist, but its data was null.");
+        byte[] block = new byte[tapeService.BLOCK_SIZE];
+        for(int n = 0; n < entries.size(); n++)
+            entryConverter.entryToBytes(entries.get(n), block, n * this.ENTRY_SIZE);
 
-        if(buffer.length < this.getNodeHeaderSize())
-            throw new IllegalStateException("The node buffer size was smaller than header. Parent node pointer" +
-                    " couldn't be written.");
+        if(!tapeService.writeNextBlock(tapeID, block, block.length))
+            throw new IllegalStateException("Block of entries couldn't be written to the tape " + tapeID + ".");
+    }
 
-        ByteBuffer.wrap(buffer, 0, this.getNodePointerSize()).putInt(pagePointer);
+    /**
+     * Reads the next block of entries of the run tape, written with {@link EntryService#writeNextEntriesBlock}.
+     * @param tapeID
+     * @return Entries of the block or null, if all blocks have been read.
+     */
+    public List<Entry> readNextEntriesBlock(UUID tapeID)
+    {
+        return this.decodeEntriesBlock(tapeService.readNextBlock(tapeID));
     }
 
-    public void saveNode(UUID tapeID, int page) throws InvalidAlgorithmParameterException {
-        if(!tapeService.getBufferedPages(tapeID).contains(page) && tapeService.isMaxBuffers(tapeID))
-            throw new IllegalStateException("Saving requested node requires loading a page from tape, but the buffer" +
-                    " limit for this tape is full. Some buffer should have been freed before requesting this operation.");
+    /**
+     * Reads a block of entries of the run tape straight from its position, without changing the position of the
+     * sequential reading, so many threads can read blocks of the same run at the same time.
+     * @param tapeID
+     * @param block
+     * @return Entries of the block or null, if there is no such block.
+     */
+    public List<Entry> readEntriesBlock(UUID tapeID, int block)
+    {
+        if(block < 0)
+            throw new IllegalStateException("Block can't be a negative number.");
 
-        if(page < 0)
-            throw new IllegalStateException("Page can't be a negative number.");
+        return this.decodeEntriesBlock(tapeService.readBlock(tapeID, (long) tapeService.BLOCK_SIZE * block));
+    }
 
-        byte[] buffer = tapeService.readPage(tapeID, page);
-        if(buffer == null)
-            throw new IllegalStateException("Requested page should exist, but its data was null.");
+    private List<Entry> decodeEntriesBlock(byte[] block)
+    {
+        if(block == null)
+            return null;
 
-        tapeService.writePage(tapeID, page, buffer, buffer.length);
+        List<Entry> entries = new ArrayList<>();
+        for(int off = 0; off + this.ENTRY_SIZE <= block.length; off += this.ENTRY_SIZE)
+        {
+            Entry entry = entryConverter.bytesToEntry(block, off);
+            if(entry.getKey() == 0)
+                break;
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    public int getEntriesPerBlock()
+    {
+        return tapeService.BLOCK_SIZE / this.ENTRY_SIZE;
     }
 
     /**
-     * Clears all node data except the header.
      * @param tapeID
      * @param page
+     * @return Copy of the whole page data.
      */
-    public void clearNodeData(UUID tapeID, int page)
+    public byte[] readPageData(UUID tapeID, int page)
     {
-        if(!tapeService.getBufferedPages(tapeID).contains(page) && tapeService.isMaxBuffers(tapeID))
-            throw new IllegalStateException("Saving requested node requires loading a page from tape, but the buffer" +
-                    " limit for this tape is full. Some buffer should have been freed before requesting this operation.");
+        Lock pageLatch = tapeService.getPageLatch(tapeID, page);
+        pageLatch.lock();
+        try {
+            return tapeService.readPage(tapeID, page);
+        } finally {
+            pageLatch.unlock();
+        }
+    }
 
-        if(page < 0)
-            throw new IllegalStateException("Page can't be a negative number.");
+    /**
+     * Replaces whole content of the page with the data (the rest of the page is filled with zeros) and saves it.
+     * @param tapeID
+     * @param page
+     * @param data At most page size bytes.
+     */
+    public void writePageData(UUID tapeID, int page, byte[] data)
+    {
+        Lock pageLatch = tapeService.getPageLatch(tapeID, page);
+        pageLatch.lock();
+        try {
+            ByteBuffer buffer = tapeService.readPageBuffer(tapeID, page);
+            if(buffer == null)
+                throw new IllegalStateException("Requested page should exist, but its data was null.");
+
+            if(data.length > buffer.limit())
+                throw new IllegalArgumentException("Provided data doesn't fit on a single page.");
+
+            for(int i = 0; i < data.length; i++)
+                buffer.put(i, data[i]);
+            this.fillZeros(buffer, data.length, buffer.limit());
+            this.dropDecodedNode(tapeID, page);
+            tapeService.writePage(tapeID, page);
+        } finally {
+            pageLatch.unlock();
+        }
+    }
 
-        byte[] buffer = tapeService.readPage(tapeID, page);
-        if(buffer == null)
-            throw new IllegalStateException("Requested page should exist, but its data was null.");
+    /**
+     * Keeps decoded node of a buffered page, until its buffer is freed.
+     * @param tapeID
+     * @param page
+     * @param node
+     */
+    private void cacheDecodedNode(UUID tapeID, int page, DecodedNode node)
+    {
+        Map<Integer, DecodedNode> tapeDecodedNodes = this.decodedNodes.computeIfAbsent(tapeID, id -> new ConcurrentHashMap<>());
+        if(!tapeService.isBuffered(tapeID, page)) { // E.g. page read from memory-mapped file, without buffering it
+            tapeDecodedNodes.remove(page);
+            return;
+        }
 
-        if(buffer.length <= this.getNodeHeaderSize())
-            throw new IllegalStateException("The node buffer size was smaller than or equal to header." +
-                    " There was no node data to clear.");
+        tapeDecodedNodes.put(page, node);
+    }
 
-        Arrays.fill(buffer, this.getNodeHeaderSize(), buffer.length, (byte) 0);
+    /**
+     * Drops decoded node of the page, e.g. when its buffer is freed by the tape service.
+     * @param tapeID
+     * @param page
+     */
+    public void dropDecodedNode(UUID tapeID, int page)
+    {
+        Map<Integer, DecodedNode> tapeDecodedNodes = this.decodedNodes.get(tapeID);
+        if(tapeDecodedNodes != null)
+            tapeDecodedNodes.remove(page);
+    }
+
+    private void fillZeros(ByteBuffer buffer, int from, int to)
+    {
+        for(int i = from; i < to; i++)
+            buffer.put(i, (byte) 0);
     }
     private int getEntryPosition(int n)
     {
-        return this.getNodeHeaderSize() + this.getNodePointerSize() + n * (Entry.builder().build().getSize() + this.getNodePointerSize());
+        return this.getNodeHeaderSize() + this.getNodePointerSize() + n * (this.ENTRY_SIZE + this.getNodePointerSize());
     }
 
     private int getNodePointerPosition(int n)
     {
-        return this.getNodeHeaderSize() + n * (this.getNodePointerSize() + Entry.builder().build().getSize());
+        return this.getNodeHeaderSize() + n * (this.getNodePointerSize() + this.ENTRY_SIZE);
     }
 
     private int getMaxEntries(int bufferSize)
@@ -380,7 +806,7 @@ public class EntryService {
 
     public int getNodeHeaderSize()
     {
-        // In header, there is stored a 4-byte parent pointer of the node
+        // In header, there is stored a 4-byte number of the node entries
         return 4;
     }
 
@@ -418,6 +844,31 @@ public class EntryService {
         tapeService.create(id, isIndexTape);
     }
 
+    public void openTape(UUID id)
+    {
+        tapeService.open(id);
+    }
+
+    public void createRunTape(UUID id)
+    {
+        tapeService.createRunTape(id);
+    }
+
+    public void openRunTape(UUID id)
+    {
+        tapeService.openRunTape(id);
+    }
+
+    public void forceRunTape(UUID id)
+    {
+        tapeService.forceRunTape(id);
+    }
+
+    public Set<UUID> findStoredRunTapesIDs()
+    {
+        return tapeService.findStoredRunTapesIDs();
+    }
+
     public void setInputTape(UUID id, File file)
     {
         tapeService.setInputTape(id, file);
@@ -431,11 +882,13 @@ public class EntryService {
     public void deleteTape(UUID id)
     {
         tapeService.delete(id);
+        this.decodedNodes.remove(id);
     }
 
     public void clearTape(UUID id)
     {
         tapeService.clear(id);
+        this.decodedNodes.remove(id);
     }
 
     public void copyTapeFile(UUID id, String path, String fileName)
@@ -463,6 +916,82 @@ public class EntryService {
         return tapeService.getBufferedPages(tapeID);
     }
 
+    public void assureBufferForPage(UUID tapeID, int page)
+    {
+        tapeService.assureBufferForPage(tapeID, page);
+    }
+
+    /**
+     * @param tapeID
+     * @param page
+     * @return Latch of the page, which has to be held by a thread for the whole sequence of calls, which reads
+     * the page and then modifies it (see {@link TapeService#getPageLatch}).
+     */
+    public Lock getPageLatch(UUID tapeID, int page)
+    {
+        return tapeService.getPageLatch(tapeID, page);
+    }
+
+    /**
+     * @param tapeID
+     * @return Latch of the tape free space map, which has to be held by a thread for the whole sequence of calls,
+     * which finds or adds a page and then takes up its space (see {@link TapeService#getAllocationLatch}).
+     */
+    public Lock getAllocationLatch(UUID tapeID)
+    {
+        return tapeService.getAllocationLatch(tapeID);
+    }
+
+    public void latchAllPages(UUID tapeID)
+    {
+        tapeService.latchAllPages(tapeID);
+    }
+
+    public void unlatchAllPages(UUID tapeID)
+    {
+        tapeService.unlatchAllPages(tapeID);
+    }
+
+    public boolean pinPage(UUID tapeID, int page)
+    {
+        return tapeService.pinPage(tapeID, page);
+    }
+
+    public void unpinAllPages(UUID tapeID)
+    {
+        tapeService.unpinAllPages(tapeID);
+    }
+
+    public void flush(UUID tapeID)
+    {
+        tapeService.flush(tapeID);
+    }
+
+    public void writeKeyFilter(UUID tapeID, byte[] filter)
+    {
+        tapeService.writeKeyFilter(tapeID, filter);
+    }
+
+    public byte[] readKeyFilter(UUID tapeID)
+    {
+        return tapeService.readKeyFilter(tapeID);
+    }
+
+    public void deleteKeyFilter(UUID tapeID)
+    {
+        tapeService.deleteKeyFilter(tapeID);
+    }
+
+    public void readAhead(UUID tapeID, List<Integer> pages)
+    {
+        tapeService.readAhead(tapeID, pages);
+    }
+
+    public int getReadAheadPages()
+    {
+        return tapeService.getReadAheadPages();
+    }
+
     public int getReads(UUID id)
     {
         return tapeService.getReads(id);
@@ -483,6 +1012,11 @@ public class EntryService {
         tapeService.setMaxBuffers(id, n);
     }
 
+    public int getTapeMaxPinnedBuffers(UUID id)
+    {
+        return tapeService.getMaxPinnedBuffers(id);
+    }
+
     public int getFreeSpaceOnPage(UUID tapeID, int page)
     {
         return tapeService.getFreeSpaceOnPage(tapeID, page);
@@ -493,11 +1027,51 @@ public class EntryService {
         tapeService.setFreeSpaceOnPage(tapeID, page, amount);
     }
 
+    public int findPageWithFreeSpace(UUID tapeID, int minFreeSpace)
+    {
+        return tapeService.findPageWithFreeSpace(tapeID, minFreeSpace);
+    }
+
     public int getTapePages(UUID id)
     {
         return tapeService.getPages(id);
     }
 
+    public int getPageSize()
+    {
+        return tapeService.BLOCK_SIZE;
+    }
+
+    public int getTapeRootPointer(UUID id)
+    {
+        return tapeService.getRootPointer(id);
+    }
+
+    public int getTapeDegree(UUID id)
+    {
+        return tapeService.getDegree(id);
+    }
+
+    public int getTapeIndexType(UUID id)
+    {
+        return tapeService.getIndexType(id);
+    }
+
+    public void setTapeIndexType(UUID id, int indexType)
+    {
+        tapeService.setIndexType(id, indexType);
+    }
+
+    public int getTapeHeight(UUID id)
+    {
+        return tapeService.getHeight(id);
+    }
+
+    public void setTapeIndexMetadata(UUID id, int rootPointer, int degree, int height)
+    {
+        tapeService.setIndexMetadata(id, rootPointer, degree, height);
+    }
+
     public int getTapeFreePages(UUID id)
     {
         return tapeService.getFreePages(id);
@@ -0,0 +1,57 @@
+package filter.converter;
+
+import filter.entity.BloomFilter;
+
+import java.nio.ByteBuffer;
+
+public class BloomFilterConverter {
+
+    /**
+     * Number identifying the key filter files ("KFLT").
+     */
+    private final int MAGIC = 0x4B464C54;
+
+    private final int VERSION = 1;
+
+    public byte[] filterToBytes(BloomFilter filter)
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(4*6 + filter.getBits().length*8);
+        buffer.putInt(this.MAGIC);
+        buffer.putInt(this.VERSION);
+        buffer.putInt(filter.getHashes());
+        buffer.putInt(filter.getCapacity());
+        buffer.putInt(filter.getKeys());
+        buffer.putInt(filter.getRemovedKeys());
+        buffer.asLongBuffer().put(filter.getBits());
+        return buffer.array();
+    }
+
+    /**
+     *
+     * @param data
+     * @return Filter read from bytes. Returning null indicates that the data isn't a filter of a supported version or
+     * is truncated.
+     */
+    public BloomFilter bytesToFilter(byte[] data)
+    {
+        if(data == null || data.length < 4*6 + 8 || (data.length - 4*6) % 8 != 0)
+            return null;
+
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if(buffer.getInt() != this.MAGIC || buffer.getInt() != this.VERSION)
+            return null;
+
+        BloomFilter filter = BloomFilter.builder()
+                .hashes(buffer.getInt())
+                .capacity(buffer.getInt())
+                .keys(buffer.getInt())
+                .removedKeys(buffer.getInt())
+                .bits(new long[buffer.remaining() / 8])
+                .build();
+        if(filter.getHashes() <= 0 || filter.getCapacity() <= 0 || filter.getKeys() < 0 || filter.getRemovedKeys() < 0)
+            return null;
+
+        buffer.asLongBuffer().get(filter.getBits());
+        return filter;
+    }
+}
@@ -0,0 +1,118 @@
+package filter.entity;
+
+import lombok.*;
+
+/**
+ * Bloom filter of record keys - a bit array, in which each added key sets a few bits chosen by its hashes. A key,
+ * which has any of its bits unset, has surely never been added, while a key with all bits set was added only probably
+ * (bits could have been set by other keys). Keys can't be removed, so removed keys are only counted, until the
+ * filter is rebuilt.
+ */
+@Getter
+@Setter
+@Builder
+@ToString(exclude = "bits")
+@AllArgsConstructor
+public class BloomFilter {
+
+    /**
+     * Bits of the filter, 64 in each number.
+     */
+    private long[] bits;
+
+    /**
+     * How many bits are set for each key.
+     */
+    private int hashes;
+
+    /**
+     * Number of keys, for which the bits array has been sized. With more keys, false positives get more frequent
+     * than planned.
+     */
+    private int capacity;
+
+    /**
+     * Number of keys added and not removed since the filter was built.
+     */
+    private int keys;
+
+    /**
+     * Number of keys removed since the filter was built. Their bits are still set.
+     */
+    private int removedKeys;
+
+    /**
+     * @param capacity
+     * @param bitsPerKey Bits of the array for each key of the capacity. Around 10 bits give about 1% false positives.
+     * @return Empty filter.
+     */
+    public static BloomFilter withCapacity(int capacity, int bitsPerKey)
+    {
+        if(capacity <= 0 || bitsPerKey <= 0)
+            throw new IllegalArgumentException("Bloom filter capacity and bits per key must be bigger than 0.");
+
+        long bitsCount = (long) capacity * bitsPerKey;
+        // ln(2) * bits per key hashes give the fewest false positives
+        int hashes = Math.max(1, (int) Math.round(bitsPerKey * Math.log(2)));
+        return BloomFilter.builder()
+                .bits(new long[(int) Math.min(Integer.MAX_VALUE - 8, (bitsCount + 63) / 64)])
+                .hashes(hashes)
+                .capacity(capacity)
+                .keys(0)
+                .removedKeys(0)
+                .build();
+    }
+
+    public void add(long key)
+    {
+        long hash = this.mix(key);
+        for(int i = 0; i < this.hashes; i++)
+        {
+            long bit = this.getBitNumber(hash, i);
+            this.bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @param key
+     * @return False, if the key has surely not been added, true, if it probably has.
+     */
+    public boolean mightContain(long key)
+    {
+        long hash = this.mix(key);
+        for(int i = 0; i < this.hashes; i++)
+        {
+            long bit = this.getBitNumber(hash, i);
+            if((this.bits[(int) (bit >>> 6)] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Double hashing - i-th bit of a key is chosen by the lower half of its hash plus i times the upper half.
+     * @param hash
+     * @param i
+     * @return
+     */
+    private long getBitNumber(long hash, int i)
+    {
+        return Math.floorMod((int) hash + (long) i * (int) (hash >>> 32), (long) this.bits.length * 64);
+    }
+
+    /**
+     * Spreads bits of the key over the whole hash (finalizer of the MurmurHash3 64-bit hash), so consecutive keys
+     * don't set neighbouring bits.
+     * @param key
+     * @return
+     */
+    private long mix(long key)
+    {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
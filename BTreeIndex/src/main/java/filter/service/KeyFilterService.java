@@ -0,0 +1,155 @@
+package filter.service;
+
+import entry.service.EntryService;
+import filter.converter.BloomFilterConverter;
+import filter.entity.BloomFilter;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.ToString;
+
+import java.util.UUID;
+
+/**
+ * Keeps a Bloom filter of the keys of an index in memory, so searches for keys, which surely don't exist, don't have
+ * to read any index pages. The filter is saved next to the index tape, when the index is flushed, and the saved filter
+ * is deleted before the first change of the index after that - an index opened with a saved filter is always the
+ * one, for which the filter was saved.
+ * <br></br><br></br>
+ * Filter is shared by all threads using the database, so its methods are synchronized.
+ */
+@Builder
+@ToString(exclude = "filter")
+@AllArgsConstructor
+public class KeyFilterService {
+
+    private EntryService entryService;
+
+    private BloomFilterConverter bloomFilterConverter;
+
+    /**
+     * Bits of the filter for each key, which it's sized for.
+     */
+    private final int bitsPerKey;
+
+    /**
+     * Smallest number of keys, for which the filter is sized, so a small index isn't rebuilt after every few changes.
+     */
+    private final int minCapacity;
+
+    /**
+     * Null until the filter is built or loaded - every key might exist then.
+     */
+    private BloomFilter filter;
+
+    /**
+     * Whether the saved filter describes the current index.
+     */
+    private boolean saved;
+
+    /**
+     * @param key
+     * @return False, if the index surely doesn't contain the key, true, if it might.
+     */
+    public synchronized boolean mightContain(long key)
+    {
+        return this.filter == null || this.filter.mightContain(key);
+    }
+
+    /**
+     * Deletes the saved filter, if it still describes the index, because the index is about to change. It has to be
+     * called before each change of the index.
+     * @param tapeID
+     */
+    public synchronized void beforeChange(UUID tapeID)
+    {
+        if(!this.saved)
+            return;
+
+        entryService.deleteKeyFilter(tapeID);
+        this.saved = false;
+    }
+
+    /**
+     * Adds a key inserted into the index.
+     * @param key
+     */
+    public synchronized void keyAdded(long key)
+    {
+        if(this.filter == null)
+            return;
+
+        this.filter.add(key);
+        this.filter.setKeys(this.filter.getKeys() + 1);
+    }
+
+    /**
+     * Counts a key removed from the index. Its bits stay set, until the filter is rebuilt.
+     */
+    public synchronized void keyRemoved()
+    {
+        if(this.filter == null)
+            return;
+
+        this.filter.setKeys(this.filter.getKeys() - 1);
+        this.filter.setRemovedKeys(this.filter.getRemovedKeys() + 1);
+    }
+
+    /**
+     * @return Whether the filter should be built again from the index keys - when there are more keys than it has
+     * been sized for, or when so many keys have been removed, that their bits make false positives too frequent.
+     */
+    public synchronized boolean needsRebuild()
+    {
+        return this.filter == null || this.filter.getKeys() > this.filter.getCapacity()
+                || this.filter.getRemovedKeys() > this.filter.getCapacity() / 2;
+    }
+
+    /**
+     * Replaces the filter with an empty one, to which all keys of the index should be added then.
+     * @param expectedKeys Number of keys, which will be added, or 0, if it's unknown.
+     */
+    public synchronized void clear(int expectedKeys)
+    {
+        // Space for twice as many keys is left, so the filter isn't rebuilt right after the index grows
+        int capacity = (int) Math.min(Integer.MAX_VALUE / 2, Math.max(this.minCapacity, 2L * expectedKeys));
+        this.filter = BloomFilter.withCapacity(capacity, this.bitsPerKey);
+    }
+
+    /**
+     * @return Number of keys in the index, according to the filter.
+     */
+    public synchronized int getKeys()
+    {
+        return this.filter != null ? this.filter.getKeys() : 0;
+    }
+
+    /**
+     * Saves the filter, if it has changed since it was last saved. It should be called right after the index has
+     * been flushed.
+     * @param tapeID
+     */
+    public synchronized void save(UUID tapeID)
+    {
+        if(this.filter == null || this.saved)
+            return;
+
+        entryService.writeKeyFilter(tapeID, bloomFilterConverter.filterToBytes(this.filter));
+        this.saved = true;
+    }
+
+    /**
+     * Loads the filter saved for the index.
+     * @param tapeID
+     * @return Whether the filter has been loaded. If not, it has to be built from the index keys.
+     */
+    public synchronized boolean open(UUID tapeID)
+    {
+        BloomFilter savedFilter = bloomFilterConverter.bytesToFilter(entryService.readKeyFilter(tapeID));
+        if(savedFilter == null)
+            return false;
+
+        this.filter = savedFilter;
+        this.saved = true;
+        return true;
+    }
+}
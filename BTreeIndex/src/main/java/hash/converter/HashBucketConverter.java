@@ -0,0 +1,167 @@
+package hash.converter;
+
+import entry.converter.EntryConverter;
+import entry.entity.Entry;
+import hash.entity.HashBucket;
+import lombok.AllArgsConstructor;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts extendible hashing index pages. A bucket page starts with a 4-byte local depth and a 4-byte number of its
+ * entries, which are followed by the entries. A directory page starts with a 4-byte pointer to the next directory
+ * page (0 for the last one), which is followed by 4-byte bucket pointers of the next directory slots.
+ */
+@AllArgsConstructor
+public class HashBucketConverter {
+
+    private EntryConverter entryConverter;
+
+    private final int ENTRY_SIZE = Entry.builder().build().getSize();
+
+    private final int HEADER_SIZE = 8;
+
+    private final int POINTER_SIZE = 4;
+
+    /**
+     * Decodes bucket directly from byte buffer (e.g. a buffered page frame).
+     * @param data Bucket data takes up the whole buffer, up to its limit.
+     * @return Decoded bucket. Returning null indicates that the data was null.
+     */
+    public HashBucket bytesToBucket(ByteBuffer data)
+    {
+        if(data == null)
+            return null;
+
+        int entriesCount = data.getInt(4);
+        if(entriesCount < 0 || entriesCount > this.getMaxBucketEntries(data.limit()))
+            throw new IllegalStateException("Entries count stored in the bucket header was below 0 or bigger than max" +
+                    " entries number for this bucket. (it was " + entriesCount + ")");
+
+        List<Entry> entries = new ArrayList<>(entriesCount + 1);
+        for(int n = 0; n < entriesCount; n++)
+            entries.add(entryConverter.bytesToEntry(data, this.HEADER_SIZE + n * this.ENTRY_SIZE));
+
+        return HashBucket.builder()
+                .localDepth(data.getInt(0))
+                .entries(entries)
+                .build();
+    }
+
+    /**
+     * Writes whole bucket directly to byte buffer (e.g. a buffered page frame). Space after the bucket data is filled
+     * with zeros.
+     * @param bucket
+     * @param output Bucket data takes up the whole buffer, up to its limit.
+     * @return Whether bucket conversion to bytes was successful.
+     */
+    public boolean bucketToBytes(HashBucket bucket, ByteBuffer output)
+    {
+        if(bucket == null || output == null)
+            return false;
+
+        if(bucket.getEntries().size() > this.getMaxBucketEntries(output.limit()))
+            return false;
+
+        output.putInt(0, bucket.getLocalDepth());
+        output.putInt(4, bucket.getEntries().size());
+        int consumed = this.HEADER_SIZE;
+        for(Entry entry : bucket.getEntries())
+        {
+            entryConverter.entryToBytes(entry, output, consumed);
+            consumed += this.ENTRY_SIZE;
+        }
+        for(int i = consumed; i < output.limit(); i++)
+            output.put(i, (byte) 0);
+
+        return true;
+    }
+
+    /**
+     * Reads bucket pointers of a directory page to the directory, from its slot.
+     * @param data Directory page data.
+     * @param directory
+     * @param fromSlot Directory slot of the first pointer on the page.
+     * @param slots How many pointers to read.
+     * @return Pointer to the next directory page, or 0, if this is the last one.
+     */
+    public int bytesToDirectory(ByteBuffer data, int[] directory, int fromSlot, int slots)
+    {
+        if(slots > this.getDirectorySlotsPerPage(data.limit()))
+            throw new IllegalStateException("Requested directory slots don't fit on a single page.");
+
+        for(int n = 0; n < slots; n++)
+            directory[fromSlot + n] = data.getInt(this.POINTER_SIZE + n * this.POINTER_SIZE);
+        return data.getInt(0);
+    }
+
+    /**
+     * Writes bucket pointers of the directory, from its slot, to a directory page. Space after them is filled with
+     * zeros.
+     * @param directory
+     * @param fromSlot
+     * @param slots How many pointers to write.
+     * @param nextPagePointer Pointer to the next directory page, or 0, if this is the last one.
+     * @param output Directory page data.
+     * @return Whether directory conversion to bytes was successful.
+     */
+    public boolean directoryToBytes(int[] directory, int fromSlot, int slots, int nextPagePointer, ByteBuffer output)
+    {
+        if(directory == null || output == null || slots > this.getDirectorySlotsPerPage(output.limit()))
+            return false;
+
+        output.putInt(0, nextPagePointer);
+        int consumed = this.POINTER_SIZE;
+        for(int n = 0; n < slots; n++)
+        {
+            output.putInt(consumed, directory[fromSlot + n]);
+            consumed += this.POINTER_SIZE;
+        }
+        for(int i = consumed; i < output.limit(); i++)
+            output.put(i, (byte) 0);
+
+        return true;
+    }
+
+    /**
+     * @param pageSize
+     * @return How many entries fit in a bucket of that size.
+     */
+    public int getMaxBucketEntries(int pageSize)
+    {
+        return (pageSize - this.HEADER_SIZE) / this.ENTRY_SIZE;
+    }
+
+    /**
+     * @param pageSize
+     * @return How many bucket pointers fit on a directory page of that size.
+     */
+    public int getDirectorySlotsPerPage(int pageSize)
+    {
+        return (pageSize - this.POINTER_SIZE) / this.POINTER_SIZE;
+    }
+
+    public String bucketToString(HashBucket bucket)
+    {
+        if(bucket == null)
+            return null;
+
+        StringBuilder bucketData = new StringBuilder();
+        bucketData.append("D ");
+        bucketData.append(bucket.getLocalDepth());
+        bucketData.append(" H ");
+        bucketData.append(bucket.getEntries().size());
+        bucketData.append(" H |");
+        for(Entry entry : bucket.getEntries())
+        {
+            bucketData.append(" ");
+            bucketData.append(entry.getKey());
+            bucketData.append(" ");
+            bucketData.append(entry.getDataPage());
+            bucketData.append(" |");
+        }
+        return bucketData.toString();
+    }
+}
@@ -0,0 +1,52 @@
+package hash.entity;
+
+import entry.entity.Entry;
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * Bucket of an extendible hashing index - entries, which keys have the same first local depth bits of their hashes.
+ * Each bucket takes up a single index page.
+ */
+@Getter
+@Setter
+@Builder
+@ToString
+@AllArgsConstructor
+public class HashBucket {
+
+    /**
+     * Number of the first hash bits, which are the same for all keys of the bucket. Directory points to the bucket
+     * from 2^(global depth - local depth) neighbouring slots.
+     */
+    private int localDepth;
+
+    /**
+     * Entries of the bucket, in ascending keys order.
+     */
+    private List<Entry> entries;
+
+    /**
+     * @param key
+     * @return Number of the entry with provided key or -(insertion number) - 1, if there is no such entry.
+     */
+    public int findEntryNumber(long key)
+    {
+        int low = 0;
+        int high = this.entries.size() - 1;
+        while(low <= high)
+        {
+            int middle = (low + high) >>> 1;
+            long middleKey = this.entries.get(middle).getKey();
+            if(middleKey == key)
+                return middle;
+
+            if(middleKey > key)
+                high = middle - 1;
+            else
+                low = middle + 1;
+        }
+        return -low - 1;
+    }
+}
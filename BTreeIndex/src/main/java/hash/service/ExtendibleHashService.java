@@ -0,0 +1,753 @@
+package hash.service;
+
+import btree.service.DataPageSupplier;
+import btree.service.IndexService;
+import btree.service.IndexType;
+import entry.entity.Entry;
+import entry.service.EntryService;
+import hash.entity.HashBucket;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.ToString;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Extendible hashing index. Entries are stored in buckets, each taking up a single index page, and the bucket of a key
+ * is found by the first global depth bits of the key hash, which select a slot of the directory. The directory is kept
+ * in memory (and saved on its own index pages), so a search reads only a single index page. A full bucket is split in
+ * two by the next bit of its keys hashes, and only when its local depth reaches the global depth, the directory is
+ * doubled. Buckets, which entries fit in half of a bucket together with their buddy, are merged back.
+ * <br></br><br></br>
+ * Slots of a bucket are always next to each other, because they're selected by the first hash bits, so a split or a
+ * merge changes only neighbouring directory slots - only directory pages containing them are written again.
+ * <br></br><br></br>
+ * Keys aren't kept in order, so entries are read bucket after bucket, in order of their hashes, and reading can't be
+ * positioned at a key. Searches run in parallel and each change runs alone, like in {@link btree.service.BTreeService}.
+ */
+@Builder
+@ToString(exclude = {"directory", "directoryPages"})
+@AllArgsConstructor
+public class ExtendibleHashService implements IndexService {
+
+    private EntryService entryService;
+
+    /**
+     * Degree of the b-tree, from which the index page size is calculated, so the hashing index uses pages of the same
+     * size as a b-tree of that degree.
+     */
+    private final int d;
+
+    /**
+     * Number of the first hash bits, which select a directory slot. Directory has 2^(global depth) slots.
+     */
+    private int globalDepth;
+
+    /**
+     * Bucket pointers of the directory slots, or null, if the index has no buckets yet.
+     * <strong>Index page pointer - a pointer is page number + 1, to exclude 0 value as special and meaning null
+     * pointer.</strong>
+     */
+    private int[] directory;
+
+    /**
+     * Index pages, on which the directory is saved, in order of its slots. They're also linked into a list, starting
+     * from the page saved in the index tape header.
+     */
+    private List<Integer> directoryPages;
+
+    /**
+     * Max global depth - the directory of that depth takes up 64 MB of memory.
+     */
+    private static final int MAX_GLOBAL_DEPTH = 24;
+
+    private final ReentrantReadWriteLock treeLatch = new ReentrantReadWriteLock();
+
+    /**
+     * Positions of the sequential reads - each thread reads entries on its own.
+     */
+    private final ThreadLocal<HashReadContext> sequentialReads = ThreadLocal.withInitial(HashReadContext::new);
+
+    /**
+     * Counter of bucket splits.
+     */
+    private final AtomicInteger splits = new AtomicInteger();
+
+    /**
+     * Counter of bucket merges.
+     */
+    private final AtomicInteger merges = new AtomicInteger();
+
+    @Override
+    public void createEntry(UUID tapeID, Entry entry) throws InvalidAlgorithmParameterException {
+        if(this.insertEntryIfAbsent(tapeID, entry.getKey(), entry::getDataPage) != null)
+            System.out.println("Entry with provided key already exists. Creation of new entry hasn't succeeded.");
+    }
+
+    /**
+     * Reads only the bucket of the key. If the key doesn't exist and the bucket is full, it is split (until the bucket
+     * of the key has a free place), before the data page is requested.
+     */
+    @Override
+    public Entry insertEntryIfAbsent(UUID tapeID, long key, DataPageSupplier dataPageSupplier)
+            throws InvalidAlgorithmParameterException {
+        Lock treeWriteLatch = this.treeLatch.writeLock();
+        treeWriteLatch.lock();
+        try {
+            return this.insertEntry(tapeID, key, dataPageSupplier);
+        } finally {
+            treeWriteLatch.unlock();
+        }
+    }
+
+    /**
+     * Inserts the entry, like {@link ExtendibleHashService#insertEntryIfAbsent}. Tree write latch must be held.
+     */
+    private Entry insertEntry(UUID tapeID, long key, DataPageSupplier dataPageSupplier)
+            throws InvalidAlgorithmParameterException {
+        if(this.directory == null)
+            this.createDirectory(tapeID, 0);
+
+        long hash = this.hash(key);
+        int bucketPage = this.pointerToPage(this.directory[this.getSlot(hash)]);
+        HashBucket bucket = this.readBucket(tapeID, bucketPage);
+        int entryNumber = bucket.findEntryNumber(key);
+        if(entryNumber >= 0)
+            return bucket.getEntries().get(entryNumber);
+
+        // All entries of a split bucket may go to the half of the key, so it may have to be split again
+        while(bucket.getEntries().size() >= this.getMaxBucketEntries())
+        {
+            this.splitBucket(tapeID, hash, bucketPage, bucket);
+            bucketPage = this.pointerToPage(this.directory[this.getSlot(hash)]);
+            bucket = this.readBucket(tapeID, bucketPage);
+        }
+
+        bucket.getEntries().add(-bucket.findEntryNumber(key) - 1, Entry.builder()
+                .key(key)
+                .dataPage(dataPageSupplier.getDataPage())
+                .build());
+        this.writeBucket(tapeID, bucketPage, bucket);
+        return null;
+    }
+
+    /**
+     * Splits the bucket in two by the next bit of its keys hashes - entries with the bit set are moved to a new bucket,
+     * which takes over the second half of the bucket slots. The directory is doubled first, if the bucket has only a
+     * single slot.
+     * @param tapeID
+     * @param hash Hash of a key, which belongs to the bucket.
+     * @param bucketPage
+     * @param bucket
+     */
+    private void splitBucket(UUID tapeID, long hash, int bucketPage, HashBucket bucket)
+    {
+        int localDepth = bucket.getLocalDepth();
+        if(localDepth == this.globalDepth)
+            this.doubleDirectory(tapeID);
+
+        List<Entry> keptEntries = new ArrayList<>();
+        List<Entry> movedEntries = new ArrayList<>();
+        for(Entry entry : bucket.getEntries())
+        {
+            if(((this.hash(entry.getKey()) >>> (63 - localDepth)) & 1) == 0)
+                keptEntries.add(entry);
+            else
+                movedEntries.add(entry);
+        }
+
+        int newBucketPage = this.allocatePage(tapeID);
+        this.writeBucket(tapeID, bucketPage, HashBucket.builder()
+                .localDepth(localDepth + 1)
+                .entries(keptEntries)
+                .build());
+        this.writeBucket(tapeID, newBucketPage, HashBucket.builder()
+                .localDepth(localDepth + 1)
+                .entries(movedEntries)
+                .build());
+
+        int slots = 1 << (this.globalDepth - localDepth);
+        int firstSlot = this.getSlot(hash) & -slots;
+        Arrays.fill(this.directory, firstSlot + slots / 2, firstSlot + slots, this.pageToPointer(newBucketPage));
+        this.writeDirectorySlots(tapeID, firstSlot + slots / 2, firstSlot + slots);
+        this.splits.incrementAndGet();
+    }
+
+    /**
+     * Doubles the directory - each slot is replaced by two slots pointing to the same bucket. Whole directory is
+     * written again.
+     * @param tapeID
+     */
+    private void doubleDirectory(UUID tapeID)
+    {
+        if(this.globalDepth == ExtendibleHashService.MAX_GLOBAL_DEPTH)
+            throw new IllegalStateException("Directory of the hashing index has reached its max size of 2^" +
+                    ExtendibleHashService.MAX_GLOBAL_DEPTH + " slots.");
+
+        int[] doubledDirectory = new int[this.directory.length * 2];
+        for(int slot = 0; slot < doubledDirectory.length; slot++)
+            doubledDirectory[slot] = this.directory[slot >> 1];
+        this.directory = doubledDirectory;
+        this.globalDepth++;
+        this.writeDirectory(tapeID);
+    }
+
+    /**
+     * Reads only the bucket of the key.
+     */
+    @Override
+    public Entry findEntry(UUID tapeID, long key)
+    {
+        Lock treeReadLatch = this.treeLatch.readLock();
+        treeReadLatch.lock();
+        try {
+            if(this.directory == null)
+                return null;
+
+            HashBucket bucket = this.readBucket(tapeID, this.pointerToPage(this.directory[this.getSlot(this.hash(key))]));
+            int entryNumber = bucket.findEntryNumber(key);
+            return entryNumber >= 0 ? bucket.getEntries().get(entryNumber) : null;
+        } finally {
+            treeReadLatch.unlock();
+        }
+    }
+
+    @Override
+    public void deleteEntry(UUID tapeID, long key) throws InvalidAlgorithmParameterException {
+        if(this.removeEntry(tapeID, key) == null)
+            System.out.println("Entry with provided key doesn't exist. Deletion of the entry hasn't succeeded.");
+    }
+
+    /**
+     * Removes the entry from the bucket of the key, and merges the bucket with its buddy, if they're both at most half
+     * full together.
+     */
+    @Override
+    public Entry removeEntry(UUID tapeID, long key) throws InvalidAlgorithmParameterException {
+        Lock treeWriteLatch = this.treeLatch.writeLock();
+        treeWriteLatch.lock();
+        try {
+            if(this.directory == null)
+                return null;
+
+            long hash = this.hash(key);
+            int bucketPage = this.pointerToPage(this.directory[this.getSlot(hash)]);
+            HashBucket bucket = this.readBucket(tapeID, bucketPage);
+            int entryNumber = bucket.findEntryNumber(key);
+            if(entryNumber < 0)
+                return null;
+
+            Entry removedEntry = bucket.getEntries().remove(entryNumber);
+            this.writeBucket(tapeID, bucketPage, bucket);
+            this.mergeBuckets(tapeID, hash);
+            return removedEntry;
+        } finally {
+            treeWriteLatch.unlock();
+        }
+    }
+
+    /**
+     * Merges the bucket of the hash with its buddy (bucket, which differs only in the last bit of the local depth), as
+     * long as they have the same local depth and their entries fit in half of a bucket, so a merged bucket isn't split
+     * again by the next few inserts. The directory is halved then, if each pair of its slots points to the same bucket.
+     * @param tapeID
+     * @param hash
+     */
+    private void mergeBuckets(UUID tapeID, long hash)
+    {
+        while(true)
+        {
+            int bucketPointer = this.directory[this.getSlot(hash)];
+            HashBucket bucket = this.readBucket(tapeID, this.pointerToPage(bucketPointer));
+            int localDepth = bucket.getLocalDepth();
+            if(localDepth == 0)
+                break;
+
+            int slots = 1 << (this.globalDepth - localDepth);
+            int firstSlot = this.getSlot(hash) & -slots;
+            int buddyFirstSlot = firstSlot ^ slots;
+            int buddyPointer = this.directory[buddyFirstSlot];
+            HashBucket buddy = this.readBucket(tapeID, this.pointerToPage(buddyPointer));
+            if(buddy.getLocalDepth() != localDepth
+                    || bucket.getEntries().size() + buddy.getEntries().size() > this.getMaxBucketEntries() / 2)
+                break;
+
+            // Bucket of the first slots stays, so its slots don't change
+            int mergedFirstSlot = Math.min(firstSlot, buddyFirstSlot);
+            int mergedPointer = this.directory[mergedFirstSlot];
+            int freedPointer = mergedPointer == bucketPointer ? buddyPointer : bucketPointer;
+            List<Entry> entries = new ArrayList<>(bucket.getEntries());
+            entries.addAll(buddy.getEntries());
+            entries.sort(Comparator.comparingLong(Entry::getKey));
+            this.writeBucket(tapeID, this.pointerToPage(mergedPointer), HashBucket.builder()
+                    .localDepth(localDepth - 1)
+                    .entries(entries)
+                    .build());
+            this.freePage(tapeID, this.pointerToPage(freedPointer));
+
+            Arrays.fill(this.directory, mergedFirstSlot, mergedFirstSlot + 2 * slots, mergedPointer);
+            this.writeDirectorySlots(tapeID, mergedFirstSlot, mergedFirstSlot + 2 * slots);
+            this.merges.incrementAndGet();
+        }
+
+        if(this.canHalveDirectory()) {
+            while(this.canHalveDirectory())
+            {
+                int[] halvedDirectory = new int[this.directory.length / 2];
+                for(int slot = 0; slot < halvedDirectory.length; slot++)
+                    halvedDirectory[slot] = this.directory[2 * slot];
+                this.directory = halvedDirectory;
+                this.globalDepth--;
+            }
+            this.writeDirectory(tapeID);
+        }
+    }
+
+    private boolean canHalveDirectory()
+    {
+        if(this.globalDepth == 0)
+            return false;
+
+        for(int slot = 0; slot < this.directory.length; slot += 2)
+            if(this.directory[slot] != this.directory[slot + 1])
+                return false;
+        return true;
+    }
+
+    /**
+     * Reads entries bucket after bucket, in order of their hashes (not keys). A bucket is read at once, so the reading
+     * holds the latches only for the time of reading a page.
+     */
+    @Override
+    public Entry readNextEntry(UUID tapeID)
+    {
+        HashReadContext sequentialRead = this.sequentialReads.get();
+        while(true)
+        {
+            if(sequentialRead.getEntries() != null && sequentialRead.getPosition() < sequentialRead.getEntries().size()) {
+                sequentialRead.setPosition(sequentialRead.getPosition() + 1);
+                return sequentialRead.getEntries().get(sequentialRead.getPosition() - 1);
+            }
+            if(sequentialRead.isExhausted())
+                return null;
+
+            this.readNextBucket(tapeID, sequentialRead);
+        }
+    }
+
+    /**
+     * Reads the bucket of the next hash and moves the reading position past all hashes of the bucket. Entries with
+     * hashes below the position are skipped - they've been read already, if the bucket has been merged since then.
+     * @param tapeID
+     * @param sequentialRead
+     */
+    private void readNextBucket(UUID tapeID, HashReadContext sequentialRead)
+    {
+        Lock treeReadLatch = this.treeLatch.readLock();
+        treeReadLatch.lock();
+        try {
+            sequentialRead.setEntries(null);
+            sequentialRead.setPosition(0);
+            if(this.directory == null) {
+                sequentialRead.setExhausted(true);
+                return;
+            }
+
+            long nextHash = sequentialRead.getNextHash();
+            HashBucket bucket = this.readBucket(tapeID, this.pointerToPage(this.directory[this.getSlot(nextHash)]));
+            List<Entry> entries = new ArrayList<>(bucket.getEntries().size());
+            for(Entry entry : bucket.getEntries())
+                if(Long.compareUnsigned(this.hash(entry.getKey()), nextHash) >= 0)
+                    entries.add(entry);
+            sequentialRead.setEntries(entries);
+
+            // First hash after the bucket is 0 (it overflows), if this was the last bucket
+            int localDepth = bucket.getLocalDepth();
+            long bucketEnd = localDepth == 0 ? 0 : ((nextHash >>> (64 - localDepth)) + 1) << (64 - localDepth);
+            if(bucketEnd == 0)
+                sequentialRead.setExhausted(true);
+            else
+                sequentialRead.setNextHash(bucketEnd);
+        } finally {
+            treeReadLatch.unlock();
+        }
+    }
+
+    @Override
+    public void resetReadingBTree()
+    {
+        this.sequentialReads.get().reset();
+    }
+
+    /**
+     * Keys aren't kept in order, so there is no key to position the reading at.
+     */
+    @Override
+    public void seekEntry(UUID tapeID, long key)
+    {
+        throw new IllegalStateException("Extendible hashing index doesn't keep keys in order, so its reading can't be" +
+                " positioned at a key.");
+    }
+
+    @Override
+    public boolean isOrdered()
+    {
+        return false;
+    }
+
+    /**
+     * Hashes of sorted keys are scattered, so buckets can't be filled one after another. Instead, the directory is
+     * created right away with as many buckets, as the entries need with buckets filled up to the fill factor, and the
+     * entries are then inserted one by one, without doubling the directory on the way.
+     */
+    @Override
+    public void bulkLoad(UUID tapeID, Iterator<Entry> entries, int entriesCount, double fillFactor)
+            throws InvalidAlgorithmParameterException {
+        Lock treeWriteLatch = this.treeLatch.writeLock();
+        treeWriteLatch.lock();
+        try {
+            if(entryService.getTapePages(tapeID) > 0)
+                throw new IllegalStateException("Only an empty index can be bulk loaded.");
+
+            if(entriesCount <= 0)
+                return;
+
+            int bucketEntries = Math.max(1, (int) (this.getMaxBucketEntries() * fillFactor));
+            int buckets = (int) Math.ceil((double) entriesCount / bucketEntries);
+            int depth = 0;
+            while((1 << depth) < buckets && depth < ExtendibleHashService.MAX_GLOBAL_DEPTH)
+                depth++;
+            this.createDirectory(tapeID, depth);
+
+            int loadedEntries = 0;
+            while(entries.hasNext())
+            {
+                Entry entry = entries.next();
+                if(this.insertEntry(tapeID, entry.getKey(), entry::getDataPage) != null)
+                    throw new IllegalArgumentException("Entries to bulk load contain key " + entry.getKey() + " twice.");
+                loadedEntries++;
+            }
+            if(loadedEntries != entriesCount)
+                throw new IllegalArgumentException("There were " + loadedEntries + " entries to bulk load, but " +
+                        entriesCount + " were declared.");
+        } finally {
+            treeWriteLatch.unlock();
+        }
+        this.resetReadingBTree();
+    }
+
+    /**
+     * Creates the directory of the depth, with a separate empty bucket for each slot. Tree write latch must be held.
+     * @param tapeID
+     * @param depth
+     */
+    private void createDirectory(UUID tapeID, int depth)
+    {
+        this.globalDepth = depth;
+        this.directory = new int[1 << depth];
+        this.directoryPages = new ArrayList<>();
+        for(int slot = 0; slot < this.directory.length; slot++)
+        {
+            int bucketPage = this.allocatePage(tapeID);
+            this.writeBucket(tapeID, bucketPage, HashBucket.builder()
+                    .localDepth(depth)
+                    .entries(new ArrayList<>())
+                    .build());
+            this.directory[slot] = this.pageToPointer(bucketPage);
+        }
+        this.writeDirectory(tapeID);
+    }
+
+    /**
+     * Writes whole directory, adding or freeing directory pages, so there are as many of them, as the directory
+     * needs, and passes the first directory page and the global depth to the index tape header.
+     * @param tapeID
+     */
+    private void writeDirectory(UUID tapeID)
+    {
+        int slotsPerPage = entryService.getHashDirectorySlotsPerPage(this.calculateNodeSize());
+        int pages = (this.directory.length + slotsPerPage - 1) / slotsPerPage;
+        while(this.directoryPages.size() < pages)
+            this.directoryPages.add(this.allocatePage(tapeID));
+        while(this.directoryPages.size() > pages)
+            this.freePage(tapeID, this.directoryPages.remove(this.directoryPages.size() - 1));
+
+        this.writeDirectorySlots(tapeID, 0, this.directory.length);
+        entryService.setTapeIndexMetadata(tapeID, this.pageToPointer(this.directoryPages.get(0)), this.d,
+                this.globalDepth);
+    }
+
+    /**
+     * Writes directory pages, which contain the slots.
+     * @param tapeID
+     * @param fromSlot
+     * @param toSlot Slot after the last written one.
+     */
+    private void writeDirectorySlots(UUID tapeID, int fromSlot, int toSlot)
+    {
+        int slotsPerPage = entryService.getHashDirectorySlotsPerPage(this.calculateNodeSize());
+        for(int n = fromSlot / slotsPerPage; n <= (toSlot - 1) / slotsPerPage; n++)
+        {
+            int page = this.directoryPages.get(n);
+            int nextPagePointer = n + 1 < this.directoryPages.size() ? this.pageToPointer(this.directoryPages.get(n + 1)) : 0;
+            this.assureBufferForPage(tapeID, page);
+            entryService.writeHashDirectoryPage(tapeID, page, this.directory, n * slotsPerPage,
+                    Math.min(slotsPerPage, this.directory.length - n * slotsPerPage), nextPagePointer);
+        }
+    }
+
+    /**
+     * Reads the directory from its pages, starting from the page saved in the index tape header.
+     * @param tapeID
+     */
+    private void readDirectory(UUID tapeID)
+    {
+        int slotsPerPage = entryService.getHashDirectorySlotsPerPage(this.calculateNodeSize());
+        this.globalDepth = entryService.getTapeHeight(tapeID);
+        this.directory = new int[1 << this.globalDepth];
+        this.directoryPages = new ArrayList<>();
+        int pagePointer = entryService.getTapeRootPointer(tapeID);
+        for(int slot = 0; slot < this.directory.length; slot += slotsPerPage)
+        {
+            if(pagePointer == 0)
+                throw new IllegalStateException("Directory of the hashing index ends after " + slot + " of its " +
+                        this.directory.length + " slots.");
+
+            int page = this.pointerToPage(pagePointer);
+            this.directoryPages.add(page);
+            this.assureBufferForPage(tapeID, page);
+            pagePointer = entryService.readHashDirectoryPage(tapeID, page, this.directory, slot,
+                    Math.min(slotsPerPage, this.directory.length - slot));
+        }
+    }
+
+    private HashBucket readBucket(UUID tapeID, int page)
+    {
+        Lock pageLatch = entryService.getPageLatch(tapeID, page);
+        pageLatch.lock();
+        try {
+            this.assureBufferForPage(tapeID, page);
+            return entryService.readHashBucket(tapeID, page);
+        } finally {
+            pageLatch.unlock();
+        }
+    }
+
+    private void writeBucket(UUID tapeID, int page, HashBucket bucket)
+    {
+        Lock pageLatch = entryService.getPageLatch(tapeID, page);
+        pageLatch.lock();
+        try {
+            this.assureBufferForPage(tapeID, page);
+            entryService.writeHashBucket(tapeID, page, bucket);
+        } finally {
+            pageLatch.unlock();
+        }
+    }
+
+    /**
+     * Takes an empty page (or adds a new one at the end of the index file) for a bucket or directory page.
+     * @param tapeID
+     * @return
+     */
+    private int allocatePage(UUID tapeID)
+    {
+        Lock allocationLatch = entryService.getAllocationLatch(tapeID);
+        allocationLatch.lock();
+        try {
+            int page = entryService.findPageWithFreeSpace(tapeID, this.calculateNodeSize());
+            if(page == -1) {
+                page = entryService.getTapePages(tapeID);
+                entryService.addNextPage(tapeID);
+            }
+            entryService.setFreeSpaceOnPage(tapeID, page, 0); // Make this page taken
+            return page;
+        } finally {
+            allocationLatch.unlock();
+        }
+    }
+
+    /**
+     * Marks the page as free. Its data isn't cleared, since the page isn't reachable anymore and will be overwritten
+     * by the next bucket or directory page written to it.
+     * @param tapeID
+     * @param page
+     */
+    private void freePage(UUID tapeID, int page)
+    {
+        Lock allocationLatch = entryService.getAllocationLatch(tapeID);
+        allocationLatch.lock();
+        try {
+            entryService.setFreeSpaceOnPage(tapeID, page, this.calculateNodeSize());
+        } finally {
+            allocationLatch.unlock();
+        }
+    }
+
+    /**
+     * Spreads bits of the key over the whole hash (finalizer of the MurmurHash3 64-bit hash), so consecutive keys
+     * don't go to the same bucket.
+     * @param key
+     * @return
+     */
+    private long hash(long key)
+    {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    /**
+     * @param hash
+     * @return Directory slot selected by the first global depth bits of the hash.
+     */
+    private int getSlot(long hash)
+    {
+        return this.globalDepth == 0 ? 0 : (int) (hash >>> (64 - this.globalDepth));
+    }
+
+    @Override
+    public int getMerges()
+    {
+        return this.merges.get();
+    }
+
+    @Override
+    public int getSplits()
+    {
+        return this.splits.get();
+    }
+
+    /**
+     * @return 0 - entries aren't moved between buckets other than by splits and merges.
+     */
+    @Override
+    public int getCompensations()
+    {
+        return 0;
+    }
+
+    @Override
+    public int getReads(UUID tapeID)
+    {
+        return entryService.getReads(tapeID);
+    }
+
+    @Override
+    public int getWrites(UUID tapeID)
+    {
+        return entryService.getWrites(tapeID);
+    }
+
+    @Override
+    public int getTapePages(UUID tapeID)
+    {
+        return entryService.getTapePages(tapeID);
+    }
+
+    @Override
+    public int getTapeFreePages(UUID tapeID)
+    {
+        return entryService.getTapeFreePages(tapeID);
+    }
+
+    /**
+     * Directory and buckets are changed in the index tape buffers right away, and the directory metadata is passed to
+     * the tape on each change of the directory, so only the buffers are written.
+     * @param tapeID
+     */
+    @Override
+    public void flush(UUID tapeID)
+    {
+        Lock treeReadLatch = this.treeLatch.readLock();
+        treeReadLatch.lock();
+        try {
+            entryService.flush(tapeID);
+        } finally {
+            treeReadLatch.unlock();
+        }
+    }
+
+    /**
+     * Reads the directory of an index tape opened from a previous app run.
+     * @param tapeID
+     */
+    @Override
+    public void open(UUID tapeID)
+    {
+        if(entryService.getTapePages(tapeID) > 0 && entryService.getTapeDegree(tapeID) != this.d)
+            throw new IllegalStateException("Index tape was created for b-tree of degree " +
+                    entryService.getTapeDegree(tapeID) + ", but the b-tree has degree " + this.d + ".");
+
+        if(entryService.getTapeIndexType(tapeID) != IndexType.EXTENDIBLE_HASH.getCode())
+            throw new IllegalStateException("Index tape doesn't contain an extendible hashing index.");
+
+        Lock treeWriteLatch = this.treeLatch.writeLock();
+        treeWriteLatch.lock();
+        try {
+            if(entryService.getTapeRootPointer(tapeID) == 0) {
+                this.globalDepth = 0;
+                this.directory = null;
+                this.directoryPages = null;
+            }
+            else
+                this.readDirectory(tapeID);
+        } finally {
+            treeWriteLatch.unlock();
+        }
+        this.resetReadingBTree();
+    }
+
+    /**
+     * @return Size of the index pages - the same as of b-tree nodes of degree d.
+     */
+    public int calculateNodeSize()
+    {
+        return entryService.getNodeHeaderSize() + entryService.getNodePointerSize()
+                + 2 * this.d * (Entry.builder().build().getSize() + entryService.getNodePointerSize());
+    }
+
+    private int getMaxBucketEntries()
+    {
+        return entryService.getMaxHashBucketEntries(this.calculateNodeSize());
+    }
+
+    /**
+     * Map page to bucket pointer. Adds 1, so pointer of value 0 couldn't exist and the value can be used as null pointer value.
+     * @param page
+     * @return
+     */
+    private int pageToPointer(int page)
+    {
+        return page + 1;
+    }
+
+    /**
+     * Map bucket pointer to page. Does the exact opposite to {@link ExtendibleHashService#pageToPointer} method
+     * (Decreases value by 1).
+     * @param pointer
+     * @return
+     */
+    private int pointerToPage(int pointer)
+    {
+        return pointer - 1;
+    }
+
+    /**
+     * It assures that there is a space to read a new page, if it isn't already loaded.
+     * @param tapeID
+     * @param page The page may not exist (it may be one that is being created just now), it just frees a buffer if needed.
+     *             Page parameter is for algorithm of choosing which buffer to free, to take it into account.
+     */
+    private void assureBufferForPage(UUID tapeID, int page)
+    {
+        entryService.assureBufferForPage(tapeID, page);
+    }
+}
@@ -0,0 +1,45 @@
+package hash.service;
+
+import entry.entity.Entry;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * Position of the sequential reading of an extendible hashing index, kept separately for each reading thread. Buckets
+ * are read in order of their hashes, so the position is a hash - it stays valid, when buckets are split or merged
+ * between the reads.
+ */
+@Getter
+@Setter
+class HashReadContext {
+
+    /**
+     * The smallest hash (compared as unsigned), which entries haven't been read yet.
+     */
+    private long nextHash;
+
+    /**
+     * Entries of the last read bucket, which are returned one by one, or null, if the next bucket should be read.
+     */
+    private List<Entry> entries;
+
+    private int position;
+
+    /**
+     * Whether the last bucket has been read.
+     */
+    private boolean exhausted;
+
+    /**
+     * Makes the next read start from the first bucket.
+     */
+    void reset()
+    {
+        this.nextHash = 0;
+        this.entries = null;
+        this.position = 0;
+        this.exhausted = false;
+    }
+}
@@ -0,0 +1,70 @@
+package lsm.entity;
+
+import filter.entity.BloomFilter;
+import lombok.*;
+
+import java.util.UUID;
+
+/**
+ * Immutable sorted run of an LSM index - entries sorted by their keys, written once to a run tape, block after block.
+ * Only the run description is kept in memory.
+ */
+@Getter
+@Builder
+@ToString(exclude = {"fenceKeys", "keyFilter"})
+@AllArgsConstructor
+public class SortedRun {
+
+    /**
+     * Run tape, on which the entries of the run are stored.
+     */
+    private UUID tapeID;
+
+    /**
+     * Count of the entries stored on the run tape (tombstones included).
+     */
+    private int entries;
+
+    /**
+     * The smallest key of each block of the run tape (fence index), so a key is searched for in a single block.
+     */
+    private long[] fenceKeys;
+
+    /**
+     * The biggest key of the run.
+     */
+    private long maxKey;
+
+    /**
+     * Filter of the run keys, so the run tape isn't read for keys, which surely aren't in the run.
+     */
+    private BloomFilter keyFilter;
+
+    public int getBlocks()
+    {
+        return this.fenceKeys.length;
+    }
+
+    /**
+     * @param key
+     * @return Number of the block, in which the key is, if it is in the run, or -1, if the key is out of the run keys
+     * range.
+     */
+    public int findBlock(long key)
+    {
+        if(this.fenceKeys.length == 0 || key < this.fenceKeys[0] || key > this.maxKey)
+            return -1;
+
+        int low = 0;
+        int high = this.fenceKeys.length - 1;
+        while(low < high)
+        {
+            int middle = (low + high + 1) >>> 1;
+            if(this.fenceKeys[middle] <= key)
+                low = middle;
+            else
+                high = middle - 1;
+        }
+        return low;
+    }
+}
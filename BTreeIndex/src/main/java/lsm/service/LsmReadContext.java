@@ -0,0 +1,45 @@
+package lsm.service;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Position of the sequential reading of an LSM index, kept separately for each reading thread.
+ */
+@Getter
+@Setter
+class LsmReadContext {
+
+    /**
+     * Smallest key, which can be returned by the first read.
+     */
+    private long nextKey = Long.MIN_VALUE;
+
+    /**
+     * State, which was current at the first read, held until all its entries have been read or the reading is reset,
+     * or null, if the next read should take it.
+     */
+    private LsmTreeState state;
+
+    /**
+     * Cursor merging the memtable and runs of the held state.
+     */
+    private MergeCursor cursor;
+
+    /**
+     * Whether all entries have been read.
+     */
+    private boolean exhausted;
+
+    /**
+     * Makes the next read start from the key, in the current state of the index.
+     * @param key
+     */
+    void seek(long key)
+    {
+        this.nextKey = key;
+        this.state = null;
+        this.cursor = null;
+        this.exhausted = false;
+    }
+}
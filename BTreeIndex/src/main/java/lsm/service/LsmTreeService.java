@@ -0,0 +1,880 @@
+package lsm.service;
+
+import btree.service.DataPageSupplier;
+import btree.service.IndexService;
+import btree.service.IndexType;
+import entry.entity.Entry;
+import entry.service.EntryService;
+import filter.entity.BloomFilter;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.ToString;
+import lsm.entity.SortedRun;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidAlgorithmParameterException;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Log-structured merge tree index. Changes are only put into the memtable (a sorted map in memory) - deletions as
+ * tombstones - and a full memtable is written to a new run tape at once, block after block, so inserts don't write
+ * any index pages in place. Runs are never changed. A search reads the memtable and then the runs from the newest one,
+ * but only a single block of a run, chosen by its fence index, and only if the run key filter allows the key.
+ * Sequential reads merge the memtable and all runs. When there are too many runs, they're merged into one in the
+ * background (compaction), which drops replaced entries and tombstones.
+ * <br></br><br></br>
+ * The index tape holds only the list of the runs (manifest), which is written on each change of the runs, so the saved
+ * list always matches the other checkpointed tapes. The memtable is written as a run, before the tapes are flushed -
+ * its changes made since the last checkpoint are otherwise restored by replaying the write-ahead log. Changes are
+ * done by one writer at a time, while searches and sequential reads don't take any lock.
+ */
+@Builder
+@ToString
+@AllArgsConstructor
+public class LsmTreeService implements IndexService {
+
+    private EntryService entryService;
+
+    /**
+     * Degree of the b-tree, from which the tapes page size has been calculated. It's only saved in the index tape
+     * header, so the index is opened with the same page size.
+     */
+    private final int d;
+
+    /**
+     * Max number of entries in the memtable - a full memtable is written as a new run.
+     */
+    private final int memtableEntries;
+
+    /**
+     * Number of runs, at which all runs are compacted into one.
+     */
+    private final int maxRuns;
+
+    /**
+     * Bits of the run key filter for each entry of the run.
+     */
+    private final int keyFilterBitsPerKey;
+
+    /**
+     * Thread compacting the runs. Null makes the writer, which has written the last run, compact them right away.
+     */
+    private ExecutorService compactionExecutor;
+
+    /**
+     * Data page of the entries marking deleted keys (tombstones) - data pages are never negative.
+     */
+    static final int TOMBSTONE_PAGE = -1;
+
+    /**
+     * Currently published memtable and runs.
+     */
+    private final AtomicReference<LsmTreeState> state = new AtomicReference<>(
+            new LsmTreeState(new ConcurrentSkipListMap<>(), List.of(), 0));
+
+    /**
+     * Number of the readers of each state version, which haven't released it yet.
+     */
+    private final ConcurrentSkipListMap<Long, Integer> statesReaders = new ConcurrentSkipListMap<>();
+
+    /**
+     * Lock held by the changes of the index, so there is only one writer at a time. Readers never take it.
+     */
+    private final ReentrantLock writerLock = new ReentrantLock();
+
+    /**
+     * Runs replaced by the compaction, which published each state version. Their tapes are deleted, when they're not
+     * listed in the manifest saved in the index file anymore (after the next flush) and no older state is being read.
+     */
+    private final ConcurrentSkipListMap<Long, List<SortedRun>> replacedRuns = new ConcurrentSkipListMap<>();
+
+    /**
+     * Version of the state, which runs list was saved by the last flush. Guarded by the writer lock.
+     */
+    private long flushedVersion;
+
+    /**
+     * Whether a compaction is running.
+     */
+    private final AtomicBoolean compacting = new AtomicBoolean();
+
+    /**
+     * Failure of the last background compaction, which hasn't been reported yet. It is thrown by the next change of
+     * the index or flush.
+     */
+    private final AtomicReference<Exception> compactionFailure = new AtomicReference<>();
+
+    /**
+     * Positions of the sequential reads - each thread reads entries on its own.
+     */
+    private final ThreadLocal<LsmReadContext> sequentialReads = ThreadLocal.withInitial(LsmReadContext::new);
+
+    /**
+     * Counter of compactions done.
+     */
+    private final AtomicInteger compactions = new AtomicInteger();
+
+    /**
+     * Reads and writes of the run tapes, which have already been deleted, so they're still counted in the statistics.
+     */
+    private final AtomicInteger deletedRunsReads = new AtomicInteger();
+
+    private final AtomicInteger deletedRunsWrites = new AtomicInteger();
+
+    @Override
+    public void createEntry(UUID tapeID, Entry entry) throws InvalidAlgorithmParameterException {
+        if(this.insertEntryIfAbsent(tapeID, entry.getKey(), entry::getDataPage) != null)
+            System.out.println("Entry with provided key already exists. Creation of new entry hasn't succeeded.");
+    }
+
+    /**
+     * Searches for the key like {@link LsmTreeService#findEntry}, and puts the new entry into the memtable only.
+     */
+    @Override
+    public Entry insertEntryIfAbsent(UUID tapeID, long key, DataPageSupplier dataPageSupplier)
+            throws InvalidAlgorithmParameterException {
+        this.writerLock.lock();
+        try {
+            this.throwCompactionFailure();
+            LsmTreeState state = this.state.get();
+            Entry existingEntry = this.findEntry(state, key);
+            if(existingEntry != null)
+                return existingEntry;
+
+            state.getMemtable().put(key, Entry.builder()
+                    .key(key)
+                    .dataPage(dataPageSupplier.getDataPage())
+                    .build());
+            this.writeMemtableIfFull(tapeID);
+            return null;
+        } finally {
+            this.writerLock.unlock();
+        }
+    }
+
+    /**
+     * Reads the current state without any lock - the memtable first, and then the runs from the newest one, until an
+     * entry of the key is found.
+     */
+    @Override
+    public Entry findEntry(UUID tapeID, long key)
+    {
+        LsmTreeState state = this.acquireState();
+        try {
+            return this.findEntry(state, key);
+        } finally {
+            this.releaseState(state);
+        }
+    }
+
+    /**
+     * @param state
+     * @param key
+     * @return The newest entry of the key or null, if there is none or the newest one is a tombstone.
+     */
+    private Entry findEntry(LsmTreeState state, long key)
+    {
+        Entry entry = state.getMemtable().get(key);
+        for(int run = 0; entry == null && run < state.getRuns().size(); run++)
+            entry = this.findRunEntry(state.getRuns().get(run), key);
+
+        return entry == null || this.isTombstone(entry) ? null : entry;
+    }
+
+    /**
+     * @param run
+     * @param key
+     * @return Entry of the key in the run (it may be a tombstone) or null, if the run doesn't contain the key.
+     */
+    private Entry findRunEntry(SortedRun run, long key)
+    {
+        int block = run.findBlock(key);
+        if(block == -1 || !run.getKeyFilter().mightContain(key))
+            return null;
+
+        List<Entry> entries = entryService.readEntriesBlock(run.getTapeID(), block);
+        if(entries == null)
+            throw new IllegalStateException("Block " + block + " of the run tape " + run.getTapeID() + " couldn't be read.");
+
+        int low = 0;
+        int high = entries.size() - 1;
+        while(low <= high)
+        {
+            int middle = (low + high) >>> 1;
+            long middleKey = entries.get(middle).getKey();
+            if(middleKey == key)
+                return entries.get(middle);
+            else if(middleKey < key)
+                low = middle + 1;
+            else
+                high = middle - 1;
+        }
+        return null;
+    }
+
+    /**
+     * @param state
+     * @param key
+     * @return Whether any of the runs may contain an entry of the key.
+     */
+    private boolean mightBeInRuns(LsmTreeState state, long key)
+    {
+        for(SortedRun run : state.getRuns())
+            if(run.findBlock(key) != -1 && run.getKeyFilter().mightContain(key))
+                return true;
+
+        return false;
+    }
+
+    @Override
+    public void deleteEntry(UUID tapeID, long key) throws InvalidAlgorithmParameterException {
+        if(this.removeEntry(tapeID, key) == null)
+            System.out.println("Entry with provided key doesn't exist. Deletion of the entry hasn't succeeded.");
+    }
+
+    /**
+     * Puts a tombstone of the key into the memtable, which hides entries of the key in the runs, until a compaction
+     * drops all of them.
+     */
+    @Override
+    public Entry removeEntry(UUID tapeID, long key) throws InvalidAlgorithmParameterException {
+        this.writerLock.lock();
+        try {
+            this.throwCompactionFailure();
+            LsmTreeState state = this.state.get();
+            Entry existingEntry = this.findEntry(state, key);
+            if(existingEntry == null)
+                return null;
+
+            // Tombstone is needed only, if there may be an older entry of the key in a run
+            if(this.mightBeInRuns(state, key))
+                state.getMemtable().put(key, Entry.builder()
+                        .key(key)
+                        .dataPage(LsmTreeService.TOMBSTONE_PAGE)
+                        .build());
+            else
+                state.getMemtable().remove(key);
+
+            this.writeMemtableIfFull(tapeID);
+            return existingEntry;
+        } finally {
+            this.writerLock.unlock();
+        }
+    }
+
+    private boolean isTombstone(Entry entry)
+    {
+        return entry.getDataPage() == LsmTreeService.TOMBSTONE_PAGE;
+    }
+
+    /**
+     * Merges the memtable and runs of the state, which was current at the first read (after a reset or seek). The
+     * state is held, until all its entries have been read or the reading is reset, so its runs aren't deleted until
+     * then.
+     */
+    @Override
+    public Entry readNextEntry(UUID tapeID)
+    {
+        LsmReadContext sequentialRead = this.sequentialReads.get();
+        if(sequentialRead.isExhausted())
+            return null;
+
+        if(sequentialRead.getState() == null) {
+            sequentialRead.setState(this.acquireState());
+            sequentialRead.setCursor(new MergeCursor(entryService, sequentialRead.getState(), sequentialRead.getNextKey()));
+        }
+
+        MergeCursor cursor = sequentialRead.getCursor();
+        while(cursor.hasNext())
+        {
+            Entry entry = cursor.next();
+            if(!this.isTombstone(entry))
+                return entry;
+        }
+
+        this.releaseState(sequentialRead.getState());
+        sequentialRead.setState(null);
+        sequentialRead.setCursor(null);
+        sequentialRead.setExhausted(true);
+        return null;
+    }
+
+    @Override
+    public void resetReadingBTree()
+    {
+        this.seekEntry(null, Long.MIN_VALUE);
+    }
+
+    /**
+     * Releases the state held by the previous reading. Next read positions each run at the key with a single block
+     * read, chosen by the run fence index.
+     */
+    @Override
+    public void seekEntry(UUID tapeID, long key)
+    {
+        LsmReadContext sequentialRead = this.sequentialReads.get();
+        if(sequentialRead.getState() != null)
+            this.releaseState(sequentialRead.getState());
+        sequentialRead.seek(key);
+    }
+
+    /**
+     * Registers the current state as being read. It should be released with {@link LsmTreeService#releaseState},
+     * when its runs won't be read anymore.
+     * @return
+     */
+    private LsmTreeState acquireState()
+    {
+        while(true)
+        {
+            LsmTreeState state = this.state.get();
+            this.statesReaders.merge(state.getVersion(), 1, Integer::sum);
+            // A writer, which published a newer state before the registration, might not have seen it and might have
+            // deleted runs of this state, so the registration is valid only if the state is still current
+            if(this.state.get() == state)
+                return state;
+
+            this.releaseState(state);
+        }
+    }
+
+    private void releaseState(LsmTreeState state)
+    {
+        this.statesReaders.computeIfPresent(state.getVersion(), (version, readers) -> readers > 1 ? readers - 1 : null);
+    }
+
+    /**
+     * Writes all entries as a single run, block after block. Runs are never changed, so their blocks are always full
+     * and the fill factor isn't used.
+     * @param tapeID
+     * @param entries Entries with strictly ascending keys.
+     * @param entriesCount Exact number of the entries.
+     * @param fillFactor
+     */
+    @Override
+    public void bulkLoad(UUID tapeID, Iterator<Entry> entries, int entriesCount, double fillFactor)
+            throws InvalidAlgorithmParameterException {
+        this.writerLock.lock();
+        try {
+            this.throwCompactionFailure();
+            LsmTreeState state = this.state.get();
+            if(!state.getMemtable().isEmpty() || !state.getRuns().isEmpty() || entryService.getTapePages(tapeID) > 0)
+                throw new IllegalStateException("Only an empty index can be bulk loaded.");
+
+            if(entriesCount <= 0)
+                return;
+
+            SortedRun run = this.writeRun(entries, entriesCount, true);
+            int loadedEntries = run != null ? run.getEntries() : 0;
+            if(loadedEntries != entriesCount) {
+                if(run != null)
+                    this.deleteRunTape(run.getTapeID());
+                throw new IllegalArgumentException("There were " + loadedEntries + " entries to bulk load, but " +
+                        entriesCount + " were declared.");
+            }
+
+            this.publish(tapeID, state.getMemtable(), List.of(run));
+        } finally {
+            this.writerLock.unlock();
+        }
+        this.resetReadingBTree();
+    }
+
+    /**
+     * Writes the memtable as a new run, if it has reached its max size. Writer lock must be held.
+     * @param tapeID
+     */
+    private void writeMemtableIfFull(UUID tapeID) throws InvalidAlgorithmParameterException {
+        if(this.state.get().getMemtable().size() >= this.memtableEntries)
+            this.writeMemtable(tapeID);
+    }
+
+    /**
+     * Writes the memtable as the newest run and publishes it together with a new empty memtable. Readers, which took
+     * the previous state, still read the previous memtable, which isn't changed anymore. Writer lock must be held.
+     * @param tapeID
+     */
+    private void writeMemtable(UUID tapeID) throws InvalidAlgorithmParameterException {
+        LsmTreeState state = this.state.get();
+        if(state.getMemtable().isEmpty())
+            return;
+
+        // Tombstones aren't needed, when there are no older runs
+        SortedRun run = this.writeRun(state.getMemtable().values().iterator(), state.getMemtable().size(),
+                state.getRuns().isEmpty());
+        List<SortedRun> runs = new ArrayList<>();
+        if(run != null)
+            runs.add(run);
+        runs.addAll(state.getRuns());
+        this.publish(tapeID, new ConcurrentSkipListMap<>(), List.copyOf(runs));
+        this.compactIfNeeded(tapeID);
+    }
+
+    /**
+     * Starts a compaction of all current runs, if there are too many of them and no compaction is running. Writer
+     * lock must be held.
+     * @param tapeID
+     */
+    private void compactIfNeeded(UUID tapeID) throws InvalidAlgorithmParameterException {
+        List<SortedRun> runs = this.state.get().getRuns();
+        if(runs.size() < this.maxRuns || !this.compacting.compareAndSet(false, true))
+            return;
+
+        if(this.compactionExecutor == null) {
+            try {
+                this.compact(tapeID, runs);
+            } finally {
+                this.compacting.set(false);
+            }
+            return;
+        }
+
+        this.compactionExecutor.submit(() -> {
+            try {
+                this.compact(tapeID, runs);
+            } catch (Exception e) {
+                this.compactionFailure.set(e);
+            } finally {
+                this.compacting.set(false);
+            }
+        });
+    }
+
+    /**
+     * Throws the failure of the last background compaction, if it hasn't been reported yet. Runs stay as they were
+     * then, and the next written run starts a compaction again. Writer lock must be held.
+     */
+    private void throwCompactionFailure()
+    {
+        Exception failure = this.compactionFailure.getAndSet(null);
+        if(failure != null)
+            throw new IllegalStateException("Background compaction of the index runs failed, so the runs haven't been" +
+                    " merged.", failure);
+    }
+
+    /**
+     * Merges the runs into a single run, which replaces them. Runs written in the meantime are newer, so they stay
+     * before the merged run. The merged runs are the oldest ones, so tombstones aren't needed in the merged run.
+     * @param tapeID
+     * @param runs All runs of the state, from which the compaction started.
+     */
+    private void compact(UUID tapeID, List<SortedRun> runs) throws InvalidAlgorithmParameterException {
+        MergeCursor cursor = new MergeCursor(entryService, new LsmTreeState(new ConcurrentSkipListMap<>(), runs, 0),
+                Long.MIN_VALUE);
+        SortedRun mergedRun = this.writeRun(cursor, runs.stream().mapToInt(SortedRun::getEntries).sum(), true);
+
+        this.writerLock.lock();
+        try {
+            LsmTreeState state = this.state.get();
+            List<SortedRun> currentRuns = new ArrayList<>(state.getRuns());
+            currentRuns.removeAll(runs);
+            if(mergedRun != null)
+                currentRuns.add(mergedRun);
+            try {
+                this.publish(tapeID, state.getMemtable(), List.copyOf(currentRuns));
+            } catch (RuntimeException e) {
+                // Merged run isn't used, so the replaced runs stay current and its tape is removed
+                this.state.set(state);
+                if(mergedRun != null)
+                    this.deleteRunTape(mergedRun.getTapeID());
+                throw e;
+            }
+            this.replacedRuns.put(this.state.get().getVersion(), List.copyOf(runs));
+            this.compactions.incrementAndGet();
+        } finally {
+            this.writerLock.unlock();
+        }
+    }
+
+    /**
+     * Writes the entries to a new run tape, block after block, and builds the fence index and key filter of the run.
+     * @param entries Entries with strictly ascending keys.
+     * @param expectedEntries Number of the entries, for which the run key filter is sized.
+     * @param dropTombstones Whether tombstones should be left out of the run.
+     * @return The new run or null, if there were no entries to write (the run tape is deleted then).
+     */
+    private SortedRun writeRun(Iterator<Entry> entries, int expectedEntries, boolean dropTombstones)
+            throws InvalidAlgorithmParameterException {
+        UUID runTapeID = UUID.randomUUID();
+        entryService.createRunTape(runTapeID);
+        BloomFilter keyFilter = BloomFilter.withCapacity(Math.max(1, expectedEntries), this.keyFilterBitsPerKey);
+        List<Long> fenceKeys = new ArrayList<>();
+        List<Entry> block = new ArrayList<>();
+        int written = 0;
+        long maxKey = 0;
+        try {
+            while(entries.hasNext())
+            {
+                Entry entry = entries.next();
+                if(dropTombstones && this.isTombstone(entry))
+                    continue;
+
+                if(written > 0 && entry.getKey() <= maxKey)
+                    throw new IllegalArgumentException("Entries of a run must have strictly ascending keys, but key " +
+                            entry.getKey() + " came after key " + maxKey + ".");
+
+                if(block.size() == entryService.getEntriesPerBlock()) {
+                    entryService.writeNextEntriesBlock(runTapeID, block);
+                    block.clear();
+                }
+                if(block.isEmpty())
+                    fenceKeys.add(entry.getKey());
+
+                block.add(entry);
+                keyFilter.add(entry.getKey());
+                maxKey = entry.getKey();
+                written++;
+            }
+            if(!block.isEmpty())
+                entryService.writeNextEntriesBlock(runTapeID, block);
+            entryService.resetBlockWriting(runTapeID);
+            // Run is listed in the manifest, once it is published, so it has to be complete in its file by then
+            entryService.forceRunTape(runTapeID);
+        } catch (RuntimeException | InvalidAlgorithmParameterException e) {
+            // Partially written run is never used
+            this.deleteRunTape(runTapeID);
+            throw e;
+        }
+
+        if(written == 0) {
+            this.deleteRunTape(runTapeID);
+            return null;
+        }
+
+        keyFilter.setKeys(written);
+        return SortedRun.builder()
+                .tapeID(runTapeID)
+                .entries(written)
+                .fenceKeys(fenceKeys.stream().mapToLong(Long::longValue).toArray())
+                .maxKey(maxKey)
+                .keyFilter(keyFilter)
+                .build();
+    }
+
+    /**
+     * Reads the run tape sequentially, to build the fence index and key filter of a run opened from a previous app run.
+     * @param runTapeID
+     * @param entries Count of the run entries, saved in the manifest.
+     * @return
+     */
+    private SortedRun readRun(UUID runTapeID, int entries)
+    {
+        BloomFilter keyFilter = BloomFilter.withCapacity(Math.max(1, entries), this.keyFilterBitsPerKey);
+        List<Long> fenceKeys = new ArrayList<>();
+        int read = 0;
+        long maxKey = 0;
+        entryService.resetBlockReading(runTapeID);
+        List<Entry> block = entryService.readNextEntriesBlock(runTapeID);
+        while(block != null && !block.isEmpty())
+        {
+            fenceKeys.add(block.get(0).getKey());
+            for(Entry entry : block)
+                keyFilter.add(entry.getKey());
+            maxKey = block.get(block.size() - 1).getKey();
+            read += block.size();
+            block = entryService.readNextEntriesBlock(runTapeID);
+        }
+        entryService.resetBlockReading(runTapeID);
+
+        if(read != entries)
+            throw new IllegalStateException("Run tape " + runTapeID + " has " + read + " entries, but the index file" +
+                    " lists it with " + entries + " entries.");
+
+        keyFilter.setKeys(read);
+        return SortedRun.builder()
+                .tapeID(runTapeID)
+                .entries(read)
+                .fenceKeys(fenceKeys.stream().mapToLong(Long::longValue).toArray())
+                .maxKey(maxKey)
+                .keyFilter(keyFilter)
+                .build();
+    }
+
+    private void deleteRunTape(UUID runTapeID)
+    {
+        this.deletedRunsReads.addAndGet(entryService.getReads(runTapeID));
+        this.deletedRunsWrites.addAndGet(entryService.getWrites(runTapeID));
+        entryService.deleteTape(runTapeID);
+    }
+
+    /**
+     * Makes a new state with the memtable and runs current, writes its runs list to the index tape and deletes tapes
+     * of the replaced runs, which aren't needed anymore. Writer lock must be held.
+     * @param tapeID
+     * @param memtable
+     * @param runs
+     */
+    private void publish(UUID tapeID, ConcurrentSkipListMap<Long, Entry> memtable, List<SortedRun> runs)
+    {
+        this.state.set(new LsmTreeState(memtable, runs, this.state.get().getVersion() + 1));
+        this.writeManifest(tapeID, runs);
+        this.deleteReplacedRuns();
+    }
+
+    /**
+     * Deletes tapes of the runs, which were replaced before the last flush (so the saved manifest doesn't list them)
+     * and which aren't in any state being read. Writer lock must be held.
+     */
+    private void deleteReplacedRuns()
+    {
+        Map.Entry<Long, Integer> oldestRead = this.statesReaders.firstEntry();
+        long oldestReadVersion = oldestRead != null ? oldestRead.getKey() : this.state.get().getVersion();
+        Map<Long, List<SortedRun>> deletedRuns = this.replacedRuns.headMap(Math.min(oldestReadVersion,
+                this.flushedVersion), true);
+        for(List<SortedRun> runs : deletedRuns.values())
+            for(SortedRun run : runs)
+                this.deleteRunTape(run.getTapeID());
+        deletedRuns.clear();
+    }
+
+    /**
+     * Writes the runs list (manifest) from the first page of the index tape: runs count, and the run tape ID and
+     * entries count of each run. All pages are written under the index tape latch, so a checkpoint never saves only
+     * a part of the list.
+     * @param tapeID
+     * @param runs
+     */
+    private void writeManifest(UUID tapeID, List<SortedRun> runs)
+    {
+        ByteBuffer manifest = ByteBuffer.allocate(4 + runs.size() * (8 + 8 + 4)).putInt(runs.size());
+        for(SortedRun run : runs)
+            manifest.putLong(run.getTapeID().getMostSignificantBits())
+                    .putLong(run.getTapeID().getLeastSignificantBits())
+                    .putInt(run.getEntries());
+
+        int pageSize = entryService.getPageSize();
+        int manifestPages = (manifest.capacity() + pageSize - 1) / pageSize;
+        // All pages are latched, so a checkpoint never saves only a part of the list
+        Lock allocationLatch = entryService.getAllocationLatch(tapeID);
+        allocationLatch.lock();
+        entryService.latchAllPages(tapeID);
+        try {
+            for(int page = 0; page < manifestPages; page++)
+            {
+                entryService.assureBufferForPage(tapeID, page);
+                if(page == entryService.getTapePages(tapeID))
+                    entryService.addNextPage(tapeID);
+
+                entryService.writePageData(tapeID, page, Arrays.copyOfRange(manifest.array(), page * pageSize,
+                        Math.min(manifest.capacity(), (page + 1) * pageSize)));
+                entryService.setFreeSpaceOnPage(tapeID, page, 0);
+            }
+            // Pages left from a longer list are free
+            for(int page = manifestPages; page < entryService.getTapePages(tapeID); page++)
+                entryService.setFreeSpaceOnPage(tapeID, page, pageSize);
+
+            entryService.setTapeIndexMetadata(tapeID, 0, this.d, 0);
+        } finally {
+            entryService.unlatchAllPages(tapeID);
+            allocationLatch.unlock();
+        }
+    }
+
+    /**
+     * @param tapeID
+     * @return Run tapes IDs and entries counts of the runs list saved in the index tape.
+     */
+    private LinkedHashMap<UUID, Integer> readManifest(UUID tapeID)
+    {
+        LinkedHashMap<UUID, Integer> runs = new LinkedHashMap<>();
+        Lock allocationLatch = entryService.getAllocationLatch(tapeID);
+        allocationLatch.lock();
+        entryService.latchAllPages(tapeID);
+        try {
+            if(entryService.getTapePages(tapeID) == 0)
+                return runs;
+
+            entryService.assureBufferForPage(tapeID, 0);
+            byte[] firstPage = entryService.readPageData(tapeID, 0);
+            int runsCount = ByteBuffer.wrap(firstPage).getInt(0);
+            ByteBuffer manifest = ByteBuffer.allocate(4 + runsCount * (8 + 8 + 4));
+            manifest.put(firstPage, 0, Math.min(firstPage.length, manifest.capacity()));
+            for(int page = 1; manifest.hasRemaining(); page++)
+            {
+                entryService.assureBufferForPage(tapeID, page);
+                byte[] pageData = entryService.readPageData(tapeID, page);
+                manifest.put(pageData, 0, Math.min(pageData.length, manifest.remaining()));
+            }
+
+            manifest.position(4);
+            for(int run = 0; run < runsCount; run++)
+                runs.put(new UUID(manifest.getLong(), manifest.getLong()), manifest.getInt());
+            return runs;
+        } finally {
+            entryService.unlatchAllPages(tapeID);
+            allocationLatch.unlock();
+        }
+    }
+
+    @Override
+    public int getMerges()
+    {
+        return this.compactions.get();
+    }
+
+    /**
+     * @return 0 - runs are only written and merged, so there are no nodes to split.
+     */
+    @Override
+    public int getSplits()
+    {
+        return 0;
+    }
+
+    /**
+     * @return 0 - runs are only written and merged, so there are no nodes to compensate.
+     */
+    @Override
+    public int getCompensations()
+    {
+        return 0;
+    }
+
+    /**
+     * @param tapeID
+     * @return Reads of the index tape and of all run tapes.
+     */
+    @Override
+    public int getReads(UUID tapeID)
+    {
+        int reads = entryService.getReads(tapeID) + this.deletedRunsReads.get();
+        for(SortedRun run : this.getRunsWithTapes())
+            reads += entryService.getReads(run.getTapeID());
+        return reads;
+    }
+
+    /**
+     * @param tapeID
+     * @return Writes of the index tape and of all run tapes.
+     */
+    @Override
+    public int getWrites(UUID tapeID)
+    {
+        int writes = entryService.getWrites(tapeID) + this.deletedRunsWrites.get();
+        for(SortedRun run : this.getRunsWithTapes())
+            writes += entryService.getWrites(run.getTapeID());
+        return writes;
+    }
+
+    /**
+     * @return Current and replaced runs, which tapes haven't been deleted yet.
+     */
+    private Set<SortedRun> getRunsWithTapes()
+    {
+        Set<SortedRun> runs = new HashSet<>(this.state.get().getRuns());
+        for(List<SortedRun> replacedRuns : this.replacedRuns.values())
+            runs.addAll(replacedRuns);
+        return runs;
+    }
+
+    /**
+     * @param tapeID
+     * @return Pages of the index tape and of the current runs, and pages, which the memtable would take up in a run.
+     */
+    @Override
+    public int getTapePages(UUID tapeID)
+    {
+        LsmTreeState state = this.state.get();
+        int entriesPerBlock = entryService.getEntriesPerBlock();
+        int pages = entryService.getTapePages(tapeID) + (state.getMemtable().size() + entriesPerBlock - 1) / entriesPerBlock;
+        for(SortedRun run : state.getRuns())
+            pages += run.getBlocks();
+        return pages;
+    }
+
+    @Override
+    public int getTapeFreePages(UUID tapeID)
+    {
+        return entryService.getTapeFreePages(tapeID);
+    }
+
+    /**
+     * Writes the memtable as a run, so its changes are saved by the flush of any tape.
+     * @param tapeID
+     */
+    @Override
+    public void prepareFlush(UUID tapeID)
+    {
+        this.writerLock.lock();
+        try {
+            this.throwCompactionFailure();
+            this.writeMemtable(tapeID);
+        } catch (InvalidAlgorithmParameterException e) {
+            throw new RuntimeException(e);
+        } finally {
+            this.writerLock.unlock();
+        }
+    }
+
+    /**
+     * Writes the memtable as a run and saves the index tape with the runs list. Tapes of the runs replaced by
+     * compactions aren't listed in the saved list anymore, so they're deleted then, unless they're still being read.
+     * @param tapeID
+     */
+    @Override
+    public void flush(UUID tapeID)
+    {
+        this.writerLock.lock();
+        try {
+            this.throwCompactionFailure();
+            this.writeMemtable(tapeID);
+            entryService.flush(tapeID);
+            this.flushedVersion = this.state.get().getVersion();
+            this.deleteReplacedRuns();
+        } catch (InvalidAlgorithmParameterException e) {
+            throw new RuntimeException(e);
+        } finally {
+            this.writerLock.unlock();
+        }
+    }
+
+    /**
+     * Opens the runs listed in the index tape opened from a previous app run, and deletes run tapes, which aren't
+     * listed (runs written after the last checkpoint, or replaced before it).
+     * @param tapeID
+     */
+    @Override
+    public void open(UUID tapeID)
+    {
+        if(entryService.getTapePages(tapeID) > 0 && entryService.getTapeDegree(tapeID) != this.d)
+            throw new IllegalStateException("Index tape was created for b-tree of degree " +
+                    entryService.getTapeDegree(tapeID) + ", but the b-tree has degree " + this.d + ".");
+
+        if(entryService.getTapeIndexType(tapeID) != IndexType.LSM_TREE.getCode())
+            throw new IllegalStateException("Index tape doesn't contain an LSM tree index.");
+
+        this.writerLock.lock();
+        try {
+            LinkedHashMap<UUID, Integer> manifest = this.readManifest(tapeID);
+            List<SortedRun> runs = new ArrayList<>();
+            for(Map.Entry<UUID, Integer> run : manifest.entrySet())
+            {
+                entryService.openRunTape(run.getKey());
+                runs.add(this.readRun(run.getKey(), run.getValue()));
+            }
+
+            for(UUID runTapeID : entryService.findStoredRunTapesIDs())
+            {
+                if(manifest.containsKey(runTapeID))
+                    continue;
+
+                entryService.openRunTape(runTapeID);
+                this.deleteRunTape(runTapeID);
+            }
+
+            this.state.set(new LsmTreeState(new ConcurrentSkipListMap<>(), List.copyOf(runs),
+                    this.state.get().getVersion() + 1));
+            this.replacedRuns.clear();
+        } finally {
+            this.writerLock.unlock();
+        }
+        this.resetReadingBTree();
+    }
+}
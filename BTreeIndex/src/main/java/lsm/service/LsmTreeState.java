@@ -0,0 +1,35 @@
+package lsm.service;
+
+import entry.entity.Entry;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lsm.entity.SortedRun;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Memtable and sorted runs of an LSM index, which are read together. A new state is published, when the memtable is
+ * written as a run or runs are compacted, so a reader, which took the state, sees the same runs during its whole
+ * reading (the memtable gets new entries until it is replaced). Runs of a state being read aren't deleted, even if they
+ * are replaced by a compaction in the meantime.
+ */
+@Getter
+@AllArgsConstructor
+class LsmTreeState {
+
+    /**
+     * Newest entries (and tombstones of deleted keys), which haven't been written to a run yet, by their keys.
+     */
+    private final ConcurrentSkipListMap<Long, Entry> memtable;
+
+    /**
+     * Runs from the newest to the oldest one. Entry of a newer run replaces entries with the same key of older runs.
+     */
+    private final List<SortedRun> runs;
+
+    /**
+     * Number of the state, increased with each published state.
+     */
+    private final long version;
+}
@@ -0,0 +1,146 @@
+package lsm.service;
+
+import entry.entity.Entry;
+import entry.service.EntryService;
+import lsm.entity.SortedRun;
+
+import java.util.*;
+
+/**
+ * Reads entries of the memtable and sorted runs of an LSM index state in ascending keys order, merging them like
+ * sorted runs of an external sort. Of the entries with the same key, only the one from the newest source is returned.
+ * Run blocks are read from their positions in the run tapes, so many cursors can read the same runs at the same time.
+ */
+class MergeCursor implements Iterator<Entry> {
+
+    private final EntryService entryService;
+
+    private final List<SortedRun> runs;
+
+    private final Iterator<Entry> memtableEntries;
+
+    /**
+     * Current entry of each source - the memtable is source 0, and run n is source n + 1, so sources with smaller
+     * numbers are newer. Null, if the source has no more entries.
+     */
+    private final Entry[] heads;
+
+    /**
+     * Currently read block of each run, its number and position of the head entry in it.
+     */
+    private final List<List<Entry>> runsBlocks = new ArrayList<>();
+
+    private final int[] runsBlockNumbers;
+
+    private final int[] runsBlockPositions;
+
+    private final PriorityQueue<Integer> headsQueue;
+
+    /**
+     * @param entryService
+     * @param state
+     * @param fromKey The smallest key, which can be returned.
+     */
+    MergeCursor(EntryService entryService, LsmTreeState state, long fromKey)
+    {
+        this.entryService = entryService;
+        this.runs = state.getRuns();
+        this.memtableEntries = state.getMemtable().tailMap(fromKey, true).values().iterator();
+        this.heads = new Entry[this.runs.size() + 1];
+        this.runsBlockNumbers = new int[this.runs.size()];
+        this.runsBlockPositions = new int[this.runs.size()];
+        this.headsQueue = new PriorityQueue<>(this.heads.length,
+                Comparator.<Integer>comparingLong(source -> this.heads[source].getKey()).thenComparingInt(source -> source));
+
+        this.heads[0] = this.memtableEntries.hasNext() ? this.memtableEntries.next() : null;
+        for(int run = 0; run < this.runs.size(); run++)
+            this.runsBlocks.add(null);
+        for(int run = 0; run < this.runs.size(); run++)
+            this.seekRun(run, fromKey);
+
+        for(int source = 0; source < this.heads.length; source++)
+            if(this.heads[source] != null)
+                this.headsQueue.add(source);
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        return !this.headsQueue.isEmpty();
+    }
+
+    /**
+     * @return Next entry (it may be a tombstone).
+     */
+    @Override
+    public Entry next()
+    {
+        if(!this.hasNext())
+            throw new NoSuchElementException("All entries of the index state have been read.");
+
+        int source = this.headsQueue.poll();
+        Entry entry = this.heads[source];
+        this.advance(source);
+        // Older entries of the same key are replaced by the newest one
+        while(!this.headsQueue.isEmpty() && this.heads[this.headsQueue.peek()].getKey() == entry.getKey())
+            this.advance(this.headsQueue.poll());
+        return entry;
+    }
+
+    private void advance(int source)
+    {
+        if(source == 0)
+            this.heads[0] = this.memtableEntries.hasNext() ? this.memtableEntries.next() : null;
+        else
+        {
+            int run = source - 1;
+            this.runsBlockPositions[run]++;
+            this.heads[source] = this.readRunHead(run);
+        }
+
+        if(this.heads[source] != null)
+            this.headsQueue.add(source);
+    }
+
+    /**
+     * Positions the run at its first entry with key not smaller than the key. Only the block chosen by the run fence
+     * index is searched.
+     * @param run
+     * @param key
+     */
+    private void seekRun(int run, long key)
+    {
+        SortedRun sortedRun = this.runs.get(run);
+        int block = sortedRun.findBlock(key);
+        if(block == -1 && key > sortedRun.getMaxKey())
+            return;
+
+        this.runsBlockNumbers[run] = Math.max(block, 0);
+        this.runsBlocks.set(run, this.entryService.readEntriesBlock(sortedRun.getTapeID(), this.runsBlockNumbers[run]));
+        List<Entry> blockEntries = this.runsBlocks.get(run);
+        int position = 0;
+        while(blockEntries != null && position < blockEntries.size() && blockEntries.get(position).getKey() < key)
+            position++;
+        this.runsBlockPositions[run] = position;
+        this.heads[run + 1] = this.readRunHead(run);
+    }
+
+    /**
+     * @param run
+     * @return Entry at the current position of the run, moving to the next block, if the current one has been read.
+     */
+    private Entry readRunHead(int run)
+    {
+        List<Entry> blockEntries = this.runsBlocks.get(run);
+        while(blockEntries != null && this.runsBlockPositions[run] >= blockEntries.size())
+        {
+            if(++this.runsBlockNumbers[run] >= this.runs.get(run).getBlocks())
+                blockEntries = null;
+            else
+                blockEntries = this.entryService.readEntriesBlock(this.runs.get(run).getTapeID(), this.runsBlockNumbers[run]);
+            this.runsBlocks.set(run, blockEntries);
+            this.runsBlockPositions[run] = 0;
+        }
+        return blockEntries != null ? blockEntries.get(this.runsBlockPositions[run]) : null;
+    }
+}
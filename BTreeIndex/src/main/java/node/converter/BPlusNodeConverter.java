@@ -0,0 +1,187 @@
+package node.converter;
+
+import entry.converter.EntryConverter;
+import entry.entity.Entry;
+import lombok.AllArgsConstructor;
+import node.entity.BPlusNode;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts B+tree nodes from and to index pages. Both kinds of nodes start with a 4-byte number of their entries (or
+ * keys). Leaf header contains also 4-byte previous and next leaf pointers, which are followed by the entries. Internal
+ * node header is followed by the first child pointer and then pairs of an 8-byte separator key and a child pointer
+ * on its right - without data page numbers, internal nodes have more children than nodes of a b-tree of the same
+ * page size.
+ */
+@AllArgsConstructor
+public class BPlusNodeConverter {
+
+    private EntryConverter entryConverter;
+
+    private final int ENTRY_SIZE = Entry.builder().build().getSize();
+
+    private final int HEADER_SIZE = 4;
+
+    private final int POINTER_SIZE = 4;
+
+    private final int KEY_SIZE = 8;
+
+    /**
+     * Decodes node directly from byte buffer (e.g. a buffered page frame).
+     * @param data Node data takes up the whole buffer, up to its limit.
+     * @param leaf Whether the node is a leaf (it is known from the node level).
+     * @return Decoded node. Returning null indicates that the data was null.
+     */
+    public BPlusNode bytesToNode(ByteBuffer data, boolean leaf)
+    {
+        if(data == null)
+            return null;
+
+        int entriesCount = data.getInt(0);
+        int maxEntries = leaf ? this.getMaxLeafEntries(data.limit()) : this.getMaxInternalKeys(data.limit());
+        if(entriesCount < 0 || entriesCount > maxEntries)
+            throw new IllegalStateException("Entries count stored in the node header was below 0 or bigger than max" +
+                    " entries number for this node. (it was " + entriesCount + ")");
+
+        List<Entry> entries = new ArrayList<>(leaf ? entriesCount + 1 : 0);
+        List<Long> keys = new ArrayList<>(leaf ? 0 : entriesCount + 1);
+        List<Integer> childPointers = new ArrayList<>(leaf ? 0 : entriesCount + 2);
+        if(leaf)
+        {
+            int off = this.HEADER_SIZE + 2 * this.POINTER_SIZE;
+            for(int n = 0; n < entriesCount; n++)
+                entries.add(entryConverter.bytesToEntry(data, off + n * this.ENTRY_SIZE));
+        }
+        else
+        {
+            childPointers.add(data.getInt(this.HEADER_SIZE));
+            int off = this.HEADER_SIZE + this.POINTER_SIZE;
+            for(int n = 0; n < entriesCount; n++)
+            {
+                keys.add(data.getLong(off));
+                childPointers.add(data.getInt(off + this.KEY_SIZE));
+                off += this.KEY_SIZE + this.POINTER_SIZE;
+            }
+        }
+
+        return BPlusNode.builder()
+                .leaf(leaf)
+                .entries(entries)
+                .keys(keys)
+                .childPointers(childPointers)
+                .previousLeafPointer(leaf ? data.getInt(this.HEADER_SIZE) : 0)
+                .nextLeafPointer(leaf ? data.getInt(this.HEADER_SIZE + this.POINTER_SIZE) : 0)
+                .build();
+    }
+
+    /**
+     * Writes whole node directly to byte buffer (e.g. a buffered page frame). Space after the node data is filled
+     * with zeros.
+     * @param node
+     * @param output Node data takes up the whole buffer, up to its limit.
+     * @return Whether node conversion to bytes was successful.
+     */
+    public boolean nodeToBytes(BPlusNode node, ByteBuffer output)
+    {
+        if(node == null || output == null)
+            return false;
+
+        int maxEntries = node.isLeaf() ? this.getMaxLeafEntries(output.limit()) : this.getMaxInternalKeys(output.limit());
+        if(node.getEntriesCount() > maxEntries)
+            return false;
+
+        if(!node.isLeaf() && node.getChildPointers().size() != node.getKeys().size() + 1)
+            return false;
+
+        output.putInt(0, node.getEntriesCount());
+        int consumed = this.HEADER_SIZE;
+        if(node.isLeaf())
+        {
+            output.putInt(consumed, node.getPreviousLeafPointer());
+            output.putInt(consumed + this.POINTER_SIZE, node.getNextLeafPointer());
+            consumed += 2 * this.POINTER_SIZE;
+            for(Entry entry : node.getEntries())
+            {
+                entryConverter.entryToBytes(entry, output, consumed);
+                consumed += this.ENTRY_SIZE;
+            }
+        }
+        else
+        {
+            output.putInt(consumed, node.getChildPointers().get(0));
+            consumed += this.POINTER_SIZE;
+            for(int n = 0; n < node.getKeys().size(); n++)
+            {
+                output.putLong(consumed, node.getKeys().get(n));
+                output.putInt(consumed + this.KEY_SIZE, node.getChildPointers().get(n + 1));
+                consumed += this.KEY_SIZE + this.POINTER_SIZE;
+            }
+        }
+        for(int i = consumed; i < output.limit(); i++)
+            output.put(i, (byte) 0);
+
+        return true;
+    }
+
+    /**
+     * @param nodeSize
+     * @return How many entries fit in a leaf of that size.
+     */
+    public int getMaxLeafEntries(int nodeSize)
+    {
+        return (nodeSize - this.HEADER_SIZE - 2 * this.POINTER_SIZE) / this.ENTRY_SIZE;
+    }
+
+    /**
+     * @param nodeSize
+     * @return How many separator keys fit in an internal node of that size.
+     */
+    public int getMaxInternalKeys(int nodeSize)
+    {
+        return (nodeSize - this.HEADER_SIZE - this.POINTER_SIZE) / (this.KEY_SIZE + this.POINTER_SIZE);
+    }
+
+    public String nodeToString(BPlusNode node)
+    {
+        if(node == null)
+            return null;
+
+        StringBuilder nodeData = new StringBuilder();
+        nodeData.append("H ");
+        nodeData.append(node.getEntriesCount());
+        nodeData.append(" H ");
+        if(node.isLeaf())
+        {
+            nodeData.append("<");
+            nodeData.append(node.getPreviousLeafPointer());
+            nodeData.append("|");
+            for(Entry entry : node.getEntries())
+            {
+                nodeData.append(" ");
+                nodeData.append(entry.getKey());
+                nodeData.append(" ");
+                nodeData.append(entry.getDataPage());
+                nodeData.append(" |");
+            }
+            nodeData.append(node.getNextLeafPointer());
+            nodeData.append(">");
+            return nodeData.toString();
+        }
+
+        nodeData.append("|");
+        nodeData.append(node.getChildPointers().get(0));
+        nodeData.append("|");
+        for(int i = 0; i < node.getKeys().size(); i++)
+        {
+            nodeData.append(" ");
+            nodeData.append(node.getKeys().get(i));
+            nodeData.append(" |");
+            nodeData.append(node.getChildPointers().get(i + 1));
+            nodeData.append("|");
+        }
+        return nodeData.toString();
+    }
+}
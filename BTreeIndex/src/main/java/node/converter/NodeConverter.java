@@ -3,6 +3,7 @@ package node.converter;
 import entry.converter.EntryConverter;
 import entry.entity.Entry;
 import lombok.AllArgsConstructor;
+import node.entity.DecodedNode;
 import node.entity.Node;
 
 import java.nio.ByteBuffer;
@@ -44,7 +45,7 @@ public class NodeConverter {
 
         List<Entry> entries = new ArrayList<>();
         List<Integer> childPointers = new ArrayList<>();
-        int parentPointer = ByteBuffer.wrap(data, off, 4).getInt();
+        int entriesCount = ByteBuffer.wrap(data, off, 4).getInt();
         int consumed = 4;
         while(consumed < (data.length - off))
         {
@@ -66,7 +67,7 @@ public class NodeConverter {
             throw new IllegalStateException("Converting a node from bytes ended, but read bytes counter doesn't match" +
                     " provided array size. Provided array length (minus offset) should match a size of a possible node.");
         Node node = Node.builder().build();
-        node.setParentPointer(parentPointer);
+        node.setEntriesCount(entriesCount);
         node.setSelfPointer(0);
         node.setEntries(entries);
         node.setChildPointers(childPointers);
@@ -108,7 +109,7 @@ public class NodeConverter {
 
         try {
             ByteBuffer byteBuffer = ByteBuffer.wrap(output, off, node.getSize());
-            byteBuffer.putInt(off, node.getParentPointer());
+            byteBuffer.putInt(off, node.getEntries().size());
             byteBuffer.putInt(off + 4, node.getChildPointers().get(0));
             int consumed = 8;
             for(int i = 0; i < node.getChildPointers().size() - 1; i++) {
@@ -128,12 +129,85 @@ public class NodeConverter {
 
         return true;
     }
+    /**
+     * Decodes node directly from byte buffer (e.g. a buffered page frame), reading each entry and pointer only once.
+     * Only as many entries, as the node header says, are read.
+     * @param data Node data takes up the whole buffer, up to its limit.
+     * @return Decoded node. Returning null indicates that size of the data can't be a correct node size.
+     */
+    public DecodedNode bytesToDecodedNode(ByteBuffer data)
+    {
+        if (data == null)
+            return null;
+
+        int entrySize = Entry.builder().build().getSize();
+        if(data.limit() < 8 || (data.limit() - 8) % (entrySize + 4) != 0)
+            return null;
+
+        int maxEntries = (data.limit() - 8) / (entrySize + 4);
+        int entriesCount = data.getInt(0);
+        if(entriesCount < 0 || entriesCount > maxEntries)
+            throw new IllegalStateException("Entries count stored in the node header was below 0 or bigger than max" +
+                    " entries number for this node. (it was " + entriesCount + ")");
+
+        long[] keys = new long[entriesCount];
+        int[] dataPages = new int[entriesCount];
+        int[] childPointers = new int[entriesCount + 1];
+        childPointers[0] = data.getInt(4);
+        for(int n = 0; n < entriesCount; n++)
+        {
+            int off = 8 + n * (entrySize + 4);
+            keys[n] = data.getLong(off);
+            dataPages[n] = data.getInt(off + 8);
+            childPointers[n + 1] = data.getInt(off + entrySize);
+        }
+
+        return DecodedNode.builder()
+                .entriesCount(entriesCount)
+                .keys(keys)
+                .dataPages(dataPages)
+                .childPointers(childPointers)
+                .build();
+    }
+
+    /**
+     * Writes whole node directly to byte buffer (e.g. a buffered page frame). Space after the last entry and its right
+     * child pointer is filled with zeros.
+     * @param node
+     * @param output Node data takes up the whole buffer, up to its limit.
+     * @return Whether node conversion to bytes was successful.
+     */
+    public boolean decodedNodeToBytes(DecodedNode node, ByteBuffer output)
+    {
+        if(node == null)
+            return false;
+
+        int entrySize = Entry.builder().build().getSize();
+        if(output == null || 8 + node.getEntriesCount() * (entrySize + 4) > output.limit())
+            return false;
+
+        output.putInt(0, node.getEntriesCount());
+        output.putInt(4, node.getChildPointers()[0]);
+        int consumed = 8;
+        for(int n = 0; n < node.getEntriesCount(); n++)
+        {
+            output.putLong(consumed, node.getKeys()[n]);
+            output.putInt(consumed + 8, node.getDataPages()[n]);
+            output.putInt(consumed + entrySize, node.getChildPointers()[n + 1]);
+            consumed += entrySize + 4;
+        }
+        for(int i = consumed; i < output.limit(); i++)
+            output.put(i, (byte) 0);
+
+        return true;
+    }
+
     public boolean isFullNode(byte[] data, int off)
     {
         if (data == null)
             return false;
 
-        /* 8 - 4-byte parent pointer + 4 byte first child pointer,
+        /* 8 - 4-byte entries count + 4 byte first child pointer,
           rest of the node is n * (constant size of Entry + 4 for child pointer).
           So data array size (minus first 8 bytes) will always be a multiple of (entry + child pointer) size
          */
@@ -153,7 +227,7 @@ public class NodeConverter {
 
         StringBuilder nodeData = new StringBuilder();
         nodeData.append("H ");
-        nodeData.append(node.getParentPointer());
+        nodeData.append(node.getEntriesCount());
         nodeData.append(" H |");
         nodeData.append(node.getChildPointers().get(0));
         nodeData.append("|");
@@ -0,0 +1,106 @@
+package node.entity;
+
+import entry.entity.Entry;
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * Node of a B+tree index. Leaves contain all index entries and are linked with their neighbours into a list, so
+ * ordered reading just walks the leaves. Internal nodes contain only separator keys and child pointers - a separator
+ * key is the smallest key, which can be in the subtree of the child pointer on its right.
+ */
+@Getter
+@Setter
+@Builder
+@ToString
+@AllArgsConstructor
+public class BPlusNode {
+
+    // Not stored on disk data, set by program
+    /**
+     * Whether the node is a leaf. It isn't stored in the node, because it is known from the node level - all leaves
+     * are on the lowest level of the tree.
+     */
+    private boolean leaf;
+
+    // Data stored on disk
+
+    /**
+     * Entries of a leaf node, in ascending keys order (empty for internal nodes).
+     */
+    private List<Entry> entries;
+
+    /**
+     * Separator keys of an internal node, in ascending order (empty for leaves).
+     */
+    private List<Long> keys;
+
+    /**
+     * Index page pointers to children of an internal node (n-th pointer is on the left of n-th key). Empty for leaves.
+     * <strong>Index page pointer - a pointer is page number + 1, to exclude 0 value as special and meaning null
+     * pointer.</strong>
+     */
+    private List<Integer> childPointers;
+
+    /**
+     * Index page pointer to the previous leaf (with smaller keys), or 0, if this is the first leaf. Used only by leaves.
+     */
+    private int previousLeafPointer;
+
+    /**
+     * Index page pointer to the next leaf (with bigger keys), or 0, if this is the last leaf. Used only by leaves.
+     */
+    private int nextLeafPointer;
+
+    /**
+     * @return Number of entries of a leaf or number of keys of an internal node, which is stored in the node header.
+     */
+    public int getEntriesCount()
+    {
+        return this.leaf ? this.entries.size() : this.keys.size();
+    }
+
+    /**
+     * @param key
+     * @return Number of the leaf entry with provided key or -(insertion number) - 1, if there is no such entry.
+     */
+    public int findEntryNumber(long key)
+    {
+        int low = 0;
+        int high = this.entries.size() - 1;
+        while(low <= high)
+        {
+            int middle = (low + high) >>> 1;
+            long middleKey = this.entries.get(middle).getKey();
+            if(middleKey == key)
+                return middle;
+
+            if(middleKey > key)
+                high = middle - 1;
+            else
+                low = middle + 1;
+        }
+        return -low - 1;
+    }
+
+    /**
+     * @param key
+     * @return Number of the internal node child pointer, which leads to the subtree, that may contain provided key
+     * (it is the number of the first separator key bigger than provided key).
+     */
+    public int findChildNumber(long key)
+    {
+        int low = 0;
+        int high = this.keys.size() - 1;
+        while(low <= high)
+        {
+            int middle = (low + high) >>> 1;
+            if(this.keys.get(middle) > key)
+                high = middle - 1;
+            else
+                low = middle + 1;
+        }
+        return low;
+    }
+}
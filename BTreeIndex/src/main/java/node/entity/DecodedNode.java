@@ -0,0 +1,85 @@
+package node.entity;
+
+import entry.entity.Entry;
+import lombok.*;
+
+/**
+ * B-tree node decoded from its page into primitive arrays. Unlike {@link Node}, it is meant for the b-tree operations
+ * (not for printing), so it is cached while its page stays buffered and the same node isn't decoded again by each
+ * step of a single operation.
+ * <br></br><br></br>
+ * <strong>Decoded nodes returned by the cache are shared, so they shouldn't be modified - a changed node should be
+ * written as a new one.</strong>
+ */
+@Getter
+@Setter
+@Builder
+@ToString
+@AllArgsConstructor
+public class DecodedNode {
+
+    /**
+     * Number of the entries in this node, as stored in the node header. Only this many keys (and one more child
+     * pointers) are meaningful.
+     */
+    private int entriesCount;
+
+    /**
+     * Keys of the node entries, in ascending order.
+     */
+    private long[] keys;
+
+    /**
+     * Data pages of the node entries (n-th data page belongs to n-th key).
+     */
+    private int[] dataPages;
+
+    /**
+     * Index page pointers to children of this node (n-th pointer is the left child of n-th entry).
+     */
+    private int[] childPointers;
+
+    public Entry getEntry(int n)
+    {
+        if(n < 0 || n >= this.entriesCount)
+            throw new IllegalStateException("Requested entry number was below 0 or bigger than last entry number in" +
+                    " this node. (it was " + n + ")");
+
+        return Entry.builder()
+                .key(this.keys[n])
+                .dataPage(this.dataPages[n])
+                .build();
+    }
+
+    public int getChildPointer(int n)
+    {
+        if(n < 0 || n > this.entriesCount)
+            throw new IllegalStateException("Requested child pointer number was below 0 or bigger than last child" +
+                    " pointer number in this node. (it was " + n + ")");
+
+        return this.childPointers[n];
+    }
+
+    /**
+     * @param pointer
+     * @return Number of the child pointer equal to provided pointer or -1, if there was no such pointer.
+     */
+    public int findChildPointerNumber(int pointer)
+    {
+        for(int n = 0; n <= this.entriesCount; n++)
+            if(this.childPointers[n] == pointer)
+                return n;
+        return -1;
+    }
+
+    /**
+     * @return Whether the node has no children (all its child pointers are null).
+     */
+    public boolean isLeaf()
+    {
+        for(int n = 0; n <= this.entriesCount; n++)
+            if(this.childPointers[n] != 0)
+                return false;
+        return true;
+    }
+}
@@ -25,10 +25,10 @@ public class Node {
     // Data stored on disk
 
     /**
-     * <strong>Index page pointer (a pointer is page number + 1, to exclude 0 value as special and meaning null pointer)</strong>,
-     * on which is stored a b-tree node, that is a parent node to this node.
+     * Number of the entries stored in this node (kept in the node header). A node doesn't store a pointer to its parent
+     * - b-tree operations remember the path from the root, through which they came to the node.
      */
-    private int parentPointer;
+    private int entriesCount;
 
     /**
      * All entries stored in this node.
@@ -39,6 +39,28 @@ public class RecordConverter {
         return record;
     }
 
+    /**
+     * Reads record directly from byte buffer (e.g. a view of a memory-mapped page), without copying the data to array.
+     * @param data
+     * @param off absolute offset in the byte buffer
+     * @return Record read from bytes. Returning null indicates that there is too little data
+     * to read the whole record (more data needs to be provided).
+     */
+    public Record bytesToRecord(ByteBuffer data, int off)
+    {
+        if (data == null)
+            return null;
+
+        Record record = Record.builder().build();
+        if((data.limit() - off) < record.getSize())
+            return null;
+
+        record.setKey(data.getLong(off));
+        record.setMass(data.getInt(off + 8));
+        record.setSpeed(data.getInt(off + 12));
+        return record;
+    }
+
     /**
      *
      * @param record
@@ -84,6 +106,26 @@ public class RecordConverter {
 
         return true;
     }
+    /**
+     * Writes record directly to byte buffer (e.g. a buffered page frame).
+     * @param record
+     * @param output byte buffer, where the record will be stored
+     * @param off absolute offset in byte buffer, at which the method will start writing the data
+     * @return Whether record conversion to bytes was successful.
+     */
+    public boolean recordToBytes(Record record, ByteBuffer output, int off)
+    {
+        if(record == null)
+            return false;
+
+        if(output == null || (output.limit() - off) < record.getSize())
+            return false;
+
+        output.putLong(off, record.getKey())
+                .putInt(off + 8, record.getMass())
+                .putInt(off + 12, record.getSpeed());
+        return true;
+    }
     public boolean isFullRecord(byte[] data, int off)
     {
         if (data == null)
@@ -96,6 +138,18 @@ public class RecordConverter {
         return true;
     }
 
+    public boolean isFullRecord(ByteBuffer data, int off)
+    {
+        if (data == null)
+            return false;
+
+        Record record = Record.builder().build();
+        if((data.limit() - off) < record.getSize())
+            return false;
+
+        return true;
+    }
+
     public String recordToString(Record record)
     {
         if(record == null)
@@ -11,6 +11,7 @@ import java.io.File;
 import java.nio.ByteBuffer;
 import java.security.InvalidAlgorithmParameterException;
 import java.util.*;
+import java.util.concurrent.locks.Lock;
 
 @Builder
 @ToString
@@ -169,8 +170,8 @@ public class RecordService {
 
     // Non-sequential read/write methods for Record
     /**
-     * This method assumes that upper layer takes responsibility of freeing buffers for tapes, if they're full.
-     * It also assumes, that a record must be written as a whole on a single page. It assumes too, that records
+     * The page latch is held while the page is read, so its buffer isn't freed or changed in the meantime.
+     * It assumes, that a record must be written as a whole on a single page. It assumes too, that records
      * are written one by one and there are no gaps - writeRecord() function should be responsible for
      * shifting them that way, when removing or adding a record, before the page will be saved on disk.
      * @param tapeID
@@ -180,22 +181,59 @@ public class RecordService {
      */
     public Record readRecord(UUID tapeID, int page, long key)
     {
-        if(!tapeService.getBufferedPages(tapeID).contains(page) && tapeService.isMaxBuffers(tapeID))
-            throw new IllegalStateException("Reading requested record requires loading a page from tape, but the buffer" +
-                    " limit for this tape is full. Some buffer should have been freed before requesting this operation.");
+        Lock pageLatch = tapeService.getPageLatch(tapeID, page);
+        pageLatch.lock();
+        try {
+            if(page < 0)
+                throw new IllegalStateException("Page can't be a negative number.");
 
-        if(page < 0)
-            throw new IllegalStateException("Page can't be a negative number.");
+            ByteBuffer buffer = tapeService.readPageView(tapeID, page);
+            if(buffer == null)
+                throw new IllegalStateException("Requested page should exist, but its data was null.");
 
-        byte[] buffer = tapeService.readPage(tapeID, page);
-        if(buffer == null)
-            throw new IllegalStateException("Requested page should exist, but its data was null.");
+            int pos = this.findRecordPosition(buffer, key);
+            if(pos == -1)
+                return null; // Record not found
 
-        int pos = this.findRecordPosition(buffer, key);
-        if(pos == -1)
-            return null; // Record not found
+            return recordConverter.bytesToRecord(buffer, pos);
+        } finally {
+            pageLatch.unlock();
+        }
+    }
 
-        return recordConverter.bytesToRecord(buffer, pos);
+    /**
+     * Reads all records of the page, like {@link RecordService#readRecord}.
+     * @param tapeID
+     * @param page
+     * @return Records stored on the page, in order of their positions.
+     */
+    public List<Record> readRecords(UUID tapeID, int page)
+    {
+        Lock pageLatch = tapeService.getPageLatch(tapeID, page);
+        pageLatch.lock();
+        try {
+            if(page < 0)
+                throw new IllegalStateException("Page can't be a negative number.");
+
+            ByteBuffer buffer = tapeService.readPageView(tapeID, page);
+            if(buffer == null)
+                throw new IllegalStateException("Requested page should exist, but its data was null.");
+
+            List<Record> records = new ArrayList<>();
+            int consumed = 0;
+            while(recordConverter.isFullRecord(buffer, consumed))
+            {
+                Record record = recordConverter.bytesToRecord(buffer, consumed);
+                if(record.getKey() == 0) // Assuming end of records on that page, key equal to 0 is forbidden
+                    break;
+
+                records.add(record);
+                consumed += record.getSize();
+            }
+            return records;
+        } finally {
+            pageLatch.unlock();
+        }
     }
 
     /**
@@ -207,30 +245,70 @@ public class RecordService {
      * @throws InvalidAlgorithmParameterException
      */
     public void createRecord(UUID tapeID, int page, Record record) throws InvalidAlgorithmParameterException {
-        if(!tapeService.getBufferedPages(tapeID).contains(page) && tapeService.isMaxBuffers(tapeID))
-            throw new IllegalStateException("Creating requested record requires loading a page from tape, but the buffer" +
-                    " limit for this tape is full. Some buffer should have been freed before requesting this operation.");
-
-        if(page < 0)
-            throw new IllegalStateException("Page can't be a negative number.");
-
-        if(record == null)
-            throw new IllegalStateException("Record provided to write was null. Creation of the record aborted.");
-
-        byte[] buffer = tapeService.readPage(tapeID, page);
-        if(buffer == null)
-            throw new IllegalStateException("Requested page should exist, but its data was null.");
-
-        if(this.findRecordPosition(buffer, record.getKey()) != -1)
-            throw new IllegalStateException("Record with that key already exists on this page." +
-                    " A key of a record should be unique for a whole tape.");
+        Lock pageLatch = tapeService.getPageLatch(tapeID, page);
+        pageLatch.lock();
+        try {
+            if(page < 0)
+                throw new IllegalStateException("Page can't be a negative number.");
+
+            if(record == null)
+                throw new IllegalStateException("Record provided to write was null. Creation of the record aborted.");
+
+            ByteBuffer buffer = tapeService.readPageBuffer(tapeID, page);
+            if(buffer == null)
+                throw new IllegalStateException("Requested page should exist, but its data was null.");
+
+            if(this.findRecordPosition(buffer, record.getKey()) != -1)
+                throw new IllegalStateException("Record with that key already exists on this page." +
+                        " A key of a record should be unique for a whole tape.");
+
+            int freeSpaceStart = this.findStartOfFreeSpace(buffer);
+            if(freeSpaceStart == -1 || buffer.limit() - freeSpaceStart < record.getSize())
+                throw new IllegalStateException("There is not enough space on this page to store new record on it.");
+
+            recordConverter.recordToBytes(record, buffer, freeSpaceStart);
+            tapeService.writePage(tapeID, page);
+        } finally {
+            pageLatch.unlock();
+        }
+    }
 
-        int freeSpaceStart = this.findStartOfFreeSpace(buffer);
-        if(freeSpaceStart == -1 || buffer.length - freeSpaceStart < record.getSize())
-            throw new IllegalStateException("There is not enough space on this page to store new record on it.");
+    /**
+     * Writes provided records one after another, starting at the free space of the requested page buffer, and saves
+     * the page once for all of them. Records aren't checked for keys already stored on the page, so it's meant for
+     * filling new pages with records, which are known to be unique.
+     * @param tapeID
+     * @param page
+     * @param records
+     * @throws InvalidAlgorithmParameterException
+     */
+    public void createRecords(UUID tapeID, int page, List<Record> records) throws InvalidAlgorithmParameterException {
+        Lock pageLatch = tapeService.getPageLatch(tapeID, page);
+        pageLatch.lock();
+        try {
+            if(page < 0)
+                throw new IllegalStateException("Page can't be a negative number.");
+
+            if(records == null)
+                throw new IllegalStateException("Records provided to write were null. Creation of the records aborted.");
+
+            ByteBuffer buffer = tapeService.readPageBuffer(tapeID, page);
+            if(buffer == null)
+                throw new IllegalStateException("Requested page should exist, but its data was null.");
+
+            int freeSpaceStart = this.findStartOfFreeSpace(buffer);
+            for(Record record : records)
+            {
+                if(freeSpaceStart == -1 || buffer.limit() - freeSpaceStart < record.getSize())
+                    throw new IllegalStateException("There is not enough space on this page to store all provided records on it.");
 
-        recordConverter.recordToBytes(record, buffer, freeSpaceStart);
-        tapeService.writePage(tapeID, page, buffer, buffer.length);
+                recordConverter.recordToBytes(record, buffer, freeSpaceStart);
+                freeSpaceStart += record.getSize();
+            }
+            tapeService.writePage(tapeID, page);
+        } finally {
+            pageLatch.unlock();
+        }
     }
 
     /**
@@ -240,71 +318,89 @@ public class RecordService {
      * @param record
      */
     public void updateRecord(UUID tapeID, int page, Record record) throws InvalidAlgorithmParameterException {
-        if(!tapeService.getBufferedPages(tapeID).contains(page) && tapeService.isMaxBuffers(tapeID))
-            throw new IllegalStateException("Creating requested record requires loading a page from tape, but the buffer" +
-                    " limit for this tape is full. Some buffer should have been freed before requesting this operation.");
-
-        if(page < 0)
-            throw new IllegalStateException("Page can't be a negative number.");
-
-        if(record == null)
-            throw new IllegalStateException("Record provided to write was null. Creation of the record aborted.");
-
-        byte[] buffer = tapeService.readPage(tapeID, page);
-        if(buffer == null)
-            throw new IllegalStateException("Requested page should exist, but its data was null.");
-
-        int pos = this.findRecordPosition(buffer, record.getKey());
-        if(pos == -1)
-            throw new IllegalStateException("Record with that key doesn't exists on this page, so it can't be updated.");
-
-        if(buffer.length - pos < record.getSize())
-            throw new IllegalStateException("Since the record to update was found on this page, there should be enough" +
-                    " space for the updating record (all records of type Record are the same size), but it wasn't.");
-
-        recordConverter.recordToBytes(record, buffer, pos);
-        tapeService.writePage(tapeID, page, buffer, buffer.length);
+        Lock pageLatch = tapeService.getPageLatch(tapeID, page);
+        pageLatch.lock();
+        try {
+            if(page < 0)
+                throw new IllegalStateException("Page can't be a negative number.");
+
+            if(record == null)
+                throw new IllegalStateException("Record provided to write was null. Creation of the record aborted.");
+
+            ByteBuffer buffer = tapeService.readPageBuffer(tapeID, page);
+            if(buffer == null)
+                throw new IllegalStateException("Requested page should exist, but its data was null.");
+
+            int pos = this.findRecordPosition(buffer, record.getKey());
+            if(pos == -1)
+                throw new IllegalStateException("Record with that key doesn't exists on this page, so it can't be updated.");
+
+            if(buffer.limit() - pos < record.getSize())
+                throw new IllegalStateException("Since the record to update was found on this page, there should be enough" +
+                        " space for the updating record (all records of type Record are the same size), but it wasn't.");
+
+            recordConverter.recordToBytes(record, buffer, pos);
+            tapeService.writePage(tapeID, page);
+        } finally {
+            pageLatch.unlock();
+        }
     }
 
     public void removeRecord(UUID tapeID, int page, long key) throws InvalidAlgorithmParameterException {
-        if(!tapeService.getBufferedPages(tapeID).contains(page) && tapeService.isMaxBuffers(tapeID))
-            throw new IllegalStateException("Creating requested record requires loading a page from tape, but the buffer" +
-                    " limit for this tape is full. Some buffer should have been freed before requesting this operation.");
-
-        if(page < 0)
-            throw new IllegalStateException("Page can't be a negative number.");
+        Lock pageLatch = tapeService.getPageLatch(tapeID, page);
+        pageLatch.lock();
+        try {
+            if(page < 0)
+                throw new IllegalStateException("Page can't be a negative number.");
+
+            ByteBuffer buffer = tapeService.readPageBuffer(tapeID, page);
+            if(buffer == null)
+                throw new IllegalStateException("Requested page should exist, but its data was null.");
+
+            int pos = this.findRecordPosition(buffer, key);
+            if(pos == -1)
+                throw new IllegalStateException("Record with that key doesn't exists on this page, so it can't be removed.");
+
+            Record record = recordConverter.bytesToRecord(buffer, pos);
+            if(record == null)
+                throw new IllegalStateException("Record with provided key was found on the page, but after trying to read" +
+                        " it, it turned out null. Something went wrong, removing the record aborted.");
+
+            // Shift all bytes (possible records) from right to the pos, to overwrite the record and remove gap between records
+            for(int i = pos; i < buffer.limit() - record.getSize(); i++)
+                buffer.put(i, buffer.get(i + record.getSize()));
+            // Erase old bytes at the end of the page, that stayed the same (there could be a redundant copy of a
+            // record, that has been shifted 1 spot left)
+            for(int i = buffer.limit() - record.getSize(); i < buffer.limit(); i++)
+                buffer.put(i, (byte) 0);
+
+            tapeService.writePage(tapeID, page);
+        } finally {
+            pageLatch.unlock();
+        }
+    }
 
-        byte[] buffer = tapeService.readPage(tapeID, page);
+    /**
+     * Gets a buffer and searches for the requested record position in it.
+     * @param buffer
+     * @param key
+     * @return Position of the record in the buffer, if found, or -1, if not.
+     */
+    public int findRecordPosition(byte[] buffer, long key)
+    {
         if(buffer == null)
-            throw new IllegalStateException("Requested page should exist, but its data was null.");
-
-        int pos = this.findRecordPosition(buffer, key);
-        if(pos == -1)
-            throw new IllegalStateException("Record with that key doesn't exists on this page, so it can't be removed.");
-
-        Record record = recordConverter.bytesToRecord(buffer, pos);
-        if(record == null)
-            throw new IllegalStateException("Record with provided key was found on the page, but after trying to read" +
-                    " it, it turned out null. Something went wrong, removing the record aborted.");
+            throw new IllegalStateException("Provided page data buffer was null.");
 
-        // Erase the record
-        Arrays.fill(buffer, pos, pos + record.getSize(), (byte) 0);
-        // Shift all bytes (possible records) from right to the pos, to remove gap between records
-        System.arraycopy(buffer, pos + record.getSize(), buffer, pos, buffer.length - (pos + record.getSize()));
-        // Erase old bytes at the end of array, that stayed he same (there could be a redundant copy of a
-        // record, that has been shifted 1 spot left)
-        Arrays.fill(buffer, buffer.length - record.getSize(), buffer.length, (byte) 0);
-        
-        tapeService.writePage(tapeID, page, buffer, buffer.length);
+        return this.findRecordPosition(ByteBuffer.wrap(buffer), key);
     }
 
     /**
-     * Gets a buffer and searches for the requested record position in it.
+     * Searches for the requested record position in the page data view (e.g. a memory-mapped page), without copying it.
      * @param buffer
      * @param key
      * @return Position of the record in the buffer, if found, or -1, if not.
      */
-    public int findRecordPosition(byte[] buffer, long key)
+    public int findRecordPosition(ByteBuffer buffer, long key)
     {
         if(buffer == null)
             throw new IllegalStateException("Provided page data buffer was null.");
@@ -326,6 +422,14 @@ public class RecordService {
     }
 
     public int findStartOfFreeSpace(byte[] buffer)
+    {
+        if(buffer == null)
+            throw new IllegalStateException("Provided page data buffer was null.");
+
+        return this.findStartOfFreeSpace(ByteBuffer.wrap(buffer));
+    }
+
+    public int findStartOfFreeSpace(ByteBuffer buffer)
     {
         if(buffer == null)
             throw new IllegalStateException("Provided page data buffer was null.");
@@ -380,6 +484,16 @@ public class RecordService {
         tapeService.removeInputTape();
     }
 
+    public void removeInputTape(UUID id)
+    {
+        tapeService.removeInputTape(id);
+    }
+
+    public void createRunTape(UUID id)
+    {
+        tapeService.createRunTape(id);
+    }
+
     public void deleteTape(UUID id)
     {
         tapeService.delete(id);
@@ -419,6 +533,41 @@ public class RecordService {
         return tapeService.getBufferedPages(tapeID);
     }
 
+    public void assureBufferForPage(UUID tapeID, int page)
+    {
+        tapeService.assureBufferForPage(tapeID, page);
+    }
+
+    public void flush(UUID tapeID)
+    {
+        tapeService.flush(tapeID);
+    }
+
+    public void readAhead(UUID tapeID, List<Integer> pages)
+    {
+        tapeService.readAhead(tapeID, pages);
+    }
+
+    public void appendLogRecord(byte[] payload)
+    {
+        tapeService.appendLogRecord(payload);
+    }
+
+    public void commitLog()
+    {
+        tapeService.commitLog();
+    }
+
+    public boolean isLogFull()
+    {
+        return tapeService.isLogFull();
+    }
+
+    public int getReadAheadPages()
+    {
+        return tapeService.getReadAheadPages();
+    }
+
     public int getReads(UUID id)
     {
         return tapeService.getReads(id);
@@ -449,11 +598,36 @@ public class RecordService {
         tapeService.setFreeSpaceOnPage(tapeID, page, amount);
     }
 
+    public int findPageWithFreeSpace(UUID tapeID, int minFreeSpace)
+    {
+        return tapeService.findPageWithFreeSpace(tapeID, minFreeSpace);
+    }
+
     public int getTapePages(UUID id)
     {
         return tapeService.getPages(id);
     }
 
+    public int getPageSize()
+    {
+        return tapeService.BLOCK_SIZE;
+    }
+
+    public Lock getPageLatch(UUID tapeID, int page)
+    {
+        return tapeService.getPageLatch(tapeID, page);
+    }
+
+    public Lock getAllocationLatch(UUID tapeID)
+    {
+        return tapeService.getAllocationLatch(tapeID);
+    }
+
+    public int getMaxOpenFiles()
+    {
+        return tapeService.getMaxOpenFiles();
+    }
+
     public int getTapeFreePages(UUID id)
     {
         return tapeService.getFreePages(id);
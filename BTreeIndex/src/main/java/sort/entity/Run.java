@@ -0,0 +1,25 @@
+package sort.entity;
+
+import lombok.*;
+
+import java.util.UUID;
+
+@Getter
+@Setter
+@Builder
+@ToString
+@EqualsAndHashCode
+@AllArgsConstructor
+public class Run {
+
+    /**
+     * Run tape, on which the records of the run are stored, sorted by their keys.
+     */
+    private UUID tapeID;
+
+    /**
+     * Count of the records stored on the run tape.
+     */
+    private int records;
+
+}
@@ -0,0 +1,231 @@
+package sort.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.ToString;
+import record.entity.Record;
+import record.service.RecordService;
+import sort.entity.Run;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Sorts records of an input tape of any size by their keys, with a bounded amount of memory. Records are read in
+ * chunks, which are sorted in memory (in parallel, on the sort executor threads) and written to run tapes. Runs are
+ * then merged, many at a time, until a single sorted run is left.
+ * <br></br><br></br>
+ * Records with repeated keys are dropped, except for the first one in the input order (like the database rejects
+ * creating a record with an existing key), so the sorted run can be bulk loaded.
+ */
+@Builder
+@ToString
+@AllArgsConstructor
+public class ExternalSortService {
+
+    private RecordService recordService;
+
+    /**
+     * Threads sorting the chunks of records. Records are read and runs are written only by the calling thread, since
+     * tapes are accessed sequentially anyway.
+     */
+    private ExecutorService sortExecutor;
+
+    /**
+     * How many chunks of records are sorted at the same time - it should be the number of the sort executor threads.
+     */
+    private final int sortThreads;
+
+    /**
+     * Memory budget of the sort - max number of records held in memory at the same time. During merging, it is the
+     * memory for the blocks of the merged runs.
+     */
+    private final int memoryRecords;
+
+    /**
+     * Sorts records of the input tape into a single run.
+     * @param inputTapeID
+     * @return Sorted run. Its tape should be deleted with {@link ExternalSortService#deleteRun}, after it's been read.
+     */
+    public Run sort(UUID inputTapeID) throws InvalidAlgorithmParameterException {
+        if(this.memoryRecords < 2)
+            throw new IllegalStateException("Sort memory budget must fit at least 2 records.");
+
+        List<Run> runs = this.generateRuns(inputTapeID);
+        if(runs.isEmpty())
+            return this.writeRun(new Record[0], 0);
+
+        // Consecutive runs are merged, so records with repeated keys stay in the input order
+        int mergeFanIn = this.getMergeFanIn();
+        while(runs.size() > 1)
+        {
+            List<Run> mergedRuns = new ArrayList<>();
+            for(int first = 0; first < runs.size(); first += mergeFanIn)
+                mergedRuns.add(this.mergeRuns(runs.subList(first, Math.min(first + mergeFanIn, runs.size()))));
+            runs = mergedRuns;
+        }
+        return runs.get(0);
+    }
+
+    public void deleteRun(Run run)
+    {
+        recordService.resetBlockReading(run.getTapeID());
+        recordService.resetBlockWriting(run.getTapeID());
+        recordService.deleteTape(run.getTapeID());
+    }
+
+    /**
+     * Reads the input tape in chunks, which are sorted by the sort executor threads, and writes each sorted chunk as
+     * a run. Next chunks are read, while the previous ones are being sorted, but no more chunks than the sort threads
+     * wait for their sorting, so the memory budget is kept.
+     * @param inputTapeID
+     * @return Runs in the order of their chunks in the input tape.
+     */
+    private List<Run> generateRuns(UUID inputTapeID) throws InvalidAlgorithmParameterException {
+        int threads = Math.max(1, this.sortThreads);
+        // Chunks being sorted and the one being read share the memory budget
+        int chunkRecords = Math.max(1, this.memoryRecords / (threads + 1));
+        List<Run> runs = new ArrayList<>();
+        Deque<Future<Record[]>> sortedChunks = new ArrayDeque<>();
+        while(true)
+        {
+            List<Record> chunk = new ArrayList<>(chunkRecords);
+            Record record = recordService.readNextRecord(inputTapeID);
+            while(record != null)
+            {
+                chunk.add(record);
+                if(chunk.size() == chunkRecords)
+                    break;
+                record = recordService.readNextRecord(inputTapeID);
+            }
+
+            if(!chunk.isEmpty())
+            {
+                Record[] records = chunk.toArray(new Record[0]);
+                // Sorting is stable, so records with the same key stay in the input order
+                sortedChunks.add(this.sortExecutor.submit(() -> {
+                    Arrays.sort(records, Comparator.comparingLong(Record::getKey));
+                    return records;
+                }));
+            }
+
+            boolean lastChunk = chunk.size() < chunkRecords;
+            while(sortedChunks.size() >= threads || (lastChunk && !sortedChunks.isEmpty()))
+            {
+                Record[] sortedRecords = this.waitForChunk(sortedChunks.poll());
+                runs.add(this.writeRun(sortedRecords, sortedRecords.length));
+            }
+
+            if(lastChunk)
+                return runs;
+        }
+    }
+
+    private Record[] waitForChunk(Future<Record[]> sortedChunk)
+    {
+        try {
+            return sortedChunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Writes sorted records to a new run tape, without repeated keys.
+     * @param records
+     * @param count Number of records to write from the beginning of the array.
+     * @return
+     */
+    private Run writeRun(Record[] records, int count) throws InvalidAlgorithmParameterException {
+        UUID runTapeID = UUID.randomUUID();
+        recordService.createRunTape(runTapeID);
+        int written = 0;
+        for(int n = 0; n < count; n++)
+        {
+            if(n > 0 && records[n].getKey() == records[n - 1].getKey())
+                continue;
+
+            recordService.writeNextRecord(runTapeID, records[n]);
+            written++;
+        }
+        this.endRunWriting(runTapeID);
+        return Run.builder()
+                .tapeID(runTapeID)
+                .records(written)
+                .build();
+    }
+
+    /**
+     * Merges runs into a new one, always taking the record with the smallest key from the heads of the runs. The heads
+     * with equal keys are taken in the runs order, and only the first one of them is written.
+     * @param runs Runs to merge. They're deleted after merging.
+     * @return
+     */
+    private Run mergeRuns(List<Run> runs) throws InvalidAlgorithmParameterException {
+        if(runs.size() == 1)
+            return runs.get(0);
+
+        Record[] heads = new Record[runs.size()];
+        PriorityQueue<Integer> headsQueue = new PriorityQueue<>(runs.size(),
+                Comparator.<Integer>comparingLong(run -> heads[run].getKey()).thenComparingInt(run -> run));
+        for(int run = 0; run < runs.size(); run++)
+        {
+            heads[run] = recordService.readNextRecord(runs.get(run).getTapeID());
+            if(heads[run] != null)
+                headsQueue.add(run);
+        }
+
+        UUID mergedTapeID = UUID.randomUUID();
+        recordService.createRunTape(mergedTapeID);
+        int written = 0;
+        Record lastRecord = null;
+        while(!headsQueue.isEmpty())
+        {
+            int run = headsQueue.poll();
+            if(lastRecord == null || heads[run].getKey() != lastRecord.getKey()) {
+                lastRecord = heads[run];
+                recordService.writeNextRecord(mergedTapeID, lastRecord);
+                written++;
+            }
+
+            heads[run] = recordService.readNextRecord(runs.get(run).getTapeID());
+            if(heads[run] != null)
+                headsQueue.add(run);
+        }
+        this.endRunWriting(mergedTapeID);
+
+        for(Run mergedRun : runs)
+            this.deleteRun(mergedRun);
+
+        return Run.builder()
+                .tapeID(mergedTapeID)
+                .records(written)
+                .build();
+    }
+
+    private void endRunWriting(UUID runTapeID) throws InvalidAlgorithmParameterException {
+        recordService.endWriting(runTapeID);
+        recordService.resetBlockWriting(runTapeID);
+    }
+
+    /**
+     * Each merged run keeps one block in memory, and so does the run being written. Each of them also keeps its file
+     * open, so they're limited by the open files limit too (files of the written run and of the database are left
+     * open, so they aren't closed and opened again for every block).
+     * @return How many runs can be merged at once.
+     */
+    private int getMergeFanIn()
+    {
+        int recordSize = Record.builder().build().getSize();
+        int memoryBlocks = (int) Math.min(Integer.MAX_VALUE,
+                (long) this.memoryRecords * recordSize / recordService.getPageSize());
+        int openFiles = recordService.getMaxOpenFiles() - 3;
+        return Math.max(2, Math.min(memoryBlocks - 1, openFiles));
+    }
+}
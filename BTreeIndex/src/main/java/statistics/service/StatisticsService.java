@@ -1,6 +1,6 @@
 package statistics.service;
 
-import btree.service.BTreeService;
+import btree.service.IndexService;
 import data_file.service.DataService;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -20,7 +20,7 @@ import java.util.stream.Collectors;
 public class StatisticsService {
 
     private DataService dataService;
-    private BTreeService bTreeService;
+    private IndexService indexService;
 
     /**
      * In theory, TapeService could manage many tapes for different databases, so every StatisticsService should know
@@ -51,11 +51,11 @@ public class StatisticsService {
             return Statistics.builder()
                     .operation(0)
                     .type("STATE")
-                    .merges(bTreeService.getMerges())
-                    .splits(bTreeService.getSplits())
-                    .compensations(bTreeService.getCompensations())
-                    .tapeReads(bTreeService.getReads(tapeID))
-                    .tapeWrites(bTreeService.getWrites(tapeID))
+                    .merges(indexService.getMerges())
+                    .splits(indexService.getSplits())
+                    .compensations(indexService.getCompensations())
+                    .tapeReads(indexService.getReads(tapeID))
+                    .tapeWrites(indexService.getWrites(tapeID))
                     .build();
 
         if(tapeID == dataTapeID)
@@ -73,6 +73,26 @@ public class StatisticsService {
                 " This database consists from only these 2 tapes, so it doesn't have to know anything correctly about other tapes.");
     }
 
+    /**
+     * Saves statistics of an operation, which has just ended, as the next operation of both database tapes. The
+     * operation can be a single command or a longer use of the database, like iterating a range cursor.
+     * @param type
+     * @param indexStateBefore State of the index tape before the operation started.
+     * @param dataStateBefore State of the data tape before the operation started.
+     */
+    public void saveOperationStats(String type, Statistics indexStateBefore, Statistics dataStateBefore)
+    {
+        int operationNumber = this.getOperations(indexTapeID) + 1; // Operation number is the same for index and data tape
+        Statistics indexOperationStats = this.subtractStats(this.getCurrentState(indexTapeID), indexStateBefore);
+        Statistics dataOperationStats = this.subtractStats(this.getCurrentState(dataTapeID), dataStateBefore);
+        indexOperationStats.setOperation(operationNumber);
+        indexOperationStats.setType(type);
+        dataOperationStats.setOperation(operationNumber);
+        dataOperationStats.setType(type);
+        this.setOperationStats(indexTapeID, operationNumber, indexOperationStats);
+        this.setOperationStats(dataTapeID, operationNumber, dataOperationStats);
+    }
+
     public void setOperationStats(UUID tapeID, int number, Statistics stats)
     {
         if(tapeID == indexTapeID) {
@@ -203,7 +223,7 @@ public class StatisticsService {
     public int getTapePages(UUID tapeID)
     {
         if(tapeID == indexTapeID)
-            return bTreeService.getTapePages(tapeID);
+            return indexService.getTapePages(tapeID);
 
         if(tapeID == dataTapeID)
             return dataService.getTapePages(tapeID);
@@ -215,7 +235,7 @@ public class StatisticsService {
     public int getTapeFreePages(UUID tapeID)
     {
         if(tapeID == indexTapeID)
-            return this.bTreeService.getTapeFreePages(tapeID);
+            return this.indexService.getTapeFreePages(tapeID);
 
         if(tapeID == dataTapeID)
             return this.dataService.getTapeFreePages(tapeID);
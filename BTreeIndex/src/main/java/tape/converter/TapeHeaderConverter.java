@@ -0,0 +1,80 @@
+package tape.converter;
+
+import tape.entity.TapeHeader;
+
+import java.nio.ByteBuffer;
+
+public class TapeHeaderConverter {
+
+    /**
+     * Number identifying the header files ("TPHD").
+     */
+    private final int MAGIC = 0x54504844;
+
+    /**
+     * Version 2 - index nodes store number of their entries in the node header instead of a parent pointer.
+     * Version 3 - index structure type is saved in the header.
+     */
+    private final int VERSION = 3;
+
+    /**
+     *
+     * @param data
+     * @return Header read from bytes. Returning null indicates that the data isn't a header of a supported version or
+     * is truncated.
+     */
+    public TapeHeader bytesToHeader(byte[] data)
+    {
+        if(data == null || data.length < 4 + 4 + 8*4)
+            return null;
+
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if(buffer.getInt() != this.MAGIC || buffer.getInt() != this.VERSION)
+            return null;
+
+        TapeHeader header = TapeHeader.builder()
+                .blockSize(buffer.getInt())
+                .isIndexTape(buffer.getInt() != 0)
+                .freeSpaceGranule(buffer.getInt())
+                .rootPointer(buffer.getInt())
+                .degree(buffer.getInt())
+                .height(buffer.getInt())
+                .indexType(buffer.getInt())
+                .build();
+
+        int pages = buffer.getInt();
+        if(pages < 0 || buffer.remaining() != pages*4)
+            return null;
+
+        int[] freeSpace = new int[pages];
+        buffer.asIntBuffer().get(freeSpace);
+        header.setFreeSpace(freeSpace);
+        return header;
+    }
+
+    /**
+     *
+     * @param header
+     * @return Header converted to byte array. Returning null indicates that the given header was null.
+     */
+    public byte[] headerToBytes(TapeHeader header)
+    {
+        if(header == null)
+            return null;
+
+        int[] freeSpace = header.getFreeSpace() != null ? header.getFreeSpace() : new int[0];
+        ByteBuffer buffer = ByteBuffer.allocate(header.getSize())
+                .putInt(this.MAGIC)
+                .putInt(this.VERSION)
+                .putInt(header.getBlockSize())
+                .putInt(header.isIndexTape() ? 1 : 0)
+                .putInt(header.getFreeSpaceGranule())
+                .putInt(header.getRootPointer())
+                .putInt(header.getDegree())
+                .putInt(header.getHeight())
+                .putInt(header.getIndexType())
+                .putInt(freeSpace.length);
+        buffer.asIntBuffer().put(freeSpace);
+        return buffer.array();
+    }
+}
@@ -0,0 +1,194 @@
+package tape.entity;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Free space on each page of a tape file, kept in primitive arrays. Pages are divided into free space classes
+ * (free space / granule, rounded down), and for each class there is a bitmap of pages, which have at least that class
+ * - so the first page with enough free space is found by looking up the first set bit of a single bitmap, instead
+ * of checking all pages. Each bitmap has a summary bitmap of its non-zero words, to skip full regions of the file.
+ * <br></br><br></br>
+ * Lookup is exact, when all free space amounts differ by multiples of the granule (e.g. granule equal to the record
+ * size for data pages, which are filled with records of a constant size, or granule equal to the page size for index
+ * pages, which are either empty or taken by a node).
+ * <br></br><br></br>
+ * Each method is synchronized, so the map stays consistent. A lookup followed by taking up the found space has to be
+ * done under the allocation latch of the tape (see {@link tape.service.TapeService#getAllocationLatch}).
+ */
+public class FreeSpaceMap {
+
+    private final int pageSize;
+
+    private final int granule;
+
+    /**
+     * Free space amount of each page. Only the first {@code pages} values are used.
+     */
+    private int[] freeSpace = new int[16];
+
+    private int pages;
+
+    /**
+     * Bitmap of pages for each class, in which page bit is set, if the page free space class is at least equal
+     * to the bitmap class (class 0 has no bitmap, since all pages have at least class 0).
+     */
+    private final long[][] atLeastClass;
+
+    /**
+     * Bit of each bitmap word is set, if the word has any bit set.
+     */
+    private final long[][] atLeastClassSummary;
+
+    /**
+     * Number of pages, which are completely empty.
+     */
+    private int emptyPages;
+
+    public FreeSpaceMap(int pageSize, int granule)
+    {
+        if(pageSize <= 0 || granule <= 0)
+            throw new IllegalStateException("Page size and free space granule must be bigger than 0.");
+
+        this.pageSize = pageSize;
+        this.granule = granule;
+        int classes = pageSize / granule + 1;
+        this.atLeastClass = new long[classes][1];
+        this.atLeastClassSummary = new long[classes][1];
+    }
+
+    public synchronized int size()
+    {
+        return this.pages;
+    }
+
+    public synchronized int getEmptyPages()
+    {
+        return this.emptyPages;
+    }
+
+    public int getGranule()
+    {
+        return this.granule;
+    }
+
+    /**
+     * @return Copy of free space amounts of all pages, e.g. to save them in the tape header.
+     */
+    public synchronized int[] toArray()
+    {
+        return Arrays.copyOf(this.freeSpace, this.pages);
+    }
+
+    public synchronized int get(int page)
+    {
+        if(page < 0 || page >= this.pages)
+            throw new NoSuchElementException("The page, of which free space was requested, doesn't exist.");
+
+        return this.freeSpace[page];
+    }
+
+    public synchronized void set(int page, int amount)
+    {
+        if(page < 0 || page >= this.pages)
+            throw new NoSuchElementException("The page, of which free space was requested to set, doesn't exist.");
+
+        if(amount < 0 || amount > this.pageSize)
+            throw new IllegalStateException("Declared page free space must be between 0 and the page size.");
+
+        int oldAmount = this.freeSpace[page];
+        if(oldAmount == this.pageSize)
+            this.emptyPages--;
+        if(amount == this.pageSize)
+            this.emptyPages++;
+
+        int oldClass = this.classOf(oldAmount);
+        int newClass = this.classOf(amount);
+        for(int c = newClass + 1; c <= oldClass; c++)
+            this.clearBit(c, page);
+        for(int c = oldClass + 1; c <= newClass; c++)
+            this.setBit(c, page);
+
+        this.freeSpace[page] = amount;
+    }
+
+    /**
+     * Adds next page with the given free space amount.
+     * @param amount
+     */
+    public synchronized void addPage(int amount)
+    {
+        if(this.pages == this.freeSpace.length)
+            this.freeSpace = Arrays.copyOf(this.freeSpace, this.freeSpace.length * 2);
+
+        // Page is added as a full one, and its free space is set as any other change
+        this.freeSpace[this.pages] = 0;
+        this.pages++;
+        this.set(this.pages - 1, amount);
+    }
+
+    public synchronized void removeLastPage()
+    {
+        if(this.pages == 0)
+            throw new NoSuchElementException("There was no more pages to remove.");
+
+        this.set(this.pages - 1, 0);
+        this.pages--;
+    }
+
+    /**
+     * @param minFreeSpace
+     * @return Number of the first page with at least {@code minFreeSpace} bytes free, or -1, if there is no such page.
+     */
+    public synchronized int findPage(int minFreeSpace)
+    {
+        if(minFreeSpace <= 0)
+            return this.pages > 0 ? 0 : -1;
+
+        int c = (minFreeSpace + this.granule - 1) / this.granule;
+        if(c >= this.atLeastClass.length)
+            return -1;
+
+        long[] summary = this.atLeastClassSummary[c];
+        for(int summaryWord = 0; summaryWord < summary.length; summaryWord++)
+        {
+            if(summary[summaryWord] == 0)
+                continue;
+
+            int word = summaryWord * 64 + Long.numberOfTrailingZeros(summary[summaryWord]);
+            return word * 64 + Long.numberOfTrailingZeros(this.atLeastClass[c][word]);
+        }
+        return -1;
+    }
+
+    private int classOf(int amount)
+    {
+        return amount / this.granule;
+    }
+
+    private void setBit(int c, int page)
+    {
+        int word = page >>> 6;
+        if(word >= this.atLeastClass[c].length)
+        {
+            this.atLeastClass[c] = Arrays.copyOf(this.atLeastClass[c], Math.max(word + 1, this.atLeastClass[c].length * 2));
+            int summaryWords = (this.atLeastClass[c].length + 63) >>> 6;
+            if(summaryWords > this.atLeastClassSummary[c].length)
+                this.atLeastClassSummary[c] = Arrays.copyOf(this.atLeastClassSummary[c], summaryWords);
+        }
+
+        this.atLeastClass[c][word] |= 1L << page;
+        this.atLeastClassSummary[c][word >>> 6] |= 1L << word;
+    }
+
+    private void clearBit(int c, int page)
+    {
+        int word = page >>> 6;
+        if(word >= this.atLeastClass[c].length)
+            return;
+
+        this.atLeastClass[c][word] &= ~(1L << page);
+        if(this.atLeastClass[c][word] == 0)
+            this.atLeastClassSummary[c][word >>> 6] &= ~(1L << word);
+    }
+}
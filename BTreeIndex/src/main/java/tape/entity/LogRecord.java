@@ -0,0 +1,24 @@
+package tape.entity;
+
+import lombok.*;
+
+@Getter
+@Setter
+@Builder
+@ToString
+@EqualsAndHashCode
+@AllArgsConstructor
+public class LogRecord {
+
+    private LogRecordType type;
+
+    /**
+     * Position of the record in the log file.
+     */
+    private long position;
+
+    /**
+     * Record data. It isn't kept for page images (they're read from the log by position, when they're needed).
+     */
+    private byte[] payload;
+}
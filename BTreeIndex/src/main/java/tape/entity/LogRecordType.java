@@ -0,0 +1,51 @@
+package tape.entity;
+
+/**
+ * Types of records stored in the write-ahead log.
+ */
+public enum LogRecordType {
+
+    /**
+     * Operation on the database, appended by upper layers. It is replayed on recovery, if the database files weren't
+     * checkpointed after it.
+     */
+    OPERATION((byte) 1),
+
+    /**
+     * Image of a tape page, which was written between checkpoints (the tape file isn't modified until the next one).
+     */
+    PAGE((byte) 2),
+
+    /**
+     * List of pages images and tapes headers, which are copied to the tapes files by the checkpoint.
+     */
+    CHECKPOINT((byte) 3);
+
+    /**
+     * Value of the type saved in the log file.
+     */
+    private final byte code;
+
+    LogRecordType(byte code)
+    {
+        this.code = code;
+    }
+
+    public byte getCode()
+    {
+        return this.code;
+    }
+
+    /**
+     * @param code
+     * @return Record type of that code or null, if there is no such type.
+     */
+    public static LogRecordType fromCode(byte code)
+    {
+        for(LogRecordType type : LogRecordType.values())
+            if(type.getCode() == code)
+                return type;
+
+        return null;
+    }
+}
@@ -3,9 +3,8 @@ package tape.entity;
 import lombok.*;
 
 import java.io.File;
-import java.util.HashMap;
-import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
 
 @Getter
 @Setter
@@ -32,6 +31,12 @@ public class Tape {
      */
     private boolean isInputTape;
 
+    /**
+     * Field indicating a temporary input tape (e.g. a sorted run of records), which is written sequentially by the app
+     * itself, before it's read. It isn't a part of the database, so it has no header and is deleted after use.
+     */
+    private boolean isRunTape;
+
     /**
      * Field indicating type of the tape - index tape, where the b-tree structure resides, or data tape,
      * where the records data is stored. (There are only 2 tape types in this project, so no enum is needed.)
@@ -41,13 +46,27 @@ public class Tape {
     // Dynamic data
 
     /**
-     * <strong>Position in list</strong> - page nr <br></br>
-     * <strong>Value</strong> - how much free space is on this page <br></br><br></br>
-     * How much free space is left on each tape file page. Free space is all space on the page that is declared
-     * (by some upper layer manager objects) as not taken by some data. Data should be stored without gaps
-     * within the page, because only a sum of free space on that page is stored here (not all gaps and their positions).
+     * How much free space is left on each tape file page (its size is the tape pages count). Free space is all space
+     * on the page that is declared (by some upper layer manager objects) as not taken by some data. Data should be
+     * stored without gaps within the page, because only a sum of free space on that page is stored here (not all
+     * gaps and their positions).
+     */
+    private FreeSpaceMap freeSpaceMap;
+
+    /**
+     * B-tree metadata of index tapes (root node pointer, degree and height), set by upper layer manager objects, so it
+     * can be saved in the tape header.
+     */
+    private int rootPointer;
+
+    private int degree;
+
+    private int height;
+
+    /**
+     * Code of the index structure, which is stored on the index tape pages (its meaning is known only to upper layers).
      */
-    private List<Integer> freeSpaceOnEachPage;
+    private int indexType;
 
     /**
      * Max buffers amount for the tape. It can change during the runtime to allow allocating more or less buffers.
@@ -55,12 +74,20 @@ public class Tape {
     private int maxBuffers;
 
     /**
-     * Count of <strong>read</strong> operations done on the tape file.
+     * Max amount of pinned pages for the tape, which are buffered outside the {@link Tape#maxBuffers} limit.
+     */
+    private int maxPinnedBuffers;
+
+    /**
+     * Count of <strong>read</strong> operations done on the tape file. Pages of a tape can be read by many threads at
+     * the same time, so the counters are adders, which don't make the threads contend on a single field.
      */
-    private int reads;
+    @EqualsAndHashCode.Exclude
+    private final LongAdder reads = new LongAdder();
 
     /**
      * Count of <strong>write</strong> operations done on the tape file.
      */
-    private int writes;
+    @EqualsAndHashCode.Exclude
+    private final LongAdder writes = new LongAdder();
 }
@@ -0,0 +1,63 @@
+package tape.entity;
+
+import lombok.*;
+
+/**
+ * Metadata of a tape, saved in a header file next to the tape file, so an existing database can be opened again
+ * without rebuilding it. The header is rewritten each time the tape is flushed.
+ */
+@Getter
+@Setter
+@Builder
+@ToString
+@EqualsAndHashCode
+@AllArgsConstructor
+public class TapeHeader {
+
+    /**
+     * Size of the tape pages. Tape can be opened only with the same page size, as the one it was created with.
+     */
+    private int blockSize;
+
+    private boolean isIndexTape;
+
+    /**
+     * Free space granule of the tape {@link FreeSpaceMap}.
+     */
+    private int freeSpaceGranule;
+
+    /**
+     * Pointer to the root node (page + 1, or 0 if there is no root). Used only by index tapes.
+     */
+    private int rootPointer;
+
+    /**
+     * B-tree degree. Used only by index tapes.
+     */
+    private int degree;
+
+    /**
+     * B-tree height. Used only by index tapes.
+     */
+    private int height;
+
+    /**
+     * Code of the index structure stored on the tape pages. Used only by index tapes.
+     */
+    private int indexType;
+
+    /**
+     * Free space amount of each tape page (its length is the tape pages count).
+     */
+    private int[] freeSpace;
+
+    /**
+     * Calculates how many bytes the header takes up in its file.
+     * @return Size of the header data, calculated in bytes.
+     */
+    public int getSize()
+    {
+        // Magic number, version, 8 header fields and free space of each page
+        return 4 + 4 + 8*4 + (this.freeSpace != null ? this.freeSpace.length : 0)*4;
+    }
+}
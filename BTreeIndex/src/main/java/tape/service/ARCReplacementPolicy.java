@@ -0,0 +1,121 @@
+package tape.service;
+
+import java.util.LinkedHashSet;
+import java.util.function.IntPredicate;
+
+/**
+ * Adaptive replacement cache (ARC). Buffered pages are split between T1 (seen once recently) and T2 (seen at least
+ * twice) LRU lists. Numbers of pages freed from them are remembered in B1 and B2 history lists - loading a page again,
+ * that was remembered in one of them, moves the target size of T1 towards recency or frequency.
+ */
+public class ARCReplacementPolicy implements BufferReplacementPolicy {
+
+    private final LinkedHashSet<Integer> t1 = new LinkedHashSet<>();
+
+    private final LinkedHashSet<Integer> t2 = new LinkedHashSet<>();
+
+    private final LinkedHashSet<Integer> b1 = new LinkedHashSet<>();
+
+    private final LinkedHashSet<Integer> b2 = new LinkedHashSet<>();
+
+    /**
+     * Target size of the T1 list.
+     */
+    private int p;
+
+    private int capacity = 1;
+
+    /**
+     * Last accessed page. Repeated accesses to the same page (e.g. reading all entries of a node) are counted as one,
+     * so a page touched several times in a row by one operation isn't moved to T2.
+     */
+    private int lastAccessedPage = -1;
+
+    @Override
+    public synchronized void pageLoaded(int page)
+    {
+        if(this.t1.contains(page) || this.t2.contains(page)) {
+            this.pageAccessed(page);
+            return;
+        }
+
+        if(this.b1.contains(page)) {
+            this.p = Math.min(this.capacity, this.p + Math.max(this.b2.size() / this.b1.size(), 1));
+            this.b1.remove(page);
+            this.t2.add(page);
+        }
+        else if(this.b2.contains(page)) {
+            this.p = Math.max(0, this.p - Math.max(this.b1.size() / this.b2.size(), 1));
+            this.b2.remove(page);
+            this.t2.add(page);
+        }
+        else
+            this.t1.add(page);
+
+        this.lastAccessedPage = page;
+        this.trimHistory();
+    }
+
+    @Override
+    public synchronized void pageAccessed(int page)
+    {
+        if(page == this.lastAccessedPage)
+            return;
+
+        this.lastAccessedPage = page;
+        if(this.t1.remove(page) || this.t2.remove(page))
+            this.t2.add(page);
+    }
+
+    @Override
+    public synchronized void pageFreed(int page)
+    {
+        if(this.t1.remove(page))
+            this.b1.add(page);
+        else if(this.t2.remove(page))
+            this.b2.add(page);
+
+        if(page == this.lastAccessedPage)
+            this.lastAccessedPage = -1;
+
+        this.trimHistory();
+    }
+
+    @Override
+    public synchronized int choosePageToFree(int pageToLoad, IntPredicate canBeFreed)
+    {
+        boolean preferT1 = this.t1.size() > this.p || (this.b2.contains(pageToLoad) && this.t1.size() == this.p);
+        int pageToFree = this.findPageToFree(preferT1 ? this.t1 : this.t2, canBeFreed);
+        return pageToFree != -1 ? pageToFree : this.findPageToFree(preferT1 ? this.t2 : this.t1, canBeFreed);
+    }
+
+    private int findPageToFree(LinkedHashSet<Integer> pages, IntPredicate canBeFreed)
+    {
+        for(int page : pages)
+            if(canBeFreed.test(page))
+                return page;
+
+        return -1;
+    }
+
+    @Override
+    public synchronized void setCapacity(int capacity)
+    {
+        this.capacity = Math.max(1, capacity);
+        this.p = Math.min(this.p, this.capacity);
+        this.trimHistory();
+    }
+
+    /**
+     * Keeps the history lists within limits: T1 + B1 can't be bigger than capacity and all lists together can't be
+     * bigger than twice the capacity.
+     */
+    private void trimHistory()
+    {
+        while(this.t1.size() + this.b1.size() > this.capacity && !this.b1.isEmpty())
+            this.b1.remove(this.b1.iterator().next());
+
+        while(this.t1.size() + this.t2.size() + this.b1.size() + this.b2.size() > 2 * this.capacity && !this.b2.isEmpty())
+            this.b2.remove(this.b2.iterator().next());
+    }
+}
@@ -0,0 +1,64 @@
+package tape.service;
+
+import java.util.function.IntPredicate;
+
+/**
+ * Strategy of choosing which buffered page of a tape should be freed, when there is max count of buffers loaded
+ * for that tape. {@link TapeService} notifies the policy about every page being loaded to buffers, accessed while
+ * buffered or freed, so the policy can keep its own bookkeeping and choose a page to free in constant time.
+ * Each tape has its own policy object.
+ * <br></br><br></br>
+ * Buffered pages are accessed without the tape buffers latch, so implementations have to be thread safe (the ones
+ * of this app synchronize on the policy object).
+ */
+public interface BufferReplacementPolicy {
+
+    /**
+     * Page wasn't buffered and has just been loaded to buffers (read from tape or newly added).
+     * @param page
+     */
+    void pageLoaded(int page);
+
+    /**
+     * Page was already buffered and has been accessed again.
+     * @param page
+     */
+    void pageAccessed(int page);
+
+    /**
+     * Page buffer has been freed (chosen by this policy or freed explicitly by upper layers).
+     * @param page
+     */
+    void pageFreed(int page);
+
+    /**
+     * Chooses one of the buffered pages to be freed. There will always be chosen some page, unless there are no
+     * pages buffered. Page isn't forgotten by the policy until {@link BufferReplacementPolicy#pageFreed} is called.
+     * @param pageToLoad Page, which will be loaded next (some policies take it into account).
+     * @return Number of the buffered page, which should be freed.
+     */
+    default int choosePageToFree(int pageToLoad)
+    {
+        int pageToFree = this.choosePageToFree(pageToLoad, page -> true);
+        if(pageToFree == -1)
+            throw new IllegalStateException("There was no buffered pages for this tape. There was no page to choose to be freed.");
+
+        return pageToFree;
+    }
+
+    /**
+     * Chooses one of the buffered pages to be freed, like {@link BufferReplacementPolicy#choosePageToFree(int)}, but
+     * only among the pages accepted by the filter (e.g. pages, which aren't being used by other threads). Pages, which
+     * aren't accepted, are passed over, as if they weren't buffered.
+     * @param pageToLoad Page, which will be loaded next (some policies take it into account).
+     * @param canBeFreed
+     * @return Number of the buffered page, which should be freed, or -1, if no buffered page has been accepted.
+     */
+    int choosePageToFree(int pageToLoad, IntPredicate canBeFreed);
+
+    /**
+     * Sets how many pages can be buffered at a time (some policies size their internal lists with it).
+     * @param capacity
+     */
+    void setCapacity(int capacity);
+}
@@ -0,0 +1,80 @@
+package tape.service;
+
+/**
+ * Available buffer replacement policies, that can be chosen for tapes managed by {@link TapeService}.
+ */
+public enum BufferReplacementPolicyType {
+
+    /**
+     * Frees the buffered page, that lies in the tape furthest from the page that will be loaded next.
+     */
+    FURTHEST("FURTHEST"),
+
+    /**
+     * Frees the least recently used page.
+     */
+    LRU("LRU"),
+
+    /**
+     * Second chance algorithm - approximation of LRU with a reference bit for each buffer.
+     */
+    CLOCK("CLOCK"),
+
+    /**
+     * Two queues algorithm - pages accessed only once are kept in a separate FIFO queue, so they don't push out
+     * frequently used pages.
+     */
+    TWO_QUEUE("2Q"),
+
+    /**
+     * Adaptive replacement cache - balances between recently and frequently used pages, using history of freed pages.
+     */
+    ARC("ARC");
+
+    /**
+     * Name of the policy, which is used in user input.
+     */
+    private final String label;
+
+    BufferReplacementPolicyType(String label)
+    {
+        this.label = label;
+    }
+
+    public String getLabel()
+    {
+        return this.label;
+    }
+
+    public BufferReplacementPolicy createPolicy()
+    {
+        switch (this)
+        {
+            case FURTHEST:
+                return new FurthestPageReplacementPolicy();
+            case LRU:
+                return new LRUReplacementPolicy();
+            case CLOCK:
+                return new ClockReplacementPolicy();
+            case TWO_QUEUE:
+                return new TwoQueueReplacementPolicy();
+            case ARC:
+                return new ARCReplacementPolicy();
+            default:
+                throw new IllegalStateException("There is no implementation of this buffer replacement policy.");
+        }
+    }
+
+    /**
+     * @param label
+     * @return Policy type of that label (case insensitive) or null, if there is no such policy.
+     */
+    public static BufferReplacementPolicyType fromLabel(String label)
+    {
+        for(BufferReplacementPolicyType type : BufferReplacementPolicyType.values())
+            if(type.getLabel().equalsIgnoreCase(label))
+                return type;
+
+        return null;
+    }
+}
@@ -0,0 +1,101 @@
+package tape.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/**
+ * Second chance (CLOCK) algorithm. Buffered pages are kept in a circular list of slots, each with a reference bit,
+ * which is set on every access. The clock hand clears the bits it passes and stops at the first page without it.
+ */
+public class ClockReplacementPolicy implements BufferReplacementPolicy {
+
+    /**
+     * Page number in each slot, or -1, if the slot is empty.
+     */
+    private final List<Integer> slots = new ArrayList<>();
+
+    private final List<Boolean> referenced = new ArrayList<>();
+
+    /**
+     * Slot number of each buffered page.
+     */
+    private final Map<Integer, Integer> pagesSlots = new HashMap<>();
+
+    private final Deque<Integer> emptySlots = new ArrayDeque<>();
+
+    private int hand;
+
+    @Override
+    public synchronized void pageLoaded(int page)
+    {
+        if(this.pagesSlots.containsKey(page)) {
+            this.pageAccessed(page);
+            return;
+        }
+
+        Integer slot = this.emptySlots.poll();
+        if(slot == null) {
+            slot = this.slots.size();
+            this.slots.add(page);
+            this.referenced.add(true);
+        }
+        else {
+            this.slots.set(slot, page);
+            this.referenced.set(slot, true);
+        }
+        this.pagesSlots.put(page, slot);
+    }
+
+    @Override
+    public synchronized void pageAccessed(int page)
+    {
+        Integer slot = this.pagesSlots.get(page);
+        if(slot != null)
+            this.referenced.set(slot, true);
+    }
+
+    @Override
+    public synchronized void pageFreed(int page)
+    {
+        Integer slot = this.pagesSlots.remove(page);
+        if(slot == null)
+            return;
+
+        this.slots.set(slot, -1);
+        this.referenced.set(slot, false);
+        this.emptySlots.push(slot);
+    }
+
+    @Override
+    public synchronized int choosePageToFree(int pageToLoad, IntPredicate canBeFreed)
+    {
+        // Two rounds are enough - the first one clears all reference bits of the accepted pages
+        for(int n = 0; n < 2 * this.slots.size(); n++)
+        {
+            if(this.hand >= this.slots.size())
+                this.hand = 0;
+
+            int page = this.slots.get(this.hand);
+            if(page != -1 && canBeFreed.test(page)) {
+                if(!this.referenced.get(this.hand)) {
+                    this.hand++;
+                    return page;
+                }
+                this.referenced.set(this.hand, false);
+            }
+            this.hand++;
+        }
+        return -1;
+    }
+
+    @Override
+    public synchronized void setCapacity(int capacity)
+    {
+        // Slots are added as pages are loaded, so capacity doesn't have to be known in advance
+    }
+}
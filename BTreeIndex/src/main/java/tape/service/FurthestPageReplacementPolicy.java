@@ -0,0 +1,50 @@
+package tape.service;
+
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.IntPredicate;
+
+/**
+ * The original policy of this app - frees the buffered page, that lies in the tape furthest from the page that will
+ * be loaded next. It has to search all buffered pages on every choice, so it is not constant time like other policies.
+ */
+public class FurthestPageReplacementPolicy implements BufferReplacementPolicy {
+
+    private final Set<Integer> bufferedPages = new HashSet<>();
+
+    @Override
+    public synchronized void pageLoaded(int page)
+    {
+        this.bufferedPages.add(page);
+    }
+
+    @Override
+    public synchronized void pageAccessed(int page)
+    {
+        // Order of accesses doesn't matter for this policy
+    }
+
+    @Override
+    public synchronized void pageFreed(int page)
+    {
+        this.bufferedPages.remove(page);
+    }
+
+    @Override
+    public synchronized int choosePageToFree(int pageToLoad, IntPredicate canBeFreed)
+    {
+        Optional<Integer> furthestPage = this.bufferedPages.stream()
+                .filter(canBeFreed::test)
+                .max(Comparator.comparingInt(page -> Math.abs(page - pageToLoad)));
+
+        return furthestPage.orElse(-1);
+    }
+
+    @Override
+    public synchronized void setCapacity(int capacity)
+    {
+        // Capacity doesn't matter for this policy
+    }
+}
@@ -0,0 +1,51 @@
+package tape.service;
+
+import java.util.LinkedHashSet;
+import java.util.function.IntPredicate;
+
+/**
+ * Frees the least recently used page.
+ */
+public class LRUReplacementPolicy implements BufferReplacementPolicy {
+
+    /**
+     * Buffered pages ordered from the least to the most recently used.
+     */
+    private final LinkedHashSet<Integer> recencyOrder = new LinkedHashSet<>();
+
+    @Override
+    public synchronized void pageLoaded(int page)
+    {
+        this.recencyOrder.remove(page);
+        this.recencyOrder.add(page);
+    }
+
+    @Override
+    public synchronized void pageAccessed(int page)
+    {
+        if(this.recencyOrder.remove(page))
+            this.recencyOrder.add(page);
+    }
+
+    @Override
+    public synchronized void pageFreed(int page)
+    {
+        this.recencyOrder.remove(page);
+    }
+
+    @Override
+    public synchronized int choosePageToFree(int pageToLoad, IntPredicate canBeFreed)
+    {
+        for(int page : this.recencyOrder)
+            if(canBeFreed.test(page))
+                return page;
+
+        return -1;
+    }
+
+    @Override
+    public synchronized void setCapacity(int capacity)
+    {
+        // Capacity doesn't matter for this policy
+    }
+}
@@ -0,0 +1,58 @@
+package tape.service;
+
+/**
+ * Available policies of forcing the {@link WriteAheadLog} to disk, when an operation is committed.
+ */
+public enum LogSyncPolicy {
+
+    /**
+     * Log is forced after each operation, so no committed operation is lost on crash.
+     */
+    OPERATION("OPERATION"),
+
+    /**
+     * Group commit - a committed operation waits until the log is forced up to its records, like in the
+     * {@link LogSyncPolicy#OPERATION} policy, but operations committed while a force is running share the next single
+     * force. No committed operation is lost on crash.
+     */
+    GROUP("GROUP"),
+
+    /**
+     * Asynchronous commit - operation doesn't wait for the log to be forced. Log is forced at most once per interval,
+     * so operations committed within the last interval can be lost on crash.
+     */
+    ASYNC("ASYNC"),
+
+    /**
+     * Log is forced only at checkpoints - the OS decides, when it is written to disk.
+     */
+    NONE("NONE");
+
+    /**
+     * Name of the policy, which is used in user input.
+     */
+    private final String label;
+
+    LogSyncPolicy(String label)
+    {
+        this.label = label;
+    }
+
+    public String getLabel()
+    {
+        return this.label;
+    }
+
+    /**
+     * @param label
+     * @return Policy of that label (case insensitive) or null, if there is no such policy.
+     */
+    public static LogSyncPolicy fromLabel(String label)
+    {
+        for(LogSyncPolicy policy : LogSyncPolicy.values())
+            if(policy.getLabel().equalsIgnoreCase(label))
+                return policy;
+
+        return null;
+    }
+}
@@ -0,0 +1,196 @@
+package tape.service;
+
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * Fixed pool of page frames for the tapes buffers. All frames are slices of a single direct (off-heap) byte buffer,
+ * allocated once, when the arena is created. Frames are taken when a page is buffered and given back when the buffer
+ * is freed, so buffering pages doesn't allocate any memory on the heap.
+ * <br></br><br></br>
+ * Frames are shared by all tapes, so they're taken and given back under the arena monitor. A taken frame belongs to
+ * a single page of a tape, and its content is guarded by the page latch of that page.
+ */
+public class PageArena {
+
+    private final int frameSize;
+
+    /**
+     * Writable view of each frame, given to the tape service users. Its limit is equal to the length of the page data
+     * stored in the frame.
+     */
+    private final ByteBuffer[] frames;
+
+    /**
+     * Read-only view of each frame, with the same limit as the writable one.
+     */
+    private final ByteBuffer[] readOnlyFrames;
+
+    /**
+     * View of each frame used only for reading and writing the tape files, so file I/O doesn't change position and
+     * limit of the views given to users.
+     */
+    private final ByteBuffer[] ioFrames;
+
+    /**
+     * Numbers of frames, which aren't used by any buffered page, used as a stack.
+     */
+    private final int[] freeFrames;
+
+    private volatile int freeFramesCount;
+
+    /**
+     * Zeros used to clear frames.
+     */
+    private final byte[] emptyPage;
+
+    public PageArena(int framesCount, int frameSize)
+    {
+        if(framesCount < 0 || frameSize <= 0)
+            throw new IllegalStateException("Page arena must have 0 or more frames and the frame size must be bigger than 0.");
+
+        if((long) framesCount * frameSize > Integer.MAX_VALUE)
+            throw new IllegalStateException("Page arena is too big to be allocated as a single buffer.");
+
+        this.frameSize = frameSize;
+        this.frames = new ByteBuffer[framesCount];
+        this.readOnlyFrames = new ByteBuffer[framesCount];
+        this.ioFrames = new ByteBuffer[framesCount];
+        this.freeFrames = new int[framesCount];
+        this.emptyPage = new byte[frameSize];
+
+        ByteBuffer memory = ByteBuffer.allocateDirect(framesCount * frameSize);
+        for(int frame = 0; frame < framesCount; frame++)
+        {
+            memory.limit((frame + 1) * frameSize).position(frame * frameSize);
+            this.frames[frame] = memory.slice();
+            this.readOnlyFrames[frame] = this.frames[frame].asReadOnlyBuffer();
+            this.ioFrames[frame] = this.frames[frame].duplicate();
+            // Frames are given back in reverse order, so the first frames are taken first
+            this.freeFrames[framesCount - 1 - frame] = frame;
+        }
+        this.freeFramesCount = framesCount;
+    }
+
+    /**
+     * Takes a free frame. The frame content is undefined, until it is filled or cleared.
+     * @return Number of the taken frame.
+     */
+    public synchronized int allocateFrame()
+    {
+        if(this.freeFramesCount == 0)
+            throw new IllegalStateException("There are no free frames left in the page arena. Some buffer needs to be" +
+                    " freed first.");
+
+        int frame = this.freeFrames[--this.freeFramesCount];
+        this.setFrameLength(frame, this.frameSize);
+        return frame;
+    }
+
+    public synchronized void releaseFrame(int frame)
+    {
+        this.checkFrame(frame);
+        if(this.freeFramesCount == this.freeFrames.length)
+            throw new IllegalStateException("All frames of the page arena are free already. Frame couldn't be released.");
+
+        this.freeFrames[this.freeFramesCount++] = frame;
+    }
+
+    /**
+     * Fills the whole frame with zeros and sets its length to the frame size.
+     * @param frame
+     */
+    public void clearFrame(int frame)
+    {
+        ByteBuffer ioFrame = this.getIOFrame(frame);
+        ioFrame.put(this.emptyPage);
+        this.setFrameLength(frame, this.frameSize);
+    }
+
+    /**
+     * @param frame
+     * @return Writable view of the frame, with limit equal to the page data length. Only absolute get and put
+     * operations should be used on it, because the same view is returned on each call.
+     */
+    public ByteBuffer getFrame(int frame)
+    {
+        this.checkFrame(frame);
+        return this.frames[frame];
+    }
+
+    public ByteBuffer getReadOnlyFrame(int frame)
+    {
+        this.checkFrame(frame);
+        return this.readOnlyFrames[frame];
+    }
+
+    /**
+     * @param frame
+     * @return View of the whole frame with position 0, for reading the page data from file to the frame, or writing
+     * it from the frame to file.
+     */
+    public ByteBuffer getIOFrame(int frame)
+    {
+        this.checkFrame(frame);
+        return this.ioFrames[frame].clear();
+    }
+
+    /**
+     * Sets length of the page data stored in the frame (it is smaller than the frame size only if the page was the
+     * last, not full block of a file).
+     * @param frame
+     * @param length
+     */
+    public void setFrameLength(int frame, int length)
+    {
+        this.checkFrame(frame);
+        if(length < 0 || length > this.frameSize)
+            throw new IllegalStateException("Page data length must be between 0 and the frame size.");
+
+        this.frames[frame].limit(length);
+        this.readOnlyFrames[frame].limit(length);
+    }
+
+    public int getFrameLength(int frame)
+    {
+        this.checkFrame(frame);
+        return this.frames[frame].limit();
+    }
+
+    public int getFrameSize()
+    {
+        return this.frameSize;
+    }
+
+    public int getFrames()
+    {
+        return this.frames.length;
+    }
+
+    public int getFreeFrames()
+    {
+        return this.freeFramesCount;
+    }
+
+    /**
+     * @return Amount of off-heap memory allocated for the arena, in bytes.
+     */
+    public long getCapacityBytes()
+    {
+        return (long) this.frames.length * this.frameSize;
+    }
+
+    /**
+     * @return Amount of off-heap memory taken by buffered pages, in bytes.
+     */
+    public long getUsedBytes()
+    {
+        return (long) (this.frames.length - this.freeFramesCount) * this.frameSize;
+    }
+
+    private void checkFrame(int frame)
+    {
+        if(frame < 0 || frame >= this.frames.length)
+            throw new NoSuchElementException("Requested frame doesn't exist in the page arena.");
+    }
+}
@@ -0,0 +1,86 @@
+package tape.service;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Maps buffered pages of a single tape to frames of the {@link PageArena}. Pages are numbered from 0 and tapes are
+ * dense, so the frame of each page is kept in a plain array indexed by the page number (-1 means not buffered),
+ * which is grown only when the tape grows.
+ * <br></br><br></br>
+ * Pages are looked up without any lock - the array is atomic and a grown array is published only after it's filled,
+ * so a lookup sees either the old or the new frame of a page. Table is changed only by the holder of its tape buffers latch.
+ */
+public class PageFrameTable {
+
+    private volatile AtomicIntegerArray pagesFrames = new AtomicIntegerArray(0);
+
+    private volatile int bufferedPages;
+
+    /**
+     * @param page
+     * @return Frame of the page or -1, if the page isn't buffered.
+     */
+    public int getFrame(int page)
+    {
+        AtomicIntegerArray pagesFrames = this.pagesFrames;
+        if(page < 0 || page >= pagesFrames.length())
+            return -1;
+
+        return pagesFrames.get(page);
+    }
+
+    public boolean contains(int page)
+    {
+        return this.getFrame(page) != -1;
+    }
+
+    public void put(int page, int frame)
+    {
+        if(page < 0 || frame < 0)
+            throw new IllegalStateException("Page and frame numbers can't be negative.");
+
+        if(page >= this.pagesFrames.length())
+        {
+            AtomicIntegerArray oldPagesFrames = this.pagesFrames;
+            AtomicIntegerArray grownPagesFrames = new AtomicIntegerArray(Math.max(page + 1, oldPagesFrames.length() * 2));
+            for(int n = 0; n < grownPagesFrames.length(); n++)
+                grownPagesFrames.set(n, n < oldPagesFrames.length() ? oldPagesFrames.get(n) : -1);
+            this.pagesFrames = grownPagesFrames;
+        }
+
+        if(this.pagesFrames.getAndSet(page, frame) == -1)
+            this.bufferedPages++;
+    }
+
+    /**
+     * @param page
+     * @return Frame of the removed page or -1, if the page wasn't buffered.
+     */
+    public int remove(int page)
+    {
+        int frame = this.getFrame(page);
+        if(frame == -1)
+            return -1;
+
+        this.pagesFrames.set(page, -1);
+        this.bufferedPages--;
+        return frame;
+    }
+
+    public int size()
+    {
+        return this.bufferedPages;
+    }
+
+    public Set<Integer> getPages()
+    {
+        Set<Integer> pages = new HashSet<>();
+        AtomicIntegerArray pagesFrames = this.pagesFrames;
+        for(int page = 0; page < pagesFrames.length(); page++)
+            if(pagesFrames.get(page) != -1)
+                pages.add(page);
+        return pages;
+    }
+}
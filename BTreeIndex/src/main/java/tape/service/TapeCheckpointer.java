@@ -0,0 +1,161 @@
+package tape.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.ToString;
+import tape.converter.TapeHeaderConverter;
+import tape.entity.LogRecord;
+import tape.entity.LogRecordType;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Copies pages written since the last checkpoint from the write-ahead log to the tapes files. Checkpoint record, with
+ * the list of pages to copy and the new tapes headers, is appended to the log before the copying, so a checkpoint
+ * interrupted by a crash is redone from it on recovery.
+ * <br></br><br></br>
+ * Checkpoint record is saved as: tapes count (4 bytes) and for each tape - its ID (16 bytes), header length (4 bytes),
+ * header, pages count (4 bytes) and the number (4 bytes) and log position (8 bytes) of each page.
+ */
+@Builder
+@ToString
+@AllArgsConstructor
+public class TapeCheckpointer {
+
+    private final WriteAheadLog writeAheadLog;
+
+    private final TapeHeaderConverter tapeHeaderConverter;
+
+    /**
+     * Size of the tapes pages.
+     */
+    private final int pageSize;
+
+    /**
+     * Field indicating, that pages are being copied from the log to the tapes files, so they're written in place,
+     * instead of being appended to the log.
+     */
+    private volatile boolean checkpointing;
+
+    /**
+     * Appends checkpoint record of the tapes and copies their pages to the tapes files. Latches of all pages and
+     * buffers of the tapes must be held, and their modified buffered pages must be already appended to the log.
+     * @param tapeService
+     * @param ids
+     */
+    public void checkpoint(TapeService tapeService, List<UUID> ids)
+    {
+        List<byte[]> headers = new ArrayList<>();
+        List<Map<Integer, Long>> tapesPagesPositions = new ArrayList<>();
+        int size = 4;
+        for(UUID id : ids)
+        {
+            byte[] header = this.tapeHeaderConverter.headerToBytes(tapeService.createHeader(id));
+            Map<Integer, Long> pagesPositions = this.writeAheadLog.getPagesPositions(id);
+            headers.add(header);
+            tapesPagesPositions.add(pagesPositions);
+            size += 8 + 8 + 4 + header.length + 4 + pagesPositions.size() * (4 + 8);
+        }
+
+        ByteBuffer checkpoint = ByteBuffer.allocate(size).putInt(ids.size());
+        for(int i = 0; i < ids.size(); i++)
+        {
+            checkpoint.putLong(ids.get(i).getMostSignificantBits())
+                    .putLong(ids.get(i).getLeastSignificantBits())
+                    .putInt(headers.get(i).length)
+                    .put(headers.get(i))
+                    .putInt(tapesPagesPositions.get(i).size());
+            for(Map.Entry<Integer, Long> pagePosition : tapesPagesPositions.get(i).entrySet())
+                checkpoint.putInt(pagePosition.getKey()).putLong(pagePosition.getValue());
+        }
+
+        this.writeAheadLog.appendCheckpoint(checkpoint.array());
+        this.apply(tapeService, checkpoint.array(), false);
+    }
+
+    /**
+     * Redoes the last checkpoint found in the log, if there is any, and returns operations logged after it.
+     * @param tapeService
+     * @return Payloads of operations to replay, in the order they were appended.
+     */
+    public List<byte[]> recover(TapeService tapeService)
+    {
+        List<LogRecord> records = this.writeAheadLog.readRecords();
+        int lastCheckpoint = -1;
+        for(int i = 0; i < records.size(); i++)
+            if(records.get(i).getType() == LogRecordType.CHECKPOINT)
+                lastCheckpoint = i;
+
+        if(lastCheckpoint != -1)
+            this.apply(tapeService, records.get(lastCheckpoint).getPayload(), true);
+
+        List<byte[]> operations = records.subList(lastCheckpoint + 1, records.size()).stream()
+                .filter(record -> record.getType() == LogRecordType.OPERATION)
+                .map(LogRecord::getPayload)
+                .collect(Collectors.toList());
+
+        // Old records are needed only until the replayed operations are checkpointed
+        if(operations.isEmpty())
+            this.writeAheadLog.truncate();
+
+        return operations;
+    }
+
+    /**
+     * Copies pages listed in the checkpoint record from the log to the tapes files, saves the tapes headers from the
+     * record and empties the log.
+     * @param tapeService
+     * @param checkpoint
+     * @param restoreHeaders Whether the tapes state should be set to the one from the record headers (on recovery).
+     */
+    private void apply(TapeService tapeService, byte[] checkpoint, boolean restoreHeaders)
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(checkpoint);
+        ByteBuffer pageData = ByteBuffer.allocate(this.pageSize);
+        int tapesCount = buffer.getInt();
+        this.checkpointing = true;
+        try {
+            for(int i = 0; i < tapesCount; i++)
+            {
+                UUID id = new UUID(buffer.getLong(), buffer.getLong());
+                byte[] header = new byte[buffer.getInt()];
+                buffer.get(header);
+                if(!tapeService.isOpened(id))
+                    throw new IllegalStateException("Tape " + id + " from the log checkpoint isn't opened.");
+
+                if(restoreHeaders)
+                    tapeService.restoreHeader(id, this.tapeHeaderConverter.bytesToHeader(header));
+
+                int pages = buffer.getInt();
+                for(int n = 0; n < pages; n++)
+                {
+                    int page = buffer.getInt();
+                    pageData.clear();
+                    this.writeAheadLog.readPage(buffer.getLong(), pageData);
+                    pageData.flip();
+                    tapeService.writeBlock(id, (long) this.pageSize * page, pageData);
+                }
+
+                tapeService.forceTapeFile(id);
+                tapeService.writeHeader(id, header);
+            }
+        } finally {
+            this.checkpointing = false;
+        }
+
+        this.writeAheadLog.truncate();
+    }
+
+    /**
+     * @return Whether pages are being copied from the log to the tapes files at the moment.
+     */
+    public boolean isCheckpointing()
+    {
+        return this.checkpointing;
+    }
+}
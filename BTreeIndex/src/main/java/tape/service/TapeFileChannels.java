@@ -0,0 +1,168 @@
+package tape.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.ToString;
+import tape.entity.Tape;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Open file channels of the tapes, kept between page reads and writes, so the tape file doesn't have to be opened
+ * and closed on every single page I/O. Channel is taken with {@link TapeFileChannels#acquire} and given back with
+ * {@link TapeFileChannels#release} after each I/O, so a channel, which is being used by any thread, is never closed
+ * to make room for another one.
+ */
+@Builder
+@ToString
+@AllArgsConstructor
+public class TapeFileChannels {
+
+    /**
+     * Max number of tape files, that can be kept open at the same time. If more tapes are used (e.g. when many
+     * databases are managed by this service), the least recently used channel is closed and reopened when needed.
+     * Channels in use aren't closed, so the limit can be exceeded for a while.
+     */
+    private final int maxOpenFiles;
+
+    /**
+     * Open channels of the tapes, ordered from the least to the most recently used one. Channels of all tapes are kept
+     * in this single map, so it (and the users counts) is accessed only under its monitor.
+     */
+    private final LinkedHashMap<UUID, FileChannel> tapesFileChannels = new LinkedHashMap<>();
+
+    /**
+     * Number of I/O operations using the channel of each tape at the moment. Tapes without any are left out.
+     */
+    private final Map<UUID, Integer> tapesChannelUsers = new HashMap<>();
+
+    /**
+     * Returns open file channel of the tape and marks it as the most recently used one. If the channel was closed
+     * (because of the open files limit), it is reopened. The channel isn't closed to make room for another one, until
+     * it is released.
+     * @param tape
+     * @return
+     */
+    public FileChannel acquire(Tape tape)
+    {
+        synchronized(this.tapesFileChannels)
+        {
+            FileChannel channel = this.tapesFileChannels.remove(tape.getId());
+            if(channel == null || !channel.isOpen())
+                channel = this.open(tape);
+
+            this.tapesFileChannels.put(tape.getId(), channel);
+            this.tapesChannelUsers.merge(tape.getId(), 1, Integer::sum);
+            return channel;
+        }
+    }
+
+    /**
+     * Gives back the channel taken with {@link TapeFileChannels#acquire}.
+     * @param id
+     */
+    public void release(UUID id)
+    {
+        synchronized(this.tapesFileChannels)
+        {
+            this.tapesChannelUsers.computeIfPresent(id, (tapeID, users) -> users > 1 ? users - 1 : null);
+        }
+    }
+
+    /**
+     * Opens file channel of the tape file (read only for input tape). If there is max count of files opened already,
+     * the least recently used channels, which aren't being used, are closed first.
+     * @param tape
+     * @return
+     */
+    private FileChannel open(Tape tape)
+    {
+        if(this.maxOpenFiles <= 0)
+            throw new IllegalStateException("Max open files limit must be bigger than 0, so any tape file could be opened.");
+
+        Iterator<Map.Entry<UUID, FileChannel>> channels = this.tapesFileChannels.entrySet().iterator();
+        while(this.tapesFileChannels.size() >= this.maxOpenFiles && channels.hasNext())
+        {
+            Map.Entry<UUID, FileChannel> channel = channels.next();
+            if(this.tapesChannelUsers.containsKey(channel.getKey()))
+                continue;
+
+            channels.remove();
+            this.closeChannel(channel.getValue());
+        }
+
+        try {
+            return tape.isInputTape() && !tape.isRunTape()
+                    ? FileChannel.open(tape.getFile().toPath(), StandardOpenOption.READ)
+                    : FileChannel.open(tape.getFile().toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Closes channel of the tape, e.g. when the tape is removed. It is closed even if it is being used, so it should
+     * be called only when the tape isn't used anymore.
+     * @param id
+     */
+    public void close(UUID id)
+    {
+        FileChannel channel;
+        synchronized(this.tapesFileChannels)
+        {
+            channel = this.tapesFileChannels.remove(id);
+            this.tapesChannelUsers.remove(id);
+        }
+        if(channel != null)
+            this.closeChannel(channel);
+    }
+
+    public void closeAll()
+    {
+        synchronized(this.tapesFileChannels)
+        {
+            for(UUID id : new ArrayList<>(this.tapesFileChannels.keySet()))
+                this.close(id);
+        }
+    }
+
+    private void closeChannel(FileChannel channel)
+    {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads single block from the file channel.
+     * @param channel
+     * @param off
+     * @param target Buffer with at least {@code blockSize} bytes remaining.
+     * @param blockSize
+     * @return Number of bytes read, 0 if there was no data at this position.
+     * @throws IOException
+     */
+    public static int readBlock(FileChannel channel, long off, ByteBuffer target, int blockSize) throws IOException
+    {
+        int read = 0;
+        while(read < blockSize)
+        {
+            int n = channel.read(target, off + read);
+            if(n == -1)
+                break;
+            read += n;
+        }
+        return read;
+    }
+
+    public int getMaxOpenFiles()
+    {
+        return this.maxOpenFiles;
+    }
+}
@@ -0,0 +1,140 @@
+package tape.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.ToString;
+import tape.entity.Tape;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Memory-mapped regions of the tapes files, through which tapes are accessed in memory-mapped mode, instead of reading
+ * and writing pages with file channel operations. Each region starts at the beginning of the file and covers all tape
+ * pages. A region stays valid after the channel, which mapped it, is closed, so it is kept until the tape is closed.
+ */
+@Builder
+@ToString
+@AllArgsConstructor
+public class TapeMappedRegions {
+
+    private final TapeFileChannels fileChannels;
+
+    /**
+     * Size of the tapes pages.
+     */
+    private final int pageSize;
+
+    /**
+     * By how many pages a mapped region of a tape file is grown, when a tape is extended beyond its current mapping.
+     */
+    private final int mappedChunkPages;
+
+    private final Map<UUID, MappedByteBuffer> tapesMappedRegions = new ConcurrentHashMap<>();
+
+    /**
+     * Pages of each tape, which have been read from its mapped region since it was mapped. Page served straight from
+     * the region is counted as a read only the first time it is touched - later it is in the OS page cache, like
+     * a buffered page.
+     */
+    private final Map<UUID, Set<Integer>> tapesMappedTouchedPages = new ConcurrentHashMap<>();
+
+    /**
+     * Returns a slice of the tape mapped region, which covers the requested page. The region is remapped (grown by
+     * {@link TapeMappedRegions#mappedChunkPages} pages at a time), if it doesn't cover the page yet. The tape buffers
+     * latch must be held, so the region isn't remapped by two threads at once.
+     * @param tape
+     * @param page
+     * @return
+     */
+    public ByteBuffer getPage(Tape tape, int page)
+    {
+        MappedByteBuffer region = this.tapesMappedRegions.get(tape.getId());
+        long pageEnd = (long) this.pageSize * (page + 1);
+        if(region == null || region.capacity() < pageEnd)
+        {
+            if(this.mappedChunkPages <= 0)
+                throw new IllegalStateException("Mapped chunk size must be bigger than 0 pages, so tape could be mapped.");
+
+            long chunks = (page / this.mappedChunkPages) + 1;
+            long size = chunks * this.mappedChunkPages * this.pageSize;
+            if(size > Integer.MAX_VALUE)
+                throw new IllegalStateException("Tape file is too big to be mapped as a single region.");
+
+            FileChannel channel = this.fileChannels.acquire(tape);
+            try {
+                region = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                this.fileChannels.release(tape.getId());
+            }
+            this.tapesMappedRegions.put(tape.getId(), region);
+        }
+
+        ByteBuffer pageBuffer = region.duplicate();
+        pageBuffer.position(this.pageSize * page).limit((int) pageEnd);
+        return pageBuffer.slice();
+    }
+
+    /**
+     * Marks the page as read from the mapped region.
+     * @param id
+     * @param page
+     * @return Whether it is the first time the page is read (so it should be counted as a read).
+     */
+    public boolean touchPage(UUID id, int page)
+    {
+        return this.tapesMappedTouchedPages.computeIfAbsent(id, tapeID -> ConcurrentHashMap.newKeySet()).add(page);
+    }
+
+    /**
+     * Forgets, that the page was read, e.g. when it is removed from the tape.
+     * @param id
+     * @param page
+     */
+    public void forgetPage(UUID id, int page)
+    {
+        Set<Integer> mappedTouchedPages = this.tapesMappedTouchedPages.get(id);
+        if(mappedTouchedPages != null)
+            mappedTouchedPages.remove(page);
+    }
+
+    /**
+     * Forces changes made through the mapped region of the tape to its file.
+     * @param id
+     * @return Whether the tape has a mapped region.
+     */
+    public boolean force(UUID id)
+    {
+        MappedByteBuffer region = this.tapesMappedRegions.get(id);
+        if(region == null)
+            return false;
+
+        region.force();
+        return true;
+    }
+
+    /**
+     * Forces and forgets the mapped region of the tape. The region covers whole chunks, so the file may have to be
+     * shrunk back to the real pages count afterwards.
+     * @param id
+     * @return Whether the tape had a mapped region.
+     */
+    public boolean unmap(UUID id)
+    {
+        MappedByteBuffer region = this.tapesMappedRegions.remove(id);
+        this.tapesMappedTouchedPages.remove(id);
+        if(region == null)
+            return false;
+
+        region.force();
+        return true;
+    }
+}
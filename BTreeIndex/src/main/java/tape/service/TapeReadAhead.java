@@ -0,0 +1,219 @@
+package tape.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.ToString;
+import tape.entity.Tape;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Reads pages of the tapes ahead in the background, when sequential reading of a tape is detected or upper layers
+ * hint which pages they will read next. Pages are only read to fresh arrays - the tape service moves them to buffers,
+ * when they're requested.
+ */
+@Builder
+@ToString
+@AllArgsConstructor
+public class TapeReadAhead {
+
+    private final TapeFileChannels fileChannels;
+
+    /**
+     * Size of the tapes pages.
+     */
+    private final int pageSize;
+
+    /**
+     * How many pages ahead are read. 0 turns read-ahead off.
+     */
+    private final int readAheadPages;
+
+    /**
+     * Background threads, which read pages ahead. Null turns read-ahead off.
+     */
+    private final ExecutorService readAheadExecutor;
+
+    /**
+     * Pages of each tape, which are being read or were read ahead and haven't been requested yet. They're kept
+     * outside the buffers (at most {@link TapeReadAhead#readAheadPages} for each tape), and are moved to buffers
+     * when requested. Pages are kept sorted, so the lowest one is forgotten, when there are too many of them.
+     */
+    private final Map<UUID, ConcurrentSkipListMap<Integer, Future<byte[]>>> tapesReadAheadBlocks = new ConcurrentHashMap<>();
+
+    /**
+     * Last page of each tape, which had to be loaded to buffers, and how many pages have been loaded in
+     * sequential order before it. Used to detect sequential reading.
+     */
+    private final Map<UUID, Integer> tapesLastLoadedPage = new ConcurrentHashMap<>();
+
+    private final Map<UUID, Integer> tapesSequentialLoads = new ConcurrentHashMap<>();
+
+    /**
+     * @return Whether pages can be read ahead.
+     */
+    public boolean isEnabled()
+    {
+        return this.readAheadPages > 0 && this.readAheadExecutor != null;
+    }
+
+    /**
+     * Starts reading the page in the background, if it isn't read ahead already and it is written in the tape file.
+     * The caller checks, that the page isn't buffered, and holds the tape buffers latch.
+     * @param tape
+     * @param page
+     * @return Whether reading the page has been started.
+     */
+    public boolean readAhead(Tape tape, int page)
+    {
+        ConcurrentSkipListMap<Integer, Future<byte[]>> readAheadBlocks = this.getReadAheadBlocks(tape.getId());
+        if(!this.isEnabled() || page < 0 || readAheadBlocks.containsKey(page))
+            return false;
+
+        long off = (long) this.pageSize * page;
+        FileChannel channel = this.fileChannels.acquire(tape);
+        try {
+            if(off >= channel.size())
+                return false;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            this.fileChannels.release(tape.getId());
+        }
+
+        // Forget the lowest page read ahead, if there are too many of them waiting
+        if(readAheadBlocks.size() >= this.readAheadPages) {
+            Map.Entry<Integer, Future<byte[]>> lowestPage = readAheadBlocks.pollFirstEntry();
+            if(lowestPage != null)
+                lowestPage.getValue().cancel(false);
+        }
+
+        // Channel is taken only for the read itself, so a cancelled read doesn't keep it from being closed
+        readAheadBlocks.put(page, this.readAheadExecutor.submit(() -> {
+            FileChannel readChannel = this.fileChannels.acquire(tape);
+            try {
+                byte[] data = new byte[this.pageSize];
+                int read = TapeFileChannels.readBlock(readChannel, off, ByteBuffer.wrap(data), this.pageSize);
+                if(read == 0)
+                    return null;
+
+                if(read < data.length) {
+                    byte[] smallerChunk = new byte[read];
+                    System.arraycopy(data, 0, smallerChunk, 0, read);
+                    data = smallerChunk;
+                }
+                return data;
+            } finally {
+                this.fileChannels.release(tape.getId());
+            }
+        }));
+        return true;
+    }
+
+    /**
+     * Takes the page data read ahead, if it has been requested to be read ahead. Waits for the read to finish,
+     * if it is still in progress.
+     * @param id
+     * @param page
+     * @return Page data or null, if the page wasn't read ahead (or reading it failed).
+     */
+    public byte[] take(UUID id, int page)
+    {
+        Future<byte[]> readAheadBlock = this.getReadAheadBlocks(id).remove(page);
+        if(readAheadBlock == null)
+            return null;
+
+        try {
+            return readAheadBlock.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            // E.g. the tape has been removed in the meantime - the page will be read again normally
+            return null;
+        }
+    }
+
+    /**
+     * Counts pages loaded to buffers in sequential order.
+     * @param id
+     * @param page
+     * @return Whether there were at least 3 pages loaded in a row, so next pages should be read ahead.
+     */
+    public boolean isSequential(UUID id, int page)
+    {
+        Integer lastLoadedPage = this.tapesLastLoadedPage.get(id);
+        int sequentialLoads = (lastLoadedPage != null && lastLoadedPage + 1 == page)
+                ? this.tapesSequentialLoads.getOrDefault(id, 0) + 1
+                : 0;
+        this.tapesLastLoadedPage.put(id, page);
+        this.tapesSequentialLoads.put(id, sequentialLoads);
+
+        return sequentialLoads >= 2;
+    }
+
+    /**
+     * Cancels reading the page, e.g. because it is written, so the data read ahead would be outdated.
+     * @param id
+     * @param page
+     */
+    public void cancel(UUID id, int page)
+    {
+        Future<byte[]> readAheadBlock = this.getReadAheadBlocks(id).remove(page);
+        if(readAheadBlock != null)
+            readAheadBlock.cancel(false);
+    }
+
+    public void cancelAll(UUID id)
+    {
+        ConcurrentSkipListMap<Integer, Future<byte[]>> readAheadBlocks = this.tapesReadAheadBlocks.get(id);
+        if(readAheadBlocks == null)
+            return;
+
+        for(Future<byte[]> readAheadBlock : readAheadBlocks.values())
+            readAheadBlock.cancel(false);
+        readAheadBlocks.clear();
+    }
+
+    /**
+     * Cancels reading pages of the tape and forgets its state, when the tape is removed.
+     * @param id
+     */
+    public void remove(UUID id)
+    {
+        this.cancelAll(id);
+        this.tapesReadAheadBlocks.remove(id);
+        this.tapesLastLoadedPage.remove(id);
+        this.tapesSequentialLoads.remove(id);
+    }
+
+    /**
+     * Cancels reading pages of all tapes and stops the background threads.
+     */
+    public void shutdown()
+    {
+        for(UUID id : this.tapesReadAheadBlocks.keySet())
+            this.cancelAll(id);
+        if(this.readAheadExecutor != null)
+            this.readAheadExecutor.shutdownNow();
+    }
+
+    public int getReadAheadPages()
+    {
+        return this.readAheadPages;
+    }
+
+    private ConcurrentSkipListMap<Integer, Future<byte[]>> getReadAheadBlocks(UUID id)
+    {
+        return this.tapesReadAheadBlocks.computeIfAbsent(id, tapeID -> new ConcurrentSkipListMap<>());
+    }
+}
@@ -4,14 +4,26 @@ import data_generator.FilesUtility;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.ToString;
+import tape.converter.TapeHeaderConverter;
+import tape.entity.FreeSpaceMap;
 import tape.entity.Tape;
+import tape.entity.TapeHeader;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.InvalidAlgorithmParameterException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 @Builder
@@ -20,7 +32,8 @@ import java.util.stream.Collectors;
 public class TapeService {
 
     /**
-     * All tapes used in algorithm and the input tape.
+     * All tapes used in algorithm and the input tape. This and other maps of tapes state should be concurrent maps,
+     * since tapes are registered and used by many threads.
      */
     private Map<UUID, Tape> tapes;
 
@@ -57,14 +70,122 @@ public class TapeService {
     private FilesUtility filesUtility;
 
     /**
-     * Currently buffered blocks (disk pages) of tapes, with numbers of pages.
+     * Converter of the tapes headers, which are saved next to the tapes files, so the tapes can be opened again.
      */
-    private HashMap<UUID, HashMap<Integer, byte[]>> tapesBufferedBlocks;
+    private TapeHeaderConverter tapeHeaderConverter;
+
+    /**
+     * Pool of off-heap frames, in which buffered blocks (disk pages) of all tapes are stored.
+     */
+    private PageArena pageArena;
+
+    /**
+     * Frames of currently buffered blocks (disk pages) of tapes, by numbers of pages.
+     */
+    private Map<UUID, PageFrameTable> tapesPageFrames;
+
+    /**
+     * Pinned pages of each tape. They're buffered in frames of the page arena like other pages, but outside the tape
+     * buffers limit and replacement policy, so they're never chosen to be freed (e.g. upper levels of a b-tree).
+     * Their number is limited separately, by the tape pinned buffers limit. Sets are concurrent, since they're checked
+     * without the tape buffers latch.
+     */
+    private Map<UUID, Set<Integer>> tapesPinnedPages;
+
+    /**
+     * Field indicating whether buffered pages are written to tape only when they're freed or flushed (write-back),
+     * instead of on every page write (write-through). Repeated writes of the same buffered page are then coalesced
+     * into one tape write.
+     */
+    private final boolean writeBack;
+
+    /**
+     * Numbers of buffered pages of each tape, which were modified and haven't been written to tape yet. Sets are
+     * concurrent, since pages are marked as modified only under their page latches.
+     */
+    private Map<UUID, Set<Integer>> tapesDirtyBlocks;
+
+    /**
+     * Pages read ahead in the background, when sequential reading of a tape is detected or upper layers hint which
+     * pages they will read next. Buffers are updated only by the caller thread, when a read-ahead page is requested.
+     */
+    private TapeReadAhead tapeReadAhead;
+
+    /**
+     * Policy used for choosing which buffered page of a tape should be freed, when the tape buffers are full.
+     */
+    private final BufferReplacementPolicyType replacementPolicy;
+
+    /**
+     * Replacement policy object of each tape, which keeps track of the tape buffered pages.
+     */
+    private Map<UUID, BufferReplacementPolicy> tapesReplacementPolicies;
 
     /**
      * Information whether sequential reading reached End of file on each tape.
      */
-    private HashMap<UUID, Boolean> isEOF;
+    private Map<UUID, Boolean> isEOF;
+
+    /**
+     * Open file channels of the tapes, shared with the mapped regions and the read-ahead, which use the tape files too.
+     */
+    private TapeFileChannels fileChannels;
+
+    /**
+     * Memory-mapped regions of the tapes files. Null turns memory-mapped mode off - pages are then read and written
+     * with file channel operations. The input tape is never mapped.
+     */
+    private TapeMappedRegions mappedRegions;
+
+    /**
+     * Redo log of the tapes (except the input tape). If it is set, tapes files are modified only by checkpoints and
+     * pages written between them are kept in the log. Null turns logging off - pages are then written in place.
+     */
+    private WriteAheadLog writeAheadLog;
+
+    /**
+     * Copies pages from the log to the tapes files on checkpoints and recovery. It is set together with the log and
+     * shares it.
+     */
+    private TapeCheckpointer checkpointer;
+
+    /**
+     * Number of latches of the pages of each tape. Page is guarded by the latch number (page % PAGE_LATCH_STRIPES), so
+     * different pages of the same tape are used in parallel, while the number of latches doesn't grow with the tape.
+     */
+    public static final int PAGE_LATCH_STRIPES = 64;
+
+    /**
+     * Latches of the pages of each tape. A buffered page isn't freed, while its latch is held by another thread, so
+     * the latch holder reads and modifies the page frame directly, without the tape buffers latch. Page operations of
+     * this service latch the page themselves, and upper layers hold the latch for the whole sequence of calls, which
+     * reads and modifies the page. Latches are reentrant, and a thread holding more of them takes them in ascending
+     * order, index tape latches before data tape latches.
+     */
+    private final Map<UUID, ReentrantLock[]> tapesPageLatches = new ConcurrentHashMap<>();
+
+    /**
+     * Latch of the buffers of each tape (its page frames table, replacement policy, pinned and read-ahead pages) and of
+     * its file. It is held only inside this service, for the time of loading a page (together with freeing a buffer for
+     * it), freeing, pinning, adding or removing a page and tape file I/O. It is always taken after page latches, and
+     * its holder never waits for a page latch - a buffer is freed only for a page, which latch can be taken at once.
+     */
+    private final Map<UUID, ReentrantLock> tapesLatches = new ConcurrentHashMap<>();
+
+    /**
+     * Latch of the free space map of each tape, held by upper layers for the whole sequence of finding a page with
+     * enough free space (or adding a new page) and taking the space, so two threads don't take the same space. It is
+     * taken before page latches.
+     */
+    private final Map<UUID, ReentrantLock> tapesAllocationLatches = new ConcurrentHashMap<>();
+
+    /**
+     * Listeners notified with the tape ID and page number of each page, which buffer is freed (evicted, freed on
+     * request, removed with its page or released together with all buffers of the tape), so upper layers drop
+     * whatever they've decoded from the buffer. They're called under the page latch and the tape buffers latch, so
+     * they mustn't use the tape.
+     */
+    private final List<BiConsumer<UUID, Integer>> bufferFreedListeners = new CopyOnWriteArrayList<>();
 
 
     // CRUD operations on tapes (in particular, on the data files)
@@ -88,7 +209,7 @@ public class TapeService {
     public UUID getInputTapeID()
     {
         Optional<Tape> inputTape = this.tapes.values().stream()
-                .filter(Tape::isInputTape)
+                .filter(tape -> tape.isInputTape() && !tape.isRunTape())
                 .findFirst();
         if(inputTape.isEmpty())
             throw new NoSuchElementException();
@@ -118,7 +239,25 @@ public class TapeService {
                 .filter(id -> !this.isIndexTape(id) && !this.isInputTape(id))
                 .collect(Collectors.toSet());
     }
+    /**
+     * Creates a tape with an empty file. Free space of index tape pages is tracked only as empty or taken pages,
+     * since each node takes up a whole page.
+     * @param id
+     * @param isIndexTape
+     */
     public void create(UUID id, boolean isIndexTape)
+    {
+        this.create(id, isIndexTape, this.BLOCK_SIZE);
+    }
+
+    /**
+     * Creates a tape with an empty file.
+     * @param id
+     * @param isIndexTape
+     * @param freeSpaceGranule Unit of the data stored on the tape pages (e.g. record size) - free space lookup is exact
+     *                         for data stored in multiples of this unit.
+     */
+    public void create(UUID id, boolean isIndexTape, int freeSpaceGranule)
     {
         filesUtility.createDirs(Path.of(filesPath));
         File emptyFile = filesUtility.createFile(Path.of(filesPath,filesBaseName +"_"+ id.toString() + ".dat"));
@@ -127,17 +266,256 @@ public class TapeService {
                 .file(emptyFile)
                 .isInputTape(false)
                 .isIndexTape(isIndexTape)
-                .freeSpaceOnEachPage(new ArrayList<>())
+                .freeSpaceMap(new FreeSpaceMap(this.BLOCK_SIZE, freeSpaceGranule))
+                .maxBuffers(0)
+                .maxPinnedBuffers(0)
+                .build();
+
+        this.registerTape(tape);
+    }
+
+    /**
+     * Opens a tape, which was created in a previous app run. Its pages count, free space of each page and index
+     * metadata are restored from the tape header, so the tape file doesn't have to be read.
+     * @param id
+     */
+    public void open(UUID id)
+    {
+        if(this.tapes.containsKey(id))
+            throw new IllegalStateException("Tape with this ID is already opened.");
+
+        File file = Path.of(this.filesPath, this.filesBaseName + "_" + id.toString() + ".dat").toFile();
+        if(!file.isFile())
+            throw new NoSuchElementException("Tape file " + file + " doesn't exist.");
+
+        TapeHeader header = this.readHeader(id);
+        if(header.getBlockSize() != this.BLOCK_SIZE)
+            throw new IllegalStateException("Tape " + id + " was created with page size " + header.getBlockSize() +
+                    ", but the tapes are opened with page size " + this.BLOCK_SIZE + ".");
+
+        // With the log, pages beyond the header could only be left by a checkpoint interrupted by a crash, which will
+        // be redone from the log
+        long headerLength = (long) this.BLOCK_SIZE * header.getFreeSpace().length;
+        if(file.length() > headerLength && this.writeAheadLog == null)
+            throw new IllegalStateException("Tape file " + file + " has more pages than its header - the header is" +
+                    " older than the file, so the tape can't be opened.");
+
+        if(file.length() > headerLength) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(headerLength);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        Tape tape = Tape.builder()
+                .id(id)
+                .file(file)
+                .isInputTape(false)
+                .isIndexTape(header.isIndexTape())
                 .maxBuffers(0)
-                .reads(0)
-                .writes(0)
+                .maxPinnedBuffers(0)
+                .build();
+        this.restoreHeader(tape, header);
+
+        this.registerTape(tape);
+    }
+
+    /**
+     * Sets state of the opened tape to the one from the header (e.g. from a log checkpoint record on recovery).
+     * @param id
+     * @param header
+     */
+    void restoreHeader(UUID id, TapeHeader header)
+    {
+        Tape tape = this.tapes.get(id);
+        if(tape == null)
+            throw new NoSuchElementException();
+
+        this.restoreHeader(tape, header);
+    }
+
+    /**
+     * Sets pages count, free space of each page and index metadata of the tape to the ones from the header.
+     * @param tape
+     * @param header
+     */
+    private void restoreHeader(Tape tape, TapeHeader header)
+    {
+        FreeSpaceMap freeSpaceMap = new FreeSpaceMap(this.BLOCK_SIZE, header.getFreeSpaceGranule());
+        for(int amount : header.getFreeSpace())
+            freeSpaceMap.addPage(amount);
+
+        tape.setFreeSpaceMap(freeSpaceMap);
+        tape.setRootPointer(header.getRootPointer());
+        tape.setDegree(header.getDegree());
+        tape.setHeight(header.getHeight());
+        tape.setIndexType(header.getIndexType());
+    }
+
+    /**
+     * Reads header of a tape saved in the tapes directory.
+     * @param id
+     * @return
+     */
+    public TapeHeader readHeader(UUID id)
+    {
+        Path headerPath = this.getHeaderPath(id);
+        byte[] data;
+        try {
+            data = Files.readAllBytes(headerPath);
+        } catch (IOException e) {
+            throw new NoSuchElementException("Header of the tape " + id + " couldn't be read from " + headerPath + ".");
+        }
+
+        TapeHeader header = this.tapeHeaderConverter.bytesToHeader(data);
+        if(header == null)
+            throw new IllegalStateException("Header file " + headerPath + " is corrupted or of unsupported version.");
+
+        return header;
+    }
+
+    /**
+     * Returns IDs of all tapes, which have a header saved in the tapes directory (so they can be opened).
+     * @return
+     */
+    public Set<UUID> findStoredTapesIDs()
+    {
+        File[] files = Path.of(this.filesPath).toFile().listFiles();
+        if(files == null)
+            return new HashSet<>();
+
+        String prefix = this.filesBaseName + "_";
+        Set<UUID> ids = new HashSet<>();
+        for(File file : files)
+        {
+            String name = file.getName();
+            if(!name.startsWith(prefix) || !name.endsWith(".hdr"))
+                continue;
+
+            try {
+                ids.add(UUID.fromString(name.substring(prefix.length(), name.length() - ".hdr".length())));
+            } catch (IllegalArgumentException e) {
+                // Not a tape header
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Saves header of the tape. It is written to a temporary file first and then moved in place of the old header,
+     * so the header file always contains a complete header.
+     * @param id
+     */
+    private void writeHeader(UUID id)
+    {
+        this.writeHeader(id, this.tapeHeaderConverter.headerToBytes(this.createHeader(id)));
+    }
+
+    void writeHeader(UUID id, byte[] header)
+    {
+        this.writeWhole(this.getHeaderPath(id), header);
+    }
+
+    /**
+     * Writes the file to a temporary file first and then moves it in place of the old one, so the file always has
+     * complete contents.
+     * @param path
+     * @param data
+     */
+    private void writeWhole(Path path, byte[] data)
+    {
+        Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            Files.write(temporaryPath, data);
+            Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Saves a key filter of the tape in a file next to the tape file, replacing the previously saved one.
+     * @param id
+     * @param filter
+     */
+    public void writeKeyFilter(UUID id, byte[] filter)
+    {
+        if(!this.tapes.containsKey(id))
+            throw new NoSuchElementException();
+
+        this.writeWhole(this.getKeyFilterPath(id), filter);
+    }
+
+    /**
+     * @param id
+     * @return Key filter saved for the tape or null, if there is none.
+     */
+    public byte[] readKeyFilter(UUID id)
+    {
+        Path keyFilterPath = this.getKeyFilterPath(id);
+        if(!Files.isRegularFile(keyFilterPath))
+            return null;
+
+        try {
+            return Files.readAllBytes(keyFilterPath);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public void deleteKeyFilter(UUID id)
+    {
+        filesUtility.deleteFile(this.getKeyFilterPath(id));
+    }
+
+    TapeHeader createHeader(UUID id)
+    {
+        Tape tape = this.tapes.get(id);
+        if(tape == null)
+            throw new NoSuchElementException();
+
+        return TapeHeader.builder()
+                .blockSize(this.BLOCK_SIZE)
+                .isIndexTape(tape.isIndexTape())
+                .freeSpaceGranule(tape.getFreeSpaceMap().getGranule())
+                .rootPointer(tape.getRootPointer())
+                .degree(tape.getDegree())
+                .height(tape.getHeight())
+                .indexType(tape.getIndexType())
+                .freeSpace(tape.getFreeSpaceMap().toArray())
                 .build();
+    }
 
+    private Path getHeaderPath(UUID id)
+    {
+        return Path.of(this.filesPath, this.filesBaseName + "_" + id.toString() + ".hdr");
+    }
+
+    private Path getRunTapePath(UUID id)
+    {
+        return Path.of(this.filesPath, this.filesBaseName + "_run_" + id.toString() + ".dat");
+    }
+
+    private Path getKeyFilterPath(UUID id)
+    {
+        return Path.of(this.filesPath, this.filesBaseName + "_" + id.toString() + ".flt");
+    }
+
+    private void registerTape(Tape tape)
+    {
         this.tapes.put(tape.getId(), tape);
         this.tapesCurrentReadBlock.put(tape.getId(), 0);
         this.tapesCurrentWriteBlock.put(tape.getId(), 0);
-        this.tapesBufferedBlocks.put(tape.getId(), new HashMap<>());
+        this.tapesPageFrames.put(tape.getId(), new PageFrameTable());
+        this.tapesPinnedPages.put(tape.getId(), ConcurrentHashMap.newKeySet());
+        BufferReplacementPolicy policy = this.replacementPolicy.createPolicy();
+        policy.setCapacity(tape.getMaxBuffers());
+        this.tapesReplacementPolicies.put(tape.getId(), policy);
+        this.tapesDirtyBlocks.put(tape.getId(), ConcurrentHashMap.newKeySet());
         this.isEOF.put(tape.getId(), false);
+        this.fileChannels.acquire(tape);
+        this.fileChannels.release(tape.getId());
     }
 
     // Special create method, only to create input tape
@@ -148,17 +526,109 @@ public class TapeService {
                 .file(file)
                 .isInputTape(true)
                 .isIndexTape(false)
-                .freeSpaceOnEachPage(new ArrayList<>())
+                .freeSpaceMap(new FreeSpaceMap(this.BLOCK_SIZE, this.BLOCK_SIZE))
+                .maxBuffers(0)
+                .maxPinnedBuffers(0)
+                .build();
+
+        this.registerTape(inputTape);
+    }
+
+    /**
+     * Creates a run tape with an empty file - a temporary input tape, which is written sequentially with
+     * {@link TapeService#writeNextBlock} and then read with {@link TapeService#readNextBlock}, both straight from its
+     * file, without buffers. It should be removed with {@link TapeService#delete}, after it's been read.
+     * @param id
+     */
+    public void createRunTape(UUID id)
+    {
+        filesUtility.createDirs(Path.of(filesPath));
+        this.registerRunTape(id, filesUtility.createFile(this.getRunTapePath(id)));
+    }
+
+    /**
+     * Opens a run tape, which was written in a previous app run and kept (e.g. as a sorted run of an LSM index). Like
+     * a created run tape, it is read straight from its file.
+     * @param id
+     */
+    public void openRunTape(UUID id)
+    {
+        if(this.tapes.containsKey(id))
+            throw new IllegalStateException("Tape with this ID is already opened.");
+
+        File file = this.getRunTapePath(id).toFile();
+        if(!file.isFile())
+            throw new NoSuchElementException("Run tape file " + file + " doesn't exist.");
+
+        this.registerRunTape(id, file);
+    }
+
+    /**
+     * Returns IDs of all run tapes, which have a file in the tapes directory, including the ones, which aren't opened.
+     * @return
+     */
+    public Set<UUID> findStoredRunTapesIDs()
+    {
+        File[] files = Path.of(this.filesPath).toFile().listFiles();
+        if(files == null)
+            return new HashSet<>();
+
+        String prefix = this.filesBaseName + "_run_";
+        Set<UUID> ids = new HashSet<>();
+        for(File file : files)
+        {
+            String name = file.getName();
+            if(!name.startsWith(prefix) || !name.endsWith(".dat"))
+                continue;
+
+            try {
+                ids.add(UUID.fromString(name.substring(prefix.length(), name.length() - ".dat".length())));
+            } catch (IllegalArgumentException e) {
+                // Not a run tape file
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Forces the run tape file to disk. Run tapes aren't logged or checkpointed, so a run, which is going to be listed
+     * in a saved file (e.g. the manifest of an LSM index), has to be forced first - it would be found incomplete
+     * after a crash otherwise.
+     * @param id
+     */
+    public void forceRunTape(UUID id)
+    {
+        Tape tape = this.tapes.get(id);
+        if(tape == null)
+            throw new NoSuchElementException();
+
+        if(!tape.isRunTape())
+            throw new IllegalStateException("Only a run tape is forced on its own - other tapes are forced by checkpoints.");
+
+        FileChannel channel = this.fileChannels.acquire(tape);
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            this.fileChannels.release(id);
+        }
+    }
+
+    private void registerRunTape(UUID id, File file)
+    {
+        Tape runTape = Tape.builder()
+                .id(id)
+                .file(file)
+                .isInputTape(true)
+                .isRunTape(true)
+                .isIndexTape(false)
+                .freeSpaceMap(new FreeSpaceMap(this.BLOCK_SIZE, this.BLOCK_SIZE))
                 .maxBuffers(0)
-                .reads(0)
-                .writes(0)
+                .maxPinnedBuffers(0)
                 .build();
 
-        this.tapes.put(inputTape.getId(), inputTape);
-        this.tapesCurrentReadBlock.put(inputTape.getId(), 0);
-        this.tapesCurrentWriteBlock.put(inputTape.getId(), 0);
-        this.tapesBufferedBlocks.put(inputTape.getId(), new HashMap<>());
-        this.isEOF.put(inputTape.getId(), false);
+        this.registerTape(runTape);
     }
 
     /** Special delete method, only to remove input tape object without deleting the input file from disk
@@ -166,14 +636,37 @@ public class TapeService {
      */
     public void removeInputTape()
     {
-        Tape tape = this.tapes.remove(this.getInputTapeID());
+        this.removeInputTape(this.getInputTapeID());
+    }
+
+    /**
+     * Removes the input tape object without deleting the input file from disk, when more input tapes are registered.
+     * @param id
+     */
+    public void removeInputTape(UUID id)
+    {
+        if(!this.isInputTape(id))
+            throw new IllegalStateException("Only an input tape can be removed without deleting its file.");
+
+        Tape tape = this.tapes.remove(id);
         if(tape == null)
             throw new NoSuchElementException();
 
+        // Read-ahead is cancelled first, so it doesn't reopen the closed channel
+        this.tapeReadAhead.remove(tape.getId());
+        this.closeFileChannel(tape.getId());
+
         this.tapesCurrentReadBlock.remove(tape.getId(), 0);
         this.tapesCurrentWriteBlock.remove(tape.getId(), 0);
-        this.tapesBufferedBlocks.remove(tape.getId());
+        this.releaseFrames(tape.getId());
+        this.tapesPageFrames.remove(tape.getId());
+        this.tapesPinnedPages.remove(tape.getId());
+        this.tapesReplacementPolicies.remove(tape.getId());
+        this.tapesDirtyBlocks.remove(tape.getId());
         this.isEOF.remove(tape.getId());
+        this.tapesLatches.remove(tape.getId());
+        this.tapesPageLatches.remove(tape.getId());
+        this.tapesAllocationLatches.remove(tape.getId());
     }
 
     public void delete(UUID id)
@@ -182,15 +675,30 @@ public class TapeService {
         if(tape == null)
             throw new NoSuchElementException();
 
+        // Read-ahead is cancelled first, so it doesn't reopen the closed channel
+        this.tapeReadAhead.remove(tape.getId());
+        this.closeFileChannel(tape.getId());
+
         this.tapesCurrentReadBlock.remove(tape.getId(), 0);
         this.tapesCurrentWriteBlock.remove(tape.getId(), 0);
-        this.tapesBufferedBlocks.remove(tape.getId());
+        this.releaseFrames(tape.getId());
+        this.tapesPageFrames.remove(tape.getId());
+        this.tapesPinnedPages.remove(tape.getId());
+        this.tapesReplacementPolicies.remove(tape.getId());
+        this.tapesDirtyBlocks.remove(tape.getId());
         this.isEOF.remove(tape.getId());
+        this.tapesLatches.remove(tape.getId());
+        this.tapesPageLatches.remove(tape.getId());
+        this.tapesAllocationLatches.remove(tape.getId());
+        if(this.writeAheadLog != null)
+            this.writeAheadLog.removePages(tape.getId());
 
         if(tape.getFile() == null)
             throw new NoSuchElementException("File in tape was null.");
 
         filesUtility.deleteFile(tape.getFile().toPath());
+        filesUtility.deleteFile(this.getHeaderPath(tape.getId()));
+        filesUtility.deleteFile(this.getKeyFilterPath(tape.getId()));
     }
 
     public void clear(UUID id)
@@ -199,16 +707,38 @@ public class TapeService {
         if(tape == null)
             throw new NoSuchElementException();
 
-        try (RandomAccessFile raf = new RandomAccessFile(tape.getFile(), "rw")){
-            raf.setLength(0);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        this.latchAllPages(id);
+        Lock bufferLatch = this.getBufferLatch(id);
+        bufferLatch.lock();
+        try {
+            if(this.mappedRegions != null)
+                this.mappedRegions.unmap(tape.getId());
+            FileChannel channel = this.fileChannels.acquire(tape);
+            try {
+                channel.truncate(0);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                this.fileChannels.release(tape.getId());
+            }
 
-        this.tapesCurrentReadBlock.put(tape.getId(), 0);
-        this.tapesCurrentWriteBlock.put(tape.getId(), 0);
-        this.tapesBufferedBlocks.remove(tape.getId());
-        this.isEOF.remove(tape.getId());
+            this.tapesCurrentReadBlock.put(tape.getId(), 0);
+            this.tapesCurrentWriteBlock.put(tape.getId(), 0);
+            this.releaseFrames(tape.getId());
+            this.tapesPageFrames.put(tape.getId(), new PageFrameTable());
+            this.tapesPinnedPages.put(tape.getId(), ConcurrentHashMap.newKeySet());
+            BufferReplacementPolicy policy = this.replacementPolicy.createPolicy();
+            policy.setCapacity(tape.getMaxBuffers());
+            this.tapesReplacementPolicies.put(tape.getId(), policy);
+            this.tapesDirtyBlocks.put(tape.getId(), ConcurrentHashMap.newKeySet());
+            this.tapeReadAhead.cancelAll(tape.getId());
+            this.isEOF.put(tape.getId(), false);
+            if(this.writeAheadLog != null)
+                this.writeAheadLog.removePages(tape.getId());
+        } finally {
+            bufferLatch.unlock();
+            this.unlatchAllPages(id);
+        }
     }
 
     public void copyTapeFile(UUID id, String path, String fileName)
@@ -232,38 +762,86 @@ public class TapeService {
      * @return Byte array with data read from the tape file
      */
     public byte[] readBlock(UUID id, long off)
+    {
+        byte[] data = new byte[this.BLOCK_SIZE];
+        int read = this.readBlock(id, off, ByteBuffer.wrap(data));
+        return this.trimBlock(data, read);
+    }
+
+    /**
+     * Reads single block from file to the byte buffer (e.g. a page frame), starting at its position.
+     * @param id
+     * @param off
+     * @param target Buffer with at least {@link TapeService#BLOCK_SIZE} bytes remaining.
+     * @return Number of bytes read, 0 if there was no data at this position.
+     */
+    private int readBlock(UUID id, long off, ByteBuffer target)
     {
         Tape tape = this.tapes.get(id);
         if(tape == null)
             throw new NoSuchElementException();
 
-        try (RandomAccessFile raf = new RandomAccessFile(tape.getFile(), "r")){
-            byte[] data = new byte[this.BLOCK_SIZE];
-            raf.seek(off);
-            int read = raf.read(data);
-
-            if(read == -1)
-                return null;
-
-            if(read < this.BLOCK_SIZE)
-            {
-                byte[] smallerChunk = new byte[read];
-                System.arraycopy(data, 0, smallerChunk, 0, read);
-                data = smallerChunk;
+        // Page written since the last checkpoint is read from the log, since the tape file has its older version
+        if(this.isLogged(id) && off % this.BLOCK_SIZE == 0)
+        {
+            int read = this.writeAheadLog.readPage(id, (int) (off / this.BLOCK_SIZE), target);
+            if(read != -1) {
+                if(read > 0)
+                    this.incReads(tape.getId());
+                return read;
             }
+        }
 
-            this.incReads(tape.getId());
-            return data;
+        if(this.isMapped(id))
+        {
+            if(off >= (long) this.BLOCK_SIZE * this.getPages(id))
+                return 0;
+
+            // Page copied from the mapped region to a buffer is counted like a page served straight from the region
+            target.put(this.mappedRegions.getPage(tape, (int) (off / this.BLOCK_SIZE)));
+            if(this.mappedRegions.touchPage(id, (int) (off / this.BLOCK_SIZE)))
+                this.incReads(tape.getId());
+            return this.BLOCK_SIZE;
+        }
+
+        FileChannel channel = this.fileChannels.acquire(tape);
+        try {
+            int read = TapeFileChannels.readBlock(channel, off, target, this.BLOCK_SIZE);
+            if(read > 0)
+                this.incReads(tape.getId());
+            return read;
 
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            this.fileChannels.release(tape.getId());
         }
     }
 
     /**
-     * Reads tape file sequentially (block by block or, in other words, chunk by chunk)
-     * controlling the current position in file with {@link TapeService#tapesCurrentReadBlock} field.
-     * <strong>This method is updated from its first version to use (read) buffered blocks, if they are loaded.</strong>
+     * @param data
+     * @param read
+     * @return Null, if no data was read, the same array, if it was filled, or its smaller copy otherwise.
+     */
+    private byte[] trimBlock(byte[] data, int read)
+    {
+        if(read == 0)
+            return null;
+
+        if(read < data.length)
+        {
+            byte[] smallerChunk = new byte[read];
+            System.arraycopy(data, 0, smallerChunk, 0, read);
+            data = smallerChunk;
+        }
+
+        return data;
+    }
+
+    /**
+     * Reads tape file sequentially (block by block or, in other words, chunk by chunk)
+     * controlling the current position in file with {@link TapeService#tapesCurrentReadBlock} field.
+     * <strong>This method is updated from its first version to use (read) buffered blocks, if they are loaded.</strong>
      * @param id
      * @return Byte array with data read from the tape file.
      * (Maybe of size of the {@link TapeService#BLOCK_SIZE} or smaller, if it is the last chunk of data in file)
@@ -275,10 +853,26 @@ public class TapeService {
         if(tape == null)
             throw new NoSuchElementException();
 
-        byte[] data = this.readPage(id, tapesCurrentReadBlock.get(tape.getId()));
+        int page = tapesCurrentReadBlock.get(tape.getId());
+        byte[] data;
+        if(tape.isInputTape())
+        {
+            // Input tapes have no buffers and their pages aren't counted, so they're streamed straight from their files
+            Lock bufferLatch = this.getBufferLatch(id);
+            bufferLatch.lock();
+            try {
+                data = this.readBlock(id, (long) this.BLOCK_SIZE * page);
+            } finally {
+                bufferLatch.unlock();
+            }
+        }
+        else
+            data = this.readPage(id, page);
 
         if(data == null)
             this.isEOF.put(id, true);
+        else if(!tape.isInputTape())
+            this.readAhead(id, page + 1, this.tapeReadAhead.getReadAheadPages());
 
         if(data != null)
             this.tapesCurrentReadBlock.put(tape.getId(), tapesCurrentReadBlock.get(tape.getId()) + 1);
@@ -286,240 +880,1148 @@ public class TapeService {
         return data;
     }
 
+    /**
+     * Loads the page to buffers, if it isn't loaded, and returns a copy of its data. Changes made to the copy have to
+     * be written with {@link TapeService#writePage(UUID, int, byte[], int)}.
+     * @param id
+     * @param page
+     * @return
+     */
     public byte[] readPage(UUID id, int page)
+    {
+        Lock pageLatch = this.getPageLatch(id, page);
+        pageLatch.lock();
+        try {
+            int frame = this.loadPage(id, page);
+            ByteBuffer frameBuffer = this.pageArena.getIOFrame(frame);
+            frameBuffer.limit(this.pageArena.getFrameLength(frame));
+            byte[] data = new byte[frameBuffer.remaining()];
+            frameBuffer.get(data);
+            return data;
+        } finally {
+            pageLatch.unlock();
+        }
+    }
+
+    /**
+     * Loads the page to buffers, if it isn't loaded, and returns writable view of its buffer. Changes made to the view
+     * are made directly in the buffered page, and they're saved to the tape file with
+     * {@link TapeService#writePage(UUID, int)}. The page latch must be held by the caller, for as long as the view
+     * is used, since the buffer is given to another page after the page is freed.
+     * @param id
+     * @param page
+     * @return Byte buffer with limit equal to the page data length. Only absolute get and put operations should be
+     * used on it, because the same view is returned on each call.
+     */
+    public ByteBuffer readPageBuffer(UUID id, int page)
+    {
+        this.checkPageLatch(id, page);
+        return this.pageArena.getFrame(this.loadPage(id, page));
+    }
+
+    /**
+     * Returns read-only view of the page data, without copying it. If the page is buffered, the view is backed by the
+     * buffer (which may contain not yet saved changes). If it isn't and the tape is memory-mapped, the view is backed
+     * directly by the mapped region of the file, so no buffer is taken up (the OS page cache works as a buffer then,
+     * and the page is counted as read only the first time it is touched). Otherwise, the page is loaded to buffers, as in {@link TapeService#readPage}.
+     * The page latch must be held by the caller, for as long as the view is used.
+     * @param id
+     * @param page
+     * @return Byte buffer with limit equal to the page data length. Only absolute get operations should be used on it.
+     */
+    public ByteBuffer readPageView(UUID id, int page)
     {
         Tape tape = this.tapes.get(id);
         if(tape == null)
             throw new NoSuchElementException();
 
-        if(page < 0)
+        this.checkPageLatch(id, page);
+        if(page < 0 || page >= this.getPages(id))
             throw new NoSuchElementException("Requested page to read doesn't exist.");
 
-        if(this.isMaxBuffers(id) && !this.getBufferedPages(id).contains(page))
-            throw new IllegalStateException("There is max count of buffers loaded for this tape already." +
-                    " Some buffer needs to be freed first.");
+        int frame = this.tapesPageFrames.get(id).getFrame(page);
+        if(frame != -1) {
+            this.tapesReplacementPolicies.get(id).pageAccessed(page);
+            return this.pageArena.getReadOnlyFrame(frame);
+        }
 
-        HashMap<Integer, byte[]> tapeBufferedBlocks = this.tapesBufferedBlocks.get(id);
-        if(tapeBufferedBlocks == null)
-            throw new NoSuchElementException("Something went wrong. Requested tape exists, but its buffers hashmap" +
-                    " hasn't been initialized.");
+        if(this.isMapped(id) && !this.isLoggedPage(id, page)) {
+            Lock bufferLatch = this.getBufferLatch(id);
+            bufferLatch.lock();
+            try {
+                if(this.mappedRegions.touchPage(id, page))
+                    this.incReads(id);
+                return this.mappedRegions.getPage(tape, page).asReadOnlyBuffer();
+            } finally {
+                bufferLatch.unlock();
+            }
+        }
 
-        byte[] bufferedBlock = tapeBufferedBlocks.get(page);
-        byte[] data = null;
-        if(bufferedBlock != null)
-            data = bufferedBlock;
-        else
-            data = this.readBlock(id, (long) this.BLOCK_SIZE * page);
+        return this.pageArena.getReadOnlyFrame(this.loadPage(id, page));
+    }
+
+    /**
+     * Loads the page to a free frame of the page arena, if it isn't buffered yet.
+     * @param id
+     * @param page
+     * @return Frame of the buffered page.
+     */
+    private int loadPage(UUID id, int page)
+    {
+        return this.loadPage(id, page, false);
+    }
 
-        if(page >= this.getPages(id)) {
-            if (data != null)
-                throw new IllegalStateException("This page shouldn't exist (taking in account the counter), but reading from" +
-                        " file returned data (which means End of file hasn't been reached). File is larger than pages count.");
-            
+    /**
+     * Loads the page to a free frame of the page arena, if it isn't buffered yet. If the tape buffers are full, one of
+     * them is freed first. Page latch must be held by the caller, so only buffered page is read without the tape
+     * buffers latch - it can't be freed by another thread.
+     * @param id
+     * @param page
+     * @param pin Whether the loaded page should be pinned, instead of taking up one of the tape buffers.
+     * @return Frame of the buffered page.
+     */
+    private int loadPage(UUID id, int page, boolean pin)
+    {
+        Tape tape = this.tapes.get(id);
+        if(tape == null)
+            throw new NoSuchElementException();
+
+        if(page < 0)
             throw new NoSuchElementException("Requested page to read doesn't exist.");
+
+        PageFrameTable tapePageFrames = this.tapesPageFrames.get(id);
+        if(tapePageFrames == null)
+            throw new NoSuchElementException("Something went wrong. Requested tape exists, but its buffers table" +
+                    " hasn't been initialized.");
+
+        int frame = tapePageFrames.getFrame(page);
+        if(frame != -1) {
+            this.tapesReplacementPolicies.get(id).pageAccessed(page);
+            return frame;
+        }
+
+        Lock bufferLatch = this.getBufferLatch(id);
+        bufferLatch.lock();
+        try {
+            if(!pin)
+                this.freeBufferIfFull(id, page);
+
+            frame = this.pageArena.allocateFrame();
+            int length;
+            // Page read ahead is counted as read only now, when its data is used
+            byte[] readAheadBlock = this.tapeReadAhead.take(id, page);
+            if(readAheadBlock != null) {
+                this.pageArena.getIOFrame(frame).put(readAheadBlock);
+                length = readAheadBlock.length;
+                this.incReads(id);
+            }
+            else
+                length = this.readBlock(id, (long) this.BLOCK_SIZE * page, this.pageArena.getIOFrame(frame));
+            if(this.tapeReadAhead.isSequential(id, page))
+                this.readAhead(id, page + 1, this.tapeReadAhead.getReadAheadPages());
+
+            if(page >= this.getPages(id) || length == 0) {
+                this.pageArena.releaseFrame(frame);
+
+                if(page >= this.getPages(id)) {
+                    if (length != 0)
+                        throw new IllegalStateException("This page shouldn't exist (taking in account the counter), but reading from" +
+                                " file returned data (which means End of file hasn't been reached). File is larger than pages count.");
+
+                    throw new NoSuchElementException("Requested page to read doesn't exist.");
+                }
+
+                throw new IllegalStateException("This page should exist (taking in account the counter), but reading from" +
+                        " file returned null (which means End of file in this method). File is shorter than pages count.");
+            }
+
+            this.pageArena.setFrameLength(frame, length);
+            // Page is pinned before it is buffered, so the buffers count read without the latch never exceeds the limit
+            if(pin)
+                this.tapesPinnedPages.get(id).add(page);
+            tapePageFrames.put(page, frame);
+            if(!pin)
+                this.tapesReplacementPolicies.get(id).pageLoaded(page);
+
+            return frame;
+        } finally {
+            bufferLatch.unlock();
+        }
+    }
+
+    /**
+     * Frees one of the tape buffers, if all of them are taken. The replacement policy chooses only among pages, which
+     * latches aren't held by other threads, and the chosen page is freed only if its latch can be taken at once, so
+     * a page being used is never freed. The caller never uses a view of one page, while another page is loaded, so
+     * pages of the stripes latched by the caller can be freed. If all buffered pages are being used, the buffers latch
+     * is released for a moment, so their users can finish. The buffers latch must be held by the caller only once.
+     * @param id
+     * @param pageToLoad
+     */
+    private void freeBufferIfFull(UUID id, int pageToLoad)
+    {
+        ReentrantLock bufferLatch = this.getBufferLatch(id);
+        ReentrantLock[] pageLatches = this.getPageLatches(id);
+        while(this.isFull(id))
+        {
+            int pageToFree = this.tapesReplacementPolicies.get(id).choosePageToFree(pageToLoad, page -> {
+                ReentrantLock pageLatch = pageLatches[Math.floorMod(page, PAGE_LATCH_STRIPES)];
+                return pageLatch.isHeldByCurrentThread() || !pageLatch.isLocked();
+            });
+            if(pageToFree != -1)
+            {
+                if(!this.isBuffered(id, pageToFree))
+                    throw new IllegalStateException("Something went wrong in maintaining buffered pages by the replacement" +
+                            " policy - it chose a page, that isn't buffered.");
+
+                // Latch may have been taken since the choice, then the policy chooses again
+                ReentrantLock pageLatch = pageLatches[Math.floorMod(pageToFree, PAGE_LATCH_STRIPES)];
+                if(pageLatch.tryLock()) {
+                    try {
+                        this.freeBufferedBlock(id, pageToFree);
+                    } finally {
+                        pageLatch.unlock();
+                    }
+                }
+                continue;
+            }
+
+            if(bufferLatch.getHoldCount() > 1)
+                throw new IllegalStateException("All buffered pages of the tape are being used, and a buffer can't" +
+                        " be freed, while the buffers latch is held by the caller.");
+
+            bufferLatch.unlock();
+            Thread.yield();
+            bufferLatch.lock();
         }
+    }
 
+    /**
+     * Writes memory blocks to file. Requires blocks of size of the {@link TapeService#BLOCK_SIZE} constant
+     * and a number {@code len} of bytes to write from this block ({@code len} should always be equal
+     * {@link TapeService#BLOCK_SIZE} to achieve constant memory amount usage (if TapeService is used
+     * in merge algorithm) and may be smaller than that <strong>only if there is not that much amount of data left
+     * to write in the last block</strong>)
+     * @param id
+     * @param data
+     * @param off position in file (in bytes)
+     * @param len
+     * @return
+     */
+    public boolean writeBlock(UUID id, long off, byte[] data, int len) throws InvalidAlgorithmParameterException {
         if(data == null)
-            throw new IllegalStateException("This page should exist (taking in account the counter), but reading from" +
-                    " file returned null (which means End of file in this method). File is shorter than pages count.");
+            throw new InvalidAlgorithmParameterException("No data to write was provided.");
+
+        if(data.length < this.BLOCK_SIZE)
+            throw new InvalidAlgorithmParameterException("Too small block of data to write was provided (to achieve" +
+                    " block writing, all blocks should be of an equal size).");
+
+        Lock bufferLatch = this.getBufferLatch(id);
+        bufferLatch.lock();
+        try {
+            return this.writeBlock(id, off, ByteBuffer.wrap(data, 0, len));
+        } finally {
+            bufferLatch.unlock();
+        }
+    }
+
+    /**
+     * Writes all remaining bytes of the byte buffer (e.g. a page frame) to file. The tape buffers latch must be held.
+     * @param id
+     * @param off position in file (in bytes)
+     * @param data
+     * @return
+     */
+    boolean writeBlock(UUID id, long off, ByteBuffer data)
+    {
+        Tape tape = this.tapes.get(id);
+        if(tape == null)
+            throw new NoSuchElementException();
+
+        // Page read ahead before this write would be outdated
+        this.tapeReadAhead.cancel(id, (int) (off / this.BLOCK_SIZE));
+
+        // Between checkpoints, pages are appended to the log instead, so the tape file stays as of the last checkpoint
+        if(this.isLogged(id) && !this.checkpointer.isCheckpointing())
+        {
+            if(off % this.BLOCK_SIZE != 0)
+                throw new IllegalStateException("Only whole pages can be written to a logged tape.");
+
+            this.writeAheadLog.appendPage(id, (int) (off / this.BLOCK_SIZE), data);
+            this.incWrites(tape.getId());
+            return true;
+        }
+
+        if(this.isMapped(id))
+        {
+            this.mappedRegions.getPage(tape, (int) (off / this.BLOCK_SIZE)).put(data);
+            this.incWrites(tape.getId());
+            return true;
+        }
+
+        FileChannel channel = this.fileChannels.acquire(tape);
+        try {
+            long position = off;
+            while(data.hasRemaining())
+                position += channel.write(data, position);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            this.fileChannels.release(tape.getId());
+        }
+
+        this.incWrites(tape.getId());
+        return true;
+    }
+
+    /**
+     * Writes to tape file sequentially (block by block or, in other words, chunk by chunk)
+     * controlling the current position in file with {@link TapeService#tapesCurrentWriteBlock} field.
+     * <strong>This method is updated from its first version to use (update) buffered blocks, if they are loaded.</strong>
+     * @param id
+     * @param data Provided data blocks should be of size of the {@link TapeService#BLOCK_SIZE} and ({@code len}
+     *             parameter tells how much data we want to write from it.
+     * @param len How much data we want to write from the block to tape file. It should be equal
+     *            to {@link TapeService#BLOCK_SIZE} or can smaller, but only when it is the last block to
+     *            write to the tape file.
+     * @return Whether operation succeeded.
+     */
+    public boolean writeNextBlock(UUID id, byte[] data, int len) throws InvalidAlgorithmParameterException
+    {
+        Tape tape = this.tapes.get(id);
+        if(tape == null)
+            throw new NoSuchElementException();
+
+        // Run tape is written only sequentially, so it is streamed straight to its file, like it is read
+        boolean written = tape.isRunTape()
+                ? this.writeBlock(id, (long) this.BLOCK_SIZE * this.tapesCurrentWriteBlock.get(id), data, len)
+                : this.writePage(id, this.tapesCurrentWriteBlock.get(id), data, len);
+
+        if(written)
+            this.tapesCurrentWriteBlock.put(tape.getId(), tapesCurrentWriteBlock.get(tape.getId()) + 1);
+
+        return written;
+    }
+
+    public boolean writePage(UUID id, int page, byte[] data, int len) throws InvalidAlgorithmParameterException {
+        Lock pageLatch = this.getPageLatch(id, page);
+        pageLatch.lock();
+        try {
+            Tape tape = this.tapes.get(id);
+            if(tape == null)
+                throw new NoSuchElementException();
+
+            if(page < 0 || page >= this.getPages(id))
+                throw new NoSuchElementException("Requested page to write doesn't exist.");
+
+            PageFrameTable tapePageFrames = this.tapesPageFrames.get(id);
+            if(tapePageFrames == null)
+                throw new NoSuchElementException("Something went wrong. Requested tape exists, but its buffers table" +
+                        " hasn't been initialized.");
+
+            int frame = tapePageFrames.getFrame(page);
+            if(frame != -1)
+            {
+                if(data == null || data.length < this.BLOCK_SIZE)
+                    throw new InvalidAlgorithmParameterException("Too small block of data to write was provided (to achieve" +
+                            " block writing, all blocks should be of an equal size).");
+
+                // Data is copied to the page frame, because the provided array may be reused by the caller (e.g. in
+                // sequential writing)
+                this.pageArena.getIOFrame(frame).put(data, 0, this.BLOCK_SIZE);
+                this.pageArena.setFrameLength(frame, this.BLOCK_SIZE);
+
+                // In write-back mode, only mark the buffered page as modified - it will be written when freed or flushed.
+                // Partial blocks (the last block of sequential writing) are always written through, to not resize the file.
+                if(this.writeBack && len == this.BLOCK_SIZE)
+                {
+                    this.tapesDirtyBlocks.get(id).add(page);
+                    this.tapesReplacementPolicies.get(id).pageAccessed(page);
+                    return true;
+                }
+            }
+
+            boolean written = this.writeBlock(id, (long) this.BLOCK_SIZE * page, data, len);
+
+            if(frame != -1)
+            {
+                this.tapesDirtyBlocks.get(id).remove(page);
+                this.tapesReplacementPolicies.get(id).pageAccessed(page);
+            }
+
+            return written;
+        } finally {
+            pageLatch.unlock();
+        }
+    }
+
+    /**
+     * Saves changes made to the buffered page through {@link TapeService#readPageBuffer}. In write-back mode the page
+     * is only marked as modified.
+     * @param id
+     * @param page
+     * @return Whether operation succeeded.
+     */
+    public boolean writePage(UUID id, int page)
+    {
+        Lock pageLatch = this.getPageLatch(id, page);
+        pageLatch.lock();
+        try {
+            Tape tape = this.tapes.get(id);
+            if(tape == null)
+                throw new NoSuchElementException();
+
+            if(page < 0 || page >= this.getPages(id))
+                throw new NoSuchElementException("Requested page to write doesn't exist.");
+
+            int frame = this.tapesPageFrames.get(id).getFrame(page);
+            if(frame == -1)
+                throw new NoSuchElementException("Requested page to write isn't buffered, so there are no changes to save.");
+
+            this.tapesReplacementPolicies.get(id).pageAccessed(page);
+            if(this.writeBack && this.pageArena.getFrameLength(frame) == this.BLOCK_SIZE)
+            {
+                this.tapesDirtyBlocks.get(id).add(page);
+                return true;
+            }
+
+            this.tapesDirtyBlocks.get(id).remove(page);
+            return this.writeFrame(id, page, frame);
+        } finally {
+            pageLatch.unlock();
+        }
+    }
+
+    /**
+     * Writes the page frame to the tape file. The page latch must be held.
+     * @param id
+     * @param page
+     * @param frame
+     * @return
+     */
+    private boolean writeFrame(UUID id, int page, int frame)
+    {
+        ByteBuffer frameBuffer = this.pageArena.getIOFrame(frame);
+        frameBuffer.limit(this.pageArena.getFrameLength(frame));
+        Lock bufferLatch = this.getBufferLatch(id);
+        bufferLatch.lock();
+        try {
+            return this.writeBlock(id, (long) this.BLOCK_SIZE * page, frameBuffer);
+        } finally {
+            bufferLatch.unlock();
+        }
+    }
+
+    public void resetBlockReading(UUID id)
+    {
+        Tape tape = this.tapes.get(id);
+        if(tape == null)
+            throw new NoSuchElementException();
+
+        this.tapesCurrentReadBlock.put(tape.getId(), 0);
+        this.isEOF.put(tape.getId(), false);
+    }
+
+    public void resetBlockWriting(UUID id)
+    {
+        Tape tape = this.tapes.get(id);
+        if(tape == null)
+            throw new NoSuchElementException();
+
+        this.tapesCurrentWriteBlock.put(tape.getId(), 0);
+    }
+
+    public void freeBufferedBlock(UUID id, int page)
+    {
+        Lock pageLatch = this.getPageLatch(id, page);
+        Lock bufferLatch = this.getBufferLatch(id);
+        pageLatch.lock();
+        bufferLatch.lock();
+        try {
+            Tape tape = this.tapes.get(id);
+            if(tape == null)
+                throw new NoSuchElementException();
+
+            if(page < 0 || page >= this.getPages(id))
+                throw new NoSuchElementException("Requested page to free its buffer doesn't exist.");
+
+            PageFrameTable tapePageFrames = this.tapesPageFrames.get(id);
+            if(tapePageFrames == null)
+                throw new NoSuchElementException("Something went wrong. Requested tape exists, but its buffers table" +
+                        " hasn't been initialized.");
+
+            if(!tapePageFrames.contains(page))
+                throw new NoSuchElementException("Requested page buffer to free isn't even loaded, so it cannot be freed.");
+
+            this.flushBufferedBlock(id, page);
+            this.pageArena.releaseFrame(tapePageFrames.remove(page));
+            // Pinned page isn't known to the replacement policy, so it is only unpinned
+            if(!this.tapesPinnedPages.get(id).remove(page))
+                this.tapesReplacementPolicies.get(id).pageFreed(page);
+            this.notifyBufferFreed(id, page);
+        } finally {
+            bufferLatch.unlock();
+            pageLatch.unlock();
+        }
+    }
+
+    /**
+     * Chooses which buffered page should be freed, using the tape replacement policy. Takes into account page number,
+     * which will be loaded next. There will always be chosen some page to free, unless there are no pages buffered.
+     * @param id
+     * @param pageToLoad
+     * @return Number of the buffered page, which should be freed.
+     */
+    public int choosePageToFree(UUID id, int pageToLoad)
+    {
+        Tape tape = this.tapes.get(id);
+        if(tape == null)
+            throw new NoSuchElementException();
+
+        if(this.tapesPageFrames.get(id).size() == 0)
+            throw new IllegalStateException("There was no buffered pages for this tape. There was no page to choose to be freed.");
+
+        int pageToFree = this.tapesReplacementPolicies.get(id).choosePageToFree(pageToLoad);
+        if(!this.isBuffered(id, pageToFree))
+            throw new IllegalStateException("Something went wrong in maintaining buffered pages by the replacement policy" +
+                    " - it chose a page, that isn't buffered.");
+
+        return pageToFree;
+    }
+
+    /**
+     * It assures that there is a space to read a new page, if it isn't already loaded. Other threads can take the space
+     * in the meantime, so loading a page frees a buffer itself anyway, if needed - this lets the upper layers free it
+     * before the page is requested.
+     * @param id
+     * @param page The page may not exist (it may be one that is being created just now), it just frees a buffer if needed.
+     *             Page parameter is for algorithm of choosing which buffer to free, to take it into account.
+     */
+    public void assureBufferForPage(UUID id, int page)
+    {
+        Lock bufferLatch = this.getBufferLatch(id);
+        bufferLatch.lock();
+        try {
+            if(!this.isBuffered(id, page))
+                this.freeBufferIfFull(id, page);
+        } finally {
+            bufferLatch.unlock();
+        }
+    }
+
+    /**
+     * Pins the page, so it stays buffered until it is unpinned (or freed explicitly), regardless of other pages loaded
+     * to the tape buffers. Pinned pages don't take up the tape buffers - if the page is already buffered, its buffer
+     * becomes free for other pages. Page is loaded, if it isn't buffered yet.
+     * @param id
+     * @param page
+     * @return Whether the page is pinned. False means, that the pinned buffers limit of the tape is full.
+     */
+    public boolean pinPage(UUID id, int page)
+    {
+        Lock pageLatch = this.getPageLatch(id, page);
+        Lock bufferLatch = this.getBufferLatch(id);
+        pageLatch.lock();
+        bufferLatch.lock();
+        try {
+            Tape tape = this.tapes.get(id);
+            if(tape == null)
+                throw new NoSuchElementException();
+
+            if(page < 0 || page >= this.getPages(id))
+                throw new NoSuchElementException("Requested page to pin doesn't exist.");
+
+            Set<Integer> pinnedPages = this.tapesPinnedPages.get(id);
+            if(pinnedPages.contains(page))
+                return true;
+
+            if(pinnedPages.size() >= tape.getMaxPinnedBuffers())
+                return false;
+
+            if(this.isBuffered(id, page))
+            {
+                // Page leaves the tape buffers, so the replacement policy can't choose it to be freed anymore
+                this.tapesReplacementPolicies.get(id).pageFreed(page);
+                pinnedPages.add(page);
+                return true;
+            }
+
+            this.loadPage(id, page, true);
+            return true;
+        } finally {
+            bufferLatch.unlock();
+            pageLatch.unlock();
+        }
+    }
+
+    /**
+     * Moves the pinned page back to the tape buffers. If the buffers are full, the page is freed instead (it is
+     * written first, if it was modified).
+     * @param id
+     * @param page
+     */
+    public void unpinPage(UUID id, int page)
+    {
+        Lock pageLatch = this.getPageLatch(id, page);
+        Lock bufferLatch = this.getBufferLatch(id);
+        pageLatch.lock();
+        bufferLatch.lock();
+        try {
+            Tape tape = this.tapes.get(id);
+            if(tape == null)
+                throw new NoSuchElementException();
+
+            if(!this.tapesPinnedPages.get(id).contains(page))
+                return;
+
+            // Page stops being pinned after its frame is released, so the buffers count never exceeds the limit
+            if(this.isFull(id))
+            {
+                this.flushBufferedBlock(id, page);
+                this.pageArena.releaseFrame(this.tapesPageFrames.get(id).remove(page));
+                this.tapesPinnedPages.get(id).remove(page);
+            }
+            else {
+                this.tapesPinnedPages.get(id).remove(page);
+                this.tapesReplacementPolicies.get(id).pageLoaded(page);
+            }
+        } finally {
+            bufferLatch.unlock();
+            pageLatch.unlock();
+        }
+    }
+
+    public void unpinAllPages(UUID id)
+    {
+        Tape tape = this.tapes.get(id);
+        if(tape == null)
+            throw new NoSuchElementException();
+
+        for(int page : new ArrayList<>(this.tapesPinnedPages.get(id)))
+            this.unpinPage(id, page);
+    }
+
+    /**
+     * Starts reading the given pages in the background, so they're ready when requested. Used by upper layers, which
+     * know which pages they will read next (e.g. b-tree traversal). Only the first
+     * {@link TapeReadAhead#getReadAheadPages()} pages, that aren't buffered or already read ahead, are read.
+     * @param id
+     * @param pages
+     */
+    public void readAhead(UUID id, List<Integer> pages)
+    {
+        Lock bufferLatch = this.getBufferLatch(id);
+        bufferLatch.lock();
+        try {
+            Tape tape = this.tapes.get(id);
+            if(tape == null)
+                throw new NoSuchElementException();
+
+            int issued = 0;
+            for(int page : pages)
+            {
+                if(issued >= this.tapeReadAhead.getReadAheadPages())
+                    break;
+                if(this.readAheadPage(id, page))
+                    issued++;
+            }
+        } finally {
+            bufferLatch.unlock();
+        }
+    }
+
+    /**
+     * Starts reading {@code n} pages from {@code firstPage} in the background.
+     * @param id
+     * @param firstPage
+     * @param n
+     */
+    private void readAhead(UUID id, int firstPage, int n)
+    {
+        Lock bufferLatch = this.getBufferLatch(id);
+        bufferLatch.lock();
+        try {
+            for(int page = firstPage; page < firstPage + n; page++)
+                this.readAheadPage(id, page);
+        } finally {
+            bufferLatch.unlock();
+        }
+    }
+
+    /**
+     * Starts reading the page in the background, if it isn't buffered or read ahead already and it is written
+     * in the tape file. Read operation is counted only when the page data is taken to buffers, so pages read ahead,
+     * which are never requested (or cancelled), aren't counted. The tape buffers latch must be held.
+     * @param id
+     * @param page
+     * @return Whether reading the page has been started.
+     */
+    private boolean readAheadPage(UUID id, int page)
+    {
+        if(!this.tapeReadAhead.isEnabled() || this.isMapped(id))
+            return false;
+
+        if(page < 0 || this.isBuffered(id, page) || this.isLoggedPage(id, page)
+                || (!this.isInputTape(id) && page >= this.getPages(id)))
+            return false;
+
+        return this.tapeReadAhead.readAhead(this.tapes.get(id), page);
+    }
+
+    /**
+     * Writes all modified buffered pages of the tape to its file and then saves the tape header (except for the input
+     * tape). Pages stay buffered. If the tapes are logged, all of them are checkpointed instead.
+     * @param id
+     */
+    public void flush(UUID id)
+    {
+        Tape tape = this.tapes.get(id);
+        if(tape == null)
+            throw new NoSuchElementException();
+
+        // Logged tapes can be written to their files only together, by a checkpoint
+        if(this.isLogged(id)) {
+            this.checkpoint();
+            return;
+        }
+
+        // All pages are latched, so none of them is written, while it is being modified
+        this.latchAllPages(id);
+        Lock bufferLatch = this.getBufferLatch(id);
+        bufferLatch.lock();
+        try {
+            // Writing in page order, so the tape file is written as sequentially as possible
+            List<Integer> dirtyPages = new ArrayList<>(this.tapesDirtyBlocks.get(id));
+            Collections.sort(dirtyPages);
+            for(int page : dirtyPages)
+                this.flushBufferedBlock(id, page);
+
+            // Header is saved after the pages, so it never describes pages, which aren't in the file yet
+            if(!tape.isInputTape())
+                this.writeHeader(id);
+        } finally {
+            bufferLatch.unlock();
+            this.unlatchAllPages(id);
+        }
+    }
+
+    /**
+     * Writes all modified buffered pages of all tapes to their files. Logged tapes are written together, by a single
+     * checkpoint, so the log is forced and emptied only once.
+     */
+    public void flushAll()
+    {
+        if(this.writeAheadLog != null)
+            this.checkpoint();
+
+        for(UUID id : this.tapes.keySet())
+            if(!this.isLogged(id))
+                this.flush(id);
+    }
+
+    /**
+     * Returns numbers of buffered pages, which were modified and haven't been written to the tape file yet.
+     * @param id
+     * @return
+     */
+    public Set<Integer> getDirtyPages(UUID id)
+    {
+        Tape tape = this.tapes.get(id);
+        if(tape == null)
+            throw new NoSuchElementException();
+
+        return Collections.unmodifiableSet(this.tapesDirtyBlocks.get(id));
+    }
+
+    /**
+     * Writes the buffered page to the tape file, if it was modified since it was last written.
+     * @param id
+     * @param page
+     */
+    private void flushBufferedBlock(UUID id, int page)
+    {
+        if(!this.tapesDirtyBlocks.get(id).remove(page))
+            return;
+
+        this.writeFrame(id, page, this.tapesPageFrames.get(id).getFrame(page));
+    }
+
+    /**
+     * Returns numbers of pages, which currently are being buffered for this tape.
+     * @return
+     */
+    public Set<Integer> getBufferedPages(UUID id)
+    {
+        Tape tape = this.tapes.get(id);
+        if(tape == null)
+            throw new NoSuchElementException();
+
+        PageFrameTable tapePageFrames = this.tapesPageFrames.get(id);
+        if(tapePageFrames == null)
+            throw new NoSuchElementException("Something went wrong. Requested tape exists, but its buffers table" +
+                    " hasn't been initialized.");
+
+        return tapePageFrames.getPages();
+    }
+
+    /**
+     * Releases frames of all buffered pages of the tape, without writing them.
+     * @param id
+     */
+    private void releaseFrames(UUID id)
+    {
+        PageFrameTable tapePageFrames = this.tapesPageFrames.get(id);
+        if(tapePageFrames == null)
+            return;
+
+        for(int page : tapePageFrames.getPages()) {
+            this.pageArena.releaseFrame(tapePageFrames.remove(page));
+            this.notifyBufferFreed(id, page);
+        }
+    }
+
+    /**
+     * Registers listener, which is notified of each page, which buffer is freed (see
+     * {@link TapeService#bufferFreedListeners}).
+     * @param listener Called with the tape ID and the page number.
+     */
+    public void addBufferFreedListener(BiConsumer<UUID, Integer> listener)
+    {
+        this.bufferFreedListeners.add(listener);
+    }
+
+    private void notifyBufferFreed(UUID id, int page)
+    {
+        for(BiConsumer<UUID, Integer> listener : this.bufferFreedListeners)
+            listener.accept(id, page);
+    }
+
+    /**
+     * Writes all modified buffered pages and closes all open tape file channels. Tapes stay registered and their
+     * channels will be reopened on next page I/O.
+     */
+    public void closeFileChannels()
+    {
+        this.flushAll();
+        for(UUID id : this.tapes.keySet())
+            this.closeFileChannel(id);
+        this.fileChannels.closeAll();
+    }
+
+    /**
+     * Stops read-ahead threads, writes all modified buffered pages and closes all tape files. It should be called,
+     * when the tapes won't be used anymore.
+     */
+    public void shutdown()
+    {
+        this.tapeReadAhead.shutdown();
+        this.closeFileChannels();
+        if(this.writeAheadLog != null)
+            this.writeAheadLog.close();
+    }
+
+    /**
+     * Closes file channel of the tape. Mapped region of the tape is unmapped first - it is grown in chunks, so the
+     * file of a registered tape is shrunk back to the real pages count.
+     * @param id
+     */
+    private void closeFileChannel(UUID id)
+    {
+        Tape tape = this.tapes.get(id);
+        if(this.mappedRegions != null && this.mappedRegions.unmap(id) && tape != null)
+        {
+            FileChannel channel = this.fileChannels.acquire(tape);
+            try {
+                channel.truncate((long) this.BLOCK_SIZE * this.getPages(id));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                this.fileChannels.release(id);
+            }
+        }
+        this.fileChannels.close(id);
+    }
+
+    // Write-ahead log
+
+    /**
+     * Appends record of an operation, which will modify the tapes, to the log. It should be appended before the
+     * operation is executed, and the operation should be committed with {@link TapeService#commitLog()} after it.
+     * @param payload
+     */
+    public void appendLogRecord(byte[] payload)
+    {
+        if(this.writeAheadLog == null)
+            return;
+
+        this.writeAheadLog.appendOperation(payload);
+    }
+
+    /**
+     * Commits the operations appended to the log (forces the log according to its sync policy). Tapes aren't
+     * checkpointed here, even if the log has grown too big, because other threads may be in the middle of their
+     * operations - upper layers should check {@link TapeService#isLogFull()} and checkpoint the tapes, when no
+     * operation is running.
+     */
+    public void commitLog()
+    {
+        if(this.writeAheadLog == null)
+            return;
+
+        this.writeAheadLog.commit();
+    }
+
+    /**
+     * @return Whether the log has grown so big, that the tapes should be checkpointed.
+     */
+    public boolean isLogFull()
+    {
+        return this.writeAheadLog != null && this.writeAheadLog.isFull();
+    }
+
+    /**
+     * Copies all pages written since the last checkpoint to the tapes files and saves the tapes headers, so the log
+     * can be emptied. Modified buffered pages are appended to the log first, and the list of pages to copy, together
+     * with the new headers, is saved in a checkpoint record - if the copying is interrupted by a crash, it is redone
+     * from that record on recovery.
+     * <br></br><br></br>
+     * Latches of all pages of the checkpointed tapes are held during the checkpoint, so it should be called only when
+     * the tapes are consistent (no operation is running), and by a thread, which doesn't hold any page latch.
+     */
+    public void checkpoint()
+    {
+        // Input tape is never modified, so only the other tapes are checkpointed. Index tapes are latched first.
+        List<UUID> ids = this.tapes.values().stream()
+                .filter(tape -> !tape.isInputTape())
+                .sorted(Comparator.comparing((Tape tape) -> !tape.isIndexTape()).thenComparing(Tape::getId))
+                .map(Tape::getId)
+                .collect(Collectors.toList());
+        List<UUID> latchedIDs = new ArrayList<>();
+        List<Lock> bufferLatches = new ArrayList<>();
+        try {
+            for(UUID id : ids)
+            {
+                this.latchAllPages(id);
+                latchedIDs.add(id);
+            }
+            for(UUID id : ids)
+            {
+                Lock bufferLatch = this.getBufferLatch(id);
+                bufferLatch.lock();
+                bufferLatches.add(bufferLatch);
+            }
+            this.checkpoint(ids);
+        } finally {
+            for(Lock bufferLatch : bufferLatches)
+                bufferLatch.unlock();
+            for(UUID id : latchedIDs)
+                this.unlatchAllPages(id);
+        }
+    }
 
-        bufferedBlock = data;
-        tapeBufferedBlocks.put(page, bufferedBlock);
-        this.tapesBufferedBlocks.put(id, tapeBufferedBlocks);
+    /**
+     * Checkpoints the tapes, after latches of their pages and buffers have been taken.
+     * @param ids
+     */
+    private void checkpoint(List<UUID> ids)
+    {
+        if(this.writeAheadLog == null)
+        {
+            for(UUID id : ids)
+                this.flush(id);
+            return;
+        }
+
+        for(UUID id : ids)
+        {
+            List<Integer> dirtyPages = new ArrayList<>(this.tapesDirtyBlocks.get(id));
+            Collections.sort(dirtyPages);
+            for(int page : dirtyPages)
+                this.flushBufferedBlock(id, page);
+        }
 
-        return data;
+        this.checkpointer.checkpoint(this, ids);
     }
 
     /**
-     * Writes memory blocks to file. Requires blocks of size of the {@link TapeService#BLOCK_SIZE} constant
-     * and a number {@code len} of bytes to write from this block ({@code len} should always be equal
-     * {@link TapeService#BLOCK_SIZE} to achieve constant memory amount usage (if TapeService is used
-     * in merge algorithm) and may be smaller than that <strong>only if there is not that much amount of data left
-     * to write in the last block</strong>)
-     * @param id
-     * @param data
-     * @param off position in file (in bytes)
-     * @param len
-     * @return
+     * Recovers the tapes after the app was closed without a checkpoint (e.g. after a crash). It should be called after
+     * the tapes are opened and before they're modified. If a checkpoint was interrupted, it is redone - otherwise the
+     * tapes files are still as of the last checkpoint, and the operations logged after it should be replayed by upper
+     * layers (they're not logged again, and the tapes should be checkpointed after the replay).
+     * @return Payloads of operations to replay, in the order they were appended.
      */
-    public boolean writeBlock(UUID id, long off, byte[] data, int len) throws InvalidAlgorithmParameterException {
-        if(data == null)
-            throw new InvalidAlgorithmParameterException("No data to write was provided.");
+    public List<byte[]> recoverLog()
+    {
+        if(this.writeAheadLog == null)
+            return new ArrayList<>();
 
-        if(data.length < this.BLOCK_SIZE)
-            throw new InvalidAlgorithmParameterException("Too small block of data to write was provided (to achieve" +
-                    " block writing, all blocks should be of an equal size).");
+        return this.checkpointer.recover(this);
+    }
 
+    /**
+     * Forces tape file changes to disk and cuts off pages removed from the tape.
+     * @param id
+     */
+    void forceTapeFile(UUID id)
+    {
         Tape tape = this.tapes.get(id);
         if(tape == null)
             throw new NoSuchElementException();
 
-        try (RandomAccessFile raf = new RandomAccessFile(tape.getFile(), "rw")){
-            raf.seek(off);
-            raf.write(data, 0, len);
+        boolean mapped = this.mappedRegions != null && this.mappedRegions.force(id);
+        FileChannel channel = this.fileChannels.acquire(tape);
+        try {
+            if(!mapped)
+                channel.truncate((long) this.BLOCK_SIZE * this.getPages(id));
+            channel.force(false);
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            this.fileChannels.release(id);
         }
-
-        this.incWrites(tape.getId());
-        return true;
     }
 
-    /**
-     * Writes to tape file sequentially (block by block or, in other words, chunk by chunk)
-     * controlling the current position in file with {@link TapeService#tapesCurrentWriteBlock} field.
-     * <strong>This method is updated from its first version to use (update) buffered blocks, if they are loaded.</strong>
-     * @param id
-     * @param data Provided data blocks should be of size of the {@link TapeService#BLOCK_SIZE} and ({@code len}
-     *             parameter tells how much data we want to write from it.
-     * @param len How much data we want to write from the block to tape file. It should be equal
-     *            to {@link TapeService#BLOCK_SIZE} or can smaller, but only when it is the last block to
-     *            write to the tape file.
-     * @return Whether operation succeeded.
-     */
-    public boolean writeNextBlock(UUID id, byte[] data, int len) throws InvalidAlgorithmParameterException
+    // Getters and setters for some tape properties
+
+    public int getReads(UUID id)
     {
         Tape tape = this.tapes.get(id);
         if(tape == null)
             throw new NoSuchElementException();
 
-        boolean written = this.writePage(id, this.tapesCurrentWriteBlock.get(id), data, len);
-
-        if(written)
-            this.tapesCurrentWriteBlock.put(tape.getId(), tapesCurrentWriteBlock.get(tape.getId()) + 1);
-
-        return written;
+        return tape.getReads().intValue();
     }
 
-    public boolean writePage(UUID id, int page, byte[] data, int len) throws InvalidAlgorithmParameterException {
+    public int getWrites(UUID id)
+    {
         Tape tape = this.tapes.get(id);
         if(tape == null)
             throw new NoSuchElementException();
 
-        if(page < 0 || page >= this.getPages(id))
-            throw new NoSuchElementException("Requested page to write doesn't exist.");
-
-        boolean written = this.writeBlock(id, (long) this.BLOCK_SIZE * page, data, len);
-
-        HashMap<Integer, byte[]> tapeBufferedBlocks = this.tapesBufferedBlocks.get(id);
-        if(tapeBufferedBlocks == null)
-            throw new NoSuchElementException("Something went wrong. Requested tape exists, but its buffers hashmap" +
-                    " hasn't been initialized.");
-
-        byte[] bufferedBlock = tapeBufferedBlocks.get(page);
-        if(bufferedBlock != null)
-        {
-            bufferedBlock = data;
-            tapeBufferedBlocks.put(page, bufferedBlock);
-            this.tapesBufferedBlocks.put(id, tapeBufferedBlocks);
-        }
-
-        return written;
+        return tape.getWrites().intValue();
     }
-
-    public void resetBlockReading(UUID id)
+    public void incReads(UUID id)
     {
         Tape tape = this.tapes.get(id);
         if(tape == null)
             throw new NoSuchElementException();
 
-        this.tapesCurrentReadBlock.put(tape.getId(), 0);
-        this.isEOF.put(tape.getId(), false);
+        tape.getReads().increment();
     }
 
-    public void resetBlockWriting(UUID id)
+    public void incWrites(UUID id)
     {
         Tape tape = this.tapes.get(id);
         if(tape == null)
             throw new NoSuchElementException();
 
-        this.tapesCurrentWriteBlock.put(tape.getId(), 0);
+        tape.getWrites().increment();
     }
 
-    public void freeBufferedBlock(UUID id, int page)
+    public int getMaxBuffers(UUID id)
     {
         Tape tape = this.tapes.get(id);
         if(tape == null)
             throw new NoSuchElementException();
 
-        if(page < 0 || page >= this.getPages(id))
-            throw new NoSuchElementException("Requested page to free its buffer doesn't exist.");
-
-        HashMap<Integer, byte[]> tapeBufferedBlocks = this.tapesBufferedBlocks.get(id);
-        if(tapeBufferedBlocks == null)
-            throw new NoSuchElementException("Something went wrong. Requested tape exists, but its buffers hashmap" +
-                    " hasn't been initialized.");
+        return tape.getMaxBuffers();
+    }
 
-        byte[] bufferedBlock = tapeBufferedBlocks.get(page);
-        if(bufferedBlock == null)
-            throw new NoSuchElementException("Requested page buffer to free isn't even loaded, so it cannot be freed.");
+    public int getMaxPinnedBuffers(UUID id)
+    {
+        Tape tape = this.tapes.get(id);
+        if(tape == null)
+            throw new NoSuchElementException();
 
-        tapeBufferedBlocks.remove(page);
-        this.tapesBufferedBlocks.put(id, tapeBufferedBlocks);
+        return tape.getMaxPinnedBuffers();
     }
 
     /**
-     * Returns numbers of pages, which currently are being buffered for this tape.
+     * Returns numbers of pages, which currently are pinned for this tape.
+     * @param id
      * @return
      */
-    public Set<Integer> getBufferedPages(UUID id)
+    public Set<Integer> getPinnedPages(UUID id)
     {
         Tape tape = this.tapes.get(id);
         if(tape == null)
             throw new NoSuchElementException();
 
-        HashMap<Integer, byte[]> tapeBufferedBlocks = this.tapesBufferedBlocks.get(id);
-        if(tapeBufferedBlocks == null)
-            throw new NoSuchElementException("Something went wrong. Requested tape exists, but its buffers hashmap" +
-                    " hasn't been initialized.");
-
-        return tapeBufferedBlocks.keySet();
+        return Collections.unmodifiableSet(this.tapesPinnedPages.get(id));
     }
 
-    // Getters and setters for some tape properties
+    public int getRootPointer(UUID id)
+    {
+        Tape tape = this.tapes.get(id);
+        if(tape == null)
+            throw new NoSuchElementException();
 
-    public int getReads(UUID id)
+        return tape.getRootPointer();
+    }
+
+    public int getDegree(UUID id)
     {
         Tape tape = this.tapes.get(id);
         if(tape == null)
             throw new NoSuchElementException();
 
-        return tape.getReads();
+        return tape.getDegree();
     }
 
-    public int getWrites(UUID id)
+    public int getHeight(UUID id)
     {
         Tape tape = this.tapes.get(id);
         if(tape == null)
             throw new NoSuchElementException();
 
-        return tape.getWrites();
+        return tape.getHeight();
     }
-    public void incReads(UUID id)
+
+    public int getIndexType(UUID id)
     {
         Tape tape = this.tapes.get(id);
         if(tape == null)
             throw new NoSuchElementException();
 
-        tape.setReads(tape.getReads()+1);
+        return tape.getIndexType();
     }
 
-    public void incWrites(UUID id)
+    /**
+     * Sets code of the index structure stored on the index tape, which is saved in the tape header on next flush.
+     * @param id
+     * @param indexType
+     */
+    public void setIndexType(UUID id, int indexType)
     {
         Tape tape = this.tapes.get(id);
         if(tape == null)
             throw new NoSuchElementException();
 
-        tape.setWrites(tape.getWrites()+1);
+        if(!tape.isIndexTape())
+            throw new IllegalStateException("Index type can be set only for an index tape.");
+
+        tape.setIndexType(indexType);
     }
 
-    public int getMaxBuffers(UUID id)
+    /**
+     * Sets b-tree metadata of the index tape, which is saved in the tape header on next flush.
+     * @param id
+     * @param rootPointer
+     * @param degree
+     * @param height
+     */
+    public void setIndexMetadata(UUID id, int rootPointer, int degree, int height)
     {
         Tape tape = this.tapes.get(id);
         if(tape == null)
             throw new NoSuchElementException();
 
-        return tape.getMaxBuffers();
+        if(!tape.isIndexTape())
+            throw new IllegalStateException("B-tree metadata can be set only for an index tape.");
+
+        tape.setRootPointer(rootPointer);
+        tape.setDegree(degree);
+        tape.setHeight(height);
     }
 
     /**
@@ -536,7 +2038,55 @@ public class TapeService {
         if(n <= 0)
             throw new IllegalStateException("Max buffers limit for a tape must be bigger than 0, so any buffers could be loaded.");
 
-        tape.setMaxBuffers(n);
+        if(this.getReservedFrames(tape) + tape.getMaxPinnedBuffers() + n > this.pageArena.getFrames())
+            throw new IllegalStateException("There are not enough frames in the page arena for this tape buffers limit.");
+
+        Lock bufferLatch = this.getBufferLatch(id);
+        bufferLatch.lock();
+        try {
+            tape.setMaxBuffers(n);
+            this.tapesReplacementPolicies.get(id).setCapacity(n);
+        } finally {
+            bufferLatch.unlock();
+        }
+    }
+
+    /**
+     * Sets how many pages of the tape can be pinned at the same time. It is a separate limit from the tape buffers
+     * limit, but pinned pages take up frames of the same page arena. 0 turns pinning off.
+     * @param id
+     * @param n
+     */
+    public void setMaxPinnedBuffers(UUID id, int n)
+    {
+        Tape tape = this.tapes.get(id);
+        if(tape == null)
+            throw new NoSuchElementException();
+
+        if(n < 0)
+            throw new IllegalStateException("Max pinned buffers limit for a tape can't be below 0.");
+
+        if(n < this.tapesPinnedPages.get(id).size())
+            throw new IllegalStateException("There are more pages pinned than the new pinned buffers limit. They need" +
+                    " to be unpinned first.");
+
+        if(this.getReservedFrames(tape) + tape.getMaxBuffers() + n > this.pageArena.getFrames())
+            throw new IllegalStateException("There are not enough frames in the page arena for this tape pinned buffers limit.");
+
+        tape.setMaxPinnedBuffers(n);
+    }
+
+    /**
+     * Frames of the page arena are shared by all tapes, so buffers of all tapes together have to fit in it.
+     * @param tape
+     * @return Sum of buffers and pinned buffers limits of all tapes other than provided one.
+     */
+    private int getReservedFrames(Tape tape)
+    {
+        return this.tapes.values().stream()
+                .filter(otherTape -> otherTape != tape)
+                .mapToInt(otherTape -> otherTape.getMaxBuffers() + otherTape.getMaxPinnedBuffers())
+                .sum();
     }
 
     /**
@@ -558,17 +2108,11 @@ public class TapeService {
         if(page >= this.getPages(id))
             throw new NoSuchElementException("The page, of which free space was requested to set, doesn't exist.");
 
-        List<Integer> freeSpaces = tape.getFreeSpaceOnEachPage();
-        Integer freeSpace = freeSpaces.get(page);
-        if(freeSpace == null)
-            throw new NoSuchElementException("For some reason, free space amount for this page wasn't initialized.");
-
-        return freeSpace;
+        return tape.getFreeSpaceMap().get(page);
     }
 
     /**
-     * This method stores declared free space amount in relation to the requested page. (A Hashmap, where page is key,
-     * and free space on it is a value)
+     * This method stores declared free space amount in relation to the requested page (in the tape free space map).
      * @param id
      * @param page Count starts from 0.
      * @param amount Can range from 0 to {@link TapeService#BLOCK_SIZE}, which is a size of the disk page.
@@ -589,9 +2133,23 @@ public class TapeService {
         if(page >= this.getPages(id))
             throw new NoSuchElementException("The page, of which free space was requested to set, doesn't exist.");
 
-        List<Integer> freeSpaces = tape.getFreeSpaceOnEachPage();
-        freeSpaces.set(page, amount);
-        tape.setFreeSpaceOnEachPage(freeSpaces);
+        tape.getFreeSpaceMap().set(page, amount);
+    }
+
+    /**
+     * Finds the first page with enough free space, without checking all pages.
+     * @param id
+     * @param minFreeSpace
+     * @return Number of the first page with at least {@code minFreeSpace} bytes free, or -1, if all pages are full
+     * (or there is none yet).
+     */
+    public int findPageWithFreeSpace(UUID id, int minFreeSpace)
+    {
+        Tape tape = this.tapes.get(id);
+        if(tape == null)
+            throw new NoSuchElementException();
+
+        return tape.getFreeSpaceMap().findPage(minFreeSpace);
     }
 
     /**
@@ -605,7 +2163,7 @@ public class TapeService {
         if(tape == null)
             throw new NoSuchElementException();
 
-        return tape.getFreeSpaceOnEachPage().size();
+        return tape.getFreeSpaceMap().size();
     }
 
     public int getFreePages(UUID id)
@@ -614,16 +2172,7 @@ public class TapeService {
         if(tape == null)
             throw new NoSuchElementException();
 
-        int page = 0;
-        int freePages = 0;
-        while(page < this.getPages(id))
-        {
-            if(this.getFreeSpaceOnPage(id, page) == this.BLOCK_SIZE)
-                freePages++;
-
-            page++;
-        }
-        return freePages;
+        return tape.getFreeSpaceMap().getEmptyPages();
     }
 
     /**
@@ -633,7 +2182,8 @@ public class TapeService {
      * there must be performed writing that new page to a file, after adding the data to it, because <strong>this method
      * does not resize the file on disk</strong> - if writing this page is aborted and therefore this page won't exist,
      * it needs to be removed using removeLastPage(), which decreases pages counter and free page buffer (a method
-     * reverse to this method).
+     * reverse to this method). The allocation latch of the tape must be held by the caller, and the latch of the new
+     * page should be held, until the page is written.
      * @param id
      */
     public void addNextPage(UUID id)
@@ -642,50 +2192,114 @@ public class TapeService {
         if(tape == null)
             throw new NoSuchElementException();
 
-        List<Integer> freeSpaces = tape.getFreeSpaceOnEachPage();
-        freeSpaces.add(this.BLOCK_SIZE);
-        tape.setFreeSpaceOnEachPage(freeSpaces);
-
-        // Add also a fresh buffer for that new page, it will be added to file after first write of this buffer
-        if(this.isMaxBuffers(id))
-            throw new IllegalStateException("There is max count of buffers loaded for this tape already." +
-                    " Some buffer needs to be freed first.");
-
-        if(this.getBufferedPages(id).contains(freeSpaces.size() - 1))
-            throw new IllegalStateException("This page is just being created, but a page of this number is also" +
-                    " listed in buffered pages. Something went wrong in maintaining pages.");
-
-        HashMap<Integer, byte[]> tapeBufferedBlocks = this.tapesBufferedBlocks.get(id);
-        if(tapeBufferedBlocks == null)
-            throw new NoSuchElementException("Something went wrong. Requested tape exists, but its buffers hashmap" +
-                    " hasn't been initialized.");
-
-        tapeBufferedBlocks.put(freeSpaces.size() - 1, new byte[this.BLOCK_SIZE]);
-        this.tapesBufferedBlocks.put(id, tapeBufferedBlocks);
+        int newPage = this.getPages(id);
+        Lock pageLatch = this.getPageLatch(id, newPage);
+        Lock bufferLatch = this.getBufferLatch(id);
+        pageLatch.lock();
+        bufferLatch.lock();
+        try {
+            FreeSpaceMap freeSpaces = tape.getFreeSpaceMap();
+            if(freeSpaces.size() != newPage)
+                throw new IllegalStateException("Another page has been added in the meantime. Allocation latch of the" +
+                        " tape should have been held.");
+
+            // Add also a fresh buffer for that new page, it will be added to file after first write of this buffer
+            this.freeBufferIfFull(id, newPage);
+            freeSpaces.addPage(this.BLOCK_SIZE);
+
+            if(this.isBuffered(id, freeSpaces.size() - 1))
+                throw new IllegalStateException("This page is just being created, but a page of this number is also" +
+                        " listed in buffered pages. Something went wrong in maintaining pages.");
+
+            PageFrameTable tapePageFrames = this.tapesPageFrames.get(id);
+            if(tapePageFrames == null)
+                throw new NoSuchElementException("Something went wrong. Requested tape exists, but its buffers table" +
+                        " hasn't been initialized.");
+
+            int frame = this.pageArena.allocateFrame();
+            this.pageArena.clearFrame(frame);
+            // New page isn't in the file yet, so it is written, even if its buffer is freed before the first write
+            this.tapesDirtyBlocks.get(id).add(freeSpaces.size() - 1);
+            tapePageFrames.put(freeSpaces.size() - 1, frame);
+            this.tapesReplacementPolicies.get(id).pageLoaded(freeSpaces.size() - 1);
+
+            // Make sure the mapped region covers the new page
+            if(this.isMapped(id))
+                this.mappedRegions.getPage(tape, freeSpaces.size() - 1);
+        } finally {
+            bufferLatch.unlock();
+            pageLatch.unlock();
+        }
     }
 
+    /**
+     * Removes the last page of the tape (see {@link TapeService#addNextPage}). The allocation latch of the tape must be
+     * held by the caller.
+     * @param id
+     */
     public void removeLastPage(UUID id)
     {
         Tape tape = this.tapes.get(id);
         if(tape == null)
             throw new NoSuchElementException();
 
-        List<Integer> freeSpaces = tape.getFreeSpaceOnEachPage();
-        if(freeSpaces.isEmpty())
+        int lastPage = this.getPages(id) - 1;
+        if(lastPage < 0)
             throw new NoSuchElementException("There was no more pages to remove.");
 
-        int lastPage = freeSpaces.size() - 1;
-        freeSpaces.remove(lastPage);
-        tape.setFreeSpaceOnEachPage(freeSpaces);
+        Lock pageLatch = this.getPageLatch(id, lastPage);
+        Lock bufferLatch = this.getBufferLatch(id);
+        pageLatch.lock();
+        bufferLatch.lock();
+        try {
+            FreeSpaceMap freeSpaces = tape.getFreeSpaceMap();
+            if(freeSpaces.size() - 1 != lastPage)
+                throw new IllegalStateException("Pages have been added or removed in the meantime. Allocation latch of" +
+                        " the tape should have been held.");
+
+            freeSpaces.removeLastPage();
+
+            // Clean up also the buffer, if the page is loaded, to not store wrong data
+            int frame = this.tapesPageFrames.get(id).remove(lastPage);
+            if(frame != -1) {
+                this.pageArena.releaseFrame(frame);
+                if(!this.tapesPinnedPages.get(id).remove(lastPage))
+                    this.tapesReplacementPolicies.get(id).pageFreed(lastPage);
+                this.notifyBufferFreed(id, lastPage);
+            }
+            this.tapesDirtyBlocks.get(id).remove(lastPage);
+            if(this.mappedRegions != null)
+                this.mappedRegions.forgetPage(id, lastPage);
+            this.tapeReadAhead.cancel(id, lastPage);
+            if(this.isLogged(id))
+                this.writeAheadLog.removePage(id, lastPage);
+        } finally {
+            bufferLatch.unlock();
+            pageLatch.unlock();
+        }
+    }
+
+    public int getReadAheadPages()
+    {
+        return this.tapeReadAhead.getReadAheadPages();
+    }
 
-        // Clean up also the buffer, if the page is loaded, to not store wrong data
-        HashMap<Integer, byte[]> tapeBufferedBlocks = this.tapesBufferedBlocks.get(id);
-        if(tapeBufferedBlocks != null)
-            tapeBufferedBlocks.remove(lastPage);
+    public int getMaxOpenFiles()
+    {
+        return this.fileChannels.getMaxOpenFiles();
     }
 
     // Some boolean check methods
 
+    /**
+     * @param id
+     * @return Whether the tape is registered (created or opened) in this service.
+     */
+    public boolean isOpened(UUID id)
+    {
+        return this.tapes.containsKey(id);
+    }
+
     public boolean isInputTape(UUID id)
     {
         Tape tape = this.tapes.get(id);
@@ -704,12 +2318,179 @@ public class TapeService {
         return tape.isIndexTape();
     }
 
+    /**
+     * @param id
+     * @return Whether the tape is accessed through a memory-mapped region of its file. The input tape is never mapped,
+     * since it is only read once, sequentially.
+     */
+    public boolean isMapped(UUID id)
+    {
+        Tape tape = this.tapes.get(id);
+        if(tape == null)
+            throw new NoSuchElementException();
+
+        return this.mappedRegions != null && !tape.isInputTape();
+    }
+
+    /**
+     * @param id
+     * @return Whether pages of the tape are written through the write-ahead log. The input tape is never logged,
+     * since it is only read.
+     */
+    public boolean isLogged(UUID id)
+    {
+        Tape tape = this.tapes.get(id);
+        if(tape == null)
+            throw new NoSuchElementException();
+
+        return this.writeAheadLog != null && !tape.isInputTape();
+    }
+
+    private boolean isLoggedPage(UUID id, int page)
+    {
+        return this.isLogged(id) && this.writeAheadLog.contains(id, page);
+    }
+
     public boolean isMaxBuffers(UUID id)
     {
-        if(this.getBufferedPages(id).size() > this.getMaxBuffers(id))
+        Tape tape = this.tapes.get(id);
+        if(tape == null)
+            throw new NoSuchElementException();
+
+        Lock bufferLatch = this.getBufferLatch(id);
+        bufferLatch.lock();
+        try {
+            return this.isFull(id);
+        } finally {
+            bufferLatch.unlock();
+        }
+    }
+
+    /**
+     * @param id
+     * @return Whether all buffers of the tape are taken. The tape buffers latch must be held, so the buffered and
+     * pinned pages are counted at the same moment.
+     */
+    private boolean isFull(UUID id)
+    {
+        // Pinned pages are buffered outside the tape buffers limit
+        int bufferedPages = this.tapesPageFrames.get(id).size() - this.tapesPinnedPages.get(id).size();
+        if(bufferedPages > this.getMaxBuffers(id))
             throw new IllegalStateException("There was too many buffered pages (more than max buffers limit for this tape.");
 
-        return this.getBufferedPages(id).size() == this.getMaxBuffers(id);
+        return bufferedPages == this.getMaxBuffers(id);
+    }
+
+    public boolean isBuffered(UUID id, int page)
+    {
+        Tape tape = this.tapes.get(id);
+        if(tape == null)
+            throw new NoSuchElementException();
+
+        return this.tapesPageFrames.get(id).contains(page);
+    }
+
+    public boolean isPinned(UUID id, int page)
+    {
+        Tape tape = this.tapes.get(id);
+        if(tape == null)
+            throw new NoSuchElementException();
+
+        return this.tapesPinnedPages.get(id).contains(page);
+    }
+
+    /**
+     * @param id
+     * @param page
+     * @return Latch of the page (see {@link TapeService#tapesPageLatches}), shared with other pages of the same stripe.
+     */
+    public Lock getPageLatch(UUID id, int page)
+    {
+        return this.getPageLatches(id)[Math.floorMod(page, PAGE_LATCH_STRIPES)];
+    }
+
+    private ReentrantLock[] getPageLatches(UUID id)
+    {
+        return this.tapesPageLatches.computeIfAbsent(id, tapeID -> {
+            ReentrantLock[] pageLatches = new ReentrantLock[PAGE_LATCH_STRIPES];
+            for(int n = 0; n < pageLatches.length; n++)
+                pageLatches[n] = new ReentrantLock();
+            return pageLatches;
+        });
+    }
+
+    /**
+     * Takes latches of all pages of the tape, in ascending order, e.g. for a change of many pages, which a checkpoint
+     * has to see whole. It should be called by a thread, which doesn't hold any page latch of the tape yet.
+     * @param id
+     */
+    public void latchAllPages(UUID id)
+    {
+        for(ReentrantLock pageLatch : this.getPageLatches(id))
+            pageLatch.lock();
+    }
+
+    public void unlatchAllPages(UUID id)
+    {
+        ReentrantLock[] pageLatches = this.getPageLatches(id);
+        for(int n = pageLatches.length - 1; n >= 0; n--)
+            pageLatches[n].unlock();
+    }
+
+    /**
+     * @param id
+     * @return Latch of the tape free space map (see {@link TapeService#tapesAllocationLatches}).
+     */
+    public Lock getAllocationLatch(UUID id)
+    {
+        return this.tapesAllocationLatches.computeIfAbsent(id, tapeID -> new ReentrantLock());
+    }
+
+    /**
+     * @param id
+     * @return Latch of the tape buffers (see {@link TapeService#tapesLatches}).
+     */
+    private ReentrantLock getBufferLatch(UUID id)
+    {
+        return this.tapesLatches.computeIfAbsent(id, tapeID -> new ReentrantLock());
+    }
+
+    /**
+     * Checks, that the caller holds the page latch, before it is given a view of the page buffer.
+     * @param id
+     * @param page
+     */
+    private void checkPageLatch(UUID id, int page)
+    {
+        if(!this.getPageLatches(id)[Math.floorMod(page, PAGE_LATCH_STRIPES)].isHeldByCurrentThread())
+            throw new IllegalStateException("Latch of the page must be held, while its buffer is used.");
+    }
+
+    /**
+     * Marks the page as accessed for the buffer replacement policy, if it is buffered, without reading its data. Used
+     * by upper layers, which serve the page from data decoded earlier, so the page keeps its place in the buffers,
+     * as if it was read.
+     * @param id
+     * @param page
+     * @return Whether the page is buffered.
+     */
+    public boolean accessBufferedPage(UUID id, int page)
+    {
+        Lock pageLatch = this.getPageLatch(id, page);
+        pageLatch.lock();
+        try {
+            Tape tape = this.tapes.get(id);
+            if(tape == null)
+                throw new NoSuchElementException();
+
+            if(!this.tapesPageFrames.get(id).contains(page))
+                return false;
+
+            this.tapesReplacementPolicies.get(id).pageAccessed(page);
+            return true;
+        } finally {
+            pageLatch.unlock();
+        }
     }
 
     /** <strong>(Updated version)</strong>
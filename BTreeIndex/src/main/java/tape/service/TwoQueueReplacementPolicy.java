@@ -0,0 +1,92 @@
+package tape.service;
+
+import java.util.LinkedHashSet;
+import java.util.function.IntPredicate;
+
+/**
+ * Two queues (2Q) algorithm. Pages loaded for the first time go to a FIFO queue (A1in), and repeated accesses to them
+ * are ignored, so a single operation touching a page several times doesn't make it "hot". Pages freed from that queue
+ * are remembered in a history queue (A1out) - if such page is loaded again, it goes to the main LRU list (Am).
+ */
+public class TwoQueueReplacementPolicy implements BufferReplacementPolicy {
+
+    /**
+     * Buffered pages seen once, in loading order.
+     */
+    private final LinkedHashSet<Integer> a1in = new LinkedHashSet<>();
+
+    /**
+     * Numbers of pages recently freed from A1in (not buffered anymore).
+     */
+    private final LinkedHashSet<Integer> a1out = new LinkedHashSet<>();
+
+    /**
+     * Buffered pages seen more than once, ordered from the least to the most recently used.
+     */
+    private final LinkedHashSet<Integer> am = new LinkedHashSet<>();
+
+    /**
+     * Max size of A1in queue (a quarter of buffers) and A1out history (a half of buffers count).
+     */
+    private int kin = 1;
+
+    private int kout = 1;
+
+    @Override
+    public synchronized void pageLoaded(int page)
+    {
+        if(this.a1in.contains(page) || this.am.contains(page)) {
+            this.pageAccessed(page);
+            return;
+        }
+
+        if(this.a1out.remove(page))
+            this.am.add(page);
+        else
+            this.a1in.add(page);
+    }
+
+    @Override
+    public synchronized void pageAccessed(int page)
+    {
+        if(this.am.remove(page))
+            this.am.add(page);
+    }
+
+    @Override
+    public synchronized void pageFreed(int page)
+    {
+        if(this.a1in.remove(page)) {
+            this.a1out.add(page);
+            if(this.a1out.size() > this.kout)
+                this.a1out.remove(this.a1out.iterator().next());
+            return;
+        }
+
+        this.am.remove(page);
+    }
+
+    @Override
+    public synchronized int choosePageToFree(int pageToLoad, IntPredicate canBeFreed)
+    {
+        boolean preferA1in = this.a1in.size() > this.kin;
+        int pageToFree = this.findPageToFree(preferA1in ? this.a1in : this.am, canBeFreed);
+        return pageToFree != -1 ? pageToFree : this.findPageToFree(preferA1in ? this.am : this.a1in, canBeFreed);
+    }
+
+    private int findPageToFree(LinkedHashSet<Integer> pages, IntPredicate canBeFreed)
+    {
+        for(int page : pages)
+            if(canBeFreed.test(page))
+                return page;
+
+        return -1;
+    }
+
+    @Override
+    public synchronized void setCapacity(int capacity)
+    {
+        this.kin = Math.max(1, capacity / 4);
+        this.kout = Math.max(1, capacity / 2);
+    }
+}
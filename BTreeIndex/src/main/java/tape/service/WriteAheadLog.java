@@ -0,0 +1,495 @@
+package tape.service;
+
+import tape.entity.LogRecord;
+import tape.entity.LogRecordType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Redo log of the tapes managed by {@link TapeService}. Upper layers append a compact record of each operation, before
+ * they execute it. Tape files aren't modified between checkpoints - pages written in that time are appended to the log
+ * instead and read back from it, so after a crash the files are still as of the last checkpoint and the logged
+ * operations can be replayed on them.
+ * <br></br><br></br>
+ * Each record is saved as: payload length (4 bytes), type (1 byte), payload and CRC32 of the type and payload
+ * (4 bytes), so a record torn by a crash is recognized and ignored.
+ * <br></br><br></br>
+ * Log is shared by all tapes, so its records and pages positions are accessed under the log monitor.
+ */
+public class WriteAheadLog {
+
+    /**
+     * Bytes of a record, which aren't its payload (length, type and checksum).
+     */
+    private final int RECORD_OVERHEAD = 4 + 1 + 4;
+
+    /**
+     * Bytes of a page record payload before the page data (tape ID and page number).
+     */
+    private final int PAGE_HEADER_SIZE = 8 + 8 + 4;
+
+    private final Path path;
+
+    private final FileChannel channel;
+
+    /**
+     * End of the last record in the log file.
+     */
+    private long size;
+
+    private final LogSyncPolicy syncPolicy;
+
+    private final long syncIntervalMillis;
+
+    /**
+     * Size of the log, after which the tapes should be checkpointed.
+     */
+    private final long checkpointSize;
+
+    /**
+     * Position of the latest image of each tape page appended to the log since the last checkpoint.
+     */
+    private final HashMap<UUID, HashMap<Integer, Long>> tapesPagesPositions = new HashMap<>();
+
+    /**
+     * Whether some records have been appended since the log was last forced to disk.
+     */
+    private volatile boolean unsynced;
+
+    private long lastSyncTime;
+
+    /**
+     * Bytes appended to the log since it was opened. Unlike the log size, it isn't reset by truncating the log, so it
+     * identifies the end of records of each committed operation (its log sequence number).
+     */
+    private long appendedSize;
+
+    /**
+     * Bytes appended to the log, which are known to be forced to disk.
+     */
+    private long syncedSize;
+
+    /**
+     * Whether a committer is forcing the log for all waiting committers in the group commit mode.
+     */
+    private boolean groupForcing;
+
+    /**
+     * Thread forcing the log in the asynchronous commit mode, so operations committed right before the app becomes
+     * idle don't wait for the next commit to be forced.
+     */
+    private final ScheduledExecutorService syncExecutor;
+
+    public WriteAheadLog(Path path, LogSyncPolicy syncPolicy, long syncIntervalMillis, long checkpointSize)
+    {
+        if(syncPolicy == LogSyncPolicy.ASYNC && syncIntervalMillis <= 0)
+            throw new IllegalStateException("Log sync interval must be bigger than 0 in the asynchronous commit mode.");
+
+        this.path = path;
+        this.syncPolicy = syncPolicy;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.checkpointSize = checkpointSize;
+
+        try {
+            Files.createDirectories(path.getParent());
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            this.size = this.channel.size();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        if(syncPolicy == LogSyncPolicy.ASYNC) {
+            this.syncExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "log-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.syncExecutor.scheduleWithFixedDelay(() -> {
+                if(this.unsynced)
+                    this.force();
+            }, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        else
+            this.syncExecutor = null;
+    }
+
+    /**
+     * Appends operation record. It is written to disk when the operation is committed.
+     * @param payload
+     */
+    public synchronized void appendOperation(byte[] payload)
+    {
+        this.append(LogRecordType.OPERATION, ByteBuffer.wrap(payload));
+    }
+
+    /**
+     * Appends image of the tape page. Reading the page returns this image until the next checkpoint.
+     * @param id
+     * @param page
+     * @param data All remaining bytes of the buffer are the page data.
+     */
+    public synchronized void appendPage(UUID id, int page, ByteBuffer data)
+    {
+        ByteBuffer payload = ByteBuffer.allocate(this.PAGE_HEADER_SIZE + data.remaining())
+                .putLong(id.getMostSignificantBits())
+                .putLong(id.getLeastSignificantBits())
+                .putInt(page)
+                .put(data);
+        payload.flip();
+
+        long position = this.append(LogRecordType.PAGE, payload);
+        this.tapesPagesPositions.computeIfAbsent(id, tapeID -> new HashMap<>()).put(page, position);
+    }
+
+    /**
+     * Appends checkpoint record and forces the log, regardless of the sync policy, since the tapes files will be
+     * overwritten right after it.
+     * @param payload
+     */
+    public synchronized void appendCheckpoint(byte[] payload)
+    {
+        this.append(LogRecordType.CHECKPOINT, ByteBuffer.wrap(payload));
+        this.force();
+    }
+
+    /**
+     * Commits operations appended so far - forces the log according to the sync policy.
+     */
+    public void commit()
+    {
+        switch (this.syncPolicy)
+        {
+            case OPERATION:
+                this.force();
+                break;
+            case GROUP:
+                this.groupForce();
+                break;
+            case ASYNC:
+                // Operation doesn't wait for the force - all operations committed within the interval share it
+                synchronized(this)
+                {
+                    if(System.currentTimeMillis() - this.lastSyncTime >= this.syncIntervalMillis)
+                        this.force();
+                }
+                break;
+            case NONE:
+                break;
+        }
+    }
+
+    public synchronized void force()
+    {
+        long forcedSize = this.appendedSize;
+        this.unsynced = false;
+        try {
+            this.channel.force(false);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        this.synced(forcedSize);
+    }
+
+    /**
+     * Waits until the log is forced at least up to the records appended so far. The first waiting committer forces
+     * the log outside the log monitor, so other operations append their records in the meantime - they wait for that
+     * force to finish and then the first of them forces the log once for all of them.
+     */
+    private void groupForce()
+    {
+        long forcedSize;
+        synchronized(this)
+        {
+            long commitSize = this.appendedSize;
+            while(this.groupForcing && this.syncedSize < commitSize)
+                this.awaitSync();
+
+            if(this.syncedSize >= commitSize)
+                return;
+
+            // Force covers also records of the committers, which have appended them while the last force was running
+            this.groupForcing = true;
+            this.unsynced = false;
+            forcedSize = this.appendedSize;
+        }
+
+        boolean forced = false;
+        try {
+            this.channel.force(false);
+            forced = true;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            synchronized(this)
+            {
+                this.groupForcing = false;
+                if(forced)
+                    this.synced(forcedSize);
+                else {
+                    this.unsynced = true;
+                    this.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks the log as forced up to the size and wakes up committers waiting for it.
+     * @param forcedSize
+     */
+    private synchronized void synced(long forcedSize)
+    {
+        this.syncedSize = Math.max(this.syncedSize, forcedSize);
+        this.lastSyncTime = System.currentTimeMillis();
+        this.notifyAll();
+    }
+
+    private synchronized void awaitSync()
+    {
+        try {
+            this.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param id
+     * @param page
+     * @return Whether the page was written since the last checkpoint, so its latest image is in the log.
+     */
+    public synchronized boolean contains(UUID id, int page)
+    {
+        HashMap<Integer, Long> pagesPositions = this.tapesPagesPositions.get(id);
+        return pagesPositions != null && pagesPositions.containsKey(page);
+    }
+
+    /**
+     * Reads the latest image of the page from the log.
+     * @param id
+     * @param page
+     * @param target Buffer with enough bytes remaining for the page data.
+     * @return Number of bytes read or -1, if the page wasn't written since the last checkpoint.
+     */
+    public synchronized int readPage(UUID id, int page, ByteBuffer target)
+    {
+        HashMap<Integer, Long> pagesPositions = this.tapesPagesPositions.get(id);
+        if(pagesPositions == null || !pagesPositions.containsKey(page))
+            return -1;
+
+        return this.readPage(pagesPositions.get(page), target);
+    }
+
+    /**
+     * Reads page image from the page record at the position.
+     * @param position
+     * @param target Buffer with enough bytes remaining for the page data.
+     * @return Number of bytes read.
+     */
+    public synchronized int readPage(long position, ByteBuffer target)
+    {
+        try {
+            ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+            this.readFully(position, lengthBuffer);
+            int length = lengthBuffer.getInt(0) - this.PAGE_HEADER_SIZE;
+            if(length < 0 || length > target.remaining())
+                throw new IllegalStateException("Log record at position " + position + " isn't a page image or it" +
+                        " doesn't fit in the provided buffer.");
+
+            ByteBuffer data = target.duplicate();
+            data.limit(data.position() + length);
+            this.readFully(position + 4 + 1 + this.PAGE_HEADER_SIZE, data);
+            target.position(target.position() + length);
+            return length;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns position of the latest image of each tape page written since the last checkpoint.
+     * @param id
+     * @return
+     */
+    public synchronized Map<Integer, Long> getPagesPositions(UUID id)
+    {
+        HashMap<Integer, Long> pagesPositions = this.tapesPagesPositions.get(id);
+        return pagesPositions != null ? new TreeMap<>(pagesPositions) : new TreeMap<>();
+    }
+
+    /**
+     * Forgets image of the page (e.g. when the page is removed from the tape).
+     * @param id
+     * @param page
+     */
+    public synchronized void removePage(UUID id, int page)
+    {
+        HashMap<Integer, Long> pagesPositions = this.tapesPagesPositions.get(id);
+        if(pagesPositions != null)
+            pagesPositions.remove(page);
+    }
+
+    public synchronized void removePages(UUID id)
+    {
+        this.tapesPagesPositions.remove(id);
+    }
+
+    /**
+     * Reads all complete records from the log file. The log is cut after the last of them, so a record torn by a crash
+     * is overwritten by the next append.
+     * @return
+     */
+    public synchronized List<LogRecord> readRecords()
+    {
+        List<LogRecord> records = new ArrayList<>();
+        long position = 0;
+        try {
+            long fileSize = this.channel.size();
+            ByteBuffer headerBuffer = ByteBuffer.allocate(4 + 1);
+            while(position + this.RECORD_OVERHEAD <= fileSize)
+            {
+                headerBuffer.clear();
+                this.readFully(position, headerBuffer);
+                int length = headerBuffer.getInt(0);
+                LogRecordType type = LogRecordType.fromCode(headerBuffer.get(4));
+                if(type == null || length < 0 || position + this.RECORD_OVERHEAD + length > fileSize)
+                    break;
+
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                this.readFully(position + 4 + 1, payload);
+                ByteBuffer checksum = ByteBuffer.allocate(4);
+                this.readFully(position + 4 + 1 + length, checksum);
+                if(checksum.getInt(0) != this.checksum(type, payload.array()))
+                    break;
+
+                records.add(LogRecord.builder()
+                        .type(type)
+                        .position(position)
+                        .payload(type == LogRecordType.PAGE ? null : payload.array())
+                        .build());
+                position += this.RECORD_OVERHEAD + length;
+            }
+
+            this.channel.truncate(position);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        this.size = position;
+        return records;
+    }
+
+    /**
+     * Removes all records, after the tapes have been checkpointed.
+     */
+    public synchronized void truncate()
+    {
+        try {
+            this.channel.truncate(0);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        this.size = 0;
+        this.tapesPagesPositions.clear();
+        this.force();
+    }
+
+    /**
+     * @return Whether the log has grown over the checkpoint size.
+     */
+    public synchronized boolean isFull()
+    {
+        return this.size >= this.checkpointSize;
+    }
+
+    public synchronized long size()
+    {
+        return this.size;
+    }
+
+    public Path getPath()
+    {
+        return this.path;
+    }
+
+    public synchronized void close()
+    {
+        if(this.syncExecutor != null)
+            this.syncExecutor.shutdownNow();
+
+        if(!this.channel.isOpen())
+            return;
+
+        this.force();
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Appends record with all remaining bytes of the payload.
+     * @param type
+     * @param payload
+     * @return Position of the appended record.
+     */
+    private long append(LogRecordType type, ByteBuffer payload)
+    {
+        int length = payload.remaining();
+        byte[] payloadData = new byte[length];
+        payload.duplicate().get(payloadData);
+
+        ByteBuffer record = ByteBuffer.allocate(this.RECORD_OVERHEAD + length)
+                .putInt(length)
+                .put(type.getCode())
+                .put(payloadData)
+                .putInt(this.checksum(type, payloadData));
+        record.flip();
+
+        long position = this.size;
+        try {
+            long off = position;
+            while(record.hasRemaining())
+                off += this.channel.write(record, off);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        this.size += this.RECORD_OVERHEAD + length;
+        this.appendedSize += this.RECORD_OVERHEAD + length;
+        this.unsynced = true;
+        return position;
+    }
+
+    private int checksum(LogRecordType type, byte[] payload)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(type.getCode());
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private void readFully(long position, ByteBuffer target) throws IOException
+    {
+        while(target.hasRemaining())
+        {
+            int n = this.channel.read(target, position);
+            if(n == -1)
+                throw new IllegalStateException("Log file ended before the end of a record at position " + position + ".");
+            position += n;
+        }
+    }
+}
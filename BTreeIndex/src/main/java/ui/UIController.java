@@ -1,6 +1,10 @@
 package ui;
 
+import btree.service.BPlusTreeService;
 import btree.service.BTreeService;
+import btree.service.CopyOnWriteBPlusTreeService;
+import btree.service.IndexService;
+import btree.service.IndexType;
 import data_file.service.DataService;
 import data_generator.CommandGenerator;
 import data_generator.DataGenerator;
@@ -10,22 +14,43 @@ import database.service.DatabaseService;
 import entry.converter.EntryConverter;
 import entry.entity.Entry;
 import entry.service.EntryService;
+import filter.converter.BloomFilterConverter;
+import filter.service.KeyFilterService;
+import hash.converter.HashBucketConverter;
+import hash.service.ExtendibleHashService;
 import lombok.Builder;
 import lombok.ToString;
+import lsm.service.LsmTreeService;
+import node.converter.BPlusNodeConverter;
 import node.converter.NodeConverter;
 import record.converter.RecordConverter;
 import record.entity.Record;
 import record.service.RecordService;
+import sort.service.ExternalSortService;
 import statistics.entity.Statistics;
 import statistics.service.StatisticsService;
+import tape.converter.TapeHeaderConverter;
+import tape.entity.TapeHeader;
+import tape.service.BufferReplacementPolicyType;
+import tape.service.LogSyncPolicy;
+import tape.service.PageArena;
+import tape.service.TapeCheckpointer;
+import tape.service.TapeFileChannels;
+import tape.service.TapeMappedRegions;
+import tape.service.TapeReadAhead;
 import tape.service.TapeService;
+import tape.service.WriteAheadLog;
 
 import java.io.*;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.InvalidAlgorithmParameterException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
 
 @Builder
 @ToString
@@ -44,6 +69,11 @@ public class UIController {
 
     private StatisticsService statisticsService;
 
+    /**
+     * Tapes manager of the database files. Kept to release the files, when the app is closed.
+     */
+    private TapeService tapeService;
+
     /**
      * Object to manage user files.
      */
@@ -51,6 +81,8 @@ public class UIController {
 
     private CommandGenerator commandGenerator;
 
+    private DataGenerator dataGenerator;
+
     /**
      * Default values of paths to directories used by app to store manipulated files.
      */
@@ -58,6 +90,11 @@ public class UIController {
 
     private final String TAPES_PATH = "./tapes/";
 
+    /**
+     * Base name of the database files, concatenated with their tapes IDs.
+     */
+    private final String TAPES_BASE_NAME = "tape";
+
     /**
      * Default max numbers of buffered pages, that can stay in memory at the same time, for each file.
      */
@@ -65,18 +102,105 @@ public class UIController {
 
     private final int INDEX_FILE_BUFFERS = 1;
 
+    /**
+     * Default number of top b-tree levels, which pages are pinned in memory (in their own buffers, next to the index
+     * file buffers).
+     */
+    private final int PINNED_LEVELS = 2;
+
+    /**
+     * Max number of tape files, that can be kept open at the same time.
+     */
+    private final int OPEN_TAPE_FILES = 8;
+
+    /**
+     * Default setting of accessing database files through memory-mapped regions, and by how many pages the mapped
+     * regions are grown.
+     */
+    private final boolean MEMORY_MAPPED = false;
+
+    private final int MAPPED_CHUNK_PAGES = 64;
+
+    /**
+     * Default setting of writing modified buffered pages only when they're freed or flushed (write-back).
+     */
+    private final boolean WRITE_BACK = true;
+
+    /**
+     * Default policy of choosing which buffered page should be freed.
+     */
+    private final BufferReplacementPolicyType REPLACEMENT_POLICY = BufferReplacementPolicyType.LRU;
+
+    /**
+     * Default number of pages read ahead in the background, and number of threads reading them.
+     */
+    private final int READ_AHEAD_PAGES = 4;
+
+    private final int READ_AHEAD_THREADS = 2;
+
+    /**
+     * Default policy of forcing the write-ahead log to disk, interval of the group commit, and log size, after which
+     * the database files are checkpointed.
+     */
+    private final LogSyncPolicy LOG_SYNC_POLICY = LogSyncPolicy.GROUP;
+
+    private final long LOG_SYNC_INTERVAL_MILLIS = 10;
+
+    private final long LOG_CHECKPOINT_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Default number of the key filter bits for each index key (about 1% of searches for keys, which don't exist,
+     * read the index), and the smallest number of keys, for which the filter is sized.
+     */
+    private final int KEY_FILTER_BITS_PER_KEY = 10;
+
+    private final int KEY_FILTER_MIN_CAPACITY = 1024;
+
     /**
      * Default b-tree degree.
      */
     private final int D = 2;
 
+    /**
+     * Default index structure.
+     */
+    private final IndexType INDEX_TYPE = IndexType.B_TREE;
+
+    /**
+     * Max number of entries held in memory by the LSM index before they're written as a new run, number of runs, at
+     * which they're compacted into one, and key filter bits for each entry of a run.
+     */
+    private final int LSM_MEMTABLE_ENTRIES = 4096;
+
+    private final int LSM_MAX_RUNS = 4;
+
+    private final int LSM_RUN_FILTER_BITS_PER_KEY = 10;
+
+    /**
+     * Default part of the index nodes capacity filled by a bulk load, leaving the rest for later inserts.
+     */
+    private final double FILL_FACTOR = 0.75;
+
+    /**
+     * Default memory budget of the external sort of records loaded from a file (max number of records held in memory),
+     * and number of threads sorting the records in memory.
+     */
+    private final int SORT_MEMORY_RECORDS = 1 << 20;
+
+    private final int SORT_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Max number of commands read from a commands file, which are applied together in a batch.
+     */
+    private final int BATCH_COMMANDS = 1 << 16;
+
 
     public void inputLoop() throws IOException, InvalidAlgorithmParameterException {
         BufferedReader input = new BufferedReader(new InputStreamReader(System.in));
         this.initializationMenu(input);
         while(true) {
             System.out.println("\nChoose an option:\n1 - input commands from keyboard,\n2 - read commands from file," +
-                    "\n3 - generate commands file.");
+                    "\n3 - generate commands file,\n4 - bulk load records from a records file,\n5 - generate records file.");
             String command = input.readLine();
 
             if(command == null) {
@@ -86,6 +210,9 @@ public class UIController {
 
             if (command.equals("1")) {
                 this.databaseMenu(input);
+                // Saving the files headers, so the database can be opened again in next app run
+                this.databaseService.flush();
+                this.tapeService.shutdown();
                 break;
             }
 
@@ -110,6 +237,27 @@ public class UIController {
                 continue;
             }
 
+            if(command.equals("4"))
+            {
+                this.bulkLoadFromFile(input);
+                continue;
+            }
+
+            if(command.equals("5"))
+            {
+                System.out.println("Input path to the records file (without filename):");
+                String path = input.readLine();
+                System.out.println("Input filename of the records file: ");
+                String filename = input.readLine();
+                int count = this.readIntBiggerThan(input,
+                        "How many records would you like to generate: ",
+                        0,
+                        10);
+                dataGenerator.generateRecordsFile(path, filename, count);
+                System.out.println("Records file has been generated.");
+                continue;
+            }
+
 
             System.out.println("Bad command syntax.");
         }
@@ -120,14 +268,28 @@ public class UIController {
         String path = input.readLine();
         System.out.println("Input filename of the commands file: ");
         String filename = input.readLine();
+        boolean batched = this.readBoolean(input,
+                "Apply create, update and delete commands in sorted batches, y/n (default is n): ",
+                false);
         Path completePath = Path.of(path).resolve(filename);
         File file = new File(completePath.toString());
         String line;
+        List<String> batch = new ArrayList<>();
         try (BufferedReader fileInput = new BufferedReader(new FileReader(file)))
         {
             line = fileInput.readLine();
             while(line != null && !line.isEmpty())
             {
+                if(batched && this.isBatchCommand(line)) {
+                    batch.add(line);
+                    if(batch.size() == this.BATCH_COMMANDS)
+                        this.applyBatch(batch);
+                    line = fileInput.readLine();
+                    continue;
+                }
+
+                // Other commands may read the database, so the commands before them are applied first
+                this.applyBatch(batch);
                 System.out.println(line);
                 if(line.length() < 2)
                     System.out.println("Bad command syntax.");
@@ -136,12 +298,62 @@ public class UIController {
 
                 line = fileInput.readLine();
             }
+            this.applyBatch(batch);
         } catch (IOException | InvalidAlgorithmParameterException e) {
             throw new RuntimeException(e);
         }
         System.out.println("Executed all commands from input file.");
     }
 
+    private boolean isBatchCommand(String command)
+    {
+        return command.length() >= 2 && command.charAt(1) == ' '
+                && (command.charAt(0) == 'C' || command.charAt(0) == 'U' || command.charAt(0) == 'P'
+                || command.charAt(0) == 'D');
+    }
+
+    /**
+     * Applies the batch of commands, if it isn't empty, and clears it.
+     * @param batch
+     */
+    private void applyBatch(List<String> batch) throws InvalidAlgorithmParameterException {
+        if(batch.isEmpty())
+            return;
+
+        Statistics indexStateBefore = statisticsService.getCurrentState(databaseService.getIndexTapeID());
+        Statistics dataStateBefore = statisticsService.getCurrentState(databaseService.getDataTapeID());
+        try {
+            databaseService.applyBatch(batch);
+            statisticsService.saveOperationStats("BATCH", indexStateBefore, dataStateBefore);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Batch of " + batch.size() + " commands hasn't been applied: " + e.getMessage());
+        }
+        batch.clear();
+    }
+
+    private void bulkLoadFromFile(BufferedReader input) throws IOException, InvalidAlgorithmParameterException {
+        System.out.println("\nInput path to the records file (without filename): ");
+        String path = input.readLine();
+        System.out.println("Input filename of the records file: ");
+        String filename = input.readLine();
+        boolean sortInput = this.readBoolean(input,
+                "Sort the records first (records with repeated keys are dropped), y/n (default is y): ",
+                true);
+        double fillFactor = this.readFraction(input,
+                "Fill factor of the index nodes, from range (0, 1] (default is " + this.FILL_FACTOR + "): ",
+                this.FILL_FACTOR);
+
+        Statistics indexStateBefore = statisticsService.getCurrentState(databaseService.getIndexTapeID());
+        Statistics dataStateBefore = statisticsService.getCurrentState(databaseService.getDataTapeID());
+        try {
+            databaseService.bulkLoad(new File(Path.of(path).resolve(filename).toString()), fillFactor, sortInput);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            System.out.println("Records couldn't be loaded: " + e.getMessage());
+            return;
+        }
+        statisticsService.saveOperationStats("BULK LOAD", indexStateBefore, dataStateBefore);
+    }
+
     private void databaseMenu(BufferedReader input) throws IOException, InvalidAlgorithmParameterException {
         System.out.println(this.databaseMenuText());
         String command = input.readLine();
@@ -161,7 +373,7 @@ public class UIController {
                 continue;
             }
 
-            if(command.length() < 2 && !command.equals("S")) {
+            if(command.length() < 2 && !command.equals("S") && !command.equals("F")) {
                 System.out.println("Bad command syntax.");
                 command = input.readLine();
                 continue;
@@ -192,12 +404,15 @@ public class UIController {
         menuText.append("C key mass speed            (C - Create, example: C 10 20 30)\n");
         menuText.append("R key                       (R - Read, example: R 10)\n");
         menuText.append("U key mass speed            (U - Update, example: U 10 25 35)\n");
+        menuText.append("P key mass speed            (P - Put: create or update, example: P 10 25 35)\n");
         menuText.append("D key                       (D - Delete, example: D 10)\n");
+        menuText.append("RR from to                  (Read Range of records in order, example: RR 10 20)\n");
         menuText.append("RA                          (Read All records in order)\n");
         menuText.append("RE                          (Read all index Entries in order)\n");
         menuText.append("RD                          (Read Data file pages)\n");
         menuText.append("RI                          (Read Index file pages)\n");
         menuText.append("S                           (Show all operations statistics)\n");
+        menuText.append("F                           (Flush modified buffered pages to files)\n");
         menuText.append("Other commands: menu (to show this menu again), exit (to leave)\n");
 
         return String.valueOf(menuText);
@@ -206,7 +421,6 @@ public class UIController {
         Statistics indexStateBefore = statisticsService.getCurrentState(databaseService.getIndexTapeID());
         Statistics dataStateBefore = statisticsService.getCurrentState(databaseService.getDataTapeID());
         String operationType = null;
-        int operationNumber = statisticsService.getOperations(databaseService.getIndexTapeID()) + 1; // Operation number is the same for index and data tape
         try {
             char firstLetter = command.charAt(0);
             switch (firstLetter) {
@@ -222,6 +436,10 @@ public class UIController {
                             System.out.println(databaseService.find(command));
                             operationType = "READ";
                             break;
+                        case 'R':
+                            databaseService.readRange(command);
+                            operationType = "READ RANGE";
+                            break;
                         case 'A':
                             databaseService.readAllRecords();
                             operationType = "READ ALL";
@@ -247,10 +465,19 @@ public class UIController {
                     databaseService.update(command);
                     operationType = "UPDATE";
                     break;
+                case 'P':
+                    databaseService.put(command);
+                    operationType = "PUT";
+                    break;
                 case 'D':
                     databaseService.delete(command);
                     operationType = "DELETE";
                     break;
+                case 'F':
+                    databaseService.flush();
+                    System.out.println("All modified buffered pages have been written to files.");
+                    operationType = "FLUSH";
+                    break;
                 case 'S':
                     List<Statistics> indexStats = statisticsService.getAllSummedStats(databaseService.getIndexTapeID());
                     List<Statistics> dataStats = statisticsService.getAllSummedStats(databaseService.getDataTapeID());
@@ -285,18 +512,7 @@ public class UIController {
 
             // Save operation statistics
             if(operationType != null)
-            {
-                Statistics indexStateAfter = statisticsService.getCurrentState(databaseService.getIndexTapeID());
-                Statistics dataStateAfter = statisticsService.getCurrentState(databaseService.getDataTapeID());
-                Statistics indexOperationStats = statisticsService.subtractStats(indexStateAfter, indexStateBefore);
-                Statistics dataOperationStats = statisticsService.subtractStats(dataStateAfter, dataStateBefore);
-                indexOperationStats.setOperation(operationNumber);
-                indexOperationStats.setType(operationType);
-                dataOperationStats.setOperation(operationNumber);
-                dataOperationStats.setType(operationType);
-                statisticsService.setOperationStats(databaseService.getIndexTapeID(), operationNumber, indexOperationStats);
-                statisticsService.setOperationStats(databaseService.getDataTapeID(), operationNumber, dataOperationStats);
-            }
+                statisticsService.saveOperationStats(operationType, indexStateBefore, dataStateBefore);
 
         } catch (IllegalArgumentException e)
         {
@@ -309,7 +525,7 @@ public class UIController {
      * App's main menu dialog. Initializes database with read parameters.
      * @return
      */
-    private void initializationMenu(BufferedReader input) throws IOException {
+    private void initializationMenu(BufferedReader input) throws IOException, InvalidAlgorithmParameterException {
         StringBuilder menuText = new StringBuilder();
         menuText.append("\nThis is an implementation of a database structure with b-tree index file. It can store records consisting\n" +
                 "of an 8-byte key, 4-byte mass of some object and 4-byte speed of that object (e.g. k=12, m=70 kg, s=10 m/s).\n" +
@@ -319,6 +535,12 @@ public class UIController {
         String tapesPath = input.readLine();
         tapesPath = (tapesPath != null && !tapesPath.isEmpty()) ? tapesPath : this.TAPES_PATH;
 
+        // Database saved in the path by a previous app run can be opened instead of being deleted
+        TapeHeader storedIndexHeader = this.findStoredIndexHeader(tapesPath);
+        boolean openExisting = storedIndexHeader != null && this.readBoolean(input,
+                "Database files found in this path. Open the existing database, y/n (default is y): ",
+                true);
+
         int dataBuffers = this.readIntBiggerThan(input,
                 "Data file buffers number (default is " + this.DATA_FILE_BUFFERS + "): ",
                 0,
@@ -329,13 +551,105 @@ public class UIController {
                 0,
                 this.INDEX_FILE_BUFFERS);
 
-        int bTreeDegree = this.readIntBiggerThan(input,
+        // Structure of an existing index can't be changed, because it determines the index file pages layout
+        IndexType indexType = openExisting ? IndexType.fromCode(storedIndexHeader.getIndexType()) : this.readIndexType(input,
+                "Index structure - B (b-tree), B+ (B+tree with linked leaves), COW (copy-on-write B+tree), LSM (log-structured merge tree) or HASH (extendible hashing) (default is "
+                        + this.INDEX_TYPE.getLabel() + "): ",
+                this.INDEX_TYPE);
+        if(indexType == null)
+            throw new IllegalStateException("Index file header contains unknown index structure type.");
+
+        // Degree of an existing b-tree can't be changed, because it determines the index file page size
+        int bTreeDegree = openExisting ? storedIndexHeader.getDegree() : this.readIntBiggerThan(input,
                 "B-tree degree (default is " + this.D + "): ",
                 0,
                 this.D);
 
-        this.initDatabase(tapesPath, dataBuffers, indexBuffers, bTreeDegree);
-        System.out.println("\nDatabase has been initialized.");
+        int pinnedLevels = this.readIntBiggerThan(input,
+                "Top b-tree levels pinned in memory, 0 turns it off (default is " + this.PINNED_LEVELS + "): ",
+                -1,
+                this.PINNED_LEVELS);
+
+        int defaultPinnedBuffers = this.countTopLevelsNodes(pinnedLevels, bTreeDegree);
+        int pinnedBuffers = pinnedLevels == 0 ? 0 : this.readIntBiggerThan(input,
+                "Pinned index file buffers number (default is " + defaultPinnedBuffers + ", enough for all pinned levels): ",
+                -1,
+                defaultPinnedBuffers);
+
+        boolean memoryMapped = this.readBoolean(input,
+                "Memory-mapped database files, y/n (default is " + (this.MEMORY_MAPPED ? "y" : "n") + "): ",
+                this.MEMORY_MAPPED);
+
+        boolean writeBack = this.readBoolean(input,
+                "Write-back buffers (modified pages written only when freed or flushed), y/n (default is "
+                        + (this.WRITE_BACK ? "y" : "n") + "): ",
+                this.WRITE_BACK);
+
+        BufferReplacementPolicyType replacementPolicy = this.readReplacementPolicy(input,
+                "Buffer replacement policy - FURTHEST, LRU, CLOCK, 2Q or ARC (default is "
+                        + this.REPLACEMENT_POLICY.getLabel() + "): ",
+                this.REPLACEMENT_POLICY);
+
+        int readAheadPages = this.readIntBiggerThan(input,
+                "Pages read ahead in the background, 0 turns it off (default is " + this.READ_AHEAD_PAGES + "): ",
+                -1,
+                this.READ_AHEAD_PAGES);
+
+        LogSyncPolicy logSyncPolicy = this.readLogSyncPolicy(input,
+                "Write-ahead log sync - OPERATION, GROUP (group commit), ASYNC (asynchronous commit) or NONE (default is "
+                        + this.LOG_SYNC_POLICY.getLabel() + "): ",
+                this.LOG_SYNC_POLICY);
+
+        int keyFilterBitsPerKey = this.readIntBiggerThan(input,
+                "Key filter bits per index key, 0 turns it off (default is " + this.KEY_FILTER_BITS_PER_KEY + "): ",
+                -1,
+                this.KEY_FILTER_BITS_PER_KEY);
+
+        this.initDatabase(tapesPath, dataBuffers, indexBuffers, pinnedLevels, pinnedBuffers, indexType, bTreeDegree,
+                memoryMapped, writeBack, replacementPolicy, readAheadPages, logSyncPolicy, keyFilterBitsPerKey, openExisting);
+        System.out.println(openExisting ? "\nDatabase has been opened." : "\nDatabase has been initialized.");
+    }
+
+    /**
+     * @param levels
+     * @param d
+     * @return Max number of nodes on the top levels of a b-tree of degree d (each node has at most 2d + 1 children).
+     */
+    private int countTopLevelsNodes(int levels, int d)
+    {
+        long nodes = 0;
+        long levelNodes = 1;
+        for(int level = 0; level < levels && nodes < Integer.MAX_VALUE; level++) {
+            nodes += levelNodes;
+            levelNodes *= 2L * d + 1;
+        }
+        return (int) Math.min(nodes, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Looks for the index file header of a database saved in the path.
+     * @param tapesPath
+     * @return Header of the index file or null, if there is no database in the path.
+     */
+    private TapeHeader findStoredIndexHeader(String tapesPath)
+    {
+        File[] files = new File(tapesPath).listFiles((dir, name) ->
+                name.startsWith(this.TAPES_BASE_NAME + "_") && name.endsWith(".hdr"));
+        if(files == null)
+            return null;
+
+        TapeHeaderConverter tapeHeaderConverter = new TapeHeaderConverter();
+        for(File file : files)
+        {
+            try {
+                TapeHeader header = tapeHeaderConverter.bytesToHeader(Files.readAllBytes(file.toPath()));
+                if(header != null && header.isIndexTape())
+                    return header;
+            } catch (IOException e) {
+                System.out.println("Header file " + file + " couldn't be read.");
+            }
+        }
+        return null;
     }
 
     private int readIntBiggerThan(BufferedReader input, String description, int threshold, int defaultValue) throws IOException {
@@ -352,33 +666,141 @@ public class UIController {
             }
         }
     }
-    private void initDatabase(String tapesPath, int dataFileBuffers, int indexFileBuffers, int d)
+    private double readFraction(BufferedReader input, String description, double defaultValue) throws IOException {
+        double value;
+        while(true) {
+            System.out.print(description);
+            String valueText = input.readLine();
+            try {
+                value = (valueText != null && !valueText.isEmpty()) ? Double.parseDouble(valueText) : defaultValue;
+                if(value > 0 && value <= 1)
+                    return value;
+            } catch (NumberFormatException e) {
+                System.out.println("Incorrect input. Please input a value bigger than 0 and not bigger than 1.");
+            }
+        }
+    }
+    private boolean readBoolean(BufferedReader input, String description, boolean defaultValue) throws IOException {
+        while(true) {
+            System.out.print(description);
+            String valueText = input.readLine();
+            if(valueText == null || valueText.isEmpty())
+                return defaultValue;
+            if(valueText.equalsIgnoreCase("y"))
+                return true;
+            if(valueText.equalsIgnoreCase("n"))
+                return false;
+            System.out.println("Incorrect input. Please input 'y' or 'n'.");
+        }
+    }
+    private BufferReplacementPolicyType readReplacementPolicy(BufferedReader input, String description,
+                                                              BufferReplacementPolicyType defaultValue) throws IOException {
+        while(true) {
+            System.out.print(description);
+            String valueText = input.readLine();
+            if(valueText == null || valueText.isEmpty())
+                return defaultValue;
+            BufferReplacementPolicyType value = BufferReplacementPolicyType.fromLabel(valueText.trim());
+            if(value != null)
+                return value;
+            System.out.println("Incorrect input. Please input one of the listed policies names.");
+        }
+    }
+    private IndexType readIndexType(BufferedReader input, String description, IndexType defaultValue) throws IOException {
+        while(true) {
+            System.out.print(description);
+            String valueText = input.readLine();
+            if(valueText == null || valueText.isEmpty())
+                return defaultValue;
+            IndexType value = IndexType.fromLabel(valueText.trim());
+            if(value != null)
+                return value;
+            System.out.println("Incorrect input. Please input one of the listed index structures names.");
+        }
+    }
+    private LogSyncPolicy readLogSyncPolicy(BufferedReader input, String description,
+                                            LogSyncPolicy defaultValue) throws IOException {
+        while(true) {
+            System.out.print(description);
+            String valueText = input.readLine();
+            if(valueText == null || valueText.isEmpty())
+                return defaultValue;
+            LogSyncPolicy value = LogSyncPolicy.fromLabel(valueText.trim());
+            if(value != null)
+                return value;
+            System.out.println("Incorrect input. Please input one of the listed policies names.");
+        }
+    }
+    private void initDatabase(String tapesPath, int dataFileBuffers, int indexFileBuffers, int pinnedLevels,
+                              int pinnedIndexFileBuffers, IndexType indexType, int d, boolean memoryMapped, boolean writeBack, BufferReplacementPolicyType replacementPolicy, int readAheadPages,
+                              LogSyncPolicy logSyncPolicy, int keyFilterBitsPerKey, boolean openExisting) throws InvalidAlgorithmParameterException
     {
-        this.cleanUpAppFiles(tapesPath);
+        if(!openExisting)
+            this.cleanUpAppFiles(tapesPath);
 
         // 2d * Entry size + (2d + 1) * Pointer size + 1 parent Pointer size
         int nodeSize = 2*d* Entry.builder().build().getSize() + (2*d + 1)*4 + 4;
 
+        // All buffers are kept in one off-heap arena, with a frame for each buffer of the data and index file
+        // (pinned index file buffers included)
+        PageArena pageArena = new PageArena(dataFileBuffers + indexFileBuffers + pinnedIndexFileBuffers, nodeSize);
+
+        // Channels of the tapes files are shared by all tapes I/O (mapped regions and read-ahead included)
+        TapeFileChannels fileChannels = TapeFileChannels.builder()
+                .maxOpenFiles(this.OPEN_TAPE_FILES)
+                .build();
+        WriteAheadLog writeAheadLog = new WriteAheadLog(Path.of(tapesPath, this.TAPES_BASE_NAME + "_wal.log"),
+                logSyncPolicy, this.LOG_SYNC_INTERVAL_MILLIS, this.LOG_CHECKPOINT_SIZE);
+
         // Create all services and controllers and inject them
         TapeService tapeService = TapeService.builder()
-                .tapes(new HashMap<>())
-                .tapesCurrentReadBlock(new HashMap<>())
-                .tapesCurrentWriteBlock(new HashMap<>())
-                .tapesBufferedBlocks(new HashMap<>())
-                .isEOF(new HashMap<>())
+                .tapes(new ConcurrentHashMap<>())
+                .tapesCurrentReadBlock(new ConcurrentHashMap<>())
+                .tapesCurrentWriteBlock(new ConcurrentHashMap<>())
+                .pageArena(pageArena)
+                .tapesPageFrames(new ConcurrentHashMap<>())
+                .tapesPinnedPages(new ConcurrentHashMap<>())
+                .isEOF(new ConcurrentHashMap<>())
+                .fileChannels(fileChannels)
+                .mappedRegions(memoryMapped ? TapeMappedRegions.builder()
+                        .fileChannels(fileChannels)
+                        .pageSize(nodeSize)
+                        .mappedChunkPages(this.MAPPED_CHUNK_PAGES)
+                        .build() : null)
+                .writeBack(writeBack)
+                .tapesDirtyBlocks(new ConcurrentHashMap<>())
+                .replacementPolicy(replacementPolicy)
+                .tapesReplacementPolicies(new ConcurrentHashMap<>())
+                .tapeReadAhead(TapeReadAhead.builder()
+                        .fileChannels(fileChannels)
+                        .pageSize(nodeSize)
+                        .readAheadPages(readAheadPages)
+                        .readAheadExecutor(readAheadPages > 0 ? Executors.newFixedThreadPool(this.READ_AHEAD_THREADS, runnable -> {
+                            Thread thread = new Thread(runnable, "read-ahead");
+                            thread.setDaemon(true);
+                            return thread;
+                        }) : null)
+                        .build())
+                .writeAheadLog(writeAheadLog)
+                .checkpointer(TapeCheckpointer.builder()
+                        .writeAheadLog(writeAheadLog)
+                        .tapeHeaderConverter(new TapeHeaderConverter())
+                        .pageSize(nodeSize)
+                        .build())
                 .filesUtility(new FilesUtility())
+                .tapeHeaderConverter(new TapeHeaderConverter())
                 .filesPath(tapesPath)
-                .filesBaseName("tape")
+                .filesBaseName(this.TAPES_BASE_NAME)
                 .BLOCK_SIZE(nodeSize)
                 .build();
 
         RecordService recordService = RecordService.builder()
                 .tapeService(tapeService)
                 .recordConverter(new RecordConverter())
-                .readBlocksStored(new HashMap<>())
-                .readBlocksOffs(new HashMap<>())
-                .writeBlocksStored(new HashMap<>())
-                .writeBlocksOffs(new HashMap<>())
+                .readBlocksStored(new ConcurrentHashMap<>())
+                .readBlocksOffs(new ConcurrentHashMap<>())
+                .writeBlocksStored(new ConcurrentHashMap<>())
+                .writeBlocksOffs(new ConcurrentHashMap<>())
                 .build();
 
         DataService dataService = DataService.builder()
@@ -388,28 +810,113 @@ public class UIController {
         EntryService entryService = EntryService.builder()
                 .tapeService(tapeService)
                 .entryConverter(new EntryConverter())
+                .nodeConverter(new NodeConverter(new EntryConverter()))
+                .bPlusNodeConverter(new BPlusNodeConverter(new EntryConverter()))
+                .hashBucketConverter(new HashBucketConverter(new EntryConverter()))
+                .decodedNodes(new ConcurrentHashMap<>())
+                .build();
+        tapeService.addBufferFreedListener(entryService::dropDecodedNode);
+
+        IndexService indexService;
+        if(indexType == IndexType.EXTENDIBLE_HASH)
+            indexService = ExtendibleHashService.builder()
+                    .entryService(entryService)
+                    .d(d)
+                    .build();
+        else if(indexType == IndexType.LSM_TREE)
+            indexService = LsmTreeService.builder()
+                    .entryService(entryService)
+                    .d(d)
+                    .memtableEntries(this.LSM_MEMTABLE_ENTRIES)
+                    .maxRuns(this.LSM_MAX_RUNS)
+                    .keyFilterBitsPerKey(this.LSM_RUN_FILTER_BITS_PER_KEY)
+                    .compactionExecutor(Executors.newSingleThreadExecutor(runnable -> {
+                        Thread thread = new Thread(runnable, "lsm-compaction");
+                        thread.setDaemon(true);
+                        return thread;
+                    }))
+                    .build();
+        else if(indexType == IndexType.COPY_ON_WRITE_B_PLUS_TREE)
+            indexService = CopyOnWriteBPlusTreeService.builder()
+                    .entryService(entryService)
+                    .d(d)
+                    .build();
+        else if(indexType == IndexType.B_PLUS_TREE)
+            indexService = BPlusTreeService.builder()
+                    .entryService(entryService)
+                    .d(d)
+                    .pinnedLevels(pinnedLevels)
+                    .h(0)
+                    .rootPage(0)
+                    .build();
+        else
+            indexService = BTreeService.builder()
+                    .entryService(entryService)
+                    .d(d)
+                    .pinnedLevels(pinnedLevels)
+                    .h(0)
+                    .rootPage(0)
+                    .build();
+
+        UUID dataTapeID;
+        UUID indexTapeID;
+        List<byte[]> loggedOperations = List.of();
+        if(openExisting)
+        {
+            // Files are opened from their headers, without reading the files pages
+            for(UUID id : tapeService.findStoredTapesIDs())
+                tapeService.open(id);
+            if(tapeService.getDataTapesIDs().size() != 1 || tapeService.getIndexTapesIDs().size() != 1)
+                throw new IllegalStateException("Database path should contain exactly 1 data file and 1 index file.");
+
+            dataTapeID = tapeService.getDataTapesIDs().iterator().next();
+            indexTapeID = tapeService.getIndexTapesIDs().iterator().next();
+        }
+        else
+        {
+            dataTapeID = UUID.randomUUID();
+            indexTapeID = UUID.randomUUID();
+            tapeService.create(dataTapeID, false, Record.builder().build().getSize());
+            tapeService.create(indexTapeID, true);
+            tapeService.setIndexType(indexTapeID, indexType.getCode());
+        }
+        tapeService.setMaxBuffers(dataTapeID, dataFileBuffers);
+        tapeService.setMaxBuffers(indexTapeID, indexFileBuffers);
+        tapeService.setMaxPinnedBuffers(indexTapeID, pinnedIndexFileBuffers);
+        // Index metadata may span pages (like the hashing directory), so it's read once the tapes have their buffers
+        if(openExisting)
+        {
+            // Interrupted checkpoint is redone before the b-tree metadata is read
+            loggedOperations = tapeService.recoverLog();
+            indexService.open(indexTapeID);
+            System.out.println("\nOpened database with " + tapeService.getPages(dataTapeID) + " data file pages and "
+                    + tapeService.getPages(indexTapeID) + " index file pages.");
+        }
+        System.out.println("\nBuffers take up " + pageArena.getCapacityBytes() + " bytes of off-heap memory.");
+
+        ExternalSortService sortService = ExternalSortService.builder()
+                .recordService(recordService)
+                .sortExecutor(Executors.newFixedThreadPool(this.SORT_THREADS, runnable -> {
+                    Thread thread = new Thread(runnable, "external-sort");
+                    thread.setDaemon(true);
+                    return thread;
+                }))
+                .sortThreads(this.SORT_THREADS)
+                .memoryRecords(this.SORT_MEMORY_RECORDS)
                 .build();
 
-        BTreeService bTreeService = BTreeService.builder()
+        KeyFilterService keyFilterService = keyFilterBitsPerKey == 0 ? null : KeyFilterService.builder()
                 .entryService(entryService)
-                .d(d)
-                .h(0)
-                .rootPage(0)
-                .lastSearchedNode(0)
-                .sequentialReadLastNode(0)
-                .sequentialReadChildToReadNumber(0)
+                .bloomFilterConverter(new BloomFilterConverter())
+                .bitsPerKey(keyFilterBitsPerKey)
+                .minCapacity(this.KEY_FILTER_MIN_CAPACITY)
                 .build();
 
-        UUID dataTapeID = UUID.randomUUID();
-        UUID indexTapeID = UUID.randomUUID();
-        tapeService.create(dataTapeID, false);
-        tapeService.setMaxBuffers(dataTapeID, dataFileBuffers);
-        tapeService.create(indexTapeID, true);
-        tapeService.setMaxBuffers(indexTapeID, indexFileBuffers);
-
         DatabaseService databaseService = DatabaseService.builder()
                 .dataService(dataService)
-                .bTreeService(bTreeService)
+                .indexService(indexService)
+                .sortService(sortService)
+                .keyFilterService(keyFilterService)
                 .recordConverter(new RecordConverter())
                 .dataTapeID(dataTapeID)
                 .indexTapeID(indexTapeID)
@@ -419,12 +926,24 @@ public class UIController {
                 .tapeService(tapeService)
                 .recordConverter(new RecordConverter())
                 .nodeConverter(new NodeConverter(new EntryConverter()))
+                .bPlusNodeConverter(new BPlusNodeConverter(new EntryConverter()))
+                .hashBucketConverter(new HashBucketConverter(new EntryConverter()))
                 .dataTapeID(dataTapeID)
                 .indexTapeID(indexTapeID)
                 .build();
 
+        // Key filter is needed by the replayed operations already
+        databaseService.openKeyFilter();
+
+        // Operations not checkpointed before the app was closed are replayed, and a new database is flushed right
+        // away, so it has headers to be opened from, even if the app is closed before the first flush
+        if(!loggedOperations.isEmpty())
+            System.out.println("Replaying " + loggedOperations.size() + " operations from the write-ahead log.");
+        databaseService.replay(loggedOperations);
+
         this.databaseService = databaseService;
         this.databaseRawReader = databaseRawReader;
+        this.tapeService = tapeService;
 
         DataGenerator dataGenerator = new DataGenerator(new RecordConverter(), new FilesUtility());
         CommandGenerator commandGenerator = CommandGenerator.builder()
@@ -435,11 +954,12 @@ public class UIController {
                 .build();
 
         this.commandGenerator = commandGenerator;
+        this.dataGenerator = dataGenerator;
         this.filesUtility = new FilesUtility();
 
         StatisticsService statisticsService = StatisticsService.builder()
                 .dataService(dataService)
-                .bTreeService(bTreeService)
+                .indexService(indexService)
                 .dataTapeID(dataTapeID)
                 .indexTapeID(indexTapeID)
                 .dataFileStatistics(new HashMap<>())
@@ -0,0 +1,146 @@
+package btree.service;
+
+import database.service.TestDatabase;
+import entry.entity.Entry;
+import entry.service.EntryService;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import tape.service.BufferReplacementPolicyType;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+
+/**
+ * Single descent of the index changes and sequential reading of the b-tree, which keeps the rest of a leaf between
+ * the reads.
+ */
+public class BTreeServiceTest extends TestCase
+{
+    private Path path;
+
+    private TestDatabase database;
+
+    public BTreeServiceTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(BTreeServiceTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        this.path = TestDatabase.createDirectory();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        if(this.database != null)
+            this.database.close();
+        TestDatabase.deleteDirectory(this.path);
+    }
+
+    public void testBTreeChangesReadOneSearchPath() throws Exception
+    {
+        this.assertChangesReadOneSearchPath(IndexType.B_TREE);
+    }
+
+    public void testBPlusTreeChangesReadOneSearchPath() throws Exception
+    {
+        this.assertChangesReadOneSearchPath(IndexType.B_PLUS_TREE);
+    }
+
+    /**
+     * Insert of an existing key and delete of a missing key only search for the key, so they read the same pages as
+     * a search of the key, when no page is buffered.
+     * @param indexType
+     */
+    private void assertChangesReadOneSearchPath(IndexType indexType) throws Exception
+    {
+        this.database = TestDatabase.create(this.path, indexType, BufferReplacementPolicyType.LRU, null);
+        IndexService indexService = this.database.getIndexService();
+        UUID tapeID = this.database.getIndexTapeID();
+        for(long key = 2; key <= 120; key += 2)
+        {
+            long insertedKey = key;
+            assertNull(indexService.insertEntryIfAbsent(tapeID, insertedKey, () -> (int) insertedKey));
+        }
+
+        for(long key : List.of(2L, 40L, 78L, 120L))
+        {
+            int searchReads = this.countIndexReads(() -> indexService.findEntry(tapeID, key));
+            assertTrue(searchReads > 1);
+            assertEquals(searchReads, this.countIndexReads(() -> indexService.insertEntryIfAbsent(tapeID, key, () -> 0)));
+        }
+        for(long key : List.of(1L, 41L, 121L))
+        {
+            int searchReads = this.countIndexReads(() -> indexService.findEntry(tapeID, key));
+            assertEquals(searchReads, this.countIndexReads(() -> indexService.removeEntry(tapeID, key)));
+        }
+    }
+
+    /**
+     * Entries inserted and deleted ahead of the sequential reading, in the leaf it is reading, are seen by the next
+     * reads, even though the rest of the leaf has been kept by the previous read.
+     */
+    public void testSequentialReadingSeesChangesAhead() throws Exception
+    {
+        this.database = TestDatabase.create(this.path, IndexType.B_TREE, BufferReplacementPolicyType.LRU, null);
+        IndexService indexService = this.database.getIndexService();
+        UUID tapeID = this.database.getIndexTapeID();
+        for(long key = 10; key <= 400; key += 10)
+        {
+            long insertedKey = key;
+            assertNull(indexService.insertEntryIfAbsent(tapeID, insertedKey, () -> (int) insertedKey));
+        }
+
+        List<Long> keys = new ArrayList<>();
+        indexService.resetReadingBTree();
+        Entry entry;
+        while((entry = indexService.readNextEntry(tapeID)) != null)
+        {
+            keys.add(entry.getKey());
+            long key = entry.getKey();
+            if(key % 50 == 0 && key < 400) {
+                assertNull(indexService.insertEntryIfAbsent(tapeID, key + 5, () -> (int) key + 5));
+                assertNotNull(indexService.removeEntry(tapeID, key + 10));
+            }
+        }
+
+        List<Long> expectedKeys = new ArrayList<>();
+        for(long key = 10; key <= 400; key += 10)
+        {
+            if(key % 50 == 10 && key > 50)
+                continue;
+            expectedKeys.add(key);
+            if(key % 50 == 0 && key < 400)
+                expectedKeys.add(key + 5);
+        }
+        assertEquals(expectedKeys, keys);
+    }
+
+    /**
+     * @param operation
+     * @return Number of the index pages read by the operation, when no page is buffered at its start.
+     */
+    private int countIndexReads(Callable<?> operation) throws Exception
+    {
+        EntryService entryService = this.database.getEntryService();
+        UUID tapeID = this.database.getIndexTapeID();
+        this.database.getIndexService().flush(tapeID);
+        for(int page : new ArrayList<>(entryService.getBufferedPages(tapeID)))
+            entryService.freeBufferedBlock(tapeID, page);
+
+        int reads = entryService.getReads(tapeID);
+        operation.call();
+        return entryService.getReads(tapeID) - reads;
+    }
+}
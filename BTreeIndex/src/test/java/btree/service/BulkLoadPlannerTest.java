@@ -0,0 +1,69 @@
+package btree.service;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Arrays;
+
+/**
+ * Sizes of the nodes of a level built by a bulk load.
+ */
+public class BulkLoadPlannerTest extends TestCase
+{
+    public BulkLoadPlannerTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(BulkLoadPlannerTest.class);
+    }
+
+    /**
+     * Nodes of every level, for all fill factors, are between the minimum and the capacity, differ by at most one
+     * slot and hold all the slots.
+     */
+    public void testNodesWithinCapacityAndEven()
+    {
+        for(double fillFactor : new double[] {0.01, 0.3, 0.5, 0.7, 0.9, 1})
+        {
+            for(int slots = 1; slots <= 200; slots++)
+            {
+                int[] nodesSlots = BulkLoadPlanner.planLevel(slots, 3, 5, fillFactor);
+                String plan = slots + " slots, fill factor " + fillFactor + ": " + Arrays.toString(nodesSlots);
+                assertEquals(plan, slots, Arrays.stream(nodesSlots).sum());
+                int min = Arrays.stream(nodesSlots).min().getAsInt();
+                int max = Arrays.stream(nodesSlots).max().getAsInt();
+                assertTrue(plan, max <= 5);
+                assertTrue(plan, max - min <= 1);
+                if(nodesSlots.length > 1)
+                    assertTrue(plan, min >= 3);
+            }
+        }
+    }
+
+    public void testFillFactorSetsNodesCount()
+    {
+        assertEquals(20, BulkLoadPlanner.planLevel(100, 3, 5, 1).length);
+        assertEquals(25, BulkLoadPlanner.planLevel(100, 3, 5, 0.8).length);
+        // Nodes aren't filled below the minimum, whatever the fill factor
+        assertEquals(33, BulkLoadPlanner.planLevel(100, 3, 5, 0.1).length);
+        // Single node is the root, which may be below the minimum
+        assertTrue(Arrays.equals(new int[] {2}, BulkLoadPlanner.planLevel(2, 3, 5, 1)));
+    }
+
+    public void testFillFactorOutOfRange()
+    {
+        for(double fillFactor : new double[] {0, -0.5, 1.01})
+        {
+            try {
+                BulkLoadPlanner.planLevel(10, 3, 5, fillFactor);
+                fail("Fill factor " + fillFactor + " was accepted.");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+}
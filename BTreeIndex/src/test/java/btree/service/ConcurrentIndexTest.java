@@ -0,0 +1,196 @@
+package btree.service;
+
+import database.service.TestDatabase;
+import entry.entity.Entry;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import tape.service.BufferReplacementPolicyType;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Inserts, searches and deletions of many threads at once on the b-tree indexes, while other threads read all entries
+ * sequentially. Each writer changes its own keys, so the result is known regardless of the threads interleaving.
+ */
+public class ConcurrentIndexTest extends TestCase
+{
+    private static final int WRITERS = 4;
+
+    private static final int SCANNERS = 2;
+
+    private static final int KEYS_PER_WRITER = 300;
+
+    private Path path;
+
+    private TestDatabase database;
+
+    public ConcurrentIndexTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(ConcurrentIndexTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        this.path = TestDatabase.createDirectory();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        if(this.database != null)
+            this.database.close();
+        TestDatabase.deleteDirectory(this.path);
+    }
+
+    public void testBPlusTreeWithConcurrentWriters() throws Exception
+    {
+        this.runWriters(IndexType.B_PLUS_TREE, BufferReplacementPolicyType.CLOCK);
+    }
+
+    public void testBTreeWithConcurrentWriters() throws Exception
+    {
+        this.runWriters(IndexType.B_TREE, BufferReplacementPolicyType.CLOCK);
+    }
+
+    /**
+     * Writers of the b-tree free buffers of pages, which other writers have just changed, with a policy choosing pages
+     * in a different order.
+     */
+    public void testBTreeWithConcurrentWritersAndARC() throws Exception
+    {
+        this.runWriters(IndexType.B_TREE, BufferReplacementPolicyType.ARC);
+    }
+
+    /**
+     * Readers of the copy-on-write b+tree don't take latches, so scanners read snapshots, while writers publish new
+     * roots.
+     */
+    public void testCopyOnWriteBPlusTreeWithConcurrentWriters() throws Exception
+    {
+        this.runWriters(IndexType.COPY_ON_WRITE_B_PLUS_TREE, BufferReplacementPolicyType.CLOCK);
+    }
+
+    /**
+     * Writers of the LSM index write and compact many runs, which scanners and other writers read at the same time,
+     * more than the open files limit of the tapes.
+     */
+    public void testLsmTreeWithConcurrentWriters() throws Exception
+    {
+        this.runWriters(IndexType.LSM_TREE, BufferReplacementPolicyType.CLOCK);
+    }
+
+    /**
+     * Each writer inserts its keys in random order, checks that all of them are found, deletes keys not divisible
+     * by 3, and checks that only the rest is found. Scanners check that entries are always read in ascending order.
+     * At last, a sequential read has to return exactly the keys divisible by 3.
+     * @param indexType
+     * @param replacementPolicy
+     */
+    private void runWriters(IndexType indexType, BufferReplacementPolicyType replacementPolicy) throws Exception
+    {
+        this.database = TestDatabase.create(this.path, indexType, replacementPolicy, null);
+        IndexService indexService = this.database.getIndexService();
+        UUID tapeID = this.database.getIndexTapeID();
+
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS + SCANNERS);
+        try {
+            AtomicBoolean writersDone = new AtomicBoolean();
+            List<Future<?>> writers = new ArrayList<>();
+            for(int writer = 0; writer < WRITERS; writer++)
+            {
+                List<Long> keys = this.getWriterKeys(writer);
+                writers.add(executor.submit(() -> {
+                    for(long key : keys)
+                        assertNull("Key " + key + " existed before its insert.",
+                                indexService.insertEntryIfAbsent(tapeID, key, () -> (int) key));
+                    for(long key : keys)
+                    {
+                        Entry entry = indexService.findEntry(tapeID, key);
+                        assertNotNull("Inserted key " + key + " wasn't found.", entry);
+                        assertEquals((int) key, entry.getDataPage());
+                    }
+                    for(long key : keys)
+                        if(key % 3 != 0)
+                            assertNotNull("Key " + key + " wasn't removed.", indexService.removeEntry(tapeID, key));
+                    for(long key : keys)
+                        assertEquals("Key " + key + " was found wrongly after deletions.", key % 3 == 0,
+                                indexService.findEntry(tapeID, key) != null);
+                    return null;
+                }));
+            }
+
+            List<Future<?>> scanners = new ArrayList<>();
+            for(int scanner = 0; scanner < SCANNERS; scanner++)
+                scanners.add(executor.submit(() -> {
+                    while(!writersDone.get())
+                        this.readAllKeys(indexService, tapeID);
+                    return null;
+                }));
+
+            for(Future<?> writer : writers)
+                writer.get(120, TimeUnit.SECONDS);
+            writersDone.set(true);
+            for(Future<?> scanner : scanners)
+                scanner.get(60, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<Long> expectedKeys = new ArrayList<>();
+        for(int writer = 0; writer < WRITERS; writer++)
+            for(long key : this.getWriterKeys(writer))
+                if(key % 3 == 0)
+                    expectedKeys.add(key);
+        Collections.sort(expectedKeys);
+        assertEquals(expectedKeys, this.readAllKeys(indexService, tapeID));
+        // Runs of the LSM index are only merged, there are no nodes to split
+        if(indexType != IndexType.LSM_TREE)
+            assertTrue(indexService.getSplits() > 0);
+        assertTrue(indexService.getMerges() > 0);
+    }
+
+    /**
+     * @param writer
+     * @return Keys of the writer in random order - keys of all writers are interleaved, so writers change the same
+     * nodes.
+     */
+    private List<Long> getWriterKeys(int writer)
+    {
+        List<Long> keys = new ArrayList<>();
+        for(int n = 1; n <= KEYS_PER_WRITER; n++)
+            keys.add((long) n * WRITERS + writer);
+        Collections.shuffle(keys, new Random(writer));
+        return keys;
+    }
+
+    /**
+     * Reads all entries sequentially and checks, that their keys are strictly ascending.
+     * @param indexService
+     * @param tapeID
+     * @return Keys of all entries.
+     */
+    private List<Long> readAllKeys(IndexService indexService, UUID tapeID)
+    {
+        List<Long> keys = new ArrayList<>();
+        indexService.resetReadingBTree();
+        Entry entry;
+        while((entry = indexService.readNextEntry(tapeID)) != null)
+        {
+            if(!keys.isEmpty())
+                assertTrue("Key " + entry.getKey() + " was read after key " + keys.get(keys.size() - 1) + ".",
+                        entry.getKey() > keys.get(keys.size() - 1));
+            keys.add(entry.getKey());
+        }
+        return keys;
+    }
+}
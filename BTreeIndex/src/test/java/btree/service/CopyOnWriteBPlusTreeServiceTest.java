@@ -0,0 +1,97 @@
+package btree.service;
+
+import database.service.TestDatabase;
+import entry.entity.Entry;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import tape.service.BufferReplacementPolicyType;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Snapshots of the copy-on-write b+tree, which are read while changes publish newer ones.
+ */
+public class CopyOnWriteBPlusTreeServiceTest extends TestCase
+{
+    private Path path;
+
+    private TestDatabase database;
+
+    public CopyOnWriteBPlusTreeServiceTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(CopyOnWriteBPlusTreeServiceTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        this.path = TestDatabase.createDirectory();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        if(this.database != null)
+            this.database.close();
+        TestDatabase.deleteDirectory(this.path);
+    }
+
+    /**
+     * Reader holds the snapshot of its first read, while all its keys are deleted and other keys are inserted. Pages
+     * replaced by the changes aren't reused until the snapshot is released, so the reader still reads all the old
+     * keys, and they're freed only after the release.
+     */
+    public void testHeldSnapshotPagesNotReusedUntilReleased() throws Exception
+    {
+        this.database = TestDatabase.create(this.path, IndexType.COPY_ON_WRITE_B_PLUS_TREE, BufferReplacementPolicyType.LRU, null);
+        IndexService indexService = this.database.getIndexService();
+        UUID tapeID = this.database.getIndexTapeID();
+        List<Long> expectedKeys = new ArrayList<>();
+        for(long key = 1; key <= 60; key++)
+        {
+            long insertedKey = key;
+            assertNull(indexService.insertEntryIfAbsent(tapeID, insertedKey, () -> (int) insertedKey));
+            expectedKeys.add(key);
+        }
+
+        List<Long> keys = new ArrayList<>();
+        indexService.resetReadingBTree();
+        keys.add(indexService.readNextEntry(tapeID).getKey());
+
+        for(long key = 1; key <= 60; key++)
+            assertNotNull(indexService.removeEntry(tapeID, key));
+        for(long key = 1001; key <= 1060; key++)
+        {
+            long insertedKey = key;
+            assertNull(indexService.insertEntryIfAbsent(tapeID, insertedKey, () -> (int) insertedKey));
+        }
+        indexService.flush(tapeID);
+        int heldFreePages = indexService.getTapeFreePages(tapeID);
+
+        Entry entry;
+        while((entry = indexService.readNextEntry(tapeID)) != null)
+            keys.add(entry.getKey());
+        assertEquals(expectedKeys, keys);
+
+        // Snapshot is released by reading its last entry, so its pages are freed by the next flush
+        indexService.flush(tapeID);
+        assertTrue(indexService.getTapeFreePages(tapeID) > heldFreePages);
+
+        keys.clear();
+        indexService.resetReadingBTree();
+        while((entry = indexService.readNextEntry(tapeID)) != null)
+            keys.add(entry.getKey());
+        assertEquals(60, keys.size());
+        assertEquals(1001L, (long) keys.get(0));
+        assertEquals(1060L, (long) keys.get(59));
+    }
+}
@@ -0,0 +1,175 @@
+package database.service;
+
+import btree.service.IndexService;
+import btree.service.IndexType;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import record.entity.Record;
+import tape.service.BufferReplacementPolicyType;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loading sorted records files into an empty database, with the index built bottom-up.
+ */
+public class BulkLoadTest extends TestCase
+{
+    private static final int RECORDS = 300;
+
+    private Path path;
+
+    private TestDatabase database;
+
+    public BulkLoadTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(BulkLoadTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        this.path = TestDatabase.createDirectory();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        if(this.database != null)
+            this.database.close();
+        TestDatabase.deleteDirectory(this.path);
+    }
+
+    public void testBTreeBulkLoad() throws Exception
+    {
+        this.assertBulkLoad(IndexType.B_TREE);
+    }
+
+    public void testBPlusTreeBulkLoad() throws Exception
+    {
+        this.assertBulkLoad(IndexType.B_PLUS_TREE);
+    }
+
+    /**
+     * Loaded records are found and read in order, and the index stays valid for later changes. Lower fill factor
+     * leaves room in the nodes, so the index has more pages.
+     * @param indexType
+     */
+    private void assertBulkLoad(IndexType indexType) throws Exception
+    {
+        File file = this.writeSortedRecords();
+        int fullIndexPages = 0;
+        for(double fillFactor : new double[] {1, 0.5})
+        {
+            if(this.database != null) {
+                this.database.close();
+                TestDatabase.deleteDirectory(this.path);
+                this.path = TestDatabase.createDirectory();
+            }
+            this.database = TestDatabase.create(this.path, indexType, BufferReplacementPolicyType.LRU, null);
+            DatabaseService databaseService = this.database.getDatabaseService();
+            IndexService indexService = this.database.getIndexService();
+            databaseService.bulkLoad(file, fillFactor, false);
+
+            for(long key = 1; key <= RECORDS; key++)
+                assertEquals(this.record(2 * key), databaseService.find("R " + 2 * key));
+            assertNull(databaseService.find("R 3"));
+
+            List<Long> keys = new ArrayList<>();
+            RangeCursor cursor = databaseService.findRange(1, 2 * RECORDS);
+            while(cursor.hasNext())
+                keys.add(cursor.next().getKey());
+            assertEquals(RECORDS, keys.size());
+            for(int n = 0; n < RECORDS; n++)
+                assertEquals(2L * (n + 1), (long) keys.get(n));
+
+            int indexPages = indexService.getTapePages(this.database.getIndexTapeID());
+            if(fillFactor == 1)
+                fullIndexPages = indexPages;
+            else
+                assertTrue(indexPages > fullIndexPages);
+
+            for(long key = 1; key <= 2 * RECORDS; key += 2)
+                databaseService.create("C " + key + " " + key + " " + key);
+            for(long key = 2; key <= RECORDS; key += 2)
+                databaseService.delete("D " + key);
+            for(long key = 1; key <= 2 * RECORDS; key++)
+            {
+                if(key % 2 == 0 && key <= RECORDS)
+                    assertNull(databaseService.find("R " + key));
+                else
+                    assertEquals(this.record(key), databaseService.find("R " + key));
+            }
+        }
+    }
+
+    /**
+     * Unsorted file is rejected before anything is written, and records can be loaded only into an empty database.
+     */
+    public void testRejectedLoads() throws Exception
+    {
+        this.database = TestDatabase.create(this.path, IndexType.B_PLUS_TREE, BufferReplacementPolicyType.LRU, null);
+        DatabaseService databaseService = this.database.getDatabaseService();
+        File unsortedFile = this.path.resolve("unsorted_records.bin").toFile();
+        TestDatabase.writeRecordsFile(unsortedFile, List.of(this.record(2), this.record(6), this.record(4)));
+        try {
+            databaseService.bulkLoad(unsortedFile, 1, false);
+            fail("Unsorted records were loaded.");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        assertEquals(0, this.database.getIndexService().getTapePages(this.database.getIndexTapeID()));
+        assertNull(databaseService.find("R 2"));
+
+        File file = this.writeSortedRecords();
+        for(double fillFactor : new double[] {0, 1.5})
+        {
+            try {
+                databaseService.bulkLoad(file, fillFactor, false);
+                fail("Fill factor " + fillFactor + " was accepted.");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+
+        databaseService.create("C 1 1 1");
+        try {
+            databaseService.bulkLoad(file, 1, false);
+            fail("Records were loaded into a database, which wasn't empty.");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Writes records with even keys from 2 to 2 * {@link BulkLoadTest#RECORDS}, in ascending order.
+     * @return
+     */
+    private File writeSortedRecords() throws Exception
+    {
+        List<Record> records = new ArrayList<>();
+        for(long key = 1; key <= RECORDS; key++)
+            records.add(this.record(2 * key));
+        File file = this.path.getParent().resolve(this.path.getFileName() + "_records.bin").toFile();
+        file.deleteOnExit();
+        TestDatabase.writeRecordsFile(file, records);
+        return file;
+    }
+
+    private Record record(long key)
+    {
+        return Record.builder()
+                .key(key)
+                .mass((int) key)
+                .speed((int) key)
+                .build();
+    }
+}
@@ -0,0 +1,186 @@
+package database.service;
+
+import btree.service.IndexType;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import record.entity.Record;
+import tape.entity.LogRecord;
+import tape.entity.LogRecordType;
+import tape.service.BufferReplacementPolicyType;
+import tape.service.LogSyncPolicy;
+import tape.service.WriteAheadLog;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Batches of commands collapsed by keys, and recovery of a database from its write-ahead log.
+ */
+public class DatabaseServiceTest extends TestCase
+{
+    private Path path;
+
+    private TestDatabase database;
+
+    public DatabaseServiceTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(DatabaseServiceTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        this.path = TestDatabase.createDirectory();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        if(this.database != null)
+            this.database.close();
+        TestDatabase.deleteDirectory(this.path);
+    }
+
+    /**
+     * Commands on the same key are collapsed into a single change, which has to depend on whether the record
+     * existed before the batch.
+     */
+    public void testBatchCollapsesCommandsOnTheSameKey() throws Exception
+    {
+        this.database = TestDatabase.create(this.path, IndexType.B_TREE, BufferReplacementPolicyType.LRU, null);
+        DatabaseService databaseService = this.database.getDatabaseService();
+        for(long key = 1; key <= 5; key++)
+            databaseService.create("C " + key + " 1 1");
+
+        databaseService.applyBatch(List.of(
+                "C 1 2 2", // Existing record isn't changed by a create
+                "D 2", "C 2 3 3", // Deleted record is created again
+                "U 3 4 4", "D 3", // Updated record is deleted
+                "D 4", "U 4 5 5", // Deleted record isn't updated
+                "U 6 6 6", // Not existing record isn't updated
+                "C 7 7 7", "U 7 8 8", // Created record is updated
+                "C 8 9 9", "D 8", // Created record is deleted
+                "P 9 10 10", "C 9 11 11", // Put record isn't changed by a create
+                "D 10", "P 10 12 12" // Not existing record is put after a delete
+        ));
+
+        assertEquals(this.record(1, 1), databaseService.find("R 1"));
+        assertEquals(this.record(2, 3), databaseService.find("R 2"));
+        assertNull(databaseService.find("R 3"));
+        assertNull(databaseService.find("R 4"));
+        assertEquals(this.record(5, 1), databaseService.find("R 5"));
+        assertNull(databaseService.find("R 6"));
+        assertEquals(this.record(7, 8), databaseService.find("R 7"));
+        assertNull(databaseService.find("R 8"));
+        assertEquals(this.record(9, 10), databaseService.find("R 9"));
+        assertEquals(this.record(10, 12), databaseService.find("R 10"));
+    }
+
+    /**
+     * Random batches give the same records, as if their commands were applied one by one.
+     */
+    public void testBatchGivesSameRecordsAsSingleCommands() throws Exception
+    {
+        this.database = TestDatabase.create(this.path, IndexType.B_PLUS_TREE, BufferReplacementPolicyType.CLOCK, null);
+        DatabaseService databaseService = this.database.getDatabaseService();
+        Map<Long, Record> expectedRecords = new HashMap<>();
+        Random random = new Random(3);
+        for(int batch = 0; batch < 20; batch++)
+        {
+            List<String> commands = new ArrayList<>();
+            for(int n = 0; n < 40; n++)
+            {
+                long key = 1 + random.nextInt(30);
+                Record record = this.record(key, 1 + random.nextInt(1000));
+                char operation = "CUPD".charAt(random.nextInt(4));
+                if(operation == 'D')
+                    commands.add("D " + key);
+                else
+                    commands.add(operation + " " + key + " " + record.getMass() + " " + record.getSpeed());
+
+                if(operation == 'C')
+                    expectedRecords.putIfAbsent(key, record);
+                else if(operation == 'U')
+                    expectedRecords.replace(key, record);
+                else if(operation == 'P')
+                    expectedRecords.put(key, record);
+                else
+                    expectedRecords.remove(key);
+            }
+            databaseService.applyBatch(commands);
+
+            for(long key = 1; key <= 30; key++)
+                assertEquals("Record " + key + " after batch " + batch, expectedRecords.get(key),
+                        databaseService.find("R " + key));
+        }
+    }
+
+    /**
+     * The app crashes while the last operation is being logged - operations logged before it are replayed, when the
+     * database is opened, and the torn one is lost.
+     */
+    public void testRecoveryReplaysOperationsBeforeTornRecord() throws Exception
+    {
+        TestDatabase crashedDatabase = TestDatabase.create(this.path, IndexType.B_TREE, BufferReplacementPolicyType.LRU,
+                LogSyncPolicy.OPERATION);
+        DatabaseService databaseService = crashedDatabase.getDatabaseService();
+        databaseService.flush();
+        for(long key = 1; key <= 40; key++)
+            databaseService.create("C " + key + " " + key + " " + key);
+        databaseService.delete("D 7");
+        databaseService.update("U 8 80 80");
+        databaseService.create("C 41 41 41");
+        // Crashed database isn't closed, so nothing is checkpointed
+        crashedDatabase.getExecutor().shutdownNow();
+        this.tearLastOperation(this.path.resolve("tape_wal.log"));
+
+        this.database = TestDatabase.open(this.path, IndexType.B_TREE, BufferReplacementPolicyType.LRU,
+                LogSyncPolicy.OPERATION);
+        databaseService = this.database.getDatabaseService();
+        for(long key = 1; key <= 40; key++)
+        {
+            if(key == 7)
+                assertNull(databaseService.find("R 7"));
+            else
+                assertEquals(this.record(key, key == 8 ? 80 : (int) key), databaseService.find("R " + key));
+        }
+        assertNull(databaseService.find("R 41"));
+    }
+
+    /**
+     * Cuts the log in the middle of the last operation record, dropping all records after it.
+     * @param logPath
+     */
+    private void tearLastOperation(Path logPath) throws IOException
+    {
+        WriteAheadLog log = new WriteAheadLog(logPath, LogSyncPolicy.OPERATION, 10, 1 << 20);
+        LogRecord lastOperation = null;
+        for(LogRecord record : log.readRecords())
+            if(record.getType() == LogRecordType.OPERATION)
+                lastOperation = record;
+        log.close();
+
+        assertNotNull(lastOperation);
+        try(FileChannel channel = FileChannel.open(logPath, StandardOpenOption.WRITE)) {
+            channel.truncate(lastOperation.getPosition() + 8);
+        }
+    }
+
+    private Record record(long key, int value)
+    {
+        return Record.builder()
+                .key(key)
+                .mass(value)
+                .speed(value)
+                .build();
+    }
+}
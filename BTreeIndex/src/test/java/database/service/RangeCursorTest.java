@@ -0,0 +1,161 @@
+package database.service;
+
+import btree.service.IndexType;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import record.entity.Record;
+import tape.service.BufferReplacementPolicyType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Reading ranges of records in keys order with the cursor and with the RR command.
+ */
+public class RangeCursorTest extends TestCase
+{
+    private Path path;
+
+    private TestDatabase database;
+
+    public RangeCursorTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(RangeCursorTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        this.path = TestDatabase.createDirectory();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        if(this.database != null)
+            this.database.close();
+        TestDatabase.deleteDirectory(this.path);
+    }
+
+    public void testBTreeRanges() throws Exception
+    {
+        this.assertRanges(IndexType.B_TREE);
+    }
+
+    public void testBPlusTreeRanges() throws Exception
+    {
+        this.assertRanges(IndexType.B_PLUS_TREE);
+    }
+
+    /**
+     * Ranges starting and ending between the keys, at the keys and outside of all keys return records with keys from
+     * the range, in ascending order.
+     * @param indexType
+     */
+    private void assertRanges(IndexType indexType) throws Exception
+    {
+        this.database = TestDatabase.create(this.path, indexType, BufferReplacementPolicyType.LRU, null);
+        DatabaseService databaseService = this.database.getDatabaseService();
+        for(long key = 60; key >= 3; key -= 3)
+            databaseService.create("C " + key + " " + key + " " + key);
+
+        assertEquals(this.keys(10, 20, 3), this.readRange(10, 20));
+        assertEquals(this.keys(12, 21, 3), this.readRange(12, 21));
+        assertEquals(this.keys(3, 60, 3), this.readRange(1, 100));
+        assertEquals(this.keys(57, 60, 3), this.readRange(57, 1000));
+        assertEquals(List.of(), this.readRange(61, 100));
+        assertEquals(List.of(), this.readRange(13, 14));
+        assertEquals(List.of(), this.readRange(20, 10));
+
+        // Records are read from the data file, not only the index entries
+        RangeCursor cursor = databaseService.findRange(30, 30);
+        assertTrue(cursor.hasNext());
+        Record record = cursor.next();
+        assertEquals(30, record.getKey());
+        assertEquals(30, record.getMass());
+        assertFalse(cursor.hasNext());
+        try {
+            cursor.next();
+            fail("Cursor returned a record after the end of the range.");
+        } catch (NoSuchElementException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Changes done between two ranges are seen by the second one, since each cursor seeks the index anew.
+     */
+    public void testRangeAfterChanges() throws Exception
+    {
+        this.database = TestDatabase.create(this.path, IndexType.B_TREE, BufferReplacementPolicyType.LRU, null);
+        DatabaseService databaseService = this.database.getDatabaseService();
+        for(long key = 1; key <= 30; key++)
+            databaseService.create("C " + key + " " + key + " " + key);
+        assertEquals(this.keys(5, 9, 1), this.readRange(5, 9));
+
+        databaseService.delete("D 6");
+        databaseService.delete("D 8");
+        assertEquals(List.of(5L, 7L, 9L), this.readRange(5, 9));
+    }
+
+    public void testReadRangeCommand() throws Exception
+    {
+        this.database = TestDatabase.create(this.path, IndexType.B_PLUS_TREE, BufferReplacementPolicyType.LRU, null);
+        DatabaseService databaseService = this.database.getDatabaseService();
+        for(long key = 1; key <= 30; key++)
+            databaseService.create("C " + key + " " + key + " " + key);
+
+        PrintStream out = System.out;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(printed));
+        try {
+            databaseService.readRange("RR 11 17");
+        } finally {
+            System.setOut(out);
+        }
+        assertTrue(printed.toString().contains("All 7 records in the range has been read."));
+
+        for(String command : List.of("RR 11", "R 11 17", "RR a 17"))
+        {
+            try {
+                databaseService.readRange(command);
+                fail("Bad command " + command + " was accepted.");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+        try {
+            databaseService.findRange(0, 17);
+            fail("Range with key 0 was accepted.");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    private List<Long> readRange(long fromKey, long toKey)
+    {
+        List<Long> keys = new ArrayList<>();
+        RangeCursor cursor = this.database.getDatabaseService().findRange(fromKey, toKey);
+        while(cursor.hasNext())
+            keys.add(cursor.next().getKey());
+        return keys;
+    }
+
+    private List<Long> keys(long fromKey, long toKey, long step)
+    {
+        List<Long> keys = new ArrayList<>();
+        for(long key = (fromKey + step - 1) / step * step; key <= toKey; key += step)
+            keys.add(key);
+        return keys;
+    }
+}
@@ -0,0 +1,332 @@
+package database.service;
+
+import btree.service.*;
+import data_file.service.DataService;
+import data_generator.FilesUtility;
+import entry.converter.EntryConverter;
+import entry.entity.Entry;
+import entry.service.EntryService;
+import filter.converter.BloomFilterConverter;
+import filter.service.KeyFilterService;
+import hash.converter.HashBucketConverter;
+import hash.service.ExtendibleHashService;
+import lombok.Getter;
+import lsm.service.LsmTreeService;
+import node.converter.BPlusNodeConverter;
+import node.converter.NodeConverter;
+import record.converter.RecordConverter;
+import record.entity.Record;
+import record.service.RecordService;
+import sort.service.ExternalSortService;
+import tape.converter.TapeHeaderConverter;
+import tape.service.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.InvalidAlgorithmParameterException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Database with all its services created in a directory of the tests, the same way as the app creates it, but with
+ * small pages and few buffers, so even a small number of records makes the index several levels high and pages are
+ * freed from buffers all the time.
+ */
+@Getter
+public class TestDatabase {
+
+    public static final int D = 2;
+
+    public static final int DATA_FILE_BUFFERS = 4;
+
+    public static final int INDEX_FILE_BUFFERS = 6;
+
+    public static final int PINNED_INDEX_FILE_BUFFERS = 2;
+
+    /**
+     * Mapped regions of memory-mapped tapes are grown by 4 pages, so they're remapped often.
+     */
+    public static final int MAPPED_CHUNK_PAGES = 4;
+
+    /**
+     * LSM index writes a run every 4 changes and compacts runs, as soon as there are 2 of them. Compactions run
+     * in the writing thread, so they're done, when the change returns.
+     */
+    public static final int LSM_MEMTABLE_ENTRIES = 4;
+
+    public static final int LSM_MAX_RUNS = 2;
+
+    private final Path path;
+
+    private final TapeService tapeService;
+
+    private final RecordService recordService;
+
+    private final DataService dataService;
+
+    private final EntryService entryService;
+
+    private final IndexService indexService;
+
+    private final ExternalSortService sortService;
+
+    private final KeyFilterService keyFilterService;
+
+    private final DatabaseService databaseService;
+
+    private final UUID dataTapeID;
+
+    private final UUID indexTapeID;
+
+    private final ExecutorService executor;
+
+    /**
+     * Creates a new database in the directory.
+     * @param path
+     * @param indexType
+     * @param replacementPolicy
+     * @param logSyncPolicy Sync policy of the write-ahead log, or null, if the database shouldn't be logged.
+     * @return
+     */
+    public static TestDatabase create(Path path, IndexType indexType, BufferReplacementPolicyType replacementPolicy,
+                                      LogSyncPolicy logSyncPolicy) throws InvalidAlgorithmParameterException
+    {
+        return new TestDatabase(path, indexType, replacementPolicy, logSyncPolicy, false, false);
+    }
+
+    /**
+     * Creates a new database in the directory, which tapes are accessed through memory-mapped regions of their files.
+     */
+    public static TestDatabase createMemoryMapped(Path path, IndexType indexType,
+                                                  BufferReplacementPolicyType replacementPolicy) throws InvalidAlgorithmParameterException
+    {
+        return new TestDatabase(path, indexType, replacementPolicy, null, false, true);
+    }
+
+    /**
+     * Opens the database saved in the directory and replays operations from its write-ahead log, like the app does
+     * after it was closed without a checkpoint.
+     */
+    public static TestDatabase open(Path path, IndexType indexType, BufferReplacementPolicyType replacementPolicy,
+                                    LogSyncPolicy logSyncPolicy) throws InvalidAlgorithmParameterException
+    {
+        return new TestDatabase(path, indexType, replacementPolicy, logSyncPolicy, true, false);
+    }
+
+    public static Path createDirectory() throws IOException
+    {
+        return Files.createTempDirectory("btree-index-test");
+    }
+
+    public static void deleteDirectory(Path path)
+    {
+        new FilesUtility().deleteDir(path.toFile());
+    }
+
+    private TestDatabase(Path path, IndexType indexType, BufferReplacementPolicyType replacementPolicy,
+                         LogSyncPolicy logSyncPolicy, boolean openExisting, boolean memoryMapped) throws InvalidAlgorithmParameterException
+    {
+        this.path = path;
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        int nodeSize = 2*D* Entry.builder().build().getSize() + (2*D + 1)*4 + 4;
+        PageArena pageArena = new PageArena(DATA_FILE_BUFFERS + INDEX_FILE_BUFFERS + PINNED_INDEX_FILE_BUFFERS, nodeSize);
+        TapeFileChannels fileChannels = TapeFileChannels.builder()
+                .maxOpenFiles(8)
+                .build();
+        WriteAheadLog writeAheadLog = logSyncPolicy == null ? null
+                : new WriteAheadLog(path.resolve("tape_wal.log"), logSyncPolicy, 10, 16 * 1024 * 1024);
+        this.tapeService = TapeService.builder()
+                .tapes(new ConcurrentHashMap<>())
+                .tapesCurrentReadBlock(new ConcurrentHashMap<>())
+                .tapesCurrentWriteBlock(new ConcurrentHashMap<>())
+                .pageArena(pageArena)
+                .tapesPageFrames(new ConcurrentHashMap<>())
+                .tapesPinnedPages(new ConcurrentHashMap<>())
+                .isEOF(new ConcurrentHashMap<>())
+                .fileChannels(fileChannels)
+                .mappedRegions(memoryMapped ? TapeMappedRegions.builder()
+                        .fileChannels(fileChannels)
+                        .pageSize(nodeSize)
+                        .mappedChunkPages(MAPPED_CHUNK_PAGES)
+                        .build() : null)
+                .writeBack(true)
+                .tapesDirtyBlocks(new ConcurrentHashMap<>())
+                .replacementPolicy(replacementPolicy)
+                .tapesReplacementPolicies(new ConcurrentHashMap<>())
+                .tapeReadAhead(TapeReadAhead.builder()
+                        .fileChannels(fileChannels)
+                        .pageSize(nodeSize)
+                        .readAheadPages(2)
+                        .readAheadExecutor(this.executor)
+                        .build())
+                .writeAheadLog(writeAheadLog)
+                .checkpointer(writeAheadLog == null ? null : TapeCheckpointer.builder()
+                        .writeAheadLog(writeAheadLog)
+                        .tapeHeaderConverter(new TapeHeaderConverter())
+                        .pageSize(nodeSize)
+                        .build())
+                .filesUtility(new FilesUtility())
+                .tapeHeaderConverter(new TapeHeaderConverter())
+                .filesPath(path.toString())
+                .filesBaseName("tape")
+                .BLOCK_SIZE(nodeSize)
+                .build();
+
+        this.recordService = RecordService.builder()
+                .tapeService(this.tapeService)
+                .recordConverter(new RecordConverter())
+                .readBlocksStored(new ConcurrentHashMap<>())
+                .readBlocksOffs(new ConcurrentHashMap<>())
+                .writeBlocksStored(new ConcurrentHashMap<>())
+                .writeBlocksOffs(new ConcurrentHashMap<>())
+                .build();
+
+        this.dataService = DataService.builder()
+                .recordService(this.recordService)
+                .build();
+
+        this.entryService = EntryService.builder()
+                .tapeService(this.tapeService)
+                .entryConverter(new EntryConverter())
+                .nodeConverter(new NodeConverter(new EntryConverter()))
+                .bPlusNodeConverter(new BPlusNodeConverter(new EntryConverter()))
+                .hashBucketConverter(new HashBucketConverter(new EntryConverter()))
+                .decodedNodes(new ConcurrentHashMap<>())
+                .build();
+        this.tapeService.addBufferFreedListener(this.entryService::dropDecodedNode);
+
+        this.indexService = this.createIndexService(indexType);
+
+        List<byte[]> loggedOperations = List.of();
+        if(openExisting)
+        {
+            for(UUID id : this.tapeService.findStoredTapesIDs())
+                this.tapeService.open(id);
+
+            this.dataTapeID = this.tapeService.getDataTapesIDs().iterator().next();
+            this.indexTapeID = this.tapeService.getIndexTapesIDs().iterator().next();
+        }
+        else
+        {
+            this.dataTapeID = UUID.randomUUID();
+            this.indexTapeID = UUID.randomUUID();
+            this.tapeService.create(this.dataTapeID, false, Record.builder().build().getSize());
+            this.tapeService.create(this.indexTapeID, true);
+            this.tapeService.setIndexType(this.indexTapeID, indexType.getCode());
+        }
+        this.tapeService.setMaxBuffers(this.dataTapeID, DATA_FILE_BUFFERS);
+        this.tapeService.setMaxBuffers(this.indexTapeID, INDEX_FILE_BUFFERS);
+        this.tapeService.setMaxPinnedBuffers(this.indexTapeID, PINNED_INDEX_FILE_BUFFERS);
+        if(openExisting)
+        {
+            loggedOperations = this.tapeService.recoverLog();
+            this.indexService.open(this.indexTapeID);
+        }
+
+        this.sortService = ExternalSortService.builder()
+                .recordService(this.recordService)
+                .sortExecutor(this.executor)
+                .sortThreads(2)
+                .memoryRecords(16)
+                .build();
+
+        this.keyFilterService = KeyFilterService.builder()
+                .entryService(this.entryService)
+                .bloomFilterConverter(new BloomFilterConverter())
+                .bitsPerKey(10)
+                .minCapacity(16)
+                .build();
+
+        this.databaseService = DatabaseService.builder()
+                .dataService(this.dataService)
+                .indexService(this.indexService)
+                .sortService(this.sortService)
+                .keyFilterService(this.keyFilterService)
+                .recordConverter(new RecordConverter())
+                .dataTapeID(this.dataTapeID)
+                .indexTapeID(this.indexTapeID)
+                .build();
+
+        this.databaseService.openKeyFilter();
+        this.databaseService.replay(loggedOperations);
+    }
+
+    private IndexService createIndexService(IndexType indexType)
+    {
+        switch(indexType)
+        {
+            case EXTENDIBLE_HASH:
+                return ExtendibleHashService.builder()
+                        .entryService(this.entryService)
+                        .d(D)
+                        .build();
+            case LSM_TREE:
+                return LsmTreeService.builder()
+                        .entryService(this.entryService)
+                        .d(D)
+                        .memtableEntries(LSM_MEMTABLE_ENTRIES)
+                        .maxRuns(LSM_MAX_RUNS)
+                        .keyFilterBitsPerKey(10)
+                        .compactionExecutor(null)
+                        .build();
+            case COPY_ON_WRITE_B_PLUS_TREE:
+                return CopyOnWriteBPlusTreeService.builder()
+                        .entryService(this.entryService)
+                        .d(D)
+                        .build();
+            case B_PLUS_TREE:
+                return BPlusTreeService.builder()
+                        .entryService(this.entryService)
+                        .d(D)
+                        .pinnedLevels(1)
+                        .h(0)
+                        .rootPage(0)
+                        .build();
+            default:
+                return BTreeService.builder()
+                        .entryService(this.entryService)
+                        .d(D)
+                        .pinnedLevels(1)
+                        .h(0)
+                        .rootPage(0)
+                        .build();
+        }
+    }
+
+    /**
+     * Writes records to a binary file, in the same format as the generated records files.
+     * @param file
+     * @param records
+     */
+    public static void writeRecordsFile(File file, List<Record> records) throws IOException
+    {
+        RecordConverter recordConverter = new RecordConverter();
+        byte[] data = new byte[records.size() * Record.builder().build().getSize()];
+        int off = 0;
+        for(Record record : records)
+        {
+            recordConverter.recordToBytes(record, data, off);
+            off += record.getSize();
+        }
+        Files.write(file.toPath(), data);
+    }
+
+    /**
+     * Closes the database files, as the app does when it exits.
+     */
+    public void close()
+    {
+        this.tapeService.shutdown();
+        this.executor.shutdownNow();
+    }
+}
@@ -0,0 +1,121 @@
+package filter.service;
+
+import btree.service.IndexType;
+import database.service.DatabaseService;
+import database.service.TestDatabase;
+import filter.converter.BloomFilterConverter;
+import filter.entity.BloomFilter;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import tape.service.BufferReplacementPolicyType;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Saving the key filter with the index and loading it, when the database is opened again.
+ */
+public class KeyFilterServiceTest extends TestCase
+{
+    private Path path;
+
+    private TestDatabase database;
+
+    public KeyFilterServiceTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(KeyFilterServiceTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        this.path = TestDatabase.createDirectory();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        if(this.database != null)
+            this.database.close();
+        TestDatabase.deleteDirectory(this.path);
+    }
+
+    public void testConverterKeepsAllFilterData()
+    {
+        BloomFilter filter = BloomFilter.withCapacity(100, 10);
+        for(long key = 1; key <= 50; key++)
+            filter.add(key * 31);
+        filter.setKeys(50);
+        filter.setRemovedKeys(3);
+
+        BloomFilter readFilter = new BloomFilterConverter().bytesToFilter(new BloomFilterConverter().filterToBytes(filter));
+        assertNotNull(readFilter);
+        assertTrue(Arrays.equals(filter.getBits(), readFilter.getBits()));
+        assertEquals(filter.getHashes(), readFilter.getHashes());
+        assertEquals(filter.getCapacity(), readFilter.getCapacity());
+        assertEquals(50, readFilter.getKeys());
+        assertEquals(3, readFilter.getRemovedKeys());
+        for(long key = 1; key <= 50; key++)
+            assertTrue(readFilter.mightContain(key * 31));
+    }
+
+    public void testConverterRejectsDamagedData()
+    {
+        BloomFilterConverter converter = new BloomFilterConverter();
+        byte[] data = converter.filterToBytes(BloomFilter.withCapacity(100, 10));
+
+        assertNull(converter.bytesToFilter(Arrays.copyOf(data, data.length - 3)));
+        data[0]++;
+        assertNull(converter.bytesToFilter(data));
+        assertNull(converter.bytesToFilter(null));
+    }
+
+    /**
+     * The filter saved by the flush is loaded, when the database is opened, instead of being built from the index.
+     */
+    public void testFilterSavedByFlushIsLoaded() throws Exception
+    {
+        this.database = TestDatabase.create(this.path, IndexType.B_PLUS_TREE, BufferReplacementPolicyType.LRU, null);
+        DatabaseService databaseService = this.database.getDatabaseService();
+        for(long key = 1; key <= 100; key++)
+            databaseService.create("C " + (key * 2) + " 1 1");
+        databaseService.delete("D 10");
+        databaseService.flush();
+        this.database.close();
+
+        this.database = TestDatabase.open(this.path, IndexType.B_PLUS_TREE, BufferReplacementPolicyType.LRU, null);
+        KeyFilterService keyFilterService = this.database.getKeyFilterService();
+        assertTrue(keyFilterService.open(this.database.getIndexTapeID()));
+        assertEquals(99, keyFilterService.getKeys());
+        for(long key = 1; key <= 100; key++)
+            assertTrue(keyFilterService.mightContain(key * 2));
+
+        int falsePositives = 0;
+        for(long key = 1; key <= 1000; key++)
+            if(keyFilterService.mightContain(key * 2 + 1))
+                falsePositives++;
+        assertTrue("There were " + falsePositives + " false positives of 1000 keys.", falsePositives < 100);
+    }
+
+    /**
+     * A change of the index deletes the saved filter, so a database closed without a flush after it doesn't load a
+     * filter, which doesn't describe its index.
+     */
+    public void testSavedFilterIsDeletedByChange() throws Exception
+    {
+        this.database = TestDatabase.create(this.path, IndexType.B_PLUS_TREE, BufferReplacementPolicyType.LRU, null);
+        DatabaseService databaseService = this.database.getDatabaseService();
+        databaseService.create("C 1 1 1");
+        databaseService.flush();
+        assertTrue(this.database.getKeyFilterService().open(this.database.getIndexTapeID()));
+
+        databaseService.create("C 2 1 1");
+        assertFalse(this.database.getKeyFilterService().open(this.database.getIndexTapeID()));
+    }
+}
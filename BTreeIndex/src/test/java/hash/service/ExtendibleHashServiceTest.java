@@ -0,0 +1,156 @@
+package hash.service;
+
+import btree.service.IndexType;
+import database.service.TestDatabase;
+import entry.entity.Entry;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import tape.service.BufferReplacementPolicyType;
+
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Growing and shrinking of the extendible hashing directory. Its global depth is passed to the index tape as the
+ * height of the index, so it's read from there.
+ */
+public class ExtendibleHashServiceTest extends TestCase
+{
+    private static final int KEYS = 2000;
+
+    private Path path;
+
+    private TestDatabase database;
+
+    public ExtendibleHashServiceTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(ExtendibleHashServiceTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        this.path = TestDatabase.createDirectory();
+        this.database = TestDatabase.create(this.path, IndexType.EXTENDIBLE_HASH, BufferReplacementPolicyType.LRU, null);
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        this.database.close();
+        TestDatabase.deleteDirectory(this.path);
+    }
+
+    /**
+     * Directory is doubled only when a bucket with a single slot is split, so it never shrinks while keys are
+     * inserted, and it has a slot for each bucket (buckets are never merged by inserts, so there is one bucket more
+     * than splits).
+     */
+    public void testDirectoryDoublesAsBucketsSplit() throws Exception
+    {
+        ExtendibleHashService indexService = this.getIndexService();
+        UUID tapeID = this.database.getIndexTapeID();
+        int globalDepth = 0;
+        for(long key = 1; key <= KEYS; key++)
+        {
+            assertNull(this.insert(key));
+
+            int newGlobalDepth = this.getGlobalDepth();
+            assertTrue("Directory has shrunk from depth " + globalDepth + " to " + newGlobalDepth + ".",
+                    newGlobalDepth >= globalDepth);
+            assertTrue((1 << newGlobalDepth) >= indexService.getSplits() + 1);
+            globalDepth = newGlobalDepth;
+        }
+
+        // Directory spans many pages
+        int slotsPerPage = this.database.getEntryService().getHashDirectorySlotsPerPage(indexService.calculateNodeSize());
+        assertTrue((1 << globalDepth) > 2 * slotsPerPage);
+        assertEquals(0, indexService.getMerges());
+        for(long key = 1; key <= KEYS; key++)
+            assertEquals((int) key, indexService.findEntry(tapeID, key).getDataPage());
+        assertEquals(KEYS, this.readAllKeys().size());
+    }
+
+    /**
+     * Directory saved on many pages is read back, when the database is opened again.
+     */
+    public void testDirectoryIsReadWhenOpened() throws Exception
+    {
+        UUID tapeID = this.database.getIndexTapeID();
+        for(long key = 1; key <= KEYS; key++)
+            this.insert(key);
+        int globalDepth = this.getGlobalDepth();
+        this.database.getDatabaseService().flush();
+        this.database.close();
+
+        this.database = TestDatabase.open(this.path, IndexType.EXTENDIBLE_HASH, BufferReplacementPolicyType.LRU, null);
+        assertEquals(globalDepth, this.getGlobalDepth());
+        for(long key = 1; key <= KEYS; key++)
+        {
+            Entry entry = this.getIndexService().findEntry(tapeID, key);
+            assertNotNull("Key " + key + " wasn't found after the index was opened.", entry);
+            assertEquals((int) key, entry.getDataPage());
+        }
+    }
+
+    /**
+     * Buckets are merged back as keys are deleted, and the directory is halved with them, until a single bucket is
+     * left.
+     */
+    public void testDirectoryHalvesAsBucketsMerge() throws Exception
+    {
+        ExtendibleHashService indexService = this.getIndexService();
+        UUID tapeID = this.database.getIndexTapeID();
+        for(long key = 1; key <= KEYS; key++)
+            this.insert(key);
+        int globalDepth = this.getGlobalDepth();
+
+        for(long key = 1; key <= KEYS; key++)
+        {
+            assertNotNull(indexService.removeEntry(tapeID, key));
+            int newGlobalDepth = this.getGlobalDepth();
+            assertTrue(newGlobalDepth <= globalDepth);
+            globalDepth = newGlobalDepth;
+        }
+
+        assertEquals(0, globalDepth);
+        assertEquals(indexService.getSplits(), indexService.getMerges());
+        assertEquals(0, this.readAllKeys().size());
+    }
+
+    /**
+     * Inserts entry of the key, which data page is the key itself.
+     * @param key
+     * @return Existing entry of the key or null, if it has been inserted.
+     */
+    private Entry insert(long key) throws Exception
+    {
+        return this.getIndexService().insertEntryIfAbsent(this.database.getIndexTapeID(), key, () -> (int) key);
+    }
+
+    private ExtendibleHashService getIndexService()
+    {
+        return (ExtendibleHashService) this.database.getIndexService();
+    }
+
+    private int getGlobalDepth()
+    {
+        return this.database.getEntryService().getTapeHeight(this.database.getIndexTapeID());
+    }
+
+    private List<Long> readAllKeys()
+    {
+        List<Long> keys = new ArrayList<>();
+        this.getIndexService().resetReadingBTree();
+        Entry entry;
+        while((entry = this.getIndexService().readNextEntry(this.database.getIndexTapeID())) != null)
+            keys.add(entry.getKey());
+        return keys;
+    }
+}
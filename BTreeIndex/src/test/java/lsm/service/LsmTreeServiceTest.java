@@ -0,0 +1,181 @@
+package lsm.service;
+
+import btree.service.IndexService;
+import btree.service.IndexType;
+import database.service.TestDatabase;
+import entry.entity.Entry;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import tape.service.BufferReplacementPolicyType;
+
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Deletions in the LSM index - tombstones hide entries of older runs, until a compaction drops both of them.
+ * The test database writes a run every {@link TestDatabase#LSM_MEMTABLE_ENTRIES} changes and compacts 2 runs at once.
+ */
+public class LsmTreeServiceTest extends TestCase
+{
+    private Path path;
+
+    private TestDatabase database;
+
+    private IndexService indexService;
+
+    private UUID tapeID;
+
+    public LsmTreeServiceTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(LsmTreeServiceTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        this.path = TestDatabase.createDirectory();
+        this.database = TestDatabase.create(this.path, IndexType.LSM_TREE, BufferReplacementPolicyType.LRU, null);
+        this.indexService = this.database.getIndexService();
+        this.tapeID = this.database.getIndexTapeID();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        this.database.close();
+        TestDatabase.deleteDirectory(this.path);
+    }
+
+    /**
+     * Keys 1-8 are written as 2 runs and compacted into one. Deletions of keys 1-4 are written as a run of tombstones,
+     * which is compacted with it, and so are the deletions of keys 5-8 then - the last compaction leaves no run.
+     */
+    public void testCompactionDropsTombstonesAndDeletedEntries() throws Exception
+    {
+        for(long key = 1; key <= 8; key++)
+            this.insert(key, (int) key);
+        assertEquals(1, this.indexService.getMerges());
+
+        for(long key = 1; key <= 4; key++)
+            assertNotNull(this.indexService.removeEntry(this.tapeID, key));
+        assertEquals(2, this.indexService.getMerges());
+        assertEquals(List.of(5L, 6L, 7L, 8L), this.readAllKeys());
+
+        // Tombstone in the memtable hides the entry of the compacted run
+        assertNotNull(this.indexService.removeEntry(this.tapeID, 5));
+        assertNull(this.indexService.findEntry(this.tapeID, 5));
+        assertNull(this.indexService.removeEntry(this.tapeID, 5));
+        assertEquals(List.of(6L, 7L, 8L), this.readAllKeys());
+
+        for(long key = 6; key <= 8; key++)
+            assertNotNull(this.indexService.removeEntry(this.tapeID, key));
+        assertEquals(3, this.indexService.getMerges());
+        for(long key = 1; key <= 8; key++)
+            assertNull(this.indexService.findEntry(this.tapeID, key));
+        assertEquals(List.of(), this.readAllKeys());
+
+        // Neither entries nor tombstones are left in any run, and replaced run tapes are deleted by the flush
+        assertEquals(this.database.getEntryService().getTapePages(this.tapeID), this.indexService.getTapePages(this.tapeID));
+        this.indexService.flush(this.tapeID);
+        assertEquals(0, this.path.toFile().list((dir, name) -> name.contains("_run_")).length);
+    }
+
+    public void testKeyInsertedAgainAfterDeletion() throws Exception
+    {
+        for(long key = 1; key <= 8; key++)
+            this.insert(key, (int) key);
+
+        assertNotNull(this.indexService.removeEntry(this.tapeID, 3));
+        this.insert(3, 300);
+        assertEquals(300, this.indexService.findEntry(this.tapeID, 3).getDataPage());
+        for(long key = 9; key <= 16; key++)
+            this.insert(key, (int) key);
+        assertEquals(300, this.indexService.findEntry(this.tapeID, 3).getDataPage());
+    }
+
+    /**
+     * Random inserts and deletions give the same entries as a map, in memtable, in runs and after compactions.
+     */
+    public void testRandomChangesMatchMap() throws Exception
+    {
+        TreeMap<Long, Integer> expectedEntries = new TreeMap<>();
+        Random random = new Random(11);
+        for(int change = 0; change < 2000; change++)
+        {
+            long key = 1 + random.nextInt(60);
+            if(random.nextBoolean()) {
+                int dataPage = random.nextInt(1000);
+                Entry existingEntry = this.indexService.insertEntryIfAbsent(this.tapeID, key, () -> dataPage);
+                assertEquals(expectedEntries.containsKey(key), existingEntry != null);
+                expectedEntries.putIfAbsent(key, dataPage);
+            }
+            else {
+                Entry removedEntry = this.indexService.removeEntry(this.tapeID, key);
+                assertEquals(expectedEntries.remove(key), removedEntry == null ? null : removedEntry.getDataPage());
+            }
+
+            if(change % 100 == 0)
+            {
+                for(long n = 1; n <= 60; n++)
+                {
+                    Entry entry = this.indexService.findEntry(this.tapeID, n);
+                    assertEquals(expectedEntries.get(n), entry == null ? null : entry.getDataPage());
+                }
+                assertEquals(new ArrayList<>(expectedEntries.keySet()), this.readAllKeys());
+            }
+        }
+        assertTrue(this.indexService.getMerges() > 0);
+    }
+
+    /**
+     * Sequential reading holds the state, in which it started - runs replaced by a compaction in the meantime are
+     * read to the end, and their tapes are deleted by a flush only after the reading has finished.
+     */
+    public void testReplacedRunsKeptWhileRead() throws Exception
+    {
+        for(long key = 1; key <= 4; key++)
+            this.insert(key, (int) key);
+        this.indexService.resetReadingBTree();
+        assertEquals(1, this.indexService.readNextEntry(this.tapeID).getKey());
+
+        for(long key = 5; key <= 8; key++)
+            this.insert(key, (int) key);
+        assertEquals(1, this.indexService.getMerges());
+        this.indexService.flush(this.tapeID);
+        assertEquals(3, this.countRunFiles());
+
+        for(long key = 2; key <= 4; key++)
+            assertEquals(key, this.indexService.readNextEntry(this.tapeID).getKey());
+        assertNull(this.indexService.readNextEntry(this.tapeID));
+
+        this.indexService.flush(this.tapeID);
+        assertEquals(1, this.countRunFiles());
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L), this.readAllKeys());
+    }
+
+    private int countRunFiles()
+    {
+        return this.path.toFile().list((dir, name) -> name.contains("_run_")).length;
+    }
+
+    private void insert(long key, int dataPage) throws Exception
+    {
+        assertNull(this.indexService.insertEntryIfAbsent(this.tapeID, key, () -> dataPage));
+    }
+
+    private List<Long> readAllKeys()
+    {
+        List<Long> keys = new ArrayList<>();
+        this.indexService.resetReadingBTree();
+        Entry entry;
+        while((entry = this.indexService.readNextEntry(this.tapeID)) != null)
+            keys.add(entry.getKey());
+        return keys;
+    }
+}
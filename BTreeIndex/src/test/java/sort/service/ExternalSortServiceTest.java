@@ -0,0 +1,119 @@
+package sort.service;
+
+import btree.service.IndexType;
+import database.service.TestDatabase;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import record.entity.Record;
+import record.service.RecordService;
+import sort.entity.Run;
+import tape.service.BufferReplacementPolicyType;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Sorting records, which don't fit in the sort memory budget, so they're sorted in many runs merged in several passes.
+ */
+public class ExternalSortServiceTest extends TestCase
+{
+    private Path path;
+
+    private TestDatabase database;
+
+    public ExternalSortServiceTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(ExternalSortServiceTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        this.path = TestDatabase.createDirectory();
+        this.database = TestDatabase.create(this.path, IndexType.B_PLUS_TREE, BufferReplacementPolicyType.LRU, null);
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        this.database.close();
+        TestDatabase.deleteDirectory(this.path);
+    }
+
+    /**
+     * Records with repeated keys are dropped, except for the first one in the input order.
+     */
+    public void testSortsRecordsAndKeepsFirstOfRepeatedKeys() throws Exception
+    {
+        List<Record> records = new ArrayList<>();
+        Map<Long, Record> firstRecords = new TreeMap<>();
+        Random random = new Random(5);
+        for(int n = 0; n < 1000; n++)
+        {
+            Record record = Record.builder()
+                    .key(1 + random.nextInt(600))
+                    .mass(n)
+                    .speed(n)
+                    .build();
+            records.add(record);
+            firstRecords.putIfAbsent(record.getKey(), record);
+        }
+
+        assertEquals(new ArrayList<>(firstRecords.values()), this.sort(records));
+    }
+
+    public void testSortsEmptyInput() throws Exception
+    {
+        assertEquals(List.of(), this.sort(List.of()));
+    }
+
+    public void testSortsRecordsInDescendingOrder() throws Exception
+    {
+        List<Record> records = new ArrayList<>();
+        for(long key = 500; key >= 1; key--)
+            records.add(Record.builder().key(key).mass(1).speed(1).build());
+
+        List<Record> sortedRecords = this.sort(records);
+        Collections.reverse(records);
+        assertEquals(records, sortedRecords);
+    }
+
+    /**
+     * Writes the records to an input file, sorts it and reads the sorted run.
+     * @param records
+     * @return Records of the sorted run.
+     */
+    private List<Record> sort(List<Record> records) throws Exception
+    {
+        File file = this.path.resolve("input.dat").toFile();
+        TestDatabase.writeRecordsFile(file, records);
+        RecordService recordService = this.database.getRecordService();
+        ExternalSortService sortService = this.database.getSortService();
+        UUID inputTapeID = UUID.randomUUID();
+        recordService.setInputTape(inputTapeID, file);
+        try {
+            Run run = sortService.sort(inputTapeID);
+            List<Record> sortedRecords = new ArrayList<>();
+            Record record;
+            while((record = recordService.readNextRecord(run.getTapeID())) != null)
+                sortedRecords.add(record);
+            sortService.deleteRun(run);
+
+            assertEquals(sortedRecords.size(), run.getRecords());
+            // Merged runs are deleted during the sort, and the sorted one by its reader
+            String[] runFiles = this.path.toFile().list((dir, name) -> name.contains("_run_"));
+            assertEquals(0, runFiles.length);
+            return sortedRecords;
+        } finally {
+            recordService.resetBlockReading(inputTapeID);
+            recordService.removeInputTape(inputTapeID);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package tape.entity;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Lookup of pages with enough free space and bookkeeping of the free space map.
+ */
+public class FreeSpaceMapTest extends TestCase
+{
+    private static final int PAGE_SIZE = 400;
+
+    private static final int GRANULE = 40;
+
+    public FreeSpaceMapTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(FreeSpaceMapTest.class);
+    }
+
+    public void testFindsFirstPageWithEnoughFreeSpace()
+    {
+        FreeSpaceMap map = new FreeSpaceMap(PAGE_SIZE, GRANULE);
+        map.addPage(0);
+        map.addPage(80);
+        map.addPage(200);
+        map.addPage(PAGE_SIZE);
+
+        assertEquals(0, map.findPage(0));
+        assertEquals(1, map.findPage(40));
+        assertEquals(1, map.findPage(80));
+        assertEquals(2, map.findPage(81));
+        assertEquals(2, map.findPage(200));
+        assertEquals(3, map.findPage(201));
+        assertEquals(-1, map.findPage(PAGE_SIZE + 1));
+        assertEquals(1, map.getEmptyPages());
+    }
+
+    public void testLookupFollowsFreeSpaceChanges()
+    {
+        FreeSpaceMap map = new FreeSpaceMap(PAGE_SIZE, GRANULE);
+        map.addPage(PAGE_SIZE);
+        map.addPage(PAGE_SIZE);
+
+        map.set(0, 0);
+        assertEquals(1, map.findPage(PAGE_SIZE));
+        assertEquals(1, map.getEmptyPages());
+
+        map.set(1, 120);
+        assertEquals(-1, map.findPage(160));
+        assertEquals(0, map.getEmptyPages());
+
+        map.set(0, 160);
+        assertEquals(0, map.findPage(160));
+        assertEquals(0, map.findPage(120));
+        assertEquals(Arrays.toString(new int[]{160, 120}), Arrays.toString(map.toArray()));
+    }
+
+    /**
+     * Enough pages for several words of each summary bitmap, so that the summary of full regions is skipped.
+     */
+    public void testFindsPagesBeyondFirstSummaryWord()
+    {
+        FreeSpaceMap map = new FreeSpaceMap(PAGE_SIZE, GRANULE);
+        int pages = 3 * 64 * 64;
+        for(int page = 0; page < pages; page++)
+            map.addPage(0);
+
+        assertEquals(-1, map.findPage(GRANULE));
+        map.set(pages - 1, GRANULE);
+        assertEquals(pages - 1, map.findPage(GRANULE));
+        map.set(64 * 64 + 5, PAGE_SIZE);
+        assertEquals(64 * 64 + 5, map.findPage(GRANULE));
+        assertEquals(64 * 64 + 5, map.findPage(PAGE_SIZE));
+        map.set(64 * 64 + 5, 0);
+        assertEquals(pages - 1, map.findPage(GRANULE));
+        assertEquals(-1, map.findPage(PAGE_SIZE));
+    }
+
+    /**
+     * Lookup gives the same page as checking all pages one by one, for free space amounts in multiples of the granule.
+     */
+    public void testLookupMatchesLinearSearch()
+    {
+        FreeSpaceMap map = new FreeSpaceMap(PAGE_SIZE, GRANULE);
+        int[] freeSpace = new int[1000];
+        Random random = new Random(7);
+        for(int page = 0; page < freeSpace.length; page++)
+            map.addPage(0);
+
+        for(int change = 0; change < 20000; change++)
+        {
+            int page = random.nextInt(freeSpace.length);
+            freeSpace[page] = random.nextInt(PAGE_SIZE / GRANULE + 1) * GRANULE;
+            map.set(page, freeSpace[page]);
+
+            int minFreeSpace = 1 + random.nextInt(PAGE_SIZE);
+            assertEquals(this.findPageLinearly(freeSpace, minFreeSpace), map.findPage(minFreeSpace));
+        }
+    }
+
+    public void testRemovingLastPage()
+    {
+        FreeSpaceMap map = new FreeSpaceMap(PAGE_SIZE, GRANULE);
+        map.addPage(0);
+        map.addPage(PAGE_SIZE);
+
+        map.removeLastPage();
+        assertEquals(1, map.size());
+        assertEquals(0, map.getEmptyPages());
+        assertEquals(-1, map.findPage(GRANULE));
+
+        map.removeLastPage();
+        assertEquals(-1, map.findPage(0));
+        try {
+            map.removeLastPage();
+            fail("Page was removed from an empty map.");
+        } catch(NoSuchElementException e) {
+            // Expected
+        }
+    }
+
+    public void testRejectsPagesOutOfMapAndInvalidAmounts()
+    {
+        FreeSpaceMap map = new FreeSpaceMap(PAGE_SIZE, GRANULE);
+        map.addPage(0);
+
+        try {
+            map.get(1);
+            fail("Free space of a page out of the map was returned.");
+        } catch(NoSuchElementException e) {
+            // Expected
+        }
+        try {
+            map.set(0, PAGE_SIZE + 1);
+            fail("Free space bigger than the page was set.");
+        } catch(IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    private int findPageLinearly(int[] freeSpace, int minFreeSpace)
+    {
+        for(int page = 0; page < freeSpace.length; page++)
+            if(freeSpace[page] >= minFreeSpace)
+                return page;
+
+        return -1;
+    }
+}
@@ -0,0 +1,138 @@
+package tape.service;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Order, in which each buffer replacement policy chooses pages to be freed.
+ */
+public class BufferReplacementPolicyTest extends TestCase
+{
+    public BufferReplacementPolicyTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(BufferReplacementPolicyTest.class);
+    }
+
+    /**
+     * Frees the page, which is the furthest from the page to be loaded, whichever side it lies on.
+     */
+    public void testFurthestFreesPageFurthestFromPageToLoad()
+    {
+        BufferReplacementPolicy policy = BufferReplacementPolicyType.FURTHEST.createPolicy();
+        this.loadPages(policy, 1, 5, 10);
+
+        assertEquals(10, policy.choosePageToFree(2));
+        assertEquals(1, policy.choosePageToFree(11));
+        policy.pageFreed(10);
+        assertEquals(1, policy.choosePageToFree(6));
+    }
+
+    public void testLRUFreesLeastRecentlyUsedPage()
+    {
+        BufferReplacementPolicy policy = BufferReplacementPolicyType.LRU.createPolicy();
+        this.loadPages(policy, 1, 2, 3);
+
+        assertEquals(1, policy.choosePageToFree(4));
+        policy.pageAccessed(1);
+        assertEquals(2, policy.choosePageToFree(4));
+        policy.pageFreed(2);
+        assertEquals(3, policy.choosePageToFree(4));
+    }
+
+    /**
+     * The first round clears reference bits of all pages, so the hand stops at the first loaded page. Then the hand
+     * goes on from the next slot and passes over the page referenced in the meantime.
+     */
+    public void testClockGivesReferencedPagesSecondChance()
+    {
+        BufferReplacementPolicy policy = BufferReplacementPolicyType.CLOCK.createPolicy();
+        this.loadPages(policy, 1, 2, 3);
+
+        assertEquals(1, policy.choosePageToFree(4));
+        policy.pageFreed(1);
+        policy.pageLoaded(4);
+        policy.pageAccessed(2);
+        assertEquals(3, policy.choosePageToFree(5));
+    }
+
+    /**
+     * A page freed from A1in and loaded again goes to Am, so pages seen once are freed before it.
+     */
+    public void testTwoQueueKeepsPagesSeenMoreThanOnce()
+    {
+        BufferReplacementPolicy policy = BufferReplacementPolicyType.TWO_QUEUE.createPolicy();
+        policy.setCapacity(4);
+        this.loadPages(policy, 1, 2);
+
+        assertEquals(1, policy.choosePageToFree(3));
+        policy.pageFreed(1);
+        this.loadPages(policy, 1, 3);
+        assertEquals(2, policy.choosePageToFree(4));
+        policy.pageFreed(2);
+        policy.pageFreed(3);
+        assertEquals(1, policy.choosePageToFree(4));
+    }
+
+    /**
+     * A page accessed twice moves to T2, so T1 is freed first. A page loaded again from the B1 history grows the T1
+     * target size, so then the T2 page is freed instead.
+     */
+    public void testARCAdaptsToRecentlyFreedPages()
+    {
+        BufferReplacementPolicy policy = BufferReplacementPolicyType.ARC.createPolicy();
+        policy.setCapacity(4);
+        this.loadPages(policy, 1, 2, 3);
+        policy.pageAccessed(1);
+
+        assertEquals(2, policy.choosePageToFree(4));
+        policy.pageFreed(2);
+        policy.pageLoaded(2);
+        assertEquals(1, policy.choosePageToFree(4));
+    }
+
+    /**
+     * Pages not accepted by the filter are passed over by every policy, and if no page is accepted, none is chosen.
+     */
+    public void testAllPoliciesPassOverPagesNotAccepted()
+    {
+        for(BufferReplacementPolicyType type : BufferReplacementPolicyType.values())
+        {
+            BufferReplacementPolicy policy = type.createPolicy();
+            policy.setCapacity(4);
+            this.loadPages(policy, 1, 2, 3);
+
+            int firstChoice = policy.choosePageToFree(4);
+            int secondChoice = policy.choosePageToFree(4, page -> page != firstChoice);
+            assertTrue(type.getLabel(), secondChoice != firstChoice && secondChoice >= 1 && secondChoice <= 3);
+            assertEquals(type.getLabel(), -1, policy.choosePageToFree(4, page -> false));
+        }
+    }
+
+    public void testAllPoliciesFailWithoutBufferedPages()
+    {
+        for(BufferReplacementPolicyType type : BufferReplacementPolicyType.values())
+        {
+            BufferReplacementPolicy policy = type.createPolicy();
+            policy.pageLoaded(1);
+            policy.pageFreed(1);
+            try {
+                policy.choosePageToFree(2);
+                fail(type.getLabel() + " chose a page, although none was buffered.");
+            } catch(IllegalStateException e) {
+                // Expected
+            }
+        }
+    }
+
+    private void loadPages(BufferReplacementPolicy policy, int... pages)
+    {
+        for(int page : pages)
+            policy.pageLoaded(page);
+    }
+}
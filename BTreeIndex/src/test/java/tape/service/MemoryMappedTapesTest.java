@@ -0,0 +1,123 @@
+package tape.service;
+
+import btree.service.IndexService;
+import btree.service.IndexType;
+import database.service.DatabaseService;
+import database.service.TestDatabase;
+import entry.service.EntryService;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import record.entity.Record;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.UUID;
+
+/**
+ * Database, which tapes are read and written through memory-mapped regions of their files instead of the buffers.
+ */
+public class MemoryMappedTapesTest extends TestCase
+{
+    private Path path;
+
+    private TestDatabase database;
+
+    public MemoryMappedTapesTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(MemoryMappedTapesTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        this.path = TestDatabase.createDirectory();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        if(this.database != null)
+            this.database.close();
+        TestDatabase.deleteDirectory(this.path);
+    }
+
+    /**
+     * Changes written through the mapped regions, which are grown many times, are in the files after the database is
+     * closed, and the files are shrunk back from the mapped chunks to the real pages count.
+     */
+    public void testChangesSavedThroughMappedRegions() throws Exception
+    {
+        this.database = TestDatabase.createMemoryMapped(this.path, IndexType.B_TREE, BufferReplacementPolicyType.LRU);
+        DatabaseService databaseService = this.database.getDatabaseService();
+        for(long key = 1; key <= 200; key++)
+            databaseService.create("C " + key + " " + key + " " + key);
+        for(long key = 3; key <= 200; key += 3)
+            databaseService.delete("D " + key);
+        for(long key = 1; key <= 200; key++)
+            assertEquals(key % 3 == 0 ? null : this.record(key), databaseService.find("R " + key));
+
+        IndexService indexService = this.database.getIndexService();
+        UUID indexTapeID = this.database.getIndexTapeID();
+        int indexPages = indexService.getTapePages(indexTapeID);
+        int pageSize = this.database.getEntryService().getPageSize();
+        assertTrue(indexPages > TestDatabase.MAPPED_CHUNK_PAGES);
+        databaseService.flush();
+        this.database.close();
+        File indexFile = this.path.resolve("tape_" + indexTapeID + ".dat").toFile();
+        assertEquals((long) indexPages * pageSize, indexFile.length());
+
+        // Files written through the mapped regions are read with the file channels
+        this.database = TestDatabase.open(this.path, IndexType.B_TREE, BufferReplacementPolicyType.LRU, null);
+        databaseService = this.database.getDatabaseService();
+        assertEquals(indexPages, this.database.getIndexService().getTapePages(indexTapeID));
+        for(long key = 1; key <= 200; key++)
+            assertEquals(key % 3 == 0 ? null : this.record(key), databaseService.find("R " + key));
+    }
+
+    /**
+     * Mapped page is counted as read only the first time it is touched - later it is served from the mapping, even
+     * when no page is buffered.
+     */
+    public void testMappedPagesReadOnce() throws Exception
+    {
+        this.database = TestDatabase.createMemoryMapped(this.path, IndexType.B_PLUS_TREE, BufferReplacementPolicyType.LRU);
+        DatabaseService databaseService = this.database.getDatabaseService();
+        for(long key = 1; key <= 100; key++)
+            databaseService.create("C " + key + " " + key + " " + key);
+        databaseService.flush();
+
+        EntryService entryService = this.database.getEntryService();
+        UUID indexTapeID = this.database.getIndexTapeID();
+        this.freeBuffers(entryService, indexTapeID);
+        int reads = entryService.getReads(indexTapeID);
+        assertEquals(this.record(50), databaseService.find("R 50"));
+        assertTrue(entryService.getReads(indexTapeID) - reads > 0);
+
+        this.freeBuffers(entryService, indexTapeID);
+        reads = entryService.getReads(indexTapeID);
+        assertEquals(this.record(50), databaseService.find("R 50"));
+        assertEquals(0, entryService.getReads(indexTapeID) - reads);
+    }
+
+    private void freeBuffers(EntryService entryService, UUID tapeID)
+    {
+        for(int page : new ArrayList<>(entryService.getBufferedPages(tapeID)))
+            entryService.freeBufferedBlock(tapeID, page);
+    }
+
+    private Record record(long key)
+    {
+        return Record.builder()
+                .key(key)
+                .mass((int) key)
+                .speed((int) key)
+                .build();
+    }
+}
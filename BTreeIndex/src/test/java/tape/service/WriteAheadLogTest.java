@@ -0,0 +1,148 @@
+package tape.service;
+
+import database.service.TestDatabase;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import tape.entity.LogRecord;
+import tape.entity.LogRecordType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reading the write-ahead log after a crash - records, which were written only partly or damaged, are cut off.
+ */
+public class WriteAheadLogTest extends TestCase
+{
+    private Path path;
+
+    private Path logPath;
+
+    public WriteAheadLogTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(WriteAheadLogTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        this.path = TestDatabase.createDirectory();
+        this.logPath = this.path.resolve("wal.log");
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        TestDatabase.deleteDirectory(this.path);
+    }
+
+    public void testReadsAllCommittedRecords()
+    {
+        this.appendOperations("first", "second", "third");
+
+        WriteAheadLog log = this.openLog();
+        assertEquals(List.of("first", "second", "third"), this.readOperations(log));
+        log.close();
+    }
+
+    /**
+     * The last record is cut in the middle of its payload, as if the app crashed while it was being written. The torn
+     * record is dropped and overwritten by the next append.
+     */
+    public void testDropsRecordTornInPayload() throws IOException
+    {
+        this.appendOperations("first", "second", "third");
+        long size = Files.size(this.logPath);
+        this.truncateLog(size - 3);
+
+        WriteAheadLog log = this.openLog();
+        assertEquals(List.of("first", "second"), this.readOperations(log));
+        assertEquals(log.size(), Files.size(this.logPath));
+        log.appendOperation("fourth".getBytes(StandardCharsets.UTF_8));
+        log.commit();
+        log.close();
+
+        log = this.openLog();
+        assertEquals(List.of("first", "second", "fourth"), this.readOperations(log));
+        log.close();
+    }
+
+    /**
+     * Only a few bytes of the last record length were written.
+     */
+    public void testDropsRecordTornInHeader() throws IOException
+    {
+        this.appendOperations("first");
+        long size = Files.size(this.logPath);
+        this.appendOperations("second");
+        this.truncateLog(size + 2);
+
+        WriteAheadLog log = this.openLog();
+        assertEquals(List.of("first"), this.readOperations(log));
+        assertEquals(size, Files.size(this.logPath));
+        log.close();
+    }
+
+    /**
+     * The last record has its full length, but a part of its payload wasn't written (its checksum doesn't match).
+     */
+    public void testDropsRecordWithWrongChecksum() throws IOException
+    {
+        this.appendOperations("first", "second");
+        long size = Files.size(this.logPath);
+        try(FileChannel channel = FileChannel.open(this.logPath, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{'X'}), size - 4 - 1);
+        }
+
+        WriteAheadLog log = this.openLog();
+        assertEquals(List.of("first"), this.readOperations(log));
+        log.close();
+    }
+
+    private WriteAheadLog openLog()
+    {
+        return new WriteAheadLog(this.logPath, LogSyncPolicy.OPERATION, 10, 1 << 20);
+    }
+
+    private void appendOperations(String... payloads)
+    {
+        WriteAheadLog log = this.openLog();
+        for(String payload : payloads)
+        {
+            log.appendOperation(payload.getBytes(StandardCharsets.UTF_8));
+            log.commit();
+        }
+        log.close();
+    }
+
+    private List<String> readOperations(WriteAheadLog log)
+    {
+        List<String> payloads = new ArrayList<>();
+        for(LogRecord record : log.readRecords())
+        {
+            assertEquals(LogRecordType.OPERATION, record.getType());
+            payloads.add(new String(record.getPayload(), StandardCharsets.UTF_8));
+        }
+        return payloads;
+    }
+
+    private void truncateLog(long size) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(this.logPath, StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+        }
+    }
+}